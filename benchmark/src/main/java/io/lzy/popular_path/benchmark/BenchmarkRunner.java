@@ -0,0 +1,36 @@
+package io.lzy.popular_path.benchmark;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author zhiyan
+ *
+ * Entry point of the benchmark jar. It accepts the same arguments as JMH main,
+ *  the allocation profiler (gc) is always enabled for the benchmark runs.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        if (commandLineOptions.shouldHelp() || commandLineOptions.shouldList() ||
+                commandLineOptions.shouldListWithParams() || commandLineOptions.shouldListProfilers() ||
+                commandLineOptions.shouldListResultFormats()) {
+            Main.main(args);    // nothing to run
+            return;
+        }
+
+        final Options options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,73 @@
+package io.lzy.popular_path.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import io.lzy.popular_path.model.Graph;
+import io.lzy.popular_path.model.GraphRandom;
+import io.lzy.popular_path.model.QueryExecutor;
+
+/**
+ * @author zhiyan
+ *
+ * Benchmark of the ad-hoc popular path queries of {@link GraphRandom}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GraphRandomQueryBenchmark {
+
+    @Param({"10"})
+    public int topN;
+
+    @Param({"ITERATIVE", "RECURSIVE"})
+    public Graph.PathEngine engine;
+
+    @Param({"0", "4096"})
+    public int queryCacheSize;
+
+    /**
+     * Query threads, value 0 uses the default executor.
+     */
+    @Param({"0", "1"})
+    public int parallelism;
+
+    private GraphRandom graph;
+
+    private int user;
+
+    @Setup(Level.Trial)
+    public void setup(final Workload workload) {
+        workload.generate();
+        this.graph = workload.touch(new GraphRandom(this.queryCacheSize));
+        this.graph.setPathEngine(this.engine);
+        if (this.parallelism > 0) {
+            this.graph.setQueryExecutor(
+                    new QueryExecutor(this.parallelism, QueryExecutor.DEFAULT_SEQUENTIAL_THRESHOLD));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (this.graph.getQueryExecutor() != QueryExecutor.getDefault()) {
+            this.graph.getQueryExecutor().shutdown();
+        }
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, Integer>> getPopularPath(final Workload workload) {
+        this.user = (this.user + 1) % workload.users;     // a different user each invocation
+        return this.graph.getPopularPath(workload.depth, this.topN, String.format("U%d", this.user));
+    }
+
+    @Benchmark
+    public Map<String, List<Map.Entry<String, Integer>>> getAllPopularPath(final Workload workload) {
+        return this.graph.getAllPopularPath(workload.depth, this.topN);
+    }
+}
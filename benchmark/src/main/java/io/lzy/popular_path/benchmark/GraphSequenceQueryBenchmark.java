@@ -0,0 +1,47 @@
+package io.lzy.popular_path.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import io.lzy.popular_path.model.GraphSequence;
+
+/**
+ * @author zhiyan
+ *
+ * Benchmark of the booked popular path queries of {@link GraphSequence}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GraphSequenceQueryBenchmark {
+
+    @Param({"10"})
+    public int topN;
+
+    private GraphSequence graph;
+
+    private int user;
+
+    @Setup(Level.Trial)
+    public void setup(final Workload workload) {
+        workload.generate();
+        this.graph = workload.touch(new GraphSequence(workload.depth));
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, Integer>> getPopularPathOfUser() {
+        this.user = (this.user + 1) % this.graph.getOwnerSymbols().size();     // a different user each invocation
+        return this.graph.getPopularPath(this.topN, this.graph.getOwnerSymbols().name(this.user));
+    }
+
+    @Benchmark
+    public Map<String, List<Map.Entry<String, Integer>>> getPopularPath() {
+        return this.graph.getPopularPath(this.topN);
+    }
+}
@@ -0,0 +1,70 @@
+package io.lzy.popular_path.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import io.lzy.popular_path.LogParser;
+import io.lzy.popular_path.model.GraphRandom;
+import io.lzy.popular_path.model.GraphSequence;
+
+/**
+ * @author zhiyan
+ *
+ * Benchmark of {@link LogParser#parseLog} on the access log file, a new graph is generated by each invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup(final Workload workload) throws IOException {
+        workload.generate();
+        this.file = workload.writeLog();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    @Benchmark
+    public GraphRandom parseStreamIntoGraphRandom() throws IOException {
+        final GraphRandom graph = new GraphRandom();
+        try (InputStream stream = new FileInputStream(this.file)) {
+            LogParser.parseLog(stream, graph);
+        }
+        return graph;
+    }
+
+    @Benchmark
+    public GraphRandom parseMappedFileIntoGraphRandom() throws IOException {
+        final GraphRandom graph = new GraphRandom();
+        LogParser.parseLog(this.file, graph);
+        return graph;
+    }
+
+    @Benchmark
+    public GraphRandom parseMappedFileInParallelIntoGraphRandom() throws IOException {
+        final GraphRandom graph = new GraphRandom();
+        LogParser.parseLog(this.file, graph, Runtime.getRuntime().availableProcessors());
+        return graph;
+    }
+
+    @Benchmark
+    public GraphSequence parseMappedFileIntoGraphSequence(final Workload workload) throws IOException {
+        final GraphSequence graph = new GraphSequence(workload.depth);
+        LogParser.parseLog(this.file, graph);
+        return graph;
+    }
+}
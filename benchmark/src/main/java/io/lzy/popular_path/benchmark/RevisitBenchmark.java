@@ -0,0 +1,69 @@
+package io.lzy.popular_path.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import io.lzy.popular_path.model.Edge;
+import io.lzy.popular_path.model.GraphRandom;
+
+/**
+ * @author zhiyan
+ *
+ * Benchmark of the high-revisit access logs, a few users access a few pages many times, so an edge is driven by
+ *  many pre-order edges and the pre-order edge lookup of {@link Edge#getPreEdges()} dominates both
+ *  the mutation and the query of {@link GraphRandom}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RevisitBenchmark {
+
+    @Param({"10"})
+    public int users;
+
+    @Param({"10", "30"})
+    public int pages;
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"1000", "5000"})
+    public int recordsPerUser;
+
+    @Param({"10"})
+    public int topN;
+
+    private Workload workload;
+
+    private GraphRandom graph;
+
+    private int user;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.workload = new Workload();
+        this.workload.users = this.users;
+        this.workload.pages = this.pages;
+        this.workload.depth = this.depth;
+        this.workload.recordsPerUser = this.recordsPerUser;
+        this.workload.generate();
+        this.graph = this.workload.touch(new GraphRandom(0));
+    }
+
+    @Benchmark
+    public GraphRandom touchGraphRandom() {
+        return this.workload.touch(new GraphRandom(0));
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, Integer>> getPopularPath() {
+        this.user = (this.user + 1) % this.users;     // a different user each invocation
+        return this.graph.getPopularPath(this.depth, this.topN, String.format("U%d", this.user));
+    }
+}
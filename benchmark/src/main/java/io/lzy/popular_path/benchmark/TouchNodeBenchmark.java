@@ -0,0 +1,75 @@
+package io.lzy.popular_path.benchmark;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import io.lzy.popular_path.model.Graph;
+import io.lzy.popular_path.model.GraphRandom;
+import io.lzy.popular_path.model.GraphSequence;
+import io.lzy.popular_path.model.GraphSketch;
+
+/**
+ * @author zhiyan
+ *
+ * Benchmark of {@link Graph#touchNode} without log parsing, all records are touched into a new graph
+ *  by each invocation. The in-time booking cost is included for {@link GraphSequence}, the approximate
+ *  {@link GraphSketch} counts the paths of the workload depth.
+ *
+ * The concurrent cases touch the records in batch by a thread per processor, the users are spread over
+ *  the threads, like the workers of the parallel log parsing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TouchNodeBenchmark {
+
+    private final int threads = Runtime.getRuntime().availableProcessors();
+
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setup(final Workload workload) {
+        workload.generate();
+        this.executor = Executors.newFixedThreadPool(this.threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Benchmark
+    public GraphRandom touchGraphRandom(final Workload workload) {
+        return workload.touch(new GraphRandom());
+    }
+
+    @Benchmark
+    public GraphSequence touchGraphSequence(final Workload workload) {
+        return workload.touch(new GraphSequence(workload.depth));
+    }
+
+    @Benchmark
+    public GraphSketch touchGraphSketch(final Workload workload) {
+        return workload.touch(new GraphSketch(workload.depth, GraphSketch.DEFAULT_EPSILON));
+    }
+
+    @Benchmark
+    public GraphRandom touchGraphRandomConcurrently(final Workload workload)
+            throws InterruptedException, ExecutionException {
+        return workload.touchConcurrently(new GraphRandom(), this.executor, this.threads);
+    }
+
+    @Benchmark
+    public GraphSketch touchGraphSketchConcurrently(final Workload workload)
+            throws InterruptedException, ExecutionException {
+        return workload.touchConcurrently(new GraphSketch(workload.depth, GraphSketch.DEFAULT_EPSILON),
+                this.executor, this.threads);
+    }
+}
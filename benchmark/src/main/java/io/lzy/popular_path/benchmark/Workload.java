@@ -0,0 +1,175 @@
+package io.lzy.popular_path.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import io.lzy.popular_path.model.AccessSink;
+import io.lzy.popular_path.model.Edge;
+import io.lzy.popular_path.model.Graph;
+import io.lzy.popular_path.model.GraphSketch;
+import io.lzy.popular_path.model.Node;
+import io.lzy.popular_path.model.SymbolTable;
+
+/**
+ * @author zhiyan
+ *
+ * Generated access records shared by the benchmarks.
+ *
+ * Every user starts from root node, then the records of the users are interleaved randomly.
+ *  The page of a record follows a Zipf distribution, the skew is the exponent of the distribution,
+ *  value 0 means all pages are accessed evenly.
+ */
+@State(Scope.Benchmark)
+public class Workload {
+
+    @Param({"100", "1000"})
+    public int users;
+
+    @Param({"20", "200"})
+    public int pages;
+
+    @Param({"3", "4"})
+    public int depth;
+
+    @Param({"0", "1.1"})
+    public double skew;
+
+    @Param({"20"})
+    public int recordsPerUser;
+
+    String[] owners;
+
+    String[] names;
+
+    /**
+     * Generate the records, the same parameters always generate the same records.
+     */
+    void generate() {
+        final Random random = new Random(20161016L);
+        final double[] cumulative = new double[this.pages];
+        double sum = 0;
+        for (int page = 0; page < this.pages; page++) {
+            sum += 1 / Math.pow(page + 1, this.skew);
+            cumulative[page] = sum;
+        }
+
+        final int size = this.users * (this.recordsPerUser + 1);
+        this.owners = new String[size];
+        this.names = new String[size];
+        for (int i = 0; i < size; i++) {
+            if (i < this.users) {
+                this.owners[i] = String.format("U%d", i);
+                this.names[i] = Graph.ROOT_NODE_NAME;
+            } else {
+                int page = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                page = page < 0 ? -page - 1 : page;
+                this.owners[i] = String.format("U%d", random.nextInt(this.users));
+                this.names[i] = String.format("P%d", Math.min(page, this.pages - 1));
+            }
+        }
+    }
+
+    /**
+     * Write the records to a temporary access log file.
+     * @return The access log file, it will be deleted on exit.
+     * @throws IOException The exception about writing file failed.
+     */
+    File writeLog() throws IOException {
+        final StringBuilder log = new StringBuilder();
+        for (int i = 0; i < this.owners.length; i++) {
+            log.append(this.owners[i]).append('\t').append(this.names[i]).append('\n');
+        }
+
+        final File file = File.createTempFile("access_log", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), log.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Touch all records into the graph in order.
+     * @param graph The graph.
+     * @param <G> Real graph type.
+     * @return The graph.
+     */
+    <G extends Graph> G touch(final G graph) {
+        final Map<String, Map.Entry<Node, Edge>> nodeParents = new HashMap<>();
+        for (int i = 0; i < this.owners.length; i++) {
+            final Map.Entry<Node, Edge> parent = nodeParents.get(this.owners[i]);
+            final Map.Entry<Node, Edge> item = graph.touchNode(this.names[i],
+                    parent == null ? null : parent.getKey(), parent == null ? null : parent.getValue(), this.owners[i]);
+            if (item.getKey() != null) {
+                nodeParents.put(this.owners[i], item);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Touch all records into the sketch in order.
+     * @param sketch The sketch.
+     * @return The sketch.
+     */
+    GraphSketch touch(final GraphSketch sketch) {
+        for (int i = 0; i < this.owners.length; i++) {
+            sketch.touchNode(this.names[i], this.owners[i]);
+        }
+        return sketch;
+    }
+
+    /**
+     * Touch all records into the sink by multiple threads in batch of 1024 records, the records of a user are
+     *  touched by the same thread in order.
+     * @param sink The sink.
+     * @param executor The executor runs the threads.
+     * @param threads The number of the threads.
+     * @param <S> Real sink type.
+     * @return The sink.
+     * @throws InterruptedException The exception about the threads interrupted.
+     * @throws ExecutionException The exception about touching records failed.
+     */
+    <S extends AccessSink> S touchConcurrently(final S sink, final ExecutorService executor, final int threads)
+            throws InterruptedException, ExecutionException {
+        final Future<?>[] futures = new Future<?>[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures[t] = executor.submit(() -> {
+                final SymbolTable ownerSymbols = sink.getOwnerSymbols();
+                final Map<Integer, Map.Entry<Node, Edge>> nodeParents = new HashMap<>();
+                final int[] owners = new int[1024];
+                final int[] names = new int[1024];
+                int size = 0;
+                for (int i = 0; i < this.owners.length; i++) {
+                    if ((this.owners[i].hashCode() & Integer.MAX_VALUE) % threads != thread) {
+                        continue;
+                    }
+                    owners[size] = ownerSymbols == null ? AccessSink.hashOwner(this.owners[i],
+                            StandardCharsets.UTF_8) : ownerSymbols.intern(this.owners[i]);
+                    names[size] = sink.getNodeSymbols().intern(this.names[i]);
+                    if (++size == owners.length) {
+                        sink.touchNodes(owners, names, null, 0, size, nodeParents);
+                        size = 0;
+                    }
+                }
+                sink.touchNodes(owners, names, null, 0, size, nodeParents);
+            });
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        return sink;
+    }
+}
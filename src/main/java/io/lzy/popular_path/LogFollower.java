@@ -0,0 +1,417 @@
+package io.lzy.popular_path;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import io.lzy.popular_path.model.*;
+
+/**
+ * @author zhiyan
+ *
+ * Follow a continuously growing access log file, like "tail -F" does, and feed new records into a long-lived graph.
+ *  It is good to use with {@link GraphSequence}, popular paths are booked in time when records come.
+ *
+ * Log rotation is handled in both ways:
+ *  1. Rename: the rest records of the old file are handled, then the follower switches to the new file.
+ *  2. Truncate (copy-truncate): the follower restarts from the beginning of the file.
+ *
+ * The byte offset and the node parent cache of the parser are saved to the checkpoint file after new records
+ *  handled, a follower created later with the same checkpoint file picks up where it stopped.
+ *  The graph should keep the status at the checkpoint, e.g. the follower in the same process is restarted.
+ *  If an empty graph is given and the log file is not rotated, the handled records will be replayed to rebuild it.
+ */
+@Slf4j
+public class LogFollower<G extends Graph> implements Runnable, Closeable {
+
+    public final static long DEFAULT_POLL_INTERVAL = 1000;     // in millisecond
+
+    private final static int CHECKPOINT_MAGIC = 0x504C4643;     // "PLFC"
+
+    private final static int CHECKPOINT_VERSION = 1;
+
+    private final static int READ_BUFFER_SIZE = 1 << 20;
+
+    private final static int HEAD_SIZE = 256;
+
+    @Getter
+    private final G graph;
+
+    private final File file;
+
+    private final File checkpoint;
+
+    private final long pollInterval;
+
+    private final LogParser<G> parser;
+
+    private final Charset charset;
+
+    private final NamePool owners;
+
+    private final NamePool names;
+
+    private ByteBuffer buffer;
+
+    private FileChannel channel;
+
+    /**
+     * The key to identify the file in following, use to detect log rotation.
+     */
+    private Object fileKey;
+
+    /**
+     * The length and checksum of the head bytes of the file in following, use to detect the file truncated and
+     *  rewritten (copy-truncate rotation) even if the file grows larger than current offset again.
+     */
+    private int headLength;
+
+    private long headChecksum;
+
+    /**
+     * The byte offset of next record to handle in the file in following.
+     */
+    @Getter
+    private long offset;
+
+    private volatile boolean stopped;
+
+    /**
+     * Create new access log follower.
+     * @param file The access log file to follow.
+     * @param graph The graph as output of parser.
+     * @param checkpoint The file to save and restore following status. Value null means no checkpoint.
+     * @throws IOException The exception about reading checkpoint or access log failed.
+     */
+    public LogFollower(final File file, final G graph, final File checkpoint) throws IOException {
+        this(file, graph, checkpoint, DEFAULT_POLL_INTERVAL);
+    }
+
+    /**
+     * Create new access log follower.
+     * @param file The access log file to follow.
+     * @param graph The graph as output of parser.
+     * @param checkpoint The file to save and restore following status. Value null means no checkpoint.
+     * @param pollInterval The interval to check new records in the file, in millisecond.
+     * @throws IOException The exception about reading checkpoint or access log failed.
+     */
+    public LogFollower(final File file, final G graph, final File checkpoint, final long pollInterval)
+            throws IOException {
+        this(file, graph, checkpoint, pollInterval, LogParser.DEFAULT_SESSION_MEMORY);
+    }
+
+    /**
+     * Create new access log follower.
+     * @param file The access log file to follow.
+     * @param graph The graph as output of parser.
+     * @param checkpoint The file to save and restore following status. Value null means no checkpoint.
+     * @param pollInterval The interval to check new records in the file, in millisecond.
+     * @param sessionMemory The heap size allowed for the user sessions in byte, the least recently active user is
+     *                      evicted when it is exceeded and starts a new path from its next record.
+     * @throws IOException The exception about reading checkpoint or access log failed.
+     */
+    public LogFollower(final File file, final G graph, final File checkpoint, final long pollInterval,
+                       final long sessionMemory) throws IOException {
+        Preconditions.checkNotNull(file, "Access log file should not be null");
+        Preconditions.checkArgument(pollInterval > 0, "Poll interval parameter should greater than 0");
+
+        this.file = file;
+        this.graph = graph;
+        this.checkpoint = checkpoint;
+        this.pollInterval = pollInterval;
+        this.parser = new LogParser<>(graph, SessionCache.maxSessionsOf(sessionMemory));
+        this.charset = Charset.defaultCharset();   // align to InputStreamReader
+        this.owners = new NamePool(this.charset, graph.getOwnerSymbols());
+        this.names = new NamePool(this.charset, graph.getNodeSymbols());
+        this.buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        if (checkpoint != null && checkpoint.exists()) {
+            restore();
+        }
+    }
+
+    /**
+     * Handle new records in the access log file once.
+     * @return The amount of handled access record.
+     * @throws IOException The exception about reading access log or writing checkpoint failed.
+     */
+    public synchronized int poll() throws IOException {
+        int parsedLines = 0;
+
+        if (this.channel == null && !open()) {
+            return 0;   // file not created yet
+        }
+
+        if (this.channel.size() < this.offset || !checkHead()) {
+            log.info(String.format("Access log file %s truncated, restart from beginning", this.file));
+            this.offset = 0;
+            this.headLength = 0;
+        }
+
+        parsedLines += parseAvailable(false);
+
+        final Object currentKey = fileKey(this.file);
+        if (currentKey == null) {
+            // file is moved away and new one is not created yet, keep following old one.
+            log.debug(String.format("Access log file %s is not found, wait for it", this.file));
+        } else if (!Objects.equals(currentKey, this.fileKey)) {
+            log.info(String.format("Access log file %s rotated, switch to new file", this.file));
+            parsedLines += parseAvailable(true);    // the last line of old file might has no terminator
+            this.channel.close();
+            this.channel = null;
+            this.offset = 0;
+            this.headLength = 0;
+            if (open()) {
+                parsedLines += parseAvailable(false);
+            }
+        }
+
+        if (this.channel != null) {     // the new file might be removed again before it is opened
+            checkHead();    // refresh head checksum when file grows
+        }
+
+        if (parsedLines > 0) {
+            saveCheckpoint();
+        }
+
+        return parsedLines;
+    }
+
+    /**
+     * Follow the access log file until {@link #stop()} is called or the thread is interrupted.
+     */
+    @Override
+    public void run() {
+        this.stopped = false;
+
+        while (!this.stopped && !Thread.currentThread().isInterrupted()) {
+            try {
+                poll();
+            } catch (IOException e) {
+                log.error(String.format("Follow access log file %s failed: %s", this.file, e.getMessage()));
+            }
+
+            try {
+                Thread.sleep(this.pollInterval);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stop following the access log file.
+     */
+    public void stop() {
+        this.stopped = true;
+    }
+
+    /**
+     * Get the number of the records whose user session is kept by the parser.
+     * @return Session hit count.
+     */
+    public long getSessionHits() {
+        return this.parser.getSessions().getHits();
+    }
+
+    /**
+     * Get the number of the records whose user has no session, as a new or evicted user.
+     * @return Session miss count.
+     */
+    public long getSessionMisses() {
+        return this.parser.getSessions().getMisses();
+    }
+
+    /**
+     * Get the number of the idle user sessions evicted, the users start new paths from their next records.
+     * @return Session eviction count.
+     */
+    public long getSessionEvictions() {
+        return this.parser.getSessions().getEvictions();
+    }
+
+    /**
+     * Stop following and release the access log file.
+     * @throws IOException The exception about closing access log failed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        stop();
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Open the access log file to follow.
+     * @return Boolean value indicates if the file opened.
+     * @throws IOException The exception about opening access log failed.
+     */
+    private boolean open() throws IOException {
+        try {
+            this.channel = FileChannel.open(this.file.toPath());
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        this.fileKey = fileKey(this.file);
+        return true;
+    }
+
+    /**
+     * Check if the head bytes of the file are not changed, the head checksum will be updated when file grows.
+     * @return Boolean value indicates if the head bytes are the same as before.
+     * @throws IOException The exception about reading access log failed.
+     */
+    private boolean checkHead() throws IOException {
+        final int length = (int) Math.min(HEAD_SIZE, Math.min(this.channel.size(), this.offset));
+        if (length < this.headLength) {
+            return false;
+        } else if (length == 0) {
+            return true;
+        }
+
+        final ByteBuffer head = ByteBuffer.allocate(length);
+        while (head.hasRemaining() && this.channel.read(head, head.position()) > 0) {
+            // read all head bytes
+        }
+        head.flip();
+
+        final CRC32 crc = new CRC32();
+        crc.update(head.array(), 0, Math.min(this.headLength, head.limit()));
+        if (this.headLength > 0 && crc.getValue() != this.headChecksum) {
+            return false;
+        }
+
+        if (head.limit() > this.headLength) {
+            crc.reset();
+            crc.update(head.array(), 0, head.limit());
+            this.headLength = head.limit();
+            this.headChecksum = crc.getValue();
+        }
+
+        return true;
+    }
+
+    /**
+     * Parse complete lines appended after current offset.
+     * @param eof Indicates no more data will be appended, the last line will be handled without terminator.
+     * @return The amount of handled access record.
+     * @throws IOException The exception about reading access log failed.
+     */
+    private int parseAvailable(final boolean eof) throws IOException {
+        int parsedLines = 0;
+
+        while (true) {
+            this.buffer.clear();
+            if (this.channel.read(this.buffer, this.offset) <= 0) {
+                break;
+            }
+            this.buffer.flip();
+
+            int end = LogParser.lastLineEnd(this.buffer, this.buffer.limit());
+            if (end == 0) {
+                if (this.buffer.limit() == this.buffer.capacity()) {    // line is longer than buffer
+                    this.buffer = ByteBuffer.allocate(this.buffer.capacity() * 2);
+                    continue;
+                } else if (eof) {
+                    end = this.buffer.limit();
+                } else {
+                    break;  // wait for the rest of the line
+                }
+            }
+
+            parsedLines += LogParser.parseRegion(this.buffer, 0, end, this.owners, this.names, this.charset,
+                    this.parser::touchNode);
+            this.offset += end;
+        }
+        this.parser.flush();
+
+        return parsedLines;
+    }
+
+    /**
+     * Save following status to checkpoint file atomically.
+     * @throws IOException The exception about writing checkpoint failed.
+     */
+    private void saveCheckpoint() throws IOException {
+        if (this.checkpoint == null) {
+            return;
+        }
+
+        final File tmp = new File(this.checkpoint.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeUTF(String.valueOf(this.fileKey));
+            out.writeLong(this.offset);
+            out.writeInt(this.headLength);
+            out.writeLong(this.headChecksum);
+            this.parser.saveState(out);
+        }
+        Files.move(tmp.toPath(), this.checkpoint.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restore following status from checkpoint file.
+     * @throws IOException The exception about reading checkpoint or access log failed.
+     */
+    private void restore() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.checkpoint)))) {
+            if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+                throw new IOException(String.format("Invalid checkpoint file %s", this.checkpoint));
+            }
+
+            final String savedKey = in.readUTF();
+            this.offset = in.readLong();
+            this.headLength = in.readInt();
+            this.headChecksum = in.readLong();
+
+            if (!open()) {
+                log.warn(String.format("Access log file %s is not found, checkpoint offset is ignored", this.file));
+                this.offset = 0;
+            } else if (!savedKey.equals(String.valueOf(this.fileKey)) || this.channel.size() < this.offset ||
+                    !checkHead()) {
+                log.warn(String.format("Access log file %s rotated after checkpoint, follow from beginning",
+                        this.file));
+                this.offset = 0;
+                this.headLength = 0;
+            } else if (this.graph.isEmpty() && this.offset > 0) {
+                log.info(String.format("Graph is empty, replay %d bytes of access log file %s to rebuild it",
+                        this.offset, this.file));
+                this.parser.parseLog(this.channel, 0, this.offset, this.owners, this.names, this.charset);
+                return;     // node parent cache is rebuilt by replay
+            }
+
+            if (!this.graph.isEmpty()) {
+                this.parser.loadState(in);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the key to identify the file, e.g. inode on unix like system.
+     * @param file The file.
+     * @return The key, or null if the file is not found.
+     */
+    private static Object fileKey(final File file) throws IOException {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return attributes.fileKey() == null ? attributes.creationTime() : attributes.fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
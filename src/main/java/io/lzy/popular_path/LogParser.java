@@ -1,7 +1,12 @@
 package io.lzy.popular_path;
 
 import java.io.*;
-import java.util.LinkedHashMap;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.Collections;
 import java.util.Map;
 
 import com.google.common.base.Preconditions;
@@ -14,39 +19,187 @@ import io.lzy.popular_path.model.*;
  * @author zhiyan
  */
 @Slf4j
-public class LogParser<G extends Graph> {
+public class LogParser<G extends AccessSink> {
+
+    /**
+     * The consumer of valid access record.
+     */
+    @FunctionalInterface
+    interface RecordConsumer {
+        /**
+         * Accept a valid access record.
+         * @param owner The owner id of the record, see {@link AccessSink#getOwnerSymbols()}.
+         * @param name The node name id of the record, interned by {@link AccessSink#getNodeSymbols()}.
+         * @param timestamp The access time of the record in millisecond, or {@link Graph#NO_TIMESTAMP}.
+         */
+        void accept(int owner, int name, long timestamp);
+    }
+
+    /**
+     * Max size of a single memory-mapped region of the access log file.
+     * MappedByteBuffer can address 2GB at most, the file will be mapped region by region at line boundary.
+     */
+    final static int MAX_MAPPED_REGION_SIZE = 1 << 30;
+
+    /**
+     * Max amount of access records applied to the graph in a batch.
+     */
+    final static int BATCH_SIZE = 1024;
+
+    /**
+     * The result of parsing an invalid access time field.
+     */
+    private final static long INVALID_TIMESTAMP = -1;
+
+    /**
+     * Default max number of the user sessions kept by a parser, about 96MB heap.
+     */
+    public final static int DEFAULT_MAX_SESSIONS = 1 << 20;
+
+    /**
+     * Default heap size allowed for the user sessions of a parse in byte, see {@link #DEFAULT_MAX_SESSIONS}.
+     */
+    public final static long DEFAULT_SESSION_MEMORY = (long) DEFAULT_MAX_SESSIONS * SessionCache.SESSION_BYTES;
 
     @Getter
     private final G graph;
 
+    private final int[] batchOwners;
+
+    private final int[] batchNames;
+
+    private final long[] batchTimestamps;
+
+    private int batchSize;
+
     /**
      * Parent node of the owner.
-     * The key is edge owner name.
+     * The key is edge owner id.
      * The value is last node generated of the owner, use to parse next record of the same owner.
+     * The least recently active owner is evicted when it is full, and starts a new path from its next record.
      */
-    private final Map<String, Map.Entry<Node, Edge>> nodeParentCache;
+    private final SessionCache nodeParentCache;
 
     /**
      * Parse log and generate graph.
      * @param stream The stream as input.
      * @param graph The graph as output of parser.
-     * @param <G> Real graph type {@link GraphRandom}, {@link GraphSequence}.
+     * @param <G> Real graph type {@link GraphRandom}, {@link GraphSequence}, {@link GraphSketch}.
+     * @return The amount of handled access record.
+     * @throws IOException The exception about reading access log from input failed.
+     */
+    public static <G extends AccessSink> int parseLog(final InputStream stream, final G graph) throws IOException {
+        return parse(stream, graph, DEFAULT_SESSION_MEMORY).getLines();
+    }
+
+    /**
+     * Parse log and generate graph with bounded user sessions.
+     * @param stream The stream as input.
+     * @param graph The graph as output of parser.
+     * @param sessionMemory The heap size allowed for the user sessions in byte, the least recently active user is
+     *                      evicted and starts a new path from its next record.
+     * @param <G> Real graph type {@link GraphRandom}, {@link GraphSequence}, {@link GraphSketch}.
+     * @return The amount of handled access record and the session counters.
+     * @throws IOException The exception about reading access log from input failed.
+     */
+    public static <G extends AccessSink> ParseStats parse(final InputStream stream, final G graph,
+                                                          final long sessionMemory) throws IOException {
+        final LogParser<G> parser = new LogParser<>(graph, SessionCache.maxSessionsOf(sessionMemory));
+        return ParseStats.of(parser.parseLog(stream), Collections.singleton(parser.getSessions()));
+    }
+
+    /**
+     * Parse log file and generate graph.
+     * The file is memory-mapped and access records are tokenized from the bytes directly,
+     *  which is much faster than {@link #parseLog(InputStream, AccessSink)} on large log files.
+     * @param file The access log file as input.
+     * @param graph The graph as output of parser.
+     * @param <G> Real graph type {@link GraphRandom}, {@link GraphSequence}, {@link GraphSketch}.
+     * @return The amount of handled access record.
+     * @throws IOException The exception about reading access log from input failed.
+     */
+    public static <G extends AccessSink> int parseLog(final File file, final G graph) throws IOException {
+        return parse(file, graph, DEFAULT_SESSION_MEMORY).getLines();
+    }
+
+    /**
+     * Parse log file and generate graph with bounded user sessions, see {@link #parseLog(File, AccessSink)}.
+     * @param file The access log file as input.
+     * @param graph The graph as output of parser.
+     * @param sessionMemory The heap size allowed for the user sessions in byte, the least recently active user is
+     *                      evicted and starts a new path from its next record.
+     * @param <G> Real graph type {@link GraphRandom}, {@link GraphSequence}, {@link GraphSketch}.
+     * @return The amount of handled access record and the session counters.
+     * @throws IOException The exception about reading access log from input failed.
+     */
+    public static <G extends AccessSink> ParseStats parse(final File file, final G graph, final long sessionMemory)
+            throws IOException {
+        final LogParser<G> parser = new LogParser<>(graph, SessionCache.maxSessionsOf(sessionMemory));
+        return ParseStats.of(parser.parseLog(file), Collections.singleton(parser.getSessions()));
+    }
+
+    /**
+     * Parse log file and generate graph in parallel.
+     * The file is split into chunks at line boundaries, records are tokenized in parallel and routed to
+     *  the worker by owner id, so the access order of each user is kept and the graph is the same as
+     *  {@link #parseLog(File, AccessSink)} generates.
+     * @param file The access log file as input.
+     * @param graph The graph as output of parser.
+     * @param parallelism The number of tokenizer and worker threads.
+     * @param <G> Real graph type {@link GraphRandom}, {@link GraphSequence}, {@link GraphSketch}.
      * @return The amount of handled access record.
      * @throws IOException The exception about reading access log from input failed.
      */
-    public static <G extends Graph> int parseLog(final InputStream stream, final G graph) throws IOException {
-        return  new LogParser<>(graph).parseLog(stream);
+    public static <G extends AccessSink> int parseLog(final File file, final G graph, final int parallelism)
+            throws IOException {
+        return parse(file, graph, parallelism, DEFAULT_SESSION_MEMORY).getLines();
+    }
+
+    /**
+     * Parse log file and generate graph in parallel with bounded user sessions, see
+     *  {@link #parseLog(File, AccessSink, int)}. The memory is shared by the workers evenly.
+     * @param file The access log file as input.
+     * @param graph The graph as output of parser.
+     * @param parallelism The number of tokenizer and worker threads.
+     * @param sessionMemory The heap size allowed for the user sessions of all the workers in byte.
+     * @param <G> Real graph type {@link GraphRandom}, {@link GraphSequence}, {@link GraphSketch}.
+     * @return The amount of handled access record and the session counters summed up from the workers.
+     * @throws IOException The exception about reading access log from input failed.
+     */
+    public static <G extends AccessSink> ParseStats parse(final File file, final G graph, final int parallelism,
+                                                          final long sessionMemory) throws IOException {
+        return ParallelLogParser.parseLog(file, graph, parallelism, ParallelLogParser.CHUNK_SIZE, sessionMemory);
     }
 
     /**
      * Create new access log parser.
      * @param graph The graph as output of parser.
      */
-    private LogParser(final G graph) {
+    LogParser(final G graph) {
+        this(graph, DEFAULT_MAX_SESSIONS);
+    }
+
+    /**
+     * Create new access log parser.
+     * @param graph The graph as output of parser.
+     * @param maxSessions The max number of the user sessions to keep, see {@link SessionCache#maxSessionsOf(long)}.
+     */
+    LogParser(final G graph, final int maxSessions) {
         Preconditions.checkNotNull(graph, "Graph should not be null");
 
         this.graph = graph;
-        this.nodeParentCache = new LinkedHashMap<>();
+        this.nodeParentCache = new SessionCache(maxSessions);
+        this.batchOwners = new int[BATCH_SIZE];
+        this.batchNames = new int[BATCH_SIZE];
+        this.batchTimestamps = new long[BATCH_SIZE];
+    }
+
+    /**
+     * Get the user sessions kept by the parser, the counters can be read by any thread.
+     * @return The session cache.
+     */
+    SessionCache getSessions() {
+        return this.nodeParentCache;
     }
 
     /**
@@ -55,7 +208,7 @@ public class LogParser<G extends Graph> {
      * @return The amount of handled access record.
      * @throws IOException The exception about reading access log from input failed.
      */
-    private int parseLog(final InputStream stream) throws IOException {
+    int parseLog(final InputStream stream) throws IOException {
         Preconditions.checkNotNull(stream, "Input stream should not be null");
 
         int parsedLines = 0;
@@ -67,43 +220,362 @@ public class LogParser<G extends Graph> {
                     parseRecord(line);
                     parsedLines++;
                 }
+                flush();
             }
         }
 
         return parsedLines;
     }
 
+    /**
+     * Parse access log file by memory-mapped region.
+     * @param file The access log file as input.
+     * @return The amount of handled access record.
+     * @throws IOException The exception about reading access log from input failed.
+     */
+    private int parseLog(final File file) throws IOException {
+        Preconditions.checkNotNull(file, "Access log file should not be null");
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            try (FileChannel channel = raf.getChannel()) {
+                final Charset charset = Charset.defaultCharset();    // align to InputStreamReader
+                return parseLog(channel, 0, channel.size(), new NamePool(charset, this.graph.getOwnerSymbols()),
+                        new NamePool(charset, this.graph.getNodeSymbols()), charset);
+            }
+        }
+    }
+
+    /**
+     * Parse a range of access log file by memory-mapped region.
+     * @param channel The channel of access log file.
+     * @param start Start offset of the range in the file, it should be the beginning of a line.
+     * @param end End offset of the range in the file, the last line in the range will be handled completely.
+     * @param owners The name pool to retrieve owner id.
+     * @param names The name pool to retrieve node name id.
+     * @param charset The charset to decode invalid access record line for logging.
+     * @return The amount of handled access record.
+     * @throws IOException The exception about reading access log from input failed.
+     */
+    int parseLog(final FileChannel channel, final long start, final long end,
+                 final NamePool owners, final NamePool names, final Charset charset) throws IOException {
+        int parsedLines = 0;
+        long offset = start;
+
+        while (offset < end) {
+            final long length = Math.min(end - offset, MAX_MAPPED_REGION_SIZE);
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            final int regionEnd = offset + length == end ? (int) length : lastLineEnd(buffer, (int) length);
+            if (regionEnd <= 0) {
+                throw new IOException(String.format("Access record line at offset %d is too long", offset));
+            }
+
+            parsedLines += parseRegion(buffer, 0, regionEnd, owners, names, charset, this::touchNode);
+            offset += regionEnd;
+        }
+        flush();
+
+        return parsedLines;
+    }
+
+    /**
+     * Find the end of last complete line in a mapped region, the partial line after it will be mapped again
+     *  in next region.
+     * @param buffer The mapped region.
+     * @param length The length of the region.
+     * @return The position after the last line terminator. Value 0 will be returned if no terminator found.
+     */
+    static int lastLineEnd(final ByteBuffer buffer, final int length) {
+        for (int pos = length - 1; pos >= 0; pos--) {
+            final byte b = buffer.get(pos);
+            // '\r' at region end might be a part of "\r\n" across the regions, leave it to next region.
+            if (b == '\n' || (b == '\r' && pos < length - 1)) {
+                return pos + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Parse all lines in a region of the buffer.
+     * Line terminator and record format keep the same as {@link BufferedReader#readLine()} and
+     *  {@link #parseRecord(String)} processing.
+     * @param buffer The buffer contains access records.
+     * @param start Start position of the region, inclusive.
+     * @param end End position of the region, exclusive.
+     * @param owners The name pool to retrieve owner id.
+     * @param names The name pool to retrieve node name id.
+     * @param charset The charset to decode invalid access record line for logging.
+     * @param consumer The consumer of valid access record, accepts owner id and node name id.
+     * @return The amount of handled access record.
+     */
+    static int parseRegion(final ByteBuffer buffer, final int start, final int end, final NamePool owners,
+                           final NamePool names, final Charset charset, final RecordConsumer consumer) {
+        int parsedLines = 0;
+        int pos = start;
+
+        while (pos < end) {
+            int eol = pos;
+            byte b = 0;
+            while (eol < end && (b = buffer.get(eol)) != '\n' && b != '\r') {
+                eol++;
+            }
+
+            parseRecord(buffer, pos, eol, owners, names, charset, consumer);
+            parsedLines++;
+
+            pos = eol + 1;
+            if (b == '\r' && pos < end && buffer.get(pos) == '\n') {
+                pos++;
+            }
+        }
+
+        return parsedLines;
+    }
+
+    /**
+     * Parse a single node access record in log line bytes, without regex and String splitting.
+     * The format of access record in the line is: USER_NAME[\t\x0B\f\r]NODE_NAME([\t\x0B\f\r]TIMESTAMP)?
+     * @param buffer The buffer contains the line.
+     * @param start Start position of the line, inclusive.
+     * @param end End position of the line, exclusive, line terminator is not included.
+     * @param owners The name pool to retrieve owner id.
+     * @param names The name pool to retrieve node name id.
+     * @param charset The charset to decode invalid access record line for logging.
+     * @param consumer The consumer of valid access record, accepts owner id and node name id.
+     */
+    private static void parseRecord(final ByteBuffer buffer, final int start, final int end, final NamePool owners,
+                                    final NamePool names, final Charset charset, final RecordConsumer consumer) {
+        int pos = start;
+
+        final int ownerStart = pos;
+        while (pos < end && !isSeparator(buffer.get(pos))) {
+            pos++;
+        }
+        final int ownerEnd = pos;
+        while (pos < end && isSeparator(buffer.get(pos))) {
+            pos++;
+        }
+        final int nameStart = pos;
+        while (pos < end && !isSeparator(buffer.get(pos))) {
+            pos++;
+        }
+        final int nameEnd = pos;
+        while (pos < end && isSeparator(buffer.get(pos))) {
+            pos++;
+        }
+        final int timestampStart = pos;
+        while (pos < end && !isSeparator(buffer.get(pos))) {
+            pos++;
+        }
+        final int timestampEnd = pos;
+        while (pos < end && isSeparator(buffer.get(pos))) {
+            pos++;
+        }
+
+        // leading separator, missing node name or extra fields are all invalid, align to String.split("\\s+").
+        final int _ownerStart = trimStart(buffer, ownerStart, ownerEnd);
+        final int _ownerEnd = trimEnd(buffer, _ownerStart, ownerEnd);
+        final int _nameStart = trimStart(buffer, nameStart, nameEnd);
+        final int _nameEnd = trimEnd(buffer, _nameStart, nameEnd);
+        final long timestamp = timestampStart == timestampEnd ?
+                Graph.NO_TIMESTAMP : parseTimestamp(buffer, timestampStart, timestampEnd);
+
+        if (ownerStart == ownerEnd || nameStart == nameEnd || pos != end ||
+                _ownerStart == _ownerEnd || _nameStart == _nameEnd || timestamp == INVALID_TIMESTAMP) {
+            final byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(start + i);
+            }
+            logInvalidRecord(new String(bytes, charset));
+        } else {
+            consumer.accept(owners.get(buffer, _ownerStart, _ownerEnd), names.get(buffer, _nameStart, _nameEnd),
+                    timestamp);
+        }
+    }
+
+    /**
+     * Parse the access time field of a record, it is the decimal milliseconds since the epoch.
+     * @return The access time, or {@link #INVALID_TIMESTAMP} if the field is not a non-negative long integer.
+     */
+    private static long parseTimestamp(final ByteBuffer buffer, final int start, final int end) {
+        long ret = 0;
+        for (int pos = start; pos < end; pos++) {
+            final int digit = buffer.get(pos) - '0';
+            if (digit < 0 || digit > 9 || ret > (Long.MAX_VALUE - digit) / 10) {
+                return INVALID_TIMESTAMP;
+            }
+            ret = ret * 10 + digit;
+        }
+        return ret;
+    }
+
+    /**
+     * Check if a byte is the separator of the fields in access record, same as regex \s except line terminators.
+     */
+    private static boolean isSeparator(final byte b) {
+        return b == ' ' || b == '\t' || b == 0x0B || b == '\f';
+    }
+
+    /**
+     * Skip leading control characters, same as {@link String#trim()}.
+     */
+    private static int trimStart(final ByteBuffer buffer, int start, final int end) {
+        while (start < end && (buffer.get(start) & 0xFF) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * Skip trailing control characters, same as {@link String#trim()}.
+     */
+    private static int trimEnd(final ByteBuffer buffer, final int start, int end) {
+        while (end > start && (buffer.get(end - 1) & 0xFF) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
     /**
      * Parse a single node access record in log line.
-     * The format of access record in the line is: USER_NAME[\t\x0B\f\r]NODE_NAME(\n|\r\n)
+     * The format of access record in the line is: USER_NAME[\t\x0B\f\r]NODE_NAME([\t\x0B\f\r]TIMESTAMP)?(\n|\r\n)
+     *  The optional TIMESTAMP is the access time in milliseconds since the epoch, it is used by {@link GraphWindowed}.
      * @param logLine A single line in the log
-     * @return The node added to the graph. Value null will be returned if access record in the line invalid.
      */
-    private Node parseRecord(final String logLine) {
+    private void parseRecord(final String logLine) {
         Preconditions.checkNotNull(logLine, "Access record log line should not be null");
         String[] ret = logLine.split("\\s+");
-        Node node = null;
-        Edge edge = null;
         String owner, name;
+        long timestamp = Graph.NO_TIMESTAMP;
 
-        if ((ret.length != 2) ||
+        if ((ret.length != 2 && ret.length != 3) ||
                 ((owner = ret[0].trim()).length() == 0) ||
-                ((name = ret[1].trim()).length() == 0)) {
-            log.warn(String.format(
-                    "Invalid access record in log: %s\nValid format: USER_NAME[\\t\\x0B\\f\\r]NODE_NAME(\\n|\\r\\n)",
-                    logLine));
+                ((name = ret[1].trim()).length() == 0) ||
+                (ret.length == 3 && (timestamp = parseTimestamp(ret[2])) == INVALID_TIMESTAMP)) {
+            logInvalidRecord(logLine);
         } else {
-            Map.Entry<Node, Edge> item = this.nodeParentCache.get(owner);
-            if (item != null) {
-                node = item.getKey();
-                edge = item.getValue();
+            final SymbolTable owners = this.graph.getOwnerSymbols();
+            touchNode(owners == null ? AccessSink.hashOwner(owner, Charset.defaultCharset()) : owners.intern(owner),
+                    this.graph.getNodeSymbols().intern(name), timestamp);
+        }
+    }
+
+    private static long parseTimestamp(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return INVALID_TIMESTAMP;
+            }
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {     // overflow
+            return INVALID_TIMESTAMP;
+        }
+    }
+
+    private static void logInvalidRecord(final String logLine) {
+        log.warn(String.format("Invalid access record in log: %s\nValid format: " +
+                        "USER_NAME[\\t\\x0B\\f\\r]NODE_NAME([\\t\\x0B\\f\\r]TIMESTAMP)?(\\n|\\r\\n)",
+                logLine));
+    }
+
+    /**
+     * Load a valid access record into the graph.
+     * The record is buffered and applied to the graph in batch, {@link #flush()} should be called at the end.
+     * @param owner The owner id of the record. In our case, this is user name id.
+     * @param name The node name id of the record.
+     * @param timestamp The access time of the record in millisecond, or {@link Graph#NO_TIMESTAMP}.
+     */
+    void touchNode(final int owner, final int name, final long timestamp) {
+        this.batchOwners[this.batchSize] = owner;
+        this.batchNames[this.batchSize] = name;
+        this.batchTimestamps[this.batchSize] = timestamp;
+        if (++this.batchSize == BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Load valid access records into the graph in batch.
+     * @param owners The owner ids of the records.
+     * @param names The node name ids of the records.
+     * @param timestamps The access times of the records, see {@link AccessSink#touchNodes(int[], int[], long[], int,
+     *                   int, Map)}.
+     * @param offset The offset of first record in the arrays.
+     * @param length The amount of records.
+     */
+    void touchNodes(final int[] owners, final int[] names, final long[] timestamps, final int offset,
+                    final int length) {
+        this.graph.touchNodes(owners, names, timestamps, offset, length, this.nodeParentCache);
+    }
+
+    /**
+     * Apply buffered access records to the graph.
+     */
+    void flush() {
+        if (this.batchSize > 0) {
+            touchNodes(this.batchOwners, this.batchNames, this.batchTimestamps, 0, this.batchSize);
+            this.batchSize = 0;
+        }
+    }
+
+    /**
+     * Save the node parent cache, so a parser in a new process can continue handling records of the owners.
+     * Owner, node and edge are saved by name, they will be resolved from the graph when loading.
+     * @param out The output to save to.
+     * @throws IOException The exception about writing output failed.
+     */
+    void saveState(final DataOutput out) throws IOException {
+        flush();
+        out.writeInt(this.nodeParentCache.size());
+        for (Map.Entry<Integer, Map.Entry<Node, Edge>> item : this.nodeParentCache.entrySet()) {
+            final Node parent = item.getValue().getValue() == null ? null : item.getValue().getValue().getInNode();
+            out.writeUTF(this.graph.getOwnerSymbols().name(item.getKey()));
+            out.writeUTF(item.getValue().getKey().getName());
+            out.writeBoolean(parent != null);
+            if (parent != null) {
+                out.writeUTF(parent.getName());
             }
-            item = graph.touchNode(name, node, edge, owner);
-            if (item.getKey() != null) {    // Skip duplicated access record, e.g. user refresh node accessing.
-                this.nodeParentCache.put(ret[0], item);
+        }
+    }
+
+    /**
+     * Load the node parent cache saved by {@link #saveState(DataOutput)}.
+     * The owner whose node or edge can not be found in the graph will start a new path from next record.
+     *  The sessions link the nodes of a {@link Graph}, so does the state.
+     * @param in The input to load from.
+     * @return The amount of owners loaded.
+     * @throws IOException The exception about reading input failed.
+     */
+    int loadState(final DataInput in) throws IOException {
+        Preconditions.checkState(this.graph instanceof Graph, "Parser state should be loaded into a graph");
+        final Graph graph = (Graph) this.graph;
+        final int size = in.readInt();
+        int loaded = 0;
+
+        this.nodeParentCache.clear();
+
+        for (int i = 0; i < size; i++) {
+            final String owner = in.readUTF();
+            final String nodeName = in.readUTF();
+            final String parentName = in.readBoolean() ? in.readUTF() : null;
+
+            final int ownerId = graph.getOwnerSymbols().lookup(owner);
+            final Node node = ownerId == SymbolTable.NO_SYMBOL ? null : graph.getNode(nodeName);
+            final Edge edge = node == null ? null : node.getInEdges().stream().filter(e ->
+                    e.getOwner() == ownerId && (parentName == null ? e.getInNode() == null :
+                            e.getInNode() != null && e.getInNode().getName().equals(parentName)))
+                    .findFirst().orElse(null);
+
+            if (edge == null) {
+                log.warn(String.format("Node parent of owner %s not found in graph, node name: %s, parent name: %s",
+                        owner, nodeName, parentName == null ? "<null>" : parentName));
+            } else {
+                this.nodeParentCache.put(ownerId, new AbstractMap.SimpleEntry<>(node, edge));
+                loaded++;
             }
         }
 
-        return node;
+        return loaded;
     }
 }
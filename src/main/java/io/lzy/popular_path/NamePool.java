@@ -0,0 +1,151 @@
+package io.lzy.popular_path;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import io.lzy.popular_path.model.AccessSink;
+import io.lzy.popular_path.model.SymbolTable;
+
+/**
+ * @author zhiyan
+ *
+ * A byte level name pool, used by the memory-mapped access log parsing to turn owner and node name bytes
+ *  into the symbol id of the graph without decoding and allocating a new String for every occurrence of the same name.
+ *  The name is decoded and interned into the symbol table at the first time only.
+ *
+ * Open addressing with linear probing is used, the key is the raw bytes of the name. A pool without symbol table
+ *  keeps nothing, the id is the hash of the name bytes, see {@link AccessSink#hashOwner(byte[], int, int)}.
+ * It is not thread-safe, each parser thread should use its own pool, pools can share the same symbol table.
+ */
+class NamePool {
+
+    private final static int INITIAL_CAPACITY = 1024;   // must be power of 2
+
+    private final Charset charset;
+
+    private final SymbolTable symbols;
+
+    private byte[][] keys;
+
+    private int[] values;
+
+    private int[] hashes;
+
+    private int size;
+
+    /**
+     * Scratch buffer to copy name bytes out of the mapped buffer.
+     */
+    private byte[] scratch;
+
+    /**
+     * Create new name pool.
+     * @param charset The charset used to decode name bytes.
+     * @param symbols The symbol table to intern names into, value null means the names are hashed.
+     */
+    NamePool(final Charset charset, final SymbolTable symbols) {
+        this.charset = charset;
+        this.symbols = symbols;
+        this.keys = new byte[INITIAL_CAPACITY][];
+        this.values = new int[INITIAL_CAPACITY];
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.scratch = new byte[256];
+    }
+
+    /**
+     * Retrieve the symbol id of the name bytes in buffer, the name will be decoded and interned at first time only.
+     * @param buffer The buffer contains name bytes.
+     * @param start Start position of the name in buffer, inclusive.
+     * @param end End position of the name in buffer, exclusive.
+     * @return The symbol id of the name.
+     */
+    int get(final ByteBuffer buffer, final int start, final int end) {
+        final int length = end - start;
+        if (this.scratch.length < length) {
+            this.scratch = new byte[Math.max(length, this.scratch.length * 2)];
+        }
+
+        if (this.symbols == null) {
+            for (int i = 0; i < length; i++) {
+                this.scratch[i] = buffer.get(start + i);
+            }
+            return AccessSink.hashOwner(this.scratch, 0, length);
+        }
+
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            final byte b = buffer.get(start + i);
+            this.scratch[i] = b;
+            hash = 31 * hash + b;
+        }
+
+        final int mask = this.keys.length - 1;
+        int slot = mix(hash) & mask;
+        byte[] key;
+        while ((key = this.keys[slot]) != null) {
+            if (this.hashes[slot] == hash && key.length == length && equals(key, this.scratch, length)) {
+                return this.values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        key = Arrays.copyOf(this.scratch, length);
+        final int id = this.symbols.intern(new String(key, this.charset));
+        this.keys[slot] = key;
+        this.values[slot] = id;
+        this.hashes[slot] = hash;
+
+        if (++this.size * 2 > this.keys.length) {   // keep load factor under 0.5
+            resize();
+        }
+
+        return id;
+    }
+
+    /**
+     * The amount of distinct names in the pool.
+     * @return Name count.
+     */
+    int size() {
+        return this.size;
+    }
+
+    private void resize() {
+        final byte[][] oldKeys = this.keys;
+        final int[] oldValues = this.values;
+        final int[] oldHashes = this.hashes;
+        final int capacity = oldKeys.length * 2;
+        final int mask = capacity - 1;
+
+        this.keys = new byte[capacity][];
+        this.values = new int[capacity];
+        this.hashes = new int[capacity];
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = mix(oldHashes[i]) & mask;
+                while (this.keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+                this.hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+
+    private static boolean equals(final byte[] key, final byte[] bytes, final int length) {
+        for (int i = 0; i < length; i++) {
+            if (key[i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(final int hash) {
+        final int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,266 @@
+package io.lzy.popular_path;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+
+import io.lzy.popular_path.model.AccessSink;
+
+/**
+ * @author zhiyan
+ *
+ * Parallel chunked access log file parser.
+ *
+ * The file is split into chunks at line boundaries. Chunks are memory-mapped and tokenized by tokenizer threads
+ *  in parallel, the valid records of a chunk are bucketed by owner id. Each worker thread owns a bucket and
+ *  a {@link LogParser} (with its own node parent cache), it applies the bucket of every chunk in file order.
+ *  So all records of the same owner are handled by the same worker in log order,
+ *  the parent/edge chaining of the owner is kept the same as serial parsing.
+ */
+@Slf4j
+final class ParallelLogParser {
+
+    /**
+     * Default chunk size, the chunk will be extended to line boundary.
+     */
+    final static int CHUNK_SIZE = 16 << 20;
+
+    /**
+     * The records of a chunk routed to one worker.
+     */
+    private final static class RecordBatch {
+
+        private int[] owners = new int[1024];
+
+        private int[] names = new int[1024];
+
+        private long[] timestamps = new long[1024];
+
+        private int size;
+
+        void add(final int owner, final int name, final long timestamp) {
+            if (this.size == this.owners.length) {
+                this.owners = Arrays.copyOf(this.owners, this.size * 2);
+                this.names = Arrays.copyOf(this.names, this.size * 2);
+                this.timestamps = Arrays.copyOf(this.timestamps, this.size * 2);
+            }
+            this.owners[this.size] = owner;
+            this.names[this.size] = name;
+            this.timestamps[this.size] = timestamp;
+            this.size++;
+        }
+    }
+
+    /**
+     * A chunk of the file in processing.
+     */
+    private final static class Chunk {
+
+        /**
+         * Marker to stop workers.
+         */
+        final static Chunk END = new Chunk(null, 0);
+
+        /**
+         * Tokenizing result, a record batch for each worker.
+         */
+        final Future<RecordBatch[]> batches;
+
+        /**
+         * The amount of workers which have not handled the chunk yet.
+         */
+        final AtomicInteger pending;
+
+        Chunk(final Future<RecordBatch[]> batches, final int workers) {
+            this.batches = batches;
+            this.pending = new AtomicInteger(workers);
+        }
+    }
+
+    private ParallelLogParser() {
+    }
+
+    /**
+     * Parse log file and generate graph in parallel.
+     * @param file The access log file as input.
+     * @param graph The graph as output of parser.
+     * @param parallelism The number of tokenizer and worker threads.
+     * @param chunkSize The size of the chunk, the chunk will be extended to line boundary.
+     * @param sessionMemory The heap size allowed for the user sessions of all the workers in byte,
+     *                      each worker keeps the sessions of its owners in an even share.
+     * @param <G> Real graph type.
+     * @return The amount of handled access record and the session counters summed up from the workers.
+     * @throws IOException The exception about reading access log from input failed.
+     */
+    static <G extends AccessSink> ParseStats parseLog(final File file, final G graph, final int parallelism,
+                                                      final int chunkSize, final long sessionMemory)
+            throws IOException {
+        Preconditions.checkNotNull(file, "Access log file should not be null");
+        Preconditions.checkNotNull(graph, "Graph should not be null");
+        Preconditions.checkArgument(parallelism > 0, "Parallelism parameter should greater than 0");
+        Preconditions.checkArgument(chunkSize > 0 && chunkSize <= LogParser.MAX_MAPPED_REGION_SIZE,
+                "Chunk size parameter should greater than 0 and not greater than max mapped region size");
+        Preconditions.checkArgument(sessionMemory > 0, "Memory cap parameter should greater than 0");
+
+        final Charset charset = Charset.defaultCharset();   // align to InputStreamReader
+        final ThreadLocal<NamePool> owners =
+                ThreadLocal.withInitial(() -> new NamePool(charset, graph.getOwnerSymbols()));
+        final ThreadLocal<NamePool> names =
+                ThreadLocal.withInitial(() -> new NamePool(charset, graph.getNodeSymbols()));
+        final AtomicInteger parsedLines = new AtomicInteger();
+        final Semaphore inFlightChunks = new Semaphore(parallelism * 2);    // bound memory of tokenized chunks
+        final List<BlockingQueue<Chunk>> queues = new ArrayList<>(parallelism);
+        final List<Future<?>> workerFutures = new ArrayList<>(parallelism);
+        final List<SessionCache> sessions = new CopyOnWriteArrayList<>();
+        // the owners are spread over the workers, so are the sessions.
+        final int maxSessions = SessionCache.maxSessionsOf(Math.max(1, sessionMemory / parallelism));
+        final ExecutorService tokenizers = Executors.newFixedThreadPool(parallelism);
+        final ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            try (FileChannel channel = raf.getChannel()) {
+                for (int i = 0; i < parallelism; i++) {
+                    final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+                    final int worker = i;
+                    queues.add(queue);
+                    workerFutures.add(workers.submit(() -> {
+                        final LogParser<G> parser = new LogParser<>(graph, maxSessions);
+                        sessions.add(parser.getSessions());
+                        Chunk chunk;
+                        while ((chunk = queue.take()) != Chunk.END) {
+                            final RecordBatch batch = chunk.batches.get()[worker];
+                            for (int pos = 0; pos < batch.size; pos += LogParser.BATCH_SIZE) {
+                                parser.touchNodes(batch.owners, batch.names, batch.timestamps,
+                                        pos, Math.min(LogParser.BATCH_SIZE, batch.size - pos));
+                            }
+                            if (chunk.pending.decrementAndGet() == 0) {
+                                inFlightChunks.release();
+                            }
+                        }
+                        return null;
+                    }));
+                }
+
+                final long size = channel.size();
+                long offset = 0;
+
+                while (offset < size) {
+                    while (!inFlightChunks.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                        checkWorkers(workerFutures);     // worker stops only when it failed
+                    }
+
+                    final long length = Math.min(size - offset, chunkSize);
+                    final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                    int end = offset + length == size ? (int) length : LogParser.lastLineEnd(buffer, (int) length);
+                    if (end <= 0) {     // extend the chunk to contain at least one line
+                        final long _length = Math.min(size - offset, LogParser.MAX_MAPPED_REGION_SIZE);
+                        final MappedByteBuffer _buffer =
+                                channel.map(FileChannel.MapMode.READ_ONLY, offset, _length);
+                        end = offset + _length == size ? (int) _length : LogParser.lastLineEnd(_buffer, (int) _length);
+                        if (end <= 0) {
+                            throw new IOException(String.format(
+                                    "Access record line at offset %d of %s is too long", offset, file));
+                        }
+                        submitChunk(tokenizers, queues, _buffer, end, owners, names, charset, parsedLines);
+                    } else {
+                        submitChunk(tokenizers, queues, buffer, end, owners, names, charset, parsedLines);
+                    }
+
+                    offset += end;
+                }
+
+                for (BlockingQueue<Chunk> queue : queues) {
+                    queue.put(Chunk.END);
+                }
+
+                for (Future<?> future : workerFutures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        rethrow(e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Parallel access log parsing interrupted");
+        } finally {
+            tokenizers.shutdownNow();
+            workers.shutdownNow();
+        }
+
+        return ParseStats.of(parsedLines.get(), sessions);
+    }
+
+    /**
+     * Submit a chunk to tokenize and route it to all workers.
+     */
+    private static void submitChunk(final ExecutorService tokenizers, final List<BlockingQueue<Chunk>> queues,
+                                    final MappedByteBuffer buffer, final int end, final ThreadLocal<NamePool> owners,
+                                    final ThreadLocal<NamePool> names, final Charset charset,
+                                    final AtomicInteger parsedLines)
+            throws InterruptedException {
+        final int workers = queues.size();
+        final Chunk chunk = new Chunk(tokenizers.submit(() -> {
+            final RecordBatch[] batches = new RecordBatch[workers];
+            for (int i = 0; i < workers; i++) {
+                batches[i] = new RecordBatch();
+            }
+            // a hashed owner id might be negative, see AccessSink#hashOwner.
+            parsedLines.addAndGet(LogParser.parseRegion(buffer, 0, end, owners.get(), names.get(), charset,
+                    (owner, name, timestamp) -> batches[Math.floorMod(owner, workers)].add(owner, name, timestamp)));
+            return batches;
+        }), workers);
+
+        for (BlockingQueue<Chunk> queue : queues) {
+            queue.put(chunk);
+        }
+    }
+
+    /**
+     * Check if any worker failed, the failure will be thrown out.
+     */
+    private static void checkWorkers(final List<Future<?>> workerFutures) throws IOException, InterruptedException {
+        for (Future<?> future : workerFutures) {
+            if (future.isDone()) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    rethrow(e);
+                }
+                throw new IllegalStateException("internal error");
+            }
+        }
+    }
+
+    private static void rethrow(final ExecutionException e) throws IOException {
+        Throwable cause = e.getCause();
+        if (cause instanceof ExecutionException) {  // tokenizing failed, get by worker.
+            cause = cause.getCause();
+        }
+
+        log.error(String.format("Parallel access log parsing failed: %s", cause));
+
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        } else {
+            throw new IOException(cause);
+        }
+    }
+}
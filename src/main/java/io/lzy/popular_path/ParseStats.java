@@ -0,0 +1,57 @@
+package io.lzy.popular_path;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * @author zhiyan
+ *
+ * The result of parsing an access log, the amount of handled access record and the counters of the user sessions.
+ *  The counters of the parallel workers are summed up, each worker keeps the sessions of its own owners.
+ */
+@Getter
+@ToString
+public final class ParseStats {
+
+    /**
+     * The amount of handled access record.
+     */
+    private final int lines;
+
+    /**
+     * The max number of the sessions kept by all the parsers.
+     */
+    private final long maxSessions;
+
+    private final long sessionHits;
+
+    private final long sessionMisses;
+
+    private final long sessionEvictions;
+
+    private ParseStats(final int lines, final long maxSessions, final long sessionHits, final long sessionMisses,
+                       final long sessionEvictions) {
+        this.lines = lines;
+        this.maxSessions = maxSessions;
+        this.sessionHits = sessionHits;
+        this.sessionMisses = sessionMisses;
+        this.sessionEvictions = sessionEvictions;
+    }
+
+    /**
+     * Sum up the counters of the session caches.
+     * @param lines The amount of handled access record.
+     * @param sessions The session caches of the parsers.
+     * @return The stats.
+     */
+    static ParseStats of(final int lines, final Iterable<SessionCache> sessions) {
+        long maxSessions = 0, hits = 0, misses = 0, evictions = 0;
+        for (SessionCache item : sessions) {
+            maxSessions += item.getMaxSessions();
+            hits += item.getHits();
+            misses += item.getMisses();
+            evictions += item.getEvictions();
+        }
+        return new ParseStats(lines, maxSessions, hits, misses, evictions);
+    }
+}
@@ -1,8 +1,8 @@
 package io.lzy.popular_path;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,6 +10,7 @@ import java.util.Map;
 import com.google.common.base.Preconditions;
 import lombok.extern.slf4j.Slf4j;
 
+import io.lzy.popular_path.model.Graph;
 import io.lzy.popular_path.model.GraphRandom;
 import io.lzy.popular_path.model.GraphSequence;
 
@@ -21,6 +22,11 @@ public class PopularPath {
 
     private final static int TOP_N_POPULAR_PATH = 3;
 
+    /**
+     * System property of the heap size allowed for the user sessions in byte, e.g. -Dpopular_path.session_memory=64m.
+     */
+    private final static String SESSION_MEMORY_PROPERTY = "popular_path.session_memory";
+
     private static Integer handlePvtTimes(final String arg) {
         try {
             return Integer.parseInt(arg);
@@ -29,24 +35,61 @@ public class PopularPath {
         }
     }
 
-    private static InputStream handleAccessLogFilePathArg(final String arg) {
+    private static Integer handlePortArg(final String arg) {
+        final Integer port = handlePvtTimes(arg);
+        return port == null || port < 0 || port > 0xFFFF ? null : port;
+    }
+
+    private static String handleAccessLogFilePathArg(final String arg) {
         Preconditions.checkNotNull(arg);
 
-        InputStream is = null;
         String accessLog = arg.trim();
 
-        try {
-            if (accessLog.equals("-")) {    // be friendly to unix pipeline
-                is = System.in;
-            } else {
-                is = new FileInputStream(accessLog);
+        if (!accessLog.equals("-")) {    // "-" is stdin, be friendly to unix pipeline
+            File file = new File(accessLog);
+            if (!(file.isFile() && file.canRead())) {
+                log.error(String.format("Open access log file %s failed: not a readable file", accessLog));
+                accessLog = null;
             }
-        } catch (Exception e) {
-            log.error(String.format("Open access log file %s failed: %s",
-                    accessLog.equals("-") ? "stdin" : accessLog, e.getMessage()));
         }
 
-        return is;
+        return accessLog;
+    }
+
+    /**
+     * Parse access log into the graph.
+     * Memory-mapped file parsing is used for the file, stream parsing is used for stdin.
+     */
+    private static void parseAccessLog(final String accessLog, final Graph graph) throws IOException {
+        final ParseStats stats;
+        if (accessLog.equals("-")) {
+            stats = LogParser.parse(System.in, graph, getSessionMemory());
+        } else {
+            stats = LogParser.parse(new File(accessLog), graph, getSessionMemory());
+        }
+        log.debug(String.format("Access log parsed: %s", stats));
+    }
+
+    /**
+     * Get the heap size allowed for the user sessions from system property {@value #SESSION_MEMORY_PROPERTY},
+     *  the size is in byte, or with suffix k, m or g.
+     */
+    private static long getSessionMemory() {
+        final String value = System.getProperty(SESSION_MEMORY_PROPERTY);
+        if (value == null || value.trim().isEmpty()) {
+            return LogParser.DEFAULT_SESSION_MEMORY;
+        }
+
+        final String _value = value.trim().toLowerCase();
+        final int shift = _value.endsWith("k") ? 10 : _value.endsWith("m") ? 20 : _value.endsWith("g") ? 30 : 0;
+        try {
+            final long ret = Long.parseLong(shift == 0 ? _value : _value.substring(0, _value.length() - 1)) << shift;
+            Preconditions.checkArgument(ret > 0);
+            return ret;
+        } catch (IllegalArgumentException e) {     // NumberFormatException included
+            throw new IllegalArgumentException(String.format(
+                    "System property %s should be a positive size, e.g. 64m", SESSION_MEMORY_PROPERTY));
+        }
     }
 
     private static Boolean handleAOEKindFlagArg(final String arg) {
@@ -84,10 +127,51 @@ public class PopularPath {
         printEvaluationResult(r);
     }
 
+    /**
+     * Serve the queries of a resident graph until the process is killed.
+     * Usage: PopularPath serve &lt;port&gt; &lt;AOE-kind-graph-flag&gt; [access-log-file-path]
+     */
+    private static boolean serve(final String[] args) {
+        final Integer port = args.length >= 3 ? handlePortArg(args[1]) : null;
+        final Boolean isAOEKind = args.length >= 3 ? handleAOEKindFlagArg(args[2]) : null;
+        final String accessLog = args.length == 4 ? handleAccessLogFilePathArg(args[3]) : null;
+        if (port == null || isAOEKind == null || args.length > 4 || (args.length == 4 && accessLog == null)) {
+            log.info("Wrong input arguments. Usage: " +
+                    "PopularPath serve <port> <AOE-kind-graph-flag> [<-|access-log-file-path>]");
+            return false;
+        }
+
+        try {
+            final Graph graph = isAOEKind ? new GraphSequence() : new GraphRandom();
+            if (accessLog != null) {
+                final long begin = System.currentTimeMillis();
+                parseAccessLog(accessLog, graph);
+                log.info(String.format("Time expended by parsing log to graph: %dms",
+                        System.currentTimeMillis() - begin));
+            }
+
+            final PopularPathServer<Graph> server =
+                    new PopularPathServer<>(graph, new InetSocketAddress(port), getSessionMemory());
+            Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            log.error(e.getMessage());
+            return false;
+        }
+    }
+
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("serve")) {
+            if (!serve(args)) {
+                log.error("Process failed, exit abnormally.");
+                System.exit(1);
+            }
+            return;     // the server threads keep the process running
+        }
+
         Integer pvtLogParseTimes = null, pvtPathEvalTimes = null;
         Boolean isAOEKind = null;
-        InputStream stream = null;
+        String accessLog = null;
         String user = "";
         boolean failed = false;
         long begin, end;
@@ -104,12 +188,12 @@ public class PopularPath {
             pvtLogParseTimes = handlePvtTimes(args[0]);
             pvtPathEvalTimes = handlePvtTimes(args[1]);
             isAOEKind = handleAOEKindFlagArg(args[2]);
-            stream = handleAccessLogFilePathArg(args[3]);
+            accessLog = handleAccessLogFilePathArg(args[3]);
         } else if (args.length == 5) { // Input access log and user name
             pvtLogParseTimes = handlePvtTimes(args[0]);
             pvtPathEvalTimes = handlePvtTimes(args[1]);
             isAOEKind = handleAOEKindFlagArg(args[2]);
-            stream = handleAccessLogFilePathArg(args[3]);
+            accessLog = handleAccessLogFilePathArg(args[3]);
             user = args[4].trim();
         } else {
             log.info("Wrong input arguments. Usage: " +
@@ -118,7 +202,8 @@ public class PopularPath {
             failed = true;
         }
 
-        if (!(failed || pvtLogParseTimes == null || pvtPathEvalTimes == null || isAOEKind == null || stream == null)) {
+        if (!(failed || pvtLogParseTimes == null || pvtPathEvalTimes == null || isAOEKind == null ||
+                accessLog == null)) {
             try {
                 if (isAOEKind) {
                     log.debug("GraphSequence is used.");
@@ -129,9 +214,7 @@ public class PopularPath {
 
                     for (int times = 0; times < pvtLogParseTimes; times ++) {  // loop for performance test
                         graph = new GraphSequence();
-                        LogParser.parseLog(stream, graph);
-                        stream.close();
-                        stream = handleAccessLogFilePathArg(args[3]);
+                        parseAccessLog(accessLog, graph);
                     }
 
                     end = System.currentTimeMillis();
@@ -166,9 +249,7 @@ public class PopularPath {
 
                     for (int times = 0; times < pvtLogParseTimes; times ++) {  // loop for performance test
                         graph = new GraphRandom();
-                        LogParser.parseLog(stream, graph);
-                        stream.close();
-                        stream = handleAccessLogFilePathArg(args[3]);
+                        parseAccessLog(accessLog, graph);
                     }
 
                     end = System.currentTimeMillis();
@@ -195,15 +276,9 @@ public class PopularPath {
                     log.info(String.format("Time expended by evaluating popular path %d times: %dms",
                             pvtPathEvalTimes, end - begin));
                 }
-            } catch (IOException e) {
+            } catch (IOException | IllegalArgumentException e) {
                 log.error(e.getMessage());
                 failed = true;
-            } finally {
-                try {
-                    stream.close();
-                } catch (Exception e) {
-                    // nothing to do
-                }
             }
         }
 
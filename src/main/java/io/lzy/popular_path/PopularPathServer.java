@@ -0,0 +1,362 @@
+package io.lzy.popular_path;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import io.lzy.popular_path.model.AccessSink;
+import io.lzy.popular_path.model.Graph;
+import io.lzy.popular_path.model.GraphRandom;
+import io.lzy.popular_path.model.GraphSequence;
+import io.lzy.popular_path.model.GraphSketch;
+
+/**
+ * @author zhiyan
+ *
+ * An embedded HTTP service keeps a graph resident in memory, so the graph is built once and queried many times.
+ *
+ * Endpoints, the result is a JSON object:
+ *  1. POST /records: Ingest the access records in the request body, in the access log format.
+ *  2. GET /paths?user=USER_NAME&amp;depth=M&amp;top=N: Find the top N most popular M-node paths of the user.
+ *      All users are returned if the user is not given. The default depth is the default query depth of the graph,
+ *      the default top N is 3. The paths of the site are returned by {@link GraphSketch}, the user is not given
+ *      and the depth is the depth of the sketch.
+ *  3. GET /stats: The request count and the latency of the endpoints, and the counters of the user sessions.
+ *  4. GET /: The endpoint list, other paths are not found.
+ *
+ * The requests are handled by virtual threads when the JDK supports them, otherwise by a cached thread pool,
+ *  so the queries of concurrent clients run at the same time. The ingest requests are serialized, the records of
+ *  a user in different requests are linked in order. The latency of each request is reported in the response header
+ *  {@value #LATENCY_HEADER} and summed up by the endpoint.
+ */
+@Slf4j
+public class PopularPathServer<G extends AccessSink> implements Closeable {
+
+    public final static String LATENCY_HEADER = "X-Latency-Micros";
+
+    final static int DEFAULT_TOP_N = 3;
+
+    private final static String CONTENT_TYPE = "application/json; charset=utf-8";
+
+    @Getter
+    private final G graph;
+
+    private final LogParser<G> parser;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    /**
+     * The latency of the endpoints, the key is endpoint path.
+     */
+    private final Map<String, Latency> latencies;
+
+    /**
+     * Create and start a server.
+     * @param graph The graph to keep.
+     * @param address The address to listen, port 0 means any free port.
+     * @throws IOException The exception about binding the address failed.
+     */
+    public PopularPathServer(final G graph, final InetSocketAddress address) throws IOException {
+        this(graph, address, LogParser.DEFAULT_SESSION_MEMORY);
+    }
+
+    /**
+     * Create and start a server.
+     * @param graph The graph to keep.
+     * @param address The address to listen, port 0 means any free port.
+     * @param sessionMemory The heap size allowed for the user sessions of the ingested records in byte,
+     *                      the least recently active user is evicted and starts a new path from its next record.
+     * @throws IOException The exception about binding the address failed.
+     */
+    public PopularPathServer(final G graph, final InetSocketAddress address, final long sessionMemory)
+            throws IOException {
+        Preconditions.checkNotNull(graph, "Graph should not be null");
+        Preconditions.checkNotNull(address, "Address should not be null");
+
+        this.graph = graph;
+        this.parser = new LogParser<>(graph, SessionCache.maxSessionsOf(sessionMemory));
+        this.latencies = new HashMap<>();
+        this.executor = newExecutor();
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(this.executor);
+        handle("/records", "POST", this::handleRecords);
+        handle("/paths", "GET", this::handlePaths);
+        handle("/stats", "GET", exchange -> statsToJson());
+        handle("/", "GET", exchange -> "{\"endpoints\":[\"/records\",\"/paths\",\"/stats\"]}");
+        this.server.start();
+
+        log.info(String.format("Popular path server started at %s", getAddress()));
+    }
+
+    /**
+     * Get the address the server listens.
+     * @return The bound address.
+     */
+    public InetSocketAddress getAddress() {
+        return this.server.getAddress();
+    }
+
+    /**
+     * Stop the server, the requests in handling are waited for 1 second at most.
+     */
+    @Override
+    public void close() {
+        this.server.stop(1);
+        this.executor.shutdown();
+        log.info("Popular path server stopped");
+    }
+
+    /**
+     * Create the executor of the requests, virtual thread per request is used if the JDK supports it.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            final AtomicInteger threadSequence = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                final Thread thread = new Thread(runnable,
+                        String.format("popular-path-server-%d", threadSequence.incrementAndGet()));
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @FunctionalInterface
+    private interface Endpoint {
+        /**
+         * Handle a request.
+         * @param exchange The request and response.
+         * @return The response body, in JSON.
+         * @throws IOException The exception about reading request failed.
+         */
+        String handle(HttpExchange exchange) throws IOException;
+    }
+
+    private void handle(final String path, final String method, final Endpoint endpoint) {
+        final Latency latency = new Latency();
+        this.latencies.put(path, latency);
+
+        this.server.createContext(path, (HttpHandler) exchange -> {
+            final long begin = System.nanoTime();
+            int status = 200;
+            String body;
+            try {
+                if (!exchange.getRequestURI().getPath().equals(path)) {
+                    status = 404;
+                    body = errorToJson("Not found");
+                } else if (!exchange.getRequestMethod().equalsIgnoreCase(method)) {
+                    status = 405;
+                    body = errorToJson(String.format("Method %s is expected", method));
+                } else {
+                    body = endpoint.handle(exchange);
+                }
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                body = errorToJson(e.getMessage());
+            } catch (IOException e) {     // e.g. request body broken or client gone
+                log.warn(String.format("Read request %s failed: %s", exchange.getRequestURI(), e.getMessage()));
+                status = 400;
+                body = errorToJson(e.getMessage());
+            } catch (RuntimeException e) {
+                log.error(String.format("Handle request %s failed", exchange.getRequestURI()), e);
+                status = 500;
+                body = errorToJson(e.getMessage());
+            }
+
+            try {
+                final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                final long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin);
+                latency.record(micros);     // recorded before responding, the client sees its own request
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.getResponseHeaders().set(LATENCY_HEADER, Long.toString(micros));
+                exchange.sendResponseHeaders(status, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("%s %s %d in %dus", exchange.getRequestMethod(),
+                            exchange.getRequestURI(), status, micros));
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    private String handleRecords(final HttpExchange exchange) throws IOException {
+        // the body is read before taking the parser, a slow client doesn't stall the ingest of others.
+        final byte[] content = ByteStreams.toByteArray(exchange.getRequestBody());
+        final int records;
+        synchronized (this.parser) {    // the records of a user are linked in order
+            records = this.parser.parseLog(new ByteArrayInputStream(content));
+        }
+        return String.format("{\"records\":%d}", records);
+    }
+
+    private String handlePaths(final HttpExchange exchange) throws UnsupportedEncodingException {
+        final Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        final String user = params.get("user");
+        final Integer depth = params.containsKey("depth") ? parseInt(params.get("depth"), "depth") : null;
+        final int topN = params.containsKey("top") ? parseInt(params.get("top"), "top") : DEFAULT_TOP_N;
+
+        if (this.graph instanceof GraphRandom) {
+            final GraphRandom graph = (GraphRandom) this.graph;
+            final int _depth = depth == null ? Graph.DEFAULT_PATH_DEPTH : depth;
+            return user == null ? pathsToJson(graph.getAllPopularPath(_depth, topN)) :
+                    pathsToJson(user, graph.getPopularPath(_depth, topN, user));
+        } else if (this.graph instanceof GraphSequence) {
+            final GraphSequence graph = (GraphSequence) this.graph;
+            if (user == null) {
+                return pathsToJson(depth == null ? graph.getPopularPath(topN) : graph.getAllPopularPath(depth, topN));
+            } else {
+                return pathsToJson(user, depth == null ? graph.getPopularPath(topN, user) :
+                        graph.getPopularPath(depth, topN, user));
+            }
+        } else if (this.graph instanceof GraphSketch) {
+            final GraphSketch graph = (GraphSketch) this.graph;
+            Preconditions.checkArgument(user == null, "Parameter user is not supported by sketch graph");
+            Preconditions.checkArgument(depth == null || depth == graph.getDepth(),
+                    String.format("Parameter depth should be %d", graph.getDepth()));
+            return appendPaths(new StringBuilder("{\"paths\":"), graph.getSitePopularPath(topN)).append('}')
+                    .toString();
+        } else {
+            throw new UnsupportedOperationException(
+                    String.format("Graph %s is not supported", this.graph.getClass().getName()));
+        }
+    }
+
+    private static int parseInt(final String value, final String name) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Parameter %s should be an integer", name));
+        }
+    }
+
+    private static Map<String, String> parseQuery(final String query) throws UnsupportedEncodingException {
+        final Map<String, String> ret = new HashMap<>();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                final int pos = param.indexOf('=');
+                if (pos > 0) {
+                    ret.put(URLDecoder.decode(param.substring(0, pos), StandardCharsets.UTF_8.name()),
+                            URLDecoder.decode(param.substring(pos + 1), StandardCharsets.UTF_8.name()));
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static String pathsToJson(final Map<String, List<Map.Entry<String, Integer>>> result) {
+        final StringBuilder ret = new StringBuilder("{\"users\":{");
+        result.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(user -> {
+            if (ret.charAt(ret.length() - 1) != '{') {
+                ret.append(',');
+            }
+            appendString(ret, user.getKey()).append(':');
+            appendPaths(ret, user.getValue());
+        });
+        return ret.append("}}").toString();
+    }
+
+    private static String pathsToJson(final String user, final List<Map.Entry<String, Integer>> result) {
+        final StringBuilder ret = new StringBuilder("{\"user\":");
+        appendString(ret, user).append(",\"paths\":");
+        return appendPaths(ret, result).append('}').toString();
+    }
+
+    private static StringBuilder appendPaths(final StringBuilder ret, final List<Map.Entry<String, Integer>> paths) {
+        ret.append('[');
+        for (int i = 0; i < paths.size(); i++) {
+            if (i > 0) {
+                ret.append(',');
+            }
+            ret.append("{\"path\":");
+            appendString(ret, paths.get(i).getKey()).append(",\"frequency\":").append(paths.get(i).getValue());
+            ret.append('}');
+        }
+        return ret.append(']');
+    }
+
+    private String statsToJson() {
+        final StringBuilder ret = new StringBuilder("{");
+        this.latencies.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(item -> {
+            if (ret.length() > 1) {
+                ret.append(',');
+            }
+            final long requests = item.getValue().requests.sum();
+            appendString(ret, item.getKey()).append(String.format(
+                    ":{\"requests\":%d,\"meanLatencyMicros\":%d,\"maxLatencyMicros\":%d}", requests,
+                    requests == 0 ? 0 : item.getValue().totalMicros.sum() / requests,
+                    item.getValue().maxMicros.get()));
+        });
+        final SessionCache sessions = this.parser.getSessions();
+        ret.append(String.format(",\"sessions\":{\"max\":%d,\"hits\":%d,\"misses\":%d,\"evictions\":%d}",
+                sessions.getMaxSessions(), sessions.getHits(), sessions.getMisses(), sessions.getEvictions()));
+        return ret.append('}').toString();
+    }
+
+    private static String errorToJson(final String message) {
+        return appendString(new StringBuilder("{\"error\":"), message == null ? "" : message).append('}').toString();
+    }
+
+    private static StringBuilder appendString(final StringBuilder ret, final String value) {
+        ret.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                ret.append('\\').append(c);
+            } else if (c < ' ') {
+                ret.append(String.format("\\u%04x", (int) c));
+            } else {
+                ret.append(c);
+            }
+        }
+        return ret.append('"');
+    }
+
+    /**
+     * The latency of an endpoint.
+     */
+    private final static class Latency {
+
+        private final LongAdder requests = new LongAdder();
+
+        private final LongAdder totalMicros = new LongAdder();
+
+        private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+        void record(final long micros) {
+            this.requests.increment();
+            this.totalMicros.add(micros);
+            this.maxMicros.accumulate(micros);
+        }
+    }
+}
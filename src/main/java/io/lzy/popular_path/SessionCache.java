@@ -0,0 +1,115 @@
+package io.lzy.popular_path;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Preconditions;
+
+import io.lzy.popular_path.model.Edge;
+import io.lzy.popular_path.model.Graph;
+import io.lzy.popular_path.model.Node;
+
+/**
+ * @author zhiyan
+ *
+ * A bounded cache of the user sessions, as the node parents of the owners used by the parser to link next record
+ *  of the same owner. The key is edge owner id, the value is last node and edge generated of the owner.
+ *
+ * The least recently used session is evicted when the cache is full, the evicted user simply starts a new path
+ *  from the next record, so an idle user costs no memory and the parser works on an unbounded amount of users.
+ *  The records of a batch are applied by owner lock stripe (see {@link Graph#touchNodes}), so the recency of
+ *  the users active in the same batch follows the stripe order rather than the record order.
+ *
+ * It is not thread-safe like the parser, but the counters can be read by any thread.
+ */
+class SessionCache extends LinkedHashMap<Integer, Map.Entry<Node, Edge>> {
+
+    private final static long serialVersionUID = 1L;
+
+    /**
+     * Estimated heap size of a session in byte: linked hash map entry, bucket slot, boxed key and the pair value.
+     */
+    final static int SESSION_BYTES = 96;
+
+    private final int maxSessions;
+
+    private final LongAdder hits;
+
+    private final LongAdder misses;
+
+    private final LongAdder evictions;
+
+    /**
+     * Create new session cache.
+     * @param maxSessions The max number of the sessions to keep.
+     */
+    SessionCache(final int maxSessions) {
+        super(16, 0.75f, true);     // access order for LRU
+        Preconditions.checkArgument(maxSessions > 0, "Max sessions parameter should greater than 0");
+
+        this.maxSessions = maxSessions;
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+
+    /**
+     * Calculate the max number of the sessions fit into a memory cap.
+     * @param memoryBytes The heap size allowed for the sessions in byte.
+     * @return The max number of the sessions, 1 at least.
+     */
+    static int maxSessionsOf(final long memoryBytes) {
+        Preconditions.checkArgument(memoryBytes > 0, "Memory cap parameter should greater than 0");
+
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBytes / SESSION_BYTES));
+    }
+
+    int getMaxSessions() {
+        return this.maxSessions;
+    }
+
+    /**
+     * Get the number of the records whose user session is found.
+     * @return Hit count.
+     */
+    long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Get the number of the records whose user has no session, as a new or evicted user.
+     * @return Miss count.
+     */
+    long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Get the number of the sessions evicted.
+     * @return Eviction count.
+     */
+    long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    @Override
+    public Map.Entry<Node, Edge> get(final Object key) {
+        final Map.Entry<Node, Edge> ret = super.get(key);
+        if (ret == null) {
+            this.misses.increment();
+        } else {
+            this.hits.increment();
+        }
+        return ret;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<Integer, Map.Entry<Node, Edge>> eldest) {
+        if (size() > this.maxSessions) {
+            this.evictions.increment();
+            return true;
+        }
+        return false;
+    }
+}
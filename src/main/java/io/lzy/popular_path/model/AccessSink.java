@@ -0,0 +1,70 @@
+package io.lzy.popular_path.model;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * @author zhiyan
+ *
+ * The ingest contract of the access records, what {@link io.lzy.popular_path.LogParser} feeds: the names of
+ *  the records are turned into int ids and the records are applied in batch. {@link Graph} links the records
+ *  into nodes and edges, {@link GraphSketch} counts the paths walked only.
+ *
+ * The node names are interned by {@link #getNodeSymbols()}. The owner names are interned by
+ *  {@link #getOwnerSymbols()}, or keyed by {@link #hashOwner(byte[], int, int)} when the sink doesn't keep
+ *  the owners, so the memory of such a sink doesn't grow with the distinct users.
+ */
+public interface AccessSink {
+
+    /**
+     * Get node name dictionary of the sink.
+     * @return The node name dictionary.
+     */
+    SymbolTable getNodeSymbols();
+
+    /**
+     * Get owner (user) name dictionary of the sink.
+     * @return The owner name dictionary, or null if the owners are not interned, the owner id of a record is
+     *  the hash of its name then, see {@link #hashOwner(byte[], int, int)}.
+     */
+    SymbolTable getOwnerSymbols();
+
+    /**
+     * Apply the records in batch, the records of an owner are applied in order.
+     * @param edgeOwners The owner ids of the records. In our case, this is user name id.
+     * @param nodeIds The node name ids of the records, interned by {@link #getNodeSymbols()}.
+     * @param timestamps The access times of the records in millisecond, {@link Graph#NO_TIMESTAMP} for a record
+     *                   without time. Value null means no record has time.
+     * @param offset The offset of first record in the arrays.
+     * @param length The amount of records.
+     * @param nodeParents Parent node and pre-order edge of the owner kept by the caller. The key is edge owner id.
+     * @return The amount of records applied, duplicated record (e.g. node refresh) is not counted.
+     */
+    int touchNodes(int[] edgeOwners, int[] nodeIds, long[] timestamps, int offset, int length,
+                   Map<Integer, Map.Entry<Node, Edge>> nodeParents);
+
+    /**
+     * Key an owner name by hash for the sink doesn't intern the owners. Two owners might share a key, the expected
+     *  number of the colliding pairs is about n * n / 2^33 for n owners, e.g. about 11.6k pairs for 10M owners.
+     * @param name The bytes of the owner name in the charset of the access log.
+     * @param offset The offset of the name in the bytes.
+     * @param length The length of the name.
+     * @return The owner id.
+     */
+    static int hashOwner(final byte[] name, final int offset, final int length) {
+        return Hashing.murmur3_32().hashBytes(name, offset, length).asInt();
+    }
+
+    /**
+     * Key an owner name by hash, see {@link #hashOwner(byte[], int, int)}.
+     * @param name The owner name, it should be trimmed already.
+     * @param charset The charset of the access log.
+     * @return The owner id.
+     */
+    static int hashOwner(final String name, final Charset charset) {
+        final byte[] bytes = name.getBytes(charset);
+        return hashOwner(bytes, 0, bytes.length);
+    }
+}
@@ -1,21 +1,25 @@
 package io.lzy.popular_path.model;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 import com.google.common.base.Preconditions;
-import lombok.Data;
+import lombok.Getter;
 
 /**
  * @author zhiyan
+ *
+ * Edges use object identity for equality, the pre-edge sets of the edges on a revisit cycle contain each other.
  */
 // FIXME(zhiyan): Return deep copied result to client if/when needed, internal objects exposed by result.
-@Data
+@Getter
 public class Edge {    // protected, use by Node.
     /**
-     * The owner name of edge migrate to the next node from the parent node. In our case, this is user name.
+     * The owner id of edge migrate to the next node from the parent node. In our case, this is user name id.
+     * @see Graph#getOwnerSymbols()
      */
-    private final String owner;
+    private final int owner;
 
     /**
      * Parent node object.
@@ -29,28 +33,29 @@ public class Edge {    // protected, use by Node.
     private final Node outNode;
 
     /**
-     * The list of Pre-order edge which drives parent node access next node with this edge.
+     * The set of Pre-order edge which drives parent node access next node with this edge.
      * When the edge link out to parent node, this field will be null.
+     *
+     * The set is identity-based, membership is checked for every out-edge while walking and ingesting the paths,
+     *  so it costs O(1). The set is guarded by the owner lock of the graph.
      */
-    private final List<Edge> preEdges;
+    private final Set<Edge> preEdges;
 
     /**
      * Create new edge.
-     * @param owner The owner name of the edge. In our case, this is user name.
+     * @param owner The owner id of the edge. In our case, this is user name id.
      * @param inNode Parent node.
      * @param outNode Next node.
      * @param preEdge The list of Pre-order edge which drive parent node access next node with this edge by a user.
      */
-    public Edge(final String owner, final Node inNode, final Node outNode, final Edge preEdge) {
-        Preconditions.checkNotNull(owner, "Edge owner name should not be null");
+    public Edge(final int owner, final Node inNode, final Node outNode, final Edge preEdge) {
+        Preconditions.checkArgument(owner >= 0, "Edge owner id should not be negative");
         Preconditions.checkNotNull(outNode, "Next node object should not be null");
-        final String _owner = owner.trim();
-        Preconditions.checkArgument(_owner.length() > 0, "Edge owner name should not be empty");
 
-        this.owner = _owner;
+        this.owner = owner;
         this.inNode = inNode;
         this.outNode = outNode;
-        this.preEdges = new ArrayList<>();
+        this.preEdges = Collections.newSetFromMap(new IdentityHashMap<>(2));
         if (preEdge != null) {
             preEdges.add(preEdge);
         }
@@ -1,6 +1,13 @@
 package io.lzy.popular_path.model;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
@@ -15,78 +22,340 @@ import lombok.extern.slf4j.Slf4j;
  * @author zhiyan
  *
  * Base Graph implementation, which contains all generaic functions.
+ *
+ * Graph mutation is lock-striped by edge owner: the records of different owners can be added by multiple ingest
+ *  threads at the same time, the records of the same owner are serialized by the owner lock
+ *  (see {@link #getOwnerLock(int)}). All the edges and the node list of an owner are only changed under the
+ *  owner lock, so path evaluation for an owner is consistent when the owner lock is held. A query copies
+ *  the nodes and edges of an owner under the owner lock and evaluates the paths on the copy after releasing it,
+ *  so a long query doesn't stall the ingest threads.
+ *  The node map is a concurrent map and the edge lists of a node are guarded by the node itself.
  */
 @Slf4j
-public abstract class Graph {
+public abstract class Graph implements AccessSink {
 
     public final static String ROOT_NODE_NAME = "/";
+    public final static int ROOT_NODE_ID = 0;
     public final static String NODE_PATH_SEPARATOR = ROOT_NODE_NAME;
     public final static int DEFAULT_PATH_DEPTH = 3;
 
+    /**
+     * The timestamp of an access record without time, see {@link #touchNodes(int[], int[], long[], int, int, Map)}.
+     */
+    public final static long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    final static int OWNER_LOCK_STRIPES = 64;  // must be power of 2
+
+    /**
+     * Path evaluation engines.
+     */
+    public enum PathEngine {
+        /**
+         * Evaluate the paths recursively.
+         */
+        RECURSIVE,
+        /**
+         * Walk the paths with an explicit stack and reusable buffers, the path strings are materialized for
+         *  the top N paths only.
+         */
+        ITERATIVE
+    }
+
+    /**
+     * Path walkers of the threads, the buffers are reused by the path evaluations.
+     */
+    private final static ThreadLocal<PathWalker> PATH_WALKERS = ThreadLocal.withInitial(PathWalker::new);
+
+    /**
+     * Owner (user) name dictionary, edge owners are kept as int id of it in the graph.
+     */
+    private final SymbolTable ownerSymbols;
+
+    /**
+     * Node name dictionary, root node name is always interned as {@link #ROOT_NODE_ID}.
+     */
+    private final SymbolTable nodeSymbols;
+
     /**
      * All nodes.
-     * The key is node name of the node, will be used to accelerate
+     * The key is node name id of the node, will be used to accelerate
      * node reference operation with O(1) time complexity when the map used as a book.
      */
-    private final Map<String, Node> nodeMap;
+    private final Map<Integer, Node> nodeMap;
 
     /**
      * All nodes group by edge owner.
-     * The key is edge owner of the node, will be used to accelerate
+     * The key is edge owner id of the node, will be used to accelerate
      * popular node path search operation as a book.
+     * The node list of an owner is guarded by the owner lock.
+     */
+    private final Map<Integer, List<Node>> nodeMapByOwner;
+
+    /**
+     * Lock stripes of edge owners.
      */
-    private final Map<String, List<Node>> nodeMapByOwner;
+    private final Object[] ownerLocks;
+
+    private volatile PathEngine pathEngine;
+
+    private volatile QueryExecutor queryExecutor;
 
     /**
      * Create a graph.
      */
     Graph() {
-        this.nodeMap = new LinkedHashMap<>();
-        this.nodeMapByOwner = new LinkedHashMap<>();
+        this.ownerSymbols = new SymbolTable();
+        this.nodeSymbols = new SymbolTable();
+        this.nodeSymbols.intern(ROOT_NODE_NAME);
+        this.nodeMap = new ConcurrentHashMap<>();
+        this.nodeMapByOwner = new ConcurrentHashMap<>();
+        this.ownerLocks = new Object[OWNER_LOCK_STRIPES];
+        for (int i = 0; i < OWNER_LOCK_STRIPES; i++) {
+            this.ownerLocks[i] = new Object();
+        }
+        this.pathEngine = PathEngine.ITERATIVE;
+        this.queryExecutor = QueryExecutor.getDefault();
+    }
+
+    /**
+     * Get the path evaluation engine of the graph.
+     * @return Path evaluation engine, {@link PathEngine#ITERATIVE} by default.
+     */
+    public PathEngine getPathEngine() {
+        return this.pathEngine;
+    }
+
+    /**
+     * Set the path evaluation engine of the graph. Both engines give the same result.
+     * @param pathEngine Path evaluation engine.
+     */
+    public void setPathEngine(final PathEngine pathEngine) {
+        this.pathEngine = Preconditions.checkNotNull(pathEngine, "Path engine should not be null");
+    }
+
+    /**
+     * Get the executor of the queries.
+     * @return Query executor, {@link QueryExecutor#getDefault()} by default.
+     */
+    public QueryExecutor getQueryExecutor() {
+        return this.queryExecutor;
+    }
+
+    /**
+     * Set the executor of the queries, e.g. to bound the threads used by the queries.
+     * @param queryExecutor Query executor.
+     */
+    public void setQueryExecutor(final QueryExecutor queryExecutor) {
+        this.queryExecutor = Preconditions.checkNotNull(queryExecutor, "Query executor should not be null");
+    }
+
+    /**
+     * Get the lock of an edge owner. The edges and the node list of the owner are only changed under the lock,
+     *  the lock is shared by the owners in the same stripe.
+     * @param edgeOwner The edge owner id.
+     * @return The lock object.
+     */
+    protected final Object getOwnerLock(final int edgeOwner) {
+        return this.ownerLocks[edgeOwner & (OWNER_LOCK_STRIPES - 1)];
     }
 
     /**
      * Get node map which stores all nodes group by edge owner.
+     * The node list of an owner should be accessed under the owner lock.
      * @return node map
      */
-    Map<String, List<Node>> getNodeMapByOwner() {
+    Map<Integer, List<Node>> getNodeMapByOwner() {
         return this.nodeMapByOwner;
     }
 
     /**
-     * Path evaluation result collector.
-     * @see java.util.stream.Collector
+     * Get node map which stores all nodes, the key is node name id.
+     * @return node map
+     */
+    Map<Integer, Node> getNodeMap() {
+        return this.nodeMap;
+    }
+
+    /**
+     * Get owner (user) name dictionary of the graph.
+     * @return The owner name dictionary.
+     */
+    @Override
+    public SymbolTable getOwnerSymbols() {
+        return this.ownerSymbols;
+    }
+
+    /**
+     * Get node name dictionary of the graph.
+     * @return The node name dictionary.
+     */
+    @Override
+    public SymbolTable getNodeSymbols() {
+        return this.nodeSymbols;
+    }
+
+    /**
+     * Get node by name.
+     * @param nodeName Node name.
+     * @return The node, or null if the graph contains no node of the name.
      */
-    final class Collector implements java.util.stream.Collector<
-            List<Map.Entry<Integer, Map.Entry<String, Integer>>>,
-            List<Map.Entry<Integer, Map.Entry<String, Integer>>>,
-            List<Map.Entry<Integer, Map.Entry<String, Integer>>>> {
+    public Node getNode(final String nodeName) {
+        final int nodeId = this.nodeSymbols.lookup(nodeName);
+        return nodeId == SymbolTable.NO_SYMBOL ? null : getNode(nodeId);
+    }
+
+    /**
+     * Get node by name id.
+     * @param nodeId Node name id.
+     * @return The node, or null if the graph contains no node of the name.
+     */
+    public Node getNode(final int nodeId) {
+        return this.nodeMap.get(nodeId);
+    }
+
+    /**
+     * Check if the graph contains no node.
+     * @return Boolean value indicates if the graph is empty.
+     */
+    public boolean isEmpty() {
+        return this.nodeMap.isEmpty();
+    }
+
+    /**
+     * Run a query asynchronously. Cancelling the returned future stops the path evaluation of the query,
+     *  the future completes with {@link TimeoutException} if the query is not done before the deadline.
+     * @param query The query, it should check the cancellation state during the evaluation.
+     * @param timeout The time allowed to evaluate the query, value 0 means no deadline.
+     * @param unit The time unit of the timeout.
+     * @param executor The executor runs the query.
+     * @param <R> Result type.
+     * @return The future of the query result.
+     */
+    final <R> CompletableFuture<R> supplyAsync(final Function<QueryCancellation, R> query, final long timeout,
+                                               final TimeUnit unit, final Executor executor) {
+        Preconditions.checkArgument(timeout >= 0, "Timeout parameter should not be negative");
+        Preconditions.checkNotNull(unit, "Time unit should not be null");
+        Preconditions.checkNotNull(executor, "Executor should not be null");
+
+        final QueryCancellation cancellation = new QueryCancellation(unit.toNanos(timeout));
+        final CompletableFuture<R> ret = new CompletableFuture<>();
+        if (timeout > 0) {
+            // the future is completed at the deadline even if the query is queued or blocked on an owner lock.
+            final ScheduledFuture<?> timer = QueryCancellation.schedule(() -> ret.completeExceptionally(
+                    new TimeoutException(String.format("Query is not done in %d %s", timeout, unit))),
+                    unit.toNanos(timeout));
+            ret.whenComplete((result, e) -> timer.cancel(false));
+        }
+        ret.whenComplete((result, e) -> {
+            if (e != null) {    // cancelled or expired, the evaluation stops at the next check
+                cancellation.cancel();
+            }
+        });
+
+        try {
+            executor.execute(() -> {
+                if (ret.isDone()) {     // cancelled before running
+                    return;
+                }
+                try {
+                    cancellation.check();
+                    ret.complete(query.apply(cancellation));
+                } catch (Throwable e) {
+                    if (cancellation.isExpired() && !cancellation.isCancelled()) {
+                        ret.completeExceptionally(new TimeoutException(
+                                String.format("Query is not done in %d %s", timeout, unit)));
+                    } else {
+                        ret.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {  // rejected by the executor
+            ret.completeExceptionally(e);
+        }
+        return ret;
+    }
+
+    /**
+     * The last node and edge of an owner kept in the node parents by batch, updated in place by the records.
+     */
+    private final static class NodeParent implements Map.Entry<Node, Edge> {
 
-        final int currentDepth;
+        private Node node;
 
-        final int maxPathDepth;
+        private Edge edge;
+
+        NodeParent(final Node node, final Edge edge) {
+            set(node, edge);
+        }
+
+        void set(final Node node, final Edge edge) {
+            this.node = node;
+            this.edge = edge;
+        }
+
+        @Override
+        public Node getKey() {
+            return this.node;
+        }
+
+        @Override
+        public Edge getValue() {
+            return this.edge;
+        }
+
+        @Override
+        public Edge setValue(final Edge value) {
+            final Edge ret = this.edge;
+            this.edge = value;
+            return ret;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            final Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+            return Objects.equals(this.node, other.getKey()) && Objects.equals(this.edge, other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(this.node) ^ Objects.hashCode(this.edge);
+        }
+
+        @Override
+        public String toString() {
+            return this.node + "=" + this.edge;
+        }
+    }
+
+    /**
+     * Path evaluation result collector, keeps the top N paths only.
+     *  Each thread folds the results into its own partial container, the partial containers are merged at the end.
+     * @see java.util.stream.Collector
+     */
+    final static class Collector implements java.util.stream.Collector<TopPaths, TopPaths, TopPaths> {
+
+        final int topN;
 
         /**
          * Create new collector.
-         * @param currentDepth current path depth of the evaluation result in path evaluation recursion context.
-         * @param maxPathDepth max depth of the path evaluation.
+         * @param topN Indicates top N paths to keep.
          */
-        Collector(final int currentDepth, final int maxPathDepth) {
-            Preconditions.checkArgument(maxPathDepth > 1, "Max path depth parameter should greater than 1");
-            Preconditions.checkArgument(currentDepth > 0 && currentDepth <= maxPathDepth);
+        Collector(final int topN) {
+            Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
 
-            this.currentDepth = currentDepth;
-            this.maxPathDepth = maxPathDepth;
+            this.topN = topN;
         }
 
         /**
          * Creates and returns a new mutable result container.
-         * @return A function which returns a new, mutable evaluation result container,
-         * which is a list of the "path" => "frequency" pair.
+         * @return A function which returns a new, mutable evaluation result container.
          */
         @Override
-        public Supplier<List<Map.Entry<Integer, Map.Entry<String, Integer>>>> supplier() {
-            return LinkedList::new; // faster insert than array based list implementation.
+        public Supplier<TopPaths> supplier() {
+            return () -> new TopPaths(this.topN);
         }
 
         /**
@@ -94,20 +363,8 @@ public abstract class Graph {
          * @return A function which folds a value into a mutable evaluation result container.
          */
         @Override
-        public BiConsumer<List<Map.Entry<Integer, Map.Entry<String, Integer>>>,
-                List<Map.Entry<Integer, Map.Entry<String, Integer>>>> accumulator() {
-            return (list, items) -> items.parallelStream().forEach(item -> {
-                // skip short path, to speed up the sort process on path set at final stage.
-                if (item.getKey() - 1 != this.currentDepth || item.getKey() == this.maxPathDepth) {
-                    int pos = 0;
-                    for (pos = 0; pos < list.size(); pos++) {
-                        if (item.getValue().getValue() > list.get(pos).getValue().getValue()) {
-                            break;
-                        }
-                    }
-                    list.add(pos, item);
-                }
-            });
+        public BiConsumer<TopPaths, TopPaths> accumulator() {
+            return TopPaths::merge;
         }
 
         /**
@@ -115,11 +372,8 @@ public abstract class Graph {
          * @return A function which combines two partial results into a combined result.
          */
         @Override
-        public BinaryOperator<List<Map.Entry<Integer, Map.Entry<String, Integer>>>> combiner() {
-            return (left, right) -> {
-                left.addAll(right);
-                return left;
-            };
+        public BinaryOperator<TopPaths> combiner() {
+            return TopPaths::merge;
         }
 
         /**
@@ -128,9 +382,8 @@ public abstract class Graph {
          * @return A finisher function.
          */
         @Override
-        public Function<List<Map.Entry<Integer, Map.Entry<String, Integer>>>,
-                List<Map.Entry<Integer, Map.Entry<String, Integer>>>> finisher() {
-            return i -> (List<Map.Entry<Integer, Map.Entry<String, Integer>>>) i;
+        public Function<TopPaths, TopPaths> finisher() {
+            return Function.identity();
         }
 
         /**
@@ -140,7 +393,8 @@ public abstract class Graph {
         @Override
         public Set<Collector.Characteristics> characteristics() {
             // Indicates that the finisher function is the identity function and can be elided.
-            return Collections.unmodifiableSet(EnumSet.of(Collector.Characteristics.IDENTITY_FINISH));
+            return Collections.unmodifiableSet(EnumSet.of(Collector.Characteristics.IDENTITY_FINISH,
+                    Collector.Characteristics.UNORDERED));
         }
     }
 
@@ -154,6 +408,20 @@ public abstract class Graph {
      */
     public Map.Entry<Node, Edge> touchNode(
             final String nodeName, final Node parent, final Edge preEdge, final String edgeOwner) {
+        return touchNode(nodeName, parent, preEdge, edgeOwner, NO_TIMESTAMP);
+    }
+
+    /**
+     * Add new node or increase existing node reference at a time.
+     * @param nodeName Node name.
+     * @param parent Parent node.
+     * @param preEdge Pre-order edge, as an edge of parent node which drives parent node access next node.
+     * @param edgeOwner The owner name of edge migrate to the node from the parent. In our case, this is user name.
+     * @param timestamp The access time in millisecond, or {@link #NO_TIMESTAMP}.
+     * @return Added node and edge. A null value will be returned if input node is duplicated with parent one.
+     */
+    public Map.Entry<Node, Edge> touchNode(final String nodeName, final Node parent, final Edge preEdge,
+                                           final String edgeOwner, final long timestamp) {
         Preconditions.checkNotNull(edgeOwner, "Edge owner name should not be null");
         Preconditions.checkNotNull(nodeName, "Node name should not be null");
         String _edgeOwner = edgeOwner.trim();
@@ -161,122 +429,460 @@ public abstract class Graph {
         Preconditions.checkArgument(_edgeOwner.length() > 0, "Edge owner name should not be empty");
         Preconditions.checkArgument(_nodeName.length() > 0, "Node name should not be empty");
 
-        synchronized (this.nodeMap) {
-            Map.Entry<Node, Edge> item;
-            Node node = this.nodeMap.get(_nodeName);
-            Edge edge = null;
-
-            if (node == null) {                             // new node
-                if (_nodeName.equals(ROOT_NODE_NAME)) {
-                    item = Node.createRootNode(_edgeOwner);
-                    node = item.getKey();
-                    edge = item.getValue();
-                } else {
-                    Preconditions.checkNotNull(parent, "internal error");
-                    Preconditions.checkNotNull(preEdge, "internal error");
-                    item = Node.createNode(_nodeName, parent, preEdge, _edgeOwner);
-                    node = item.getKey();
-                    edge = item.getValue();
-                }
+        return touchNode(this.nodeSymbols.intern(_nodeName), parent, preEdge, this.ownerSymbols.intern(_edgeOwner),
+                timestamp);
+    }
+
+    /**
+     * Add new node or increase existing node reference.
+     * @param nodeId Node name id, interned by {@link #getNodeSymbols()}.
+     * @param parent Parent node.
+     * @param preEdge Pre-order edge, as an edge of parent node which drives parent node access next node.
+     * @param edgeOwner The owner id of edge migrate to the node from the parent, interned by
+     *                  {@link #getOwnerSymbols()}. In our case, this is user name id.
+     * @return Added node and edge. A null value will be returned if input node is duplicated with parent one.
+     */
+    public Map.Entry<Node, Edge> touchNode(
+            final int nodeId, final Node parent, final Edge preEdge, final int edgeOwner) {
+        return touchNode(nodeId, parent, preEdge, edgeOwner, NO_TIMESTAMP);
+    }
+
+    /**
+     * Add new node or increase existing node reference at a time.
+     * @param nodeId Node name id, interned by {@link #getNodeSymbols()}.
+     * @param parent Parent node.
+     * @param preEdge Pre-order edge, as an edge of parent node which drives parent node access next node.
+     * @param edgeOwner The owner id of edge migrate to the node from the parent, interned by
+     *                  {@link #getOwnerSymbols()}. In our case, this is user name id.
+     * @param timestamp The access time in millisecond, or {@link #NO_TIMESTAMP}.
+     * @return Added node and edge. A null value will be returned if input node is duplicated with parent one.
+     */
+    public Map.Entry<Node, Edge> touchNode(
+            final int nodeId, final Node parent, final Edge preEdge, final int edgeOwner, final long timestamp) {
+        Preconditions.checkArgument(this.nodeSymbols.contains(nodeId), "Node name id should be interned");
+        Preconditions.checkArgument(this.ownerSymbols.contains(edgeOwner), "Edge owner id should be interned");
+
+        synchronized (getOwnerLock(edgeOwner)) {
+            final Edge[] edge = new Edge[1];
+            final Node node = touchNodeInLock(nodeId, parent, preEdge, edgeOwner, timestamp, edge);
+            return new AbstractMap.SimpleEntry<>(node, edge[0]);
+        }
+    }
+
+    /**
+     * Add new nodes or increase existing node references in batch.
+     * All records are validated once before applying. The records are grouped by the lock stripe of their owners,
+     *  each stripe is locked once per batch and its records are applied in order, so the records of the same owner
+     *  are linked in order.
+     * The parent node and pre-order edge of each record are taken from the node parents, and the added node and edge
+     *  are written back to it. The value of an owner is replaced by a mutable pair at its first record, which is
+     *  updated in place by the following records, so no pair is allocated per record.
+     * @param edgeOwners The owner ids of the records, interned by {@link #getOwnerSymbols()}.
+     *                   In our case, this is user name id.
+     * @param nodeIds The node name ids of the records, interned by {@link #getNodeSymbols()}.
+     * @param offset The offset of first record in the arrays.
+     * @param length The amount of records.
+     * @param nodeParents Parent node and pre-order edge of the owner. The key is edge owner id.
+     * @return The amount of records added to the graph, duplicated record (e.g. node refresh) is not counted.
+     */
+    public int touchNodes(final int[] edgeOwners, final int[] nodeIds, final int offset, final int length,
+                          final Map<Integer, Map.Entry<Node, Edge>> nodeParents) {
+        return touchNodes(edgeOwners, nodeIds, null, offset, length, nodeParents);
+    }
+
+    /**
+     * Add new nodes or increase existing node references in batch, the records are accessed at the given times.
+     * @param edgeOwners The owner ids of the records, interned by {@link #getOwnerSymbols()}.
+     *                   In our case, this is user name id.
+     * @param nodeIds The node name ids of the records, interned by {@link #getNodeSymbols()}.
+     * @param timestamps The access times of the records in millisecond, {@link #NO_TIMESTAMP} for a record without
+     *                   time. Value null means no record has time.
+     * @param offset The offset of first record in the arrays.
+     * @param length The amount of records.
+     * @param nodeParents Parent node and pre-order edge of the owner. The key is edge owner id.
+     * @return The amount of records added to the graph, duplicated record (e.g. node refresh) is not counted.
+     * @see #touchNodes(int[], int[], int, int, Map)
+     */
+    @Override
+    public int touchNodes(final int[] edgeOwners, final int[] nodeIds, final long[] timestamps, final int offset,
+                          final int length, final Map<Integer, Map.Entry<Node, Edge>> nodeParents) {
+        Preconditions.checkNotNull(edgeOwners, "Edge owner ids should not be null");
+        Preconditions.checkNotNull(nodeIds, "Node name ids should not be null");
+        Preconditions.checkNotNull(nodeParents, "Node parents should not be null");
+        Preconditions.checkPositionIndexes(offset, offset + length, Math.min(edgeOwners.length, nodeIds.length));
+        if (timestamps != null) {
+            Preconditions.checkPositionIndexes(offset, offset + length, timestamps.length);
+        }
 
-                this.nodeMap.put(_nodeName, node);
-                List<Node> nodes = this.nodeMapByOwner.get(_edgeOwner);
-                if (nodes == null) {
-                    nodes = new ArrayList<>();
-                    this.nodeMapByOwner.put(_edgeOwner, nodes);
+        for (int i = offset; i < offset + length; i++) {
+            if (!this.ownerSymbols.contains(edgeOwners[i]) || !this.nodeSymbols.contains(nodeIds[i])) {
+                throw new IllegalArgumentException(String.format(
+                        "Edge owner id and node name id of record %d should be interned", i));
+            }
+        }
+
+        // the records are sorted by lock stripe stably, the offsets of the stripes are counted first.
+        final int[] stripeOffsets = new int[OWNER_LOCK_STRIPES + 1];
+        for (int i = offset; i < offset + length; i++) {
+            stripeOffsets[(edgeOwners[i] & (OWNER_LOCK_STRIPES - 1)) + 1]++;
+        }
+        for (int stripe = 0; stripe < OWNER_LOCK_STRIPES; stripe++) {
+            stripeOffsets[stripe + 1] += stripeOffsets[stripe];
+        }
+        final int[] records = new int[length];
+        final int[] positions = Arrays.copyOf(stripeOffsets, OWNER_LOCK_STRIPES);
+        for (int i = offset; i < offset + length; i++) {
+            records[positions[edgeOwners[i] & (OWNER_LOCK_STRIPES - 1)]++] = i;
+        }
+
+        // each stripe is locked once per batch, the threads start from different stripes to spread the contention.
+        int touched = 0;
+        final Edge[] edge = new Edge[1];
+        final int first = ThreadLocalRandom.current().nextInt(OWNER_LOCK_STRIPES);
+        for (int j = 0; j < OWNER_LOCK_STRIPES; j++) {
+            final int stripe = (first + j) & (OWNER_LOCK_STRIPES - 1);
+            if (stripeOffsets[stripe] == stripeOffsets[stripe + 1]) {
+                continue;
+            }
+            synchronized (this.ownerLocks[stripe]) {
+                for (int k = stripeOffsets[stripe]; k < stripeOffsets[stripe + 1]; k++) {
+                    final int i = records[k];
+                    final Map.Entry<Node, Edge> item = nodeParents.get(edgeOwners[i]);
+                    final Node node = touchNodeInLock(nodeIds[i], item == null ? null : item.getKey(),
+                            item == null ? null : item.getValue(), edgeOwners[i],
+                            timestamps == null ? NO_TIMESTAMP : timestamps[i], edge);
+                    if (node == null) {     // Skip duplicated access record, e.g. user refresh node accessing.
+                        continue;
+                    }
+                    if (item instanceof NodeParent) {
+                        ((NodeParent) item).set(node, edge[0]);
+                    } else {
+                        nodeParents.put(edgeOwners[i], new NodeParent(node, edge[0]));
+                    }
+                    touched++;
                 }
-                nodes.add(node);
+            }
+        }
+
+        return touched;
+    }
 
+    /**
+     * Add new node or increase existing node reference, the caller should hold the owner lock.
+     * @param nodeId Node name id.
+     * @param parent Parent node.
+     * @param preEdge Pre-order edge, as an edge of parent node which drives parent node access next node.
+     * @param edgeOwner The owner id of edge migrate to the node from the parent.
+     * @param timestamp The access time in millisecond, or {@link #NO_TIMESTAMP}.
+     * @param edgeOut The output of added or touched edge, at index 0.
+     * @return Added node. A null value will be returned if input node is duplicated with parent one.
+     */
+    private Node touchNodeInLock(final int nodeId, final Node parent, final Edge preEdge,
+                                 final int edgeOwner, final long timestamp, final Edge[] edgeOut) {
+        nodeTouching(edgeOwner);
+
+        Node node = this.nodeMap.get(nodeId);
+        Edge edge = null;
+        boolean created = false;
+
+        if (node == null) {
+            // the node might be added by other owner at the same time, only one of them is kept.
+            final Node newNode = new Node(nodeId, this.nodeSymbols.name(nodeId), edgeOwner);
+            node = this.nodeMap.putIfAbsent(nodeId, newNode);
+            if (node == null) {
+                node = newNode;
+                created = true;
+            }
+        }
+
+        if (created) {                                  // new node
+            edge = node.linkParent(parent, preEdge, edgeOwner);
+            edgeLinked(edge, preEdge, edgeOwner, true);
+            getOwnerNodes(edgeOwner).add(node);
+
+            if (log.isDebugEnabled()) {
                 log.debug(String.format("New node added. Edge owner: %s, parent node name: %s, child node name: %s",
-                        _edgeOwner, parent == null ? "<null>" : parent.getName(), node.getName()));
-            } else if (!node.equals(parent)) {              // add node reference, skip node accessing refresh.
-                int refCount = node.addRef(_edgeOwner);
-
-                if (!node.isParent(parent, _edgeOwner)) {    // new node in-edge
-                    edge = node.linkParent(parent, preEdge, _edgeOwner);
-                } else if (!node.hasPreEdge(parent, _edgeOwner, preEdge)) {
-                    edge = node.linkPreEdge(parent, preEdge, _edgeOwner);
-                }
+                        this.ownerSymbols.name(edgeOwner), parent == null ? "<null>" : parent.getName(),
+                        node.getName()));
+            }
+        } else if (!node.equals(parent)) {              // add node reference, skip node accessing refresh.
+            int refCount = node.addRef(edgeOwner);
+
+            if (!node.isParent(parent, edgeOwner)) {    // new node in-edge
+                edge = node.linkParent(parent, preEdge, edgeOwner);
+                edgeLinked(edge, preEdge, edgeOwner, true);
+            } else if (preEdge != null && !node.hasPreEdge(parent, edgeOwner, preEdge)) {
+                edge = node.linkPreEdge(parent, preEdge, edgeOwner);
+                edgeLinked(edge, preEdge, edgeOwner, false);
+            } else {                                    // walk on a known path again
+                edge = node.getInEdge(parent, edgeOwner);
+            }
 
-                List<Node> nodes = this.nodeMapByOwner.get(_edgeOwner);
-                if (nodes == null) {
-                    nodes = new ArrayList<>();
-                    this.nodeMapByOwner.put(_edgeOwner, nodes);
-                }
-                if (refCount == 1) {
-                    nodes.add(node);
-                }
+            if (refCount == 1) {
+                getOwnerNodes(edgeOwner).add(node);
+            }
 
+            if (log.isDebugEnabled()) {
                 log.debug(String.format(
                         "Existing node touched. Edge owner: %s, parent node name: %s, child node name: %s",
-                        _edgeOwner, parent == null ? "<null>" : parent.getName(), node.getName()));
-            } else {
-                // needn't to add new node
-                node = null;
+                        this.ownerSymbols.name(edgeOwner), parent == null ? "<null>" : parent.getName(),
+                        node.getName()));
+            }
+        } else {
+            // needn't to add new node
+            node = null;
+        }
+
+        if (node != null) {
+            nodeTouched(node, edge, preEdge, edgeOwner, timestamp);
+        }
+
+        edgeOut[0] = edge;
+        return node;
+    }
+
+    /**
+     * Get the node list of an owner, the caller should hold the owner lock.
+     * @param edgeOwner The edge owner id.
+     * @return The node list of the owner, a new list will be added if the owner has no node yet.
+     */
+    private List<Node> getOwnerNodes(final int edgeOwner) {
+        List<Node> nodes = this.nodeMapByOwner.get(edgeOwner);
+        if (nodes == null) {
+            nodes = new ArrayList<>();
+            this.nodeMapByOwner.put(edgeOwner, nodes);
+        }
+        return nodes;
+    }
+
+    /**
+     * Copy the nodes and the edges of an owner into a private view, the caller should hold the owner lock.
+     *  The copy takes time proportional to the nodes and edges of the owner, the view is not changed by ingest
+     *  threads, so the paths can be evaluated on the view after the owner lock is released.
+     * @param nodes The node list of the owner.
+     * @param edgeOwner The edge owner id.
+     * @return The copied nodes, in the order of the node list. Only the edges and the reference count
+     *      of the owner are copied.
+     */
+    final List<Node> copyOwnerView(final List<Node> nodes, final int edgeOwner) {
+        final Map<Node, Node> nodeCopies = new IdentityHashMap<>(nodes.size() * 2);
+        final List<Node> ret = new ArrayList<>(nodes.size());
+        final Function<Node, Node> copyNode = node -> {
+            final Node copy = new Node(node.getId(), node.getName());
+            final int refCount = node.getRefCount(edgeOwner);
+            if (refCount > 0) {
+                copy.setRefCount(edgeOwner, refCount);
             }
+            return copy;
+        };
+        for (Node node : nodes) {
+            ret.add(nodeCopies.computeIfAbsent(node, copyNode));
+        }
 
-            return new AbstractMap.SimpleEntry<>(node, edge);
+        // edges, pre-order edges are linked after all edges of the owner are copied.
+        final Map<Edge, Edge> edgeCopies = new IdentityHashMap<>();
+        for (Node node : nodes) {
+            for (Edge edge : node.getInEdges(edgeOwner)) {
+                final Node inNode = edge.getInNode() == null ?
+                        null : nodeCopies.computeIfAbsent(edge.getInNode(), copyNode);
+                final Edge copy = new Edge(edgeOwner, inNode, nodeCopies.get(node), null);
+                nodeCopies.get(node).addInEdge(copy);
+                if (inNode != null) {
+                    inNode.addOutEdge(copy);
+                }
+                edgeCopies.put(edge, copy);
+            }
         }
+        edgeCopies.forEach((edge, copy) -> edge.getPreEdges().forEach(preEdge -> {
+            final Edge preEdgeCopy = edgeCopies.get(preEdge);
+            if (preEdgeCopy != null) {
+                copy.getPreEdges().add(preEdgeCopy);
+            }
+        }));
+        return ret;
+    }
+
+    /**
+     * Hook of touching a node of an owner, called under the owner lock before the node is added or touched.
+     * @param edgeOwner The owner id of edge migrate to the node from the parent. In our case, this is user name id.
+     */
+    protected void nodeTouching(final int edgeOwner) {
+        // nothing to do by default
+    }
+
+    /**
+     * Hook of an edge added or a pre-order edge linked to an existing edge, called under the owner lock.
+     * @param edge The edge added or linked.
+     * @param preEdge The pre-order edge linked to the edge, it is null for the first record of the owner.
+     * @param edgeOwner The owner id of the edge. In our case, this is user name id.
+     * @param created Boolean value indicates if the edge is new.
+     */
+    protected void edgeLinked(final Edge edge, final Edge preEdge, final int edgeOwner, final boolean created) {
+        // nothing to do by default
+    }
+
+    /**
+     * Hook of node touched, called under the owner lock.
+     * @param node The node added or touched.
+     * @param edge The edge added or touched.
+     * @param preEdge The pre-order edge the edge is touched with, it is null for the first record of the owner.
+     * @param edgeOwner The owner id of edge migrate to the node from the parent. In our case, this is user name id.
+     * @param timestamp The access time in millisecond, or {@link #NO_TIMESTAMP}.
+     */
+    protected void nodeTouched(final Node node, final Edge edge, final Edge preEdge, final int edgeOwner,
+                               final long timestamp) {
+        // nothing to do by default
     }
 
     /**
-     * Evaluate a path.
+     * Evaluate a path, the caller should hold the owner lock so the edges of the owner are not changed during
+     *  the evaluation, or evaluate on a view copied by {@link #copyOwnerView}. Path evaluation might run in
+     *  the query executor, it must not wait on the owner lock by itself.
      * @param startNode The start node of the path to evaluate.
      * @param preEdge The pre-order edge which drives start node access the path.
-     * @param edgeOwner The edge owner name of all the nodes in the path. In our case, this is user name.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
      * @param maxPathDepth max depth of the path to evaluate.
-     * @return Evaluation result. A list of the "path" => "frequency" pair.
+     * @param topN Indicates top N paths to keep.
+     * @return Evaluation result. A list of the "path" => "frequency" pair, the most popular path first.
      */
     protected List<Map.Entry<String, Integer>> evaluatePath(
-            final Node startNode, final Edge preEdge, final String edgeOwner, final int maxPathDepth) {
+            final Node startNode, final Edge preEdge, final int edgeOwner, final int maxPathDepth, final int topN) {
+        return evaluateTopPaths(startNode, preEdge, edgeOwner, maxPathDepth, topN).toList();
+    }
+
+    /**
+     * Evaluate a path and keep the top N paths, the caller should hold the owner lock.
+     * @param startNode The start node of the path to evaluate.
+     * @param preEdge The pre-order edge which drives start node access the path.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
+     * @param maxPathDepth max depth of the path to evaluate.
+     * @param topN Indicates top N paths to keep.
+     * @return Evaluation result.
+     */
+    TopPaths evaluateTopPaths(
+            final Node startNode, final Edge preEdge, final int edgeOwner, final int maxPathDepth, final int topN) {
+        return evaluateTopPaths(startNode, preEdge, edgeOwner, maxPathDepth, maxPathDepth, topN)[0];
+    }
+
+    /**
+     * Evaluate the paths of a range of depths and keep the top N paths of each depth, the caller should hold
+     *  the owner lock. The iterative engine evaluates all the depths in one pass.
+     * @param startNode The start node of the path to evaluate.
+     * @param preEdge The pre-order edge which drives start node access the path.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
+     * @param minPathDepth min depth of the path to evaluate.
+     * @param maxPathDepth max depth of the path to evaluate.
+     * @param topN Indicates top N paths to keep for each depth.
+     * @return Evaluation results, the result of depth D is at index D - minPathDepth.
+     */
+    TopPaths[] evaluateTopPaths(final Node startNode, final Edge preEdge, final int edgeOwner,
+                                final int minPathDepth, final int maxPathDepth, final int topN) {
+        return evaluateTopPaths(startNode, preEdge, edgeOwner, minPathDepth, maxPathDepth, topN,
+                QueryCancellation.NONE);
+    }
+
+    /**
+     * Evaluate the paths of a range of depths and keep the top N paths of each depth, the evaluation stops
+     *  when the query is cancelled.
+     * @param startNode The start node of the path to evaluate.
+     * @param preEdge The pre-order edge which drives start node access the path.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
+     * @param minPathDepth min depth of the path to evaluate.
+     * @param maxPathDepth max depth of the path to evaluate.
+     * @param topN Indicates top N paths to keep for each depth.
+     * @param cancellation The cancellation state of the query.
+     * @return Evaluation results, the result of depth D is at index D - minPathDepth.
+     */
+    TopPaths[] evaluateTopPaths(final Node startNode, final Edge preEdge, final int edgeOwner,
+                                final int minPathDepth, final int maxPathDepth, final int topN,
+                                final QueryCancellation cancellation) {
         Preconditions.checkNotNull(startNode, "Start node should not be null");
-        Preconditions.checkNotNull(edgeOwner, "Edge owner name should not be null");
-        final String _edgeOwner = edgeOwner.trim();
-        Preconditions.checkArgument(_edgeOwner.length() > 0, "Edge owner name should not be empty");
-        Preconditions.checkArgument(maxPathDepth > 0, "Path depth parameter should greater than 0");
+        Preconditions.checkArgument(edgeOwner >= 0, "Edge owner id should not be negative");
+        Preconditions.checkArgument(minPathDepth > 0, "Path depth parameter should greater than 0");
+        Preconditions.checkArgument(maxPathDepth >= minPathDepth, "Path depth range should not be empty");
+        Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
+
+        if (this.pathEngine == PathEngine.ITERATIVE) {
+            PathWalker walker = PATH_WALKERS.get();
+            if (walker.isBusy()) {  // a nested evaluation task run by the thread during waiting
+                walker = new PathWalker();
+            }
+            return walker.walk(this, startNode, preEdge, edgeOwner, minPathDepth, maxPathDepth, topN, cancellation);
+        } else {
+            final TopPaths[] ret = new TopPaths[maxPathDepth - minPathDepth + 1];
+            for (int depth = minPathDepth; depth <= maxPathDepth; depth++) {
+                ret[depth - minPathDepth] = evaluatePath(startNode, preEdge, edgeOwner, depth, 1, "", 0,
+                        new Collector(topN), cancellation);
+            }
+            return ret;
+        }
+    }
 
-        synchronized (startNode) {   // will parallel process previous nodes
-            return evaluatePath(startNode, preEdge, _edgeOwner, maxPathDepth, 1, "", 0).stream()
-                    .filter(item -> item.getKey() == maxPathDepth)  // for single node case
-                    .map(Map.Entry::getValue).collect(Collectors.toList());
+    /**
+     * Sum up the frequencies of all the paths of a depth into a container, the caller should hold the owner lock
+     *  or evaluate on a view copied by {@link #copyOwnerView}. The paths are always walked by the iterative engine,
+     *  no path string is generated.
+     * @param startNode The start node of the path to evaluate.
+     * @param preEdge The pre-order edge which drives start node access the path.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
+     * @param pathDepth depth of the path to evaluate.
+     * @param counts The container to sum up into.
+     */
+    void countPaths(final Node startNode, final Edge preEdge, final int edgeOwner, final int pathDepth,
+                    final PathCounts counts) {
+        Preconditions.checkNotNull(startNode, "Start node should not be null");
+        Preconditions.checkArgument(pathDepth > 0, "Path depth parameter should greater than 0");
+
+        PathWalker walker = PATH_WALKERS.get();
+        if (walker.isBusy()) {  // a nested evaluation task run by the thread during waiting
+            walker = new PathWalker();
         }
+        walker.count(this, startNode, preEdge, edgeOwner, pathDepth, counts, QueryCancellation.NONE);
     }
 
     /**
-     * Evaluate a path recursively.
+     * Evaluate a path recursively. Only the paths reach max depth are collected.
      * @param node The current node of the path evaluation recursion.
      * @param preEdge The pre-order edge which drives parent node access current node of the path evaluation recursion.
-     * @param edgeOwner The edge owner name of all the nodes in the path. In our case, this is user name.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
      * @param maxPathDepth Max depth of the path to evaluate.
      * @param currentDepth The current depth of the path evaluation recursion.
      * @param fullPath The accumulative path of the path evaluation.
      * @param nodeRefCount The accumulative frequency of all nodes in the path of the path evaluation.
-     * @return Evaluation result of the path evaluation recursion. A list of the "path" => "frequency" pair.
+     * @param collector The collector keeps the top N paths.
+     * @param cancellation The cancellation state of the query, it is checked by each recursion.
+     * @return Evaluation result of the path evaluation recursion.
      */
-    protected List<Map.Entry<Integer, Map.Entry<String, Integer>>> evaluatePath(
-            final Node node, final Edge preEdge, final String edgeOwner, final int maxPathDepth,
-            final int currentDepth, final String fullPath, final int nodeRefCount) {
+    private TopPaths evaluatePath(
+            final Node node, final Edge preEdge, final int edgeOwner, final int maxPathDepth,
+            final int currentDepth, final String fullPath, final int nodeRefCount, final Collector collector,
+            final QueryCancellation cancellation) {
+        cancellation.check();
         final String currentPath = genCurrentPath(node, fullPath);
         final int refCount = nodeRefCount + node.getRefCount(edgeOwner);
-        if (currentDepth == maxPathDepth || isLastNode(node, preEdge, edgeOwner)) { // end of recursion
-            return Arrays.asList(new AbstractMap.SimpleEntry<>(
-                    currentDepth, new AbstractMap.SimpleEntry<>(currentPath, refCount)));
+        final TopPaths ret;
+        if (currentDepth == maxPathDepth) {     // end of recursion
+            ret = collector.supplier().get();
+            ret.offer(new AbstractMap.SimpleEntry<>(currentPath, refCount));
+        } else if (isLastNode(node, preEdge, edgeOwner)) {  // short path, skipped
+            ret = collector.supplier().get();
         } else {    // handle follow nodes
-            return getNextEdges(node, preEdge, edgeOwner)
-                    .map(edge -> evaluatePath(
-                            getNextNode(edge), edge, edgeOwner, maxPathDepth, currentDepth + 1, currentPath, refCount))
-                    .collect(new Collector(currentDepth, maxPathDepth));
+            ret = getNextEdges(node, preEdge, edgeOwner)
+                    .map(edge -> evaluatePath(getNextNode(edge), edge, edgeOwner, maxPathDepth,
+                            currentDepth + 1, currentPath, refCount, collector, cancellation))
+                    .collect(collector);
         }
+        return ret;
     }
 
     /**
      * Check if a node is the last one of the path to evaluate.
      * @param node Node to check.
      * @param preEdge The pre-order edge which drives start node access the path.
-     * @param edgeOwner The edge owner name of all the nodes in the path. In our case, this is user name.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
      * @return Boolean value indicates if the node is the last one of the path to evaluate.
      */
-    protected abstract boolean isLastNode(final Node node, final Edge preEdge, final String edgeOwner);
+    protected abstract boolean isLastNode(final Node node, final Edge preEdge, final int edgeOwner);
 
     /**
      * Generate full path according to previous full path.
@@ -286,14 +892,28 @@ public abstract class Graph {
      */
     protected abstract String genCurrentPath(final Node node, final String preFullPath);
 
+    /**
+     * Generate the path string of the nodes, in the same way of the path evaluation.
+     * @param nodes The nodes of the path.
+     * @param depth The number of the nodes in the path.
+     * @return The path string.
+     */
+    final String genPath(final Node[] nodes, final int depth) {
+        String path = "";
+        for (int i = 0; i < depth; i++) {
+            path = genCurrentPath(nodes[i], path);
+        }
+        return path;
+    }
+
     /**
      * Get next batch of edges to evaluate.
      * @param node The source node.
      * @param preEdge The pre-order edge which drives start node access the path.
-     * @param edgeOwner The edge owner name of all the nodes in the path. In our case, this is user name.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
      * @return The stream can fetch proper edges out to evaluate.
      */
-    protected abstract Stream<Edge> getNextEdges(final Node node, final Edge preEdge, final String edgeOwner);
+    protected abstract Stream<Edge> getNextEdges(final Node node, final Edge preEdge, final int edgeOwner);
 
     /**
      * Get next node to evaluate.
@@ -1,10 +1,16 @@
 package io.lzy.popular_path.model;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Stream;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 
 /**
  * @author zhiyan
@@ -13,35 +19,162 @@ import com.google.common.base.Preconditions;
  *  allow client ad-hoc query popular path contains any number of sequential path.
  *
  * If you want to get better query performance, you might check {@link GraphSequence}.
+ *
+ * A query evaluates the paths on a private view of the owner copied under the owner lock, so the ingest threads
+ *  of the owner are blocked for the copy only, not for the evaluation.
+ *
+ * The results of the queries are kept in a bounded LRU cache, so the same query between ingest batches needn't
+ *  evaluate the paths again. Each owner has a version counter increased by touching node, the cached result of
+ *  an owner is valid only if it was evaluated in the current version. A cached result of larger top N answers
+ *  the query of smaller top N.
  */
 public class GraphRandom extends Graph {
 
+    public final static int DEFAULT_QUERY_CACHE_SIZE = 1024;
+
+    /**
+     * Versions of the owners, the key is edge owner id. The version of an owner is increased under the owner lock.
+     */
+    private final Map<Integer, AtomicLong> ownerVersions;
+
+    /**
+     * Cached query results, the key is combined by edge owner id and path depth. Guarded by the map itself.
+     */
+    private final Map<Long, CachedPaths> queryCache;
+
+    private final LongAdder queryCacheHits;
+
+    private final LongAdder queryCacheMisses;
+
+    public GraphRandom() {
+        this(DEFAULT_QUERY_CACHE_SIZE);
+    }
+
+    /**
+     * Create a graph.
+     * @param queryCacheSize The max number of the query results to cache, value 0 disables the cache.
+     */
+    @SuppressWarnings("serial")     // the query cache is never serialized
+    public GraphRandom(final int queryCacheSize) {
+        Preconditions.checkArgument(queryCacheSize >= 0, "Query cache size parameter should not be negative");
+
+        this.ownerVersions = new ConcurrentHashMap<>();
+        this.queryCache = new LinkedHashMap<Long, CachedPaths>(16, 0.75f, true) {    // access order for LRU
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, CachedPaths> eldest) {
+                return size() > queryCacheSize;
+            }
+        };
+        this.queryCacheHits = new LongAdder();
+        this.queryCacheMisses = new LongAdder();
+    }
+
+    /**
+     * Get the number of the queries answered by the cache.
+     * @return Cache hit count.
+     */
+    public long getQueryCacheHits() {
+        return this.queryCacheHits.sum();
+    }
+
+    /**
+     * Get the number of the queries evaluated the paths.
+     * @return Cache miss count.
+     */
+    public long getQueryCacheMisses() {
+        return this.queryCacheMisses.sum();
+    }
+
+    /**
+     * Invalidate the cached results of the owner. It is called under the owner lock.
+     * @param node The node added or touched.
+     * @param edge The edge added or touched.
+     * @param preEdge The pre-order edge the edge is touched with.
+     * @param edgeOwner The owner id of edge migrate to the node from the parent. In our case, this is user name id.
+     * @param timestamp The access time, not used by the cache.
+     */
+    @Override
+    protected void nodeTouched(final Node node, final Edge edge, final Edge preEdge, final int edgeOwner,
+                               final long timestamp) {
+        invalidate(edgeOwner);
+    }
+
+    /**
+     * Invalidate the cached results of the owner, the caller should hold the owner lock.
+     * @param edgeOwner The edge owner id.
+     */
+    final void invalidate(final int edgeOwner) {
+        getOwnerVersion(edgeOwner).incrementAndGet();
+    }
+
+    /**
+     * Hook of querying the paths of an owner, called under the owner lock before the cached results are looked up.
+     * @param edgeOwner The edge owner id.
+     */
+    protected void ownerQueried(final int edgeOwner) {
+        // nothing to do by default
+    }
+
+    /**
+     * Hook of evaluating the paths of an owner, called under the owner lock before the nodes of the owner are read,
+     *  the query is not answered by the cache.
+     * @param edgeOwner The edge owner id.
+     */
+    protected void ownerEvaluating(final int edgeOwner) {
+        // nothing to do by default
+    }
+
+    /**
+     * Hook of querying the paths of an owner, called after the owner lock is released, the nodes of the owner
+     *  are copied or the query is answered by the cache already.
+     * @param edgeOwner The edge owner id.
+     */
+    protected void ownerQueryDone(final int edgeOwner) {
+        // nothing to do by default
+    }
+
+    /**
+     * Get the owners to evaluate by the queries across all users.
+     * @return The edge owner ids.
+     */
+    protected Collection<Integer> getQueryOwners() {
+        return getNodeMapByOwner().keySet();
+    }
+
+    private AtomicLong getOwnerVersion(final int edgeOwner) {
+        AtomicLong version = this.ownerVersions.get(edgeOwner);
+        if (version == null) {
+            version = this.ownerVersions.computeIfAbsent(edgeOwner, owner -> new AtomicLong());
+        }
+        return version;
+    }
+
     /**
      * Evaluate a path.
      * @param startNode The start node of the path to evaluate. In our case, this indicates entry node.
      * @param preEdge The pre-order edge which drives start node access the path.
-     * @param edgeOwner The edge owner name of all the nodes in the path. In our case, this is user name.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
      * @param maxPathDepth max depth of the path to evaluate.
-     * @return Evaluation result. A list of the "path" => "frequency" pair.
+     * @param topN Indicates top N paths to keep.
+     * @return Evaluation result. A list of the "path" => "frequency" pair, the most popular path first.
      */
     @Override
     protected List<Map.Entry<String, Integer>> evaluatePath(
-            final Node startNode, final Edge preEdge, final String edgeOwner, final int maxPathDepth) {
+            final Node startNode, final Edge preEdge, final int edgeOwner, final int maxPathDepth, final int topN) {
         Preconditions.checkNotNull(preEdge, "Pre-order edge should not be null");
-        return super.evaluatePath(startNode, preEdge, edgeOwner, maxPathDepth);
+        return super.evaluatePath(startNode, preEdge, edgeOwner, maxPathDepth, topN);
     }
 
     /**
      * Check if a node is the last one of the path to evaluate.
      * @param node Node to check.
      * @param preEdge The pre-order edge which drives start node access the path.
-     * @param edgeOwner The edge owner name of all the nodes in the path. In our case, this is user name.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
      * @return Boolean value indicates if the node is the last one of the path to evaluate.
      */
     @Override
-    protected boolean isLastNode(final Node node, final Edge preEdge, final String edgeOwner) {
-        return node.getOutEdges().parallelStream().filter(edge ->
-                edge.getOwner().equals(edgeOwner) && edge.getPreEdges().contains(preEdge)).count() == 0;
+    protected boolean isLastNode(final Node node, final Edge preEdge, final int edgeOwner) {
+        return node.getOutEdges(edgeOwner).stream().noneMatch(edge -> edge.getPreEdges().contains(preEdge));
     }
 
     /**
@@ -60,13 +193,12 @@ public class GraphRandom extends Graph {
      * Get next batch of edges to evaluate.
      * @param node The source node.
      * @param preEdge The pre-order edge which drives start node access the path.
-     * @param edgeOwner The edge owner name of all the nodes in the path. In our case, this is user name.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
      * @return The stream can fetch proper edges out to evaluate.
      */
     @Override
-    protected Stream<Edge> getNextEdges(final Node node, final Edge preEdge, final String edgeOwner) {
-        return node.getOutEdges().parallelStream().filter(
-                edge -> edge.getOwner().equals(edgeOwner) && edge.getPreEdges().contains(preEdge));
+    protected Stream<Edge> getNextEdges(final Node node, final Edge preEdge, final int edgeOwner) {
+        return node.getOutEdges(edgeOwner).stream().filter(edge -> edge.getPreEdges().contains(preEdge));
     }
 
     /**
@@ -97,15 +229,57 @@ public class GraphRandom extends Graph {
      *      value lists top N most popular M-node paths for the user key gives.
      */
     public Map<String, List<Map.Entry<String, Integer>>> getAllPopularPath(final int depth, final int topN) {
-        final List<String> edgeOwners;
+        Preconditions.checkArgument(depth > 1, "Path depth parameter should greater than 1");
+        Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
+
+        return getAllPopularPath(depth, topN, QueryCancellation.NONE);
+    }
+
+    /**
+     * Find the top N most popular M-node paths asynchronously, where a path is M sequential path visits by a user.
+     *  The query runs in the query executor of the graph without deadline.
+     * @param depth Indicates M sequential nodes in popular path.
+     * @param topN Indicates top N.
+     * @return The future of the result map, see {@link #getAllPopularPath(int, int)}.
+     *      Cancelling the future stops the evaluation.
+     */
+    public CompletableFuture<Map<String, List<Map.Entry<String, Integer>>>> getAllPopularPathAsync(
+            final int depth, final int topN) {
+        return getAllPopularPathAsync(depth, topN, 0, TimeUnit.MILLISECONDS, getQueryExecutor());
+    }
+
+    /**
+     * Find the top N most popular M-node paths asynchronously, where a path is M sequential path visits by a user.
+     * @param depth Indicates M sequential nodes in popular path.
+     * @param topN Indicates top N.
+     * @param timeout The time allowed to evaluate the query, value 0 means no deadline.
+     * @param unit The time unit of the timeout.
+     * @param executor The executor runs the query.
+     * @return The future of the result map, see {@link #getAllPopularPath(int, int)}.
+     *      Cancelling the future stops the evaluation, the future completes with
+     *      {@link java.util.concurrent.TimeoutException} if the query is not done before the deadline.
+     */
+    public CompletableFuture<Map<String, List<Map.Entry<String, Integer>>>> getAllPopularPathAsync(
+            final int depth, final int topN, final long timeout, final TimeUnit unit, final Executor executor) {
+        Preconditions.checkArgument(depth > 1, "Path depth parameter should greater than 1");
+        Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
+
+        return supplyAsync(cancellation -> getAllPopularPath(depth, topN, cancellation), timeout, unit, executor);
+    }
+
+    private Map<String, List<Map.Entry<String, Integer>>> getAllPopularPath(
+            final int depth, final int topN, final QueryCancellation cancellation) {
+        final List<Integer> edgeOwners;
         final Map<String, List<Map.Entry<String, Integer>>> ret = new ConcurrentHashMap<>();
-        final Map<String, List<Node>> nodeMap = getNodeMapByOwner();
+        final SymbolTable owners = getOwnerSymbols();
 
-        synchronized (nodeMap) {
-            edgeOwners = new ArrayList<>(nodeMap.keySet());
-        }
+        edgeOwners = new ArrayList<>(getQueryOwners());
 
-        edgeOwners.parallelStream().forEach(edgeOwner -> ret.put(edgeOwner, getPopularPath(depth, topN, edgeOwner)));
+        getQueryExecutor().execute(edgeOwners, stream -> {
+            stream.forEach(edgeOwner -> ret.put(owners.name(edgeOwner),
+                    getPopularPathByDepth(depth, depth, topN, edgeOwner, cancellation).get(depth)));
+            return null;
+        });
         return ret;
     }
 
@@ -134,33 +308,275 @@ public class GraphRandom extends Graph {
         final String _edgeOwner = edgeOwner.trim();
         Preconditions.checkArgument(_edgeOwner.length() > 0, "Edge owner name should not be empty");
 
-        final List<Map.Entry<String, Integer>> ret = new LinkedList<>();
-        final Map<String, List<Node>> nodeMap = getNodeMapByOwner();
-
-        synchronized (nodeMap) {
-            final List<Node> nodes = nodeMap.get(_edgeOwner);
-            if (nodes != null) {
-                nodes.parallelStream().forEach(node ->
-                node.getInEdges().parallelStream().forEach(edge ->
-                        evaluatePath(node, edge, _edgeOwner, depth).parallelStream().forEach(item -> {
-                            synchronized (ret) {
-                                int pos = 0;
-                                for (pos = 0; pos < ret.size(); pos++) {
-                                    if (item.getValue() > ret.get(pos).getValue()) {
-                                        break;
-                                    }
-                                }
-                                ret.add(pos, item);
-                                if (ret.size() > topN) {
-                                    ret.subList(topN, ret.size()).clear();
-                                }
+        final int edgeOwnerId = getOwnerSymbols().lookup(_edgeOwner);
+        if (edgeOwnerId == SymbolTable.NO_SYMBOL) {
+            return new LinkedList<>();
+        }
+
+        return getPopularPathByDepth(depth, depth, topN, edgeOwnerId, QueryCancellation.NONE).get(depth);
+    }
+
+    /**
+     * Find the top N most popular M-node paths asynchronously, where a path is M sequential path visits by the user.
+     *  The query runs in the query executor of the graph without deadline.
+     * @param depth Indicates M sequential path in popular path.
+     * @param topN Indicates top N.
+     * @param edgeOwner Indicates user name who access the popular paths.
+     * @return The future of the result list, see {@link #getPopularPath(int, int, String)}.
+     *      Cancelling the future stops the evaluation.
+     */
+    public CompletableFuture<List<Map.Entry<String, Integer>>> getPopularPathAsync(
+            final int depth, final int topN, final String edgeOwner) {
+        return getPopularPathAsync(depth, topN, edgeOwner, 0, TimeUnit.MILLISECONDS, getQueryExecutor());
+    }
+
+    /**
+     * Find the top N most popular M-node paths asynchronously, where a path is M sequential path visits by the user.
+     * @param depth Indicates M sequential path in popular path.
+     * @param topN Indicates top N.
+     * @param edgeOwner Indicates user name who access the popular paths.
+     * @param timeout The time allowed to evaluate the query, value 0 means no deadline.
+     * @param unit The time unit of the timeout.
+     * @param executor The executor runs the query.
+     * @return The future of the result list, see {@link #getPopularPath(int, int, String)}.
+     *      Cancelling the future stops the evaluation, the future completes with
+     *      {@link java.util.concurrent.TimeoutException} if the query is not done before the deadline.
+     */
+    public CompletableFuture<List<Map.Entry<String, Integer>>> getPopularPathAsync(
+            final int depth, final int topN, final String edgeOwner, final long timeout, final TimeUnit unit,
+            final Executor executor) {
+        Preconditions.checkArgument(depth > 1, "Path depth parameter should greater than 1");
+        Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
+        Preconditions.checkNotNull(edgeOwner, "Edge owner name should not be null");
+        final String _edgeOwner = edgeOwner.trim();
+        Preconditions.checkArgument(_edgeOwner.length() > 0, "Edge owner name should not be empty");
+
+        return supplyAsync(cancellation -> {
+            final int edgeOwnerId = getOwnerSymbols().lookup(_edgeOwner);
+            if (edgeOwnerId == SymbolTable.NO_SYMBOL) {
+                return new LinkedList<>();
+            }
+            return getPopularPathByDepth(depth, depth, topN, edgeOwnerId, cancellation).get(depth);
+        }, timeout, unit, executor);
+    }
+
+    /**
+     * Find the top N most popular paths of each depth in a range, where a path is sequential path visits by the user.
+     *  All the depths are evaluated in one pass, the paths of a longer depth reuse the frequencies of their prefixes.
+     * @param minDepth Indicates the min number of sequential nodes in popular path.
+     * @param maxDepth Indicates the max number of sequential nodes in popular path.
+     * @param topN Indicates top N.
+     * @param edgeOwner Indicates user name who access the popular paths.
+     * @return A result map. Key set contains all depths in the range,
+     *      value lists top N most popular paths of the depth key gives for the user.
+     */
+    public SortedMap<Integer, List<Map.Entry<String, Integer>>> getPopularPathByDepth(
+            final int minDepth, final int maxDepth, final int topN, final String edgeOwner) {
+        Preconditions.checkArgument(minDepth > 1, "Path depth parameter should greater than 1");
+        Preconditions.checkArgument(maxDepth >= minDepth, "Max path depth should not less than min path depth");
+        Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
+        Preconditions.checkNotNull(edgeOwner, "Edge owner name should not be null");
+        final String _edgeOwner = edgeOwner.trim();
+        Preconditions.checkArgument(_edgeOwner.length() > 0, "Edge owner name should not be empty");
+
+        final int edgeOwnerId = getOwnerSymbols().lookup(_edgeOwner);
+        if (edgeOwnerId == SymbolTable.NO_SYMBOL) {
+            final SortedMap<Integer, List<Map.Entry<String, Integer>>> ret = new TreeMap<>();
+            for (int depth = minDepth; depth <= maxDepth; depth++) {
+                ret.put(depth, new LinkedList<>());
+            }
+            return ret;
+        }
+
+        return getPopularPathByDepth(minDepth, maxDepth, topN, edgeOwnerId, QueryCancellation.NONE);
+    }
+
+    /**
+     * Find the top N most popular paths of each depth in a range, where a path is sequential path visits by the user.
+     * @param minDepth Indicates the min number of sequential nodes in popular path.
+     * @param maxDepth Indicates the max number of sequential nodes in popular path.
+     * @param topN Indicates top N.
+     * @param edgeOwner Indicates user name id who access the popular paths.
+     * @param cancellation The cancellation state of the query.
+     * @return A result map, the key is path depth.
+     */
+    private SortedMap<Integer, List<Map.Entry<String, Integer>>> getPopularPathByDepth(
+            final int minDepth, final int maxDepth, final int topN, final int edgeOwner,
+            final QueryCancellation cancellation) {
+        final SortedMap<Integer, List<Map.Entry<String, Integer>>> ret = new TreeMap<>();
+        final Map<Integer, List<Node>> nodeMap = getNodeMapByOwner();
+
+        final long version;
+        final List<Node> view;
+        try {
+            synchronized (getOwnerLock(edgeOwner)) {    // the nodes and edges of the owner are stable under the lock
+                ownerQueried(edgeOwner);
+                final AtomicLong ownerVersion = this.ownerVersions.get(edgeOwner);
+                version = ownerVersion == null ? 0 : ownerVersion.get();
+                if (ownerVersion != null) {     // an owner never touched has no cached result
+                    synchronized (this.queryCache) {
+                        for (int depth = minDepth; depth <= maxDepth; depth++) {
+                            final CachedPaths cached = this.queryCache.get(getCacheKey(edgeOwner, depth));
+                            if (cached == null || !cached.answers(version, topN)) {
+                                break;
                             }
-                        })
-                    )
-                );
+                            ret.put(depth,
+                                    new ArrayList<>(cached.paths.subList(0, Math.min(topN, cached.paths.size()))));
+                        }
+                    }
+                    if (ret.size() == maxDepth - minDepth + 1) {
+                        this.queryCacheHits.increment();
+                        return ret;
+                    }
+                }
+
+                // the nodes are prepared on a cache miss only, e.g. a spilled owner is not faulted in for a hit.
+                ownerEvaluating(edgeOwner);
+                final List<Node> nodes = nodeMap.get(edgeOwner);
+                if (nodes == null) {
+                    for (int depth = minDepth; depth <= maxDepth; depth++) {
+                        ret.put(depth, new LinkedList<>());
+                    }
+                    return ret;
+                }
+                this.queryCacheMisses.increment();
+
+                view = copyOwnerView(nodes, edgeOwner);
             }
+        } finally {
+            ownerQueryDone(edgeOwner);
         }
 
+        // the paths are evaluated on the view of the version, the ingest threads of the owner are not blocked.
+        final TopPaths[] paths = evaluateOwnerPaths(view, minDepth, maxDepth, topN, edgeOwner, cancellation);
+        for (int depth = minDepth; depth <= maxDepth; depth++) {
+            final CachedPaths cached = new CachedPaths(version, topN, paths[depth - minDepth].toList());
+            synchronized (this.queryCache) {
+                final Long key = getCacheKey(edgeOwner, depth);
+                final CachedPaths _cached = this.queryCache.get(key);
+                if (_cached == null || _cached.version <= version) {    // keep the result of a newer version
+                    this.queryCache.put(key, cached);
+                }
+            }
+            ret.put(depth, new ArrayList<>(cached.paths));
+        }
         return ret;
     }
+
+    private static Long getCacheKey(final int edgeOwner, final int depth) {
+        return ((long) edgeOwner << Integer.SIZE) | depth;
+    }
+
+    /**
+     * Evaluate the paths of an owner for a range of depths in one pass.
+     * @param nodes The nodes of the owner view, see {@link #copyOwnerView}.
+     * @param minDepth Indicates the min number of sequential nodes in popular path.
+     * @param maxDepth Indicates the max number of sequential nodes in popular path.
+     * @param topN Indicates top N.
+     * @param edgeOwner Indicates user name id who access the popular paths.
+     * @param cancellation The cancellation state of the query.
+     * @return Top N most popular paths of the depths for the user, the result of depth D is at index D - minDepth.
+     */
+    private TopPaths[] evaluateOwnerPaths(final List<Node> nodes, final int minDepth, final int maxDepth,
+                                          final int topN, final int edgeOwner, final QueryCancellation cancellation) {
+        final int depths = maxDepth - minDepth + 1;
+        // top N paths of each start are kept in thread-local partial containers and merged at the end.
+        return getQueryExecutor().execute(nodes, stream -> stream.flatMap(node ->
+                node.getInEdges(edgeOwner).stream()
+                        .map(edge -> evaluateTopPaths(node, edge, edgeOwner, minDepth, maxDepth, topN, cancellation)))
+                .collect(() -> {
+                    final TopPaths[] ret = new TopPaths[depths];
+                    for (int i = 0; i < depths; i++) {
+                        ret[i] = new TopPaths(topN);
+                    }
+                    return ret;
+                }, GraphRandom::merge, GraphRandom::merge));
+    }
+
+    private static void merge(final TopPaths[] left, final TopPaths[] right) {
+        for (int i = 0; i < left.length; i++) {
+            left[i].merge(right[i]);
+        }
+    }
+
+    /**
+     * Find the top N most popular 3-node paths across all users, the frequency of a path is summed up
+     *  from all users access it.
+     * @param topN Indicates top N.
+     * @return A result list contains top N most popular 3-node paths of the site.
+     */
+    public List<Map.Entry<String, Integer>> getSitePopularPath(final int topN) {
+        return getSitePopularPath(DEFAULT_PATH_DEPTH, topN);
+    }
+
+    /**
+     * Find the top N most popular M-node paths across all users, the frequency of a path is summed up
+     *  from all users access it. The frequencies of the users are summed up straight from the path walk into
+     *  the partial containers of the parallel threads, then the containers are merged and cut to top N.
+     *  The result of each user is neither ranked nor materialized, only the top N paths of the site are.
+     *  The frequencies are summed up in long, a frequency out of int range is saturated.
+     * @param depth Indicates M sequential nodes in popular path.
+     * @param topN Indicates top N.
+     * @return A result list contains top N most popular M-node paths of the site.
+     */
+    public List<Map.Entry<String, Integer>> getSitePopularPath(final int depth, final int topN) {
+        Preconditions.checkArgument(depth > 1, "Path depth parameter should greater than 1");
+        Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
+
+        final Map<Integer, List<Node>> nodeMap = getNodeMapByOwner();
+        // all paths of the users are needed to sum up, a path out of the top N of a user
+        //  might be in the top N of the site.
+        return getQueryExecutor().execute(new ArrayList<>(getQueryOwners()), stream -> stream.collect(
+                PathCounts::new,
+                (counts, edgeOwner) -> {
+                    final List<Node> view;
+                    try {
+                        synchronized (getOwnerLock(edgeOwner)) {
+                            ownerQueried(edgeOwner);
+                            ownerEvaluating(edgeOwner);
+                            final List<Node> nodes = nodeMap.get(edgeOwner);
+                            view = nodes == null ? Collections.emptyList() : copyOwnerView(nodes, edgeOwner);
+                        }
+                    } finally {
+                        ownerQueryDone(edgeOwner);
+                    }
+                    for (Node node : view) {
+                        for (Edge edge : node.getInEdges(edgeOwner)) {
+                            countPaths(node, edge, edgeOwner, depth, counts);
+                        }
+                    }
+                },
+                PathCounts::merge)).top(this, topN);
+    }
+
+    /**
+     * Cached result of a query.
+     */
+    private final static class CachedPaths {
+
+        private final long version;
+
+        private final int topN;
+
+        private final List<Map.Entry<String, Integer>> paths;
+
+        CachedPaths(final long version, final int topN, final List<Map.Entry<String, Integer>> paths) {
+            this.version = version;
+            this.topN = topN;
+            final ImmutableList.Builder<Map.Entry<String, Integer>> builder = ImmutableList.builder();
+            paths.forEach(path -> builder.add(new AbstractMap.SimpleImmutableEntry<>(path)));
+            this.paths = builder.build();   // shared by the results, client should not change it.
+        }
+
+        /**
+         * Check if the cached result can answer a query.
+         * @param version The current version of the owner.
+         * @param topN Top N of the query.
+         * @return Boolean value indicates if the query can be answered.
+         */
+        boolean answers(final long version, final int topN) {
+            // all paths of the owner are cached if less than top N paths found.
+            return this.version == version && (topN <= this.topN || this.paths.size() < this.topN);
+        }
+    }
 }
@@ -1,27 +1,52 @@
 package io.lzy.popular_path.model;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 
 /**
  * @author zhiyan
  *
  * A Graph implementation which supports to generate graph base on sequence node access (node touch).
- *  It requires client provides the number of sequential nodes of the path when creating graph.
+ *  It requires client provides the number of sequential nodes of the path when creating graph, a range of the numbers
+ *  can be given, the paths of all the depths in the range are booked in one evaluation pass.
  *  So the dynamics about popular path query of {@link GraphRandom} is better than this implementation however
  *  this graph provides much better query performance especially when client query more then once.
  *
  * Other limitation on client usage as following, you might think this kind of graph more like a AOE network.
  *  1. There is no any cycle in the graph, the out going edge of the node should always to next depth level.
+ *  2. Only the top K popular paths of each user are booked, so the query returns K paths at most.
+ *
+ * The queries read an immutable view of the booking. The view of an owner is built by the first query after
+ *  the booking is changed and then published, the following queries read it without the owner lock, so repeated
+ *  queries never wait for the ingest threads and the ingest threads only drop the stale view.
  */
 public class GraphSequence extends Graph {
 
+    public final static int DEFAULT_RETAINED_TOP_N = 100;
+
+    private final int minPathDepthEvaluation;
+
     private final int maxPathDepthEvaluation;
 
-    private final Map<String, List<Map.Entry<String, Integer>>> popularPathMap;
+    private final int retainedTopN;
+
+    /**
+     * Booked popular paths. The key is edge owner id, the booking of depth D is at index D - min path depth.
+     */
+    private final Map<Integer, PopularPathBook[]> popularPathMap;
+
+    /**
+     * Published views of the booked popular paths. The key is edge owner id, the view of depth D is at index
+     *  D - min path depth. The view of an owner is dropped under the owner lock when the booking is changed.
+     */
+    private final Map<Integer, List<List<Map.Entry<String, Integer>>>> popularPathViews;
 
     public GraphSequence() {
         this(DEFAULT_PATH_DEPTH);
@@ -32,35 +57,78 @@ public class GraphSequence extends Graph {
      * @param depth Indicates M sequential nodes in popular path.
      */
     public GraphSequence(final int depth) {
-        Preconditions.checkArgument(depth > 1, "Path depth parameter should greater than 1");
+        this(depth, DEFAULT_RETAINED_TOP_N);
+    }
+
+    /**
+     * Create a graph.
+     * @param depth Indicates M sequential nodes in popular path.
+     * @param retainedTopN Indicates K, the number of popular paths booked for each user.
+     */
+    public GraphSequence(final int depth, final int retainedTopN) {
+        this(depth, depth, retainedTopN);
+    }
 
-        this.maxPathDepthEvaluation = depth;
+    /**
+     * Create a graph books the popular paths of a range of depths.
+     * @param minDepth Indicates the min number of sequential nodes in popular path.
+     * @param maxDepth Indicates the max number of sequential nodes in popular path, it is the default depth to query.
+     * @param retainedTopN Indicates K, the number of popular paths booked for each user and each depth.
+     */
+    public GraphSequence(final int minDepth, final int maxDepth, final int retainedTopN) {
+        Preconditions.checkArgument(minDepth > 1, "Path depth parameter should greater than 1");
+        Preconditions.checkArgument(maxDepth >= minDepth, "Max path depth should not less than min path depth");
+        Preconditions.checkArgument(retainedTopN > 0, "Retained top N parameter should greater than 0");
+
+        this.minPathDepthEvaluation = minDepth;
+        this.maxPathDepthEvaluation = maxDepth;
+        this.retainedTopN = retainedTopN;
         this.popularPathMap = new ConcurrentHashMap<>();
+        this.popularPathViews = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get the min number of sequential nodes in popular path of the graph.
+     * @return Min path depth.
+     */
+    int getMinPathDepthEvaluation() {
+        return this.minPathDepthEvaluation;
     }
 
     /**
-     * Evaluate a path.
-     * @param lastNode The start node of the path to evaluate. In our case, this indicates end node.
-     * @param edgeOwner The edge owner name of all the nodes in the path. In our case, this is user name.
-     * @param maxPathDepth max depth of the path to evaluate.
-     * @return Evaluation result. A list of the "path" => "frequency" pair.
+     * Get the max number of sequential nodes in popular path of the graph.
+     * @return Max path depth.
      */
-    private List<Map.Entry<String, Integer>> evaluatePath(
-            final Node lastNode, final String edgeOwner, final int maxPathDepth) {
-        return super.evaluatePath(lastNode, null, edgeOwner, maxPathDepth);
+    int getMaxPathDepthEvaluation() {
+        return this.maxPathDepthEvaluation;
+    }
+
+    /**
+     * Get the number of popular paths booked for each user.
+     * @return Retained top N.
+     */
+    int getRetainedTopN() {
+        return this.retainedTopN;
+    }
+
+    /**
+     * Get booked popular paths, the key is edge owner id. The booking of an owner is guarded by the owner lock.
+     * @return The booked popular paths.
+     */
+    Map<Integer, PopularPathBook[]> getPopularPathMap() {
+        return this.popularPathMap;
     }
 
     /**
      * Check if a node is root node.
      * @param node Node to check.
      * @param preEdge The pre-order edge which drives start node access the path.
-     * @param edgeOwner The edge owner name of all the nodes in the path. In our case, this is user name.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
      * @return Boolean value indicates if the node is root node.
      */
     @Override
-    protected boolean isLastNode(final Node node, final Edge preEdge, final String edgeOwner) {
-        return node.getInEdges().parallelStream().filter(edge ->
-                edge.getOwner().equals(edgeOwner) && edge.getInNode() != null).count() == 0;
+    protected boolean isLastNode(final Node node, final Edge preEdge, final int edgeOwner) {
+        return node.getInEdges(edgeOwner).stream().noneMatch(edge -> edge.getInNode() != null);
     }
 
     /**
@@ -79,12 +147,12 @@ public class GraphSequence extends Graph {
      * Get next batch of edges to evaluate.
      * @param node The source node.
      * @param preEdge The pre-order edge which drives start node access the path.
-     * @param edgeOwner The edge owner name of all the nodes in the path. In our case, this is user name.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
      * @return The stream can fetch proper edges out to evaluate.
      */
     @Override
-    protected Stream<Edge> getNextEdges(final Node node, final Edge preEdge, final String edgeOwner) {
-        return node.getInEdges().parallelStream().filter(edge -> edge.getOwner().equals(edgeOwner));
+    protected Stream<Edge> getNextEdges(final Node node, final Edge preEdge, final int edgeOwner) {
+        return node.getInEdges(edgeOwner).stream();
     }
 
     /**
@@ -98,116 +166,273 @@ public class GraphSequence extends Graph {
     }
 
     /**
-     * Add new node or increase existing node reference.
-     * @param nodeName Node name.
-     * @param parent Parent node.
-     *               The interface in sequence graph aligns to the case of parsing log
-     *               and creating node from root node. In other word,
-     *               user will not access middle node directly without root node navigation.
-     * @param preEdge Pre-order edge, as a edge of parent node which drives parent node access next node.
-     * @param edgeOwner The owner name of edge migrate to the node from the parent. In our case, this is user name.
-     * @return Added node and edge. A null value will be returned if input node is duplicated with parent one.
+     * In-time booking, evaluate the paths end with touched node for all the depths in one pass.
+     * It is called under the owner lock, so the booking of an owner is not changed by concurrent ingest threads.
+     * @param node The node added or touched.
+     * @param edge The edge added or touched.
+     * @param preEdge The pre-order edge the edge is touched with.
+     * @param edgeOwner The owner id of edge migrate to the node from the parent. In our case, this is user name id.
+     * @param timestamp The access time, not used by the booking.
      */
     @Override
-    public Map.Entry<Node, Edge> touchNode(
-            final String nodeName, final Node parent, final Edge preEdge, final String edgeOwner) {
-        final String _edgeOwner = edgeOwner.trim();
-        Preconditions.checkArgument(_edgeOwner.length() > 0, "Edge owner name should not be empty");
+    protected void nodeTouched(final Node node, final Edge edge, final Edge preEdge, final int edgeOwner,
+                               final long timestamp) {
+        final TopPaths[] items = evaluateTopPaths(node, null, edgeOwner,
+                this.minPathDepthEvaluation, this.maxPathDepthEvaluation, this.retainedTopN);
+        PopularPathBook[] books = this.popularPathMap.get(edgeOwner);
+        if (books == null) {
+            books = newBooks();
+            this.popularPathMap.put(edgeOwner, books);
+        }
 
-        final Map.Entry<Node, Edge> ret = super.touchNode(nodeName, parent, preEdge, edgeOwner);
-
-        // in-time booking
-        if (ret.getKey() != null) {
-            synchronized (this.popularPathMap) {
-                final List<Map.Entry<String, Integer>> items =
-                        evaluatePath(ret.getKey(), _edgeOwner, this.maxPathDepthEvaluation);
-                List<Map.Entry<String, Integer>> _itemList = this.popularPathMap.get(_edgeOwner);
-                if (_itemList == null) {
-                    _itemList = new LinkedList<>();
-                    this.popularPathMap.put(_edgeOwner, _itemList);
-                }
+        boolean changed = false;
+        for (int i = 0; i < items.length; i++) {
+            for (Map.Entry<String, Integer> item : items[i].toList()) {
+                changed |= books[i].offer(item.getKey(), item.getValue());
+            }
+        }
+        if (changed) {
+            this.popularPathViews.remove(edgeOwner);
+        }
+    }
 
-                final List<Map.Entry<String, Integer>> itemList = _itemList;    // final variable in lambda is required
-                items.forEach(item -> {
-                    int pos = 0;
-                    for (pos = 0; pos < itemList.size(); pos++) {
-                        if (item.getValue() > itemList.get(pos).getValue()) {
-                            break;
-                        }
-                    }
-                    itemList.add(pos, item);
-                });
+    /**
+     * Get the published view of the booked popular paths of an owner, the view is built if it is not published.
+     * @param edgeOwner The edge owner id.
+     * @return An immutable list of the booked paths of the depths, the most popular path first. The paths of depth D
+     *      is at index D - min path depth. A null value will be returned if the owner booked nothing.
+     */
+    private List<List<Map.Entry<String, Integer>>> getPopularPathView(final int edgeOwner) {
+        List<List<Map.Entry<String, Integer>>> view = this.popularPathViews.get(edgeOwner);
+        if (view != null) {
+            return view;
+        }
+
+        final PopularPathBook[] books = this.popularPathMap.get(edgeOwner);
+        if (books == null) {
+            return null;
+        }
+        synchronized (getOwnerLock(edgeOwner)) {
+            view = this.popularPathViews.get(edgeOwner);
+            if (view == null) {
+                final ImmutableList.Builder<List<Map.Entry<String, Integer>>> builder = ImmutableList.builder();
+                for (PopularPathBook book : books) {
+                    builder.add(ImmutableList.copyOf(book.top(book.size())));
+                }
+                view = builder.build();
+                this.popularPathViews.put(edgeOwner, view);
             }
         }
+        return view;
+    }
 
+    private static List<Map.Entry<String, Integer>> top(final List<Map.Entry<String, Integer>> paths, final int topN) {
+        return new LinkedList<>(paths.subList(0, Math.min(topN, paths.size())));
+    }
+
+    /**
+     * Create the bookings of an owner.
+     * @return An array of bookings, the booking of depth D is at index D - min path depth.
+     */
+    PopularPathBook[] newBooks() {
+        final PopularPathBook[] ret =
+                new PopularPathBook[this.maxPathDepthEvaluation - this.minPathDepthEvaluation + 1];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = new PopularPathBook(this.retainedTopN);
+        }
         return ret;
     }
 
+    private int getBookIndex(final int depth) {
+        Preconditions.checkArgument(depth >= this.minPathDepthEvaluation && depth <= this.maxPathDepthEvaluation,
+                "Path depth %s is not booked by the graph", depth);
+        return depth - this.minPathDepthEvaluation;
+    }
+
     /**
-     * Find the top N most popular 3-node paths, where a path is three sequential path visits by an user.
-     * @param topN Indicates top N.
+     * Find the top N most popular M-node paths, where a path is M sequential path visits by an user,
+     *  M is the max path depth of the graph.
+     * @param topN Indicates top N, at most the retained top N paths are returned.
      * @return A result map. Key set contains all users in the graph,
-     *      value lists top N most popular 3-node paths for the user key gives.
+     *      value lists top N most popular M-node paths for the user key gives.
      */
     public Map<String, List<Map.Entry<String, Integer>>> getPopularPath(final int topN) {
+        return getAllPopularPath(this.maxPathDepthEvaluation, topN);
+    }
+
+    /**
+     * Find the top N most popular M-node paths, where a path is M sequential path visits by an user.
+     * @param depth Indicates M sequential nodes in popular path, it should be in the booked depth range.
+     * @param topN Indicates top N, at most the retained top N paths are returned.
+     * @return A result map. Key set contains all users in the graph,
+     *      value lists top N most popular M-node paths for the user key gives.
+     */
+    public Map<String, List<Map.Entry<String, Integer>>> getAllPopularPath(final int depth, final int topN) {
+        Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
+        return getAllPopularPath(getBookIndex(depth), topN, QueryCancellation.NONE);
+    }
+
+    /**
+     * Find the top N most popular M-node paths asynchronously, where a path is M sequential path visits by an user.
+     *  The query runs in the query executor of the graph without deadline.
+     * @param depth Indicates M sequential nodes in popular path, it should be in the booked depth range.
+     * @param topN Indicates top N, at most the retained top N paths are returned.
+     * @return The future of the result map, see {@link #getAllPopularPath(int, int)}.
+     */
+    public CompletableFuture<Map<String, List<Map.Entry<String, Integer>>>> getAllPopularPathAsync(
+            final int depth, final int topN) {
+        return getAllPopularPathAsync(depth, topN, 0, TimeUnit.MILLISECONDS, getQueryExecutor());
+    }
+
+    /**
+     * Find the top N most popular M-node paths asynchronously, where a path is M sequential path visits by an user.
+     * @param depth Indicates M sequential nodes in popular path, it should be in the booked depth range.
+     * @param topN Indicates top N, at most the retained top N paths are returned.
+     * @param timeout The time allowed to evaluate the query, value 0 means no deadline.
+     * @param unit The time unit of the timeout.
+     * @param executor The executor runs the query.
+     * @return The future of the result map, see {@link #getAllPopularPath(int, int)}. Cancelling the future stops
+     *      the query, the future completes with {@link java.util.concurrent.TimeoutException} if the query is not
+     *      done before the deadline.
+     */
+    public CompletableFuture<Map<String, List<Map.Entry<String, Integer>>>> getAllPopularPathAsync(
+            final int depth, final int topN, final long timeout, final TimeUnit unit, final Executor executor) {
+        Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
+        final int index = getBookIndex(depth);
+
+        return supplyAsync(cancellation -> getAllPopularPath(index, topN, cancellation), timeout, unit, executor);
+    }
+
+    private Map<String, List<Map.Entry<String, Integer>>> getAllPopularPath(
+            final int index, final int topN, final QueryCancellation cancellation) {
         final Map<String, List<Map.Entry<String, Integer>>> ret = new ConcurrentHashMap<>();
+        final SymbolTable owners = getOwnerSymbols();
 
-        synchronized (this.popularPathMap) {
-            final Map<String, List<Node>> nodeMap = getNodeMapByOwner();
-
-            synchronized (nodeMap) {
-                nodeMap.keySet().parallelStream().forEach(edgeOwner -> {
-                    List<Map.Entry<String, Integer>> items = this.popularPathMap.get(edgeOwner);
-                    if (items.size() > 0) {
-                        items.subList(0, Math.min(topN, items.size())).forEach(item -> {
-                            synchronized (ret) {
-                                List<Map.Entry<String, Integer>> itemList = ret.get(edgeOwner);
-                                if (itemList == null) {
-                                    itemList = new LinkedList<>();
-                                    ret.put(edgeOwner, itemList);
-                                }
-
-                                int pos = 0;
-                                for (pos = 0; pos < itemList.size(); pos++) {
-                                    if (item.getValue() > itemList.get(pos).getValue()) {
-                                        break;
-                                    }
-                                }
-                                itemList.add(pos, item);
-                                if (itemList.size() > topN) {
-                                    itemList.subList(topN, itemList.size()).clear();
-                                }
-                            }
-                        });
-                    }
-                });
-            }
-        }
+        getQueryExecutor().execute(new ArrayList<>(this.popularPathMap.keySet()), stream -> {
+            stream.forEach(edgeOwnerId -> {
+                cancellation.check();
+                final List<Map.Entry<String, Integer>> items = getPopularPathView(edgeOwnerId).get(index);
+                if (items.size() > 0) {
+                    ret.put(owners.name(edgeOwnerId), top(items, topN));
+                }
+            });
+            return null;
+        });
 
         return ret;
     }
 
     /**
-     * Find the top N most popular 3-node paths, where a path is three sequential path visits by the user.
+     * Find the top N most popular M-node paths across all users, the frequency of a path is summed up
+     *  from all users booked it, M is the max path depth of the graph.
+     * @param topN Indicates top N.
+     * @return A result list contains top N most popular paths of the site.
+     */
+    public List<Map.Entry<String, Integer>> getSitePopularPath(final int topN) {
+        return getSitePopularPath(this.maxPathDepthEvaluation, topN);
+    }
+
+    /**
+     * Find the top N most popular M-node paths across all users, the frequency of a path is summed up from all users
+     *  booked it. The booked paths of the users are aggregated in parallel partial containers and merged into
+     *  a bounded result, the result of each user is not materialized.
+     * Only the retained top N paths of each user are booked, so a path out of the booking of a user is not counted
+     *  for the user.
+     * @param depth Indicates M sequential nodes in popular path, it should be in the booked depth range.
      * @param topN Indicates top N.
+     * @return A result list contains top N most popular paths of the site.
+     */
+    public List<Map.Entry<String, Integer>> getSitePopularPath(final int depth, final int topN) {
+        Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
+        final int index = getBookIndex(depth);
+
+        return getQueryExecutor().execute(new ArrayList<>(this.popularPathMap.keySet()), stream -> TopPaths.sum(
+                stream.flatMap(edgeOwnerId -> getPopularPathView(edgeOwnerId).get(index).stream()), topN));
+    }
+
+    /**
+     * Find the top N most popular M-node paths, where a path is M sequential path visits by the user,
+     *  M is the max path depth of the graph.
+     * @param topN Indicates top N, at most the retained top N paths are returned.
      * @param edgeOwner Indicates user name who access the popular paths.
-     * @return A result list contains top N most popular 3-node paths for the user.
+     * @return A result list contains top N most popular M-node paths for the user.
      */
     public List<Map.Entry<String, Integer>> getPopularPath(final int topN, final String edgeOwner) {
+        return getPopularPath(this.maxPathDepthEvaluation, topN, edgeOwner);
+    }
+
+    /**
+     * Find the top N most popular M-node paths, where a path is M sequential path visits by the user.
+     * @param depth Indicates M sequential nodes in popular path, it should be in the booked depth range.
+     * @param topN Indicates top N, at most the retained top N paths are returned.
+     * @param edgeOwner Indicates user name who access the popular paths.
+     * @return A result list contains top N most popular M-node paths for the user.
+     */
+    public List<Map.Entry<String, Integer>> getPopularPath(final int depth, final int topN, final String edgeOwner) {
+        getBookIndex(depth);
+        return getPopularPathByDepth(topN, edgeOwner).get(depth);
+    }
+
+    /**
+     * Find the top N most popular M-node paths asynchronously, where a path is M sequential path visits by the user.
+     *  The query runs in the query executor of the graph without deadline.
+     * @param depth Indicates M sequential nodes in popular path, it should be in the booked depth range.
+     * @param topN Indicates top N, at most the retained top N paths are returned.
+     * @param edgeOwner Indicates user name who access the popular paths.
+     * @return The future of the result list, see {@link #getPopularPath(int, int, String)}.
+     */
+    public CompletableFuture<List<Map.Entry<String, Integer>>> getPopularPathAsync(
+            final int depth, final int topN, final String edgeOwner) {
+        return getPopularPathAsync(depth, topN, edgeOwner, 0, TimeUnit.MILLISECONDS, getQueryExecutor());
+    }
+
+    /**
+     * Find the top N most popular M-node paths asynchronously, where a path is M sequential path visits by the user.
+     * @param depth Indicates M sequential nodes in popular path, it should be in the booked depth range.
+     * @param topN Indicates top N, at most the retained top N paths are returned.
+     * @param edgeOwner Indicates user name who access the popular paths.
+     * @param timeout The time allowed to evaluate the query, value 0 means no deadline.
+     * @param unit The time unit of the timeout.
+     * @param executor The executor runs the query.
+     * @return The future of the result list, see {@link #getPopularPath(int, int, String)}.
+     */
+    public CompletableFuture<List<Map.Entry<String, Integer>>> getPopularPathAsync(
+            final int depth, final int topN, final String edgeOwner, final long timeout, final TimeUnit unit,
+            final Executor executor) {
+        getBookIndex(depth);
+        Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
+        Preconditions.checkNotNull(edgeOwner, "Edge owner name should not be null");
+
+        return supplyAsync(cancellation -> {
+            cancellation.check();   // the deadline might pass while the query is queued
+            return getPopularPathByDepth(topN, edgeOwner).get(depth);
+        }, timeout, unit, executor);
+    }
+
+    /**
+     * Find the top N most popular paths of all the booked depths, where a path is sequential path visits by the user.
+     * @param topN Indicates top N, at most the retained top N paths are returned.
+     * @param edgeOwner Indicates user name who access the popular paths.
+     * @return A result map. Key set contains all booked depths,
+     *      value lists top N most popular paths of the depth key gives for the user.
+     */
+    public SortedMap<Integer, List<Map.Entry<String, Integer>>> getPopularPathByDepth(
+            final int topN, final String edgeOwner) {
         Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
         Preconditions.checkNotNull(edgeOwner);
         final String _edgeOwner = edgeOwner.trim();
         Preconditions.checkArgument(_edgeOwner.length() > 0, "Edge owner name should not be empty");
 
-        synchronized (this.popularPathMap) {
-            final List<Map.Entry<String, Integer>> items = this.popularPathMap.get(_edgeOwner);
+        final SortedMap<Integer, List<Map.Entry<String, Integer>>> ret = new TreeMap<>();
+        final int edgeOwnerId = getOwnerSymbols().lookup(_edgeOwner);
+        final List<List<Map.Entry<String, Integer>>> view = edgeOwnerId == SymbolTable.NO_SYMBOL ?
+                null : getPopularPathView(edgeOwnerId);
 
-            if (items == null) {
-                return new LinkedList<>();
-            } else {
-                // FIXME(zhiyan): Return deep copied result to client if/when needed, internal status exposed by result.
-                return items.subList(0, Math.min(topN, items.size()));
-            }
+        for (int depth = this.minPathDepthEvaluation; depth <= this.maxPathDepthEvaluation; depth++) {
+            // the view is shared by the queries, a copy of the top N items is returned.
+            ret.put(depth, view == null ?
+                    new LinkedList<>() : top(view.get(depth - this.minPathDepthEvaluation), topN));
         }
+        return ret;
     }
 }
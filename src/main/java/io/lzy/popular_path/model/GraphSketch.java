@@ -0,0 +1,531 @@
+package io.lzy.popular_path.model;
+
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ObjLongConsumer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * @author zhiyan
+ *
+ * An approximate ingest sink which answers the top N most popular M-node paths of the site in bounded memory,
+ *  for the site-wide trending paths which don't need exact counts.
+ *
+ * No node, edge or owner name is kept. Each owner has a sliding window of its last M nodes, every record completes
+ *  an M-node path (an n-gram of the owner's walk) which is counted by a SpaceSaving summary of K counters.
+ *  The frequency of a path is the number of times it is walked by all the owners, rather than the node reference
+ *  sum of the exact graphs. The estimated frequency is never less than the real one and exceeds it by
+ *  {@link #getMaxError()} at most, which is not greater than T / K, T is the number of the paths counted. Every path
+ *  walked more than T / K times is in the result. So the error bound is set by epsilon = 1 / K.
+ *
+ * The owners are keyed by the hash of their names instead of being interned, see
+ *  {@link AccessSink#hashOwner(byte[], int, int)}, two owners share a window if their hashes collide, which merges
+ *  their walks into paths neither of them walked. The expected number of colliding pairs is about n * n / 2^33
+ *  for n owners, e.g. about 11.6k pairs for 10M users, which is fine for the site-wide trends but not exact.
+ *  The windows are kept for {@value #DEFAULT_MAX_OWNERS} owners by default, the least recently active owner is
+ *  evicted and starts a new path from its next record. So the memory is bounded by the node names, the max owners
+ *  and the counters, it doesn't grow with the distinct users. The parser feeds the sink as usual, the node parents
+ *  of the parser are not used.
+ *
+ * It is thread-safe. The windows and the summaries are sharded by owner, a batch is counted shard by shard under
+ *  the lock of each shard, so the ingest threads run at the same time on different shards. A query merges
+ *  the summaries of the shards: the estimated frequency of a path is the sum of its counters, the min count of
+ *  a shard is taken for the path not in the shard. The merged error is the sum of the errors of the shards,
+ *  so it is still bounded by T / K.
+ */
+public class GraphSketch implements AccessSink {
+
+    public final static double DEFAULT_EPSILON = 0.001;
+
+    public final static int DEFAULT_MAX_OWNERS = 1 << 20;
+
+    public final static int DEFAULT_SHARDS = 16;
+
+    private final int depth;
+
+    private final int capacity;
+
+    private final SymbolTable nodeSymbols;
+
+    private final Charset charset;
+
+    private final Shard[] shards;
+
+    /**
+     * Create a sketch counts 3-node paths with error bound {@value #DEFAULT_EPSILON}.
+     */
+    public GraphSketch() {
+        this(Graph.DEFAULT_PATH_DEPTH, DEFAULT_EPSILON);
+    }
+
+    /**
+     * Create a sketch.
+     * @param depth Indicates M sequential nodes in popular path.
+     * @param epsilon The error bound relative to the number of the paths counted, in (0, 1).
+     */
+    public GraphSketch(final int depth, final double epsilon) {
+        this(depth, epsilon, DEFAULT_MAX_OWNERS);
+    }
+
+    /**
+     * Create a sketch.
+     * @param depth Indicates M sequential nodes in popular path.
+     * @param epsilon The error bound relative to the number of the paths counted, in (0, 1).
+     * @param maxOwners The max number of the owners whose windows are kept.
+     */
+    public GraphSketch(final int depth, final double epsilon, final int maxOwners) {
+        this(depth, epsilon, maxOwners, DEFAULT_SHARDS);
+    }
+
+    /**
+     * Create a sketch.
+     * @param depth Indicates M sequential nodes in popular path.
+     * @param epsilon The error bound relative to the number of the paths counted, in (0, 1).
+     * @param maxOwners The max number of the owners whose windows are kept, it is shared by the shards evenly.
+     * @param shards The number of the shards, value 1 counts all the records under a single lock.
+     */
+    public GraphSketch(final int depth, final double epsilon, final int maxOwners, final int shards) {
+        this(depth, epsilon, maxOwners, shards, Charset.defaultCharset());     // align to LogParser
+    }
+
+    /**
+     * Create a sketch.
+     * @param depth Indicates M sequential nodes in popular path.
+     * @param epsilon The error bound relative to the number of the paths counted, in (0, 1).
+     * @param maxOwners The max number of the owners whose windows are kept, it is shared by the shards evenly.
+     * @param shards The number of the shards, value 1 counts all the records under a single lock.
+     * @param charset The charset of the access log, the owner names given to {@link #touchNode(String, String)}
+     *                are hashed in it, so they are keyed as the parser keys the records of the log.
+     */
+    public GraphSketch(final int depth, final double epsilon, final int maxOwners, final int shards,
+                       final Charset charset) {
+        Preconditions.checkNotNull(charset, "Charset should not be null");
+        Preconditions.checkArgument(depth > 1, "Path depth parameter should greater than 1");
+        Preconditions.checkArgument(epsilon > 0 && epsilon < 1, "Epsilon parameter should be in (0, 1)");
+        Preconditions.checkArgument(maxOwners > 0, "Max owners parameter should greater than 0");
+        Preconditions.checkArgument(shards > 0 && shards <= maxOwners,
+                "Shards parameter should greater than 0 and not greater than max owners");
+
+        this.depth = depth;
+        this.capacity = (int) Math.min(Integer.MAX_VALUE, (long) Math.ceil(1 / epsilon));
+        this.nodeSymbols = new SymbolTable();
+        this.charset = charset;
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new Shard(maxOwners / shards + (i < maxOwners % shards ? 1 : 0), this.capacity, depth);
+        }
+    }
+
+    public int getDepth() {
+        return this.depth;
+    }
+
+    /**
+     * Get the number of the counters of a shard, as 1 / epsilon.
+     * @return Capacity.
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Get the number of the paths counted.
+     * @return Path count.
+     */
+    public long getTotal() {
+        long ret = 0;
+        for (Shard shard : this.shards) {
+            synchronized (shard) {
+                ret += shard.summary.total;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get the max amount the estimated frequency of a path exceeds the real one.
+     * @return Error bound, value 0 means the frequencies are exact.
+     */
+    public long getMaxError() {
+        long ret = 0;
+        for (Shard shard : this.shards) {
+            synchronized (shard) {
+                ret += shard.summary.minCount();
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get the number of the owners whose windows are kept.
+     * @return Owner count, it is not greater than the max owners.
+     */
+    public int getOwners() {
+        int ret = 0;
+        for (Shard shard : this.shards) {
+            synchronized (shard) {
+                ret += shard.windows.size();
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public SymbolTable getNodeSymbols() {
+        return this.nodeSymbols;
+    }
+
+    /**
+     * The owners are keyed by hash, no owner name is interned.
+     * @return Value null.
+     */
+    @Override
+    public SymbolTable getOwnerSymbols() {
+        return null;
+    }
+
+    /**
+     * Count a path if the owner walks M nodes.
+     * @param nodeName Node name.
+     * @param edgeOwner The owner name. In our case, this is user name.
+     * @return Boolean value indicates if the owner walks to the node, false for node refresh.
+     */
+    public boolean touchNode(final String nodeName, final String edgeOwner) {
+        Preconditions.checkNotNull(edgeOwner, "Edge owner name should not be null");
+        Preconditions.checkNotNull(nodeName, "Node name should not be null");
+        final String _edgeOwner = edgeOwner.trim();
+        final String _nodeName = nodeName.trim();
+        Preconditions.checkArgument(_edgeOwner.length() > 0, "Edge owner name should not be empty");
+        Preconditions.checkArgument(_nodeName.length() > 0, "Node name should not be empty");
+
+        final int ownerId = AccessSink.hashOwner(_edgeOwner, this.charset);
+        final int nodeId = this.nodeSymbols.intern(_nodeName);
+        final Shard shard = this.shards[shardOf(ownerId)];
+        synchronized (shard) {
+            return shard.walk(ownerId, nodeId);
+        }
+    }
+
+    /**
+     * Count the paths of the records in batch, no node or edge is added.
+     * @param edgeOwners The owner ids of the records, keyed by {@link AccessSink#hashOwner(byte[], int, int)}.
+     *                   In our case, this is user name id.
+     * @param nodeIds The node name ids of the records, interned by {@link #getNodeSymbols()}.
+     * @param timestamps Not used.
+     * @param offset The offset of first record in the arrays.
+     * @param length The amount of records.
+     * @param nodeParents Not used.
+     * @return The amount of records walked, duplicated record (e.g. node refresh) is not counted.
+     */
+    @Override
+    public int touchNodes(final int[] edgeOwners, final int[] nodeIds, final long[] timestamps, final int offset,
+                          final int length, final Map<Integer, Map.Entry<Node, Edge>> nodeParents) {
+        Preconditions.checkNotNull(edgeOwners, "Edge owner ids should not be null");
+        Preconditions.checkNotNull(nodeIds, "Node name ids should not be null");
+        Preconditions.checkPositionIndexes(offset, offset + length, Math.min(edgeOwners.length, nodeIds.length));
+
+        final int[] shardIds = new int[length];
+        final int[] shardRecords = new int[this.shards.length];
+        for (int i = 0; i < length; i++) {
+            if (!this.nodeSymbols.contains(nodeIds[offset + i])) {
+                throw new IllegalArgumentException(String.format(
+                        "Node name id of record %d should be interned", offset + i));
+            }
+            shardIds[i] = shardOf(edgeOwners[offset + i]);
+            shardRecords[shardIds[i]]++;
+        }
+
+        // each shard is locked once per batch, the threads start from different shards to spread the contention.
+        int touched = 0;
+        final int first = ThreadLocalRandom.current().nextInt(this.shards.length);
+        for (int j = 0; j < this.shards.length; j++) {
+            final int shardId = (first + j) % this.shards.length;
+            if (shardRecords[shardId] == 0) {
+                continue;
+            }
+            final Shard shard = this.shards[shardId];
+            synchronized (shard) {
+                for (int i = 0; i < length; i++) {
+                    if (shardIds[i] == shardId && shard.walk(edgeOwners[offset + i], nodeIds[offset + i])) {
+                        touched++;
+                    }
+                }
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * Find the top N most popular M-node paths across all users, the frequency of a path is estimated.
+     * @param topN Indicates top N.
+     * @return A result list contains top N most popular M-node paths of the site, the ties are ordered by
+     *  the node name ids.
+     */
+    public List<Map.Entry<String, Integer>> getSitePopularPath(final int topN) {
+        Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
+
+        // the count of a path in a shard above the min count of the shard, the min counts are added at the end.
+        final Map<PathKey, long[]> merged = new HashMap<>();
+        long minCounts = 0;
+        for (Shard shard : this.shards) {
+            synchronized (shard) {
+                final long minCount = shard.summary.minCount();
+                shard.summary.forEach((key, count) ->
+                        merged.computeIfAbsent(key, item -> new long[1])[0] += count - minCount);
+                minCounts += minCount;
+            }
+        }
+
+        final List<Map.Entry<PathKey, long[]>> top = new ArrayList<>(merged.entrySet());
+        top.sort((o1, o2) -> {
+            int cmp = Long.compare(o2.getValue()[0], o1.getValue()[0]);
+            for (int i = 0; cmp == 0 && i < this.depth; i++) {  // predictable order of the ties
+                cmp = Integer.compare(o1.getKey().nodeIds[i], o2.getKey().nodeIds[i]);
+            }
+            return cmp;
+        });
+
+        final List<Map.Entry<String, Integer>> ret = new ArrayList<>(Math.min(topN, top.size()));
+        for (Map.Entry<PathKey, long[]> item : top.subList(0, Math.min(topN, top.size()))) {
+            String path = "";
+            for (int nodeId : item.getKey().nodeIds) {
+                path = genCurrentPath(this.nodeSymbols.name(nodeId), path);
+            }
+            ret.add(new AbstractMap.SimpleEntry<>(path,
+                    (int) Math.min(item.getValue()[0] + minCounts, Integer.MAX_VALUE)));
+        }
+        return ret;
+    }
+
+    /**
+     * Generate full path according to previous full path, the same as {@link GraphRandom}.
+     * @param name The name of current node in the path.
+     * @param preFullPath The previous full path.
+     * @return The full path including current node.
+     */
+    private static String genCurrentPath(final String name, final String preFullPath) {
+        return String.format("%s%s%s", preFullPath, preFullPath.isEmpty() ||
+                preFullPath.equals(Graph.ROOT_NODE_NAME) ? "" : Graph.NODE_PATH_SEPARATOR, name);
+    }
+
+    private int shardOf(final int edgeOwner) {
+        final int h = edgeOwner * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), this.shards.length);
+    }
+
+    /**
+     * The windows and the summary of the owners of a shard, guarded by the shard itself.
+     */
+    private final static class Shard {
+
+        private final int depth;
+
+        /**
+         * The last nodes of the owners, the key is edge owner id. The value holds the node name ids, the latest one
+         *  last, and the amount of nodes at the end.
+         */
+        private final Map<Integer, int[]> windows;
+
+        private final SpaceSaving summary;
+
+        @SuppressWarnings("serial")     // the windows are never serialized
+        Shard(final int maxOwners, final int capacity, final int depth) {
+            this.depth = depth;
+            this.windows = new LinkedHashMap<Integer, int[]>(16, 0.75f, true) {    // access order for LRU
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Integer, int[]> eldest) {
+                    return size() > maxOwners;
+                }
+            };
+            this.summary = new SpaceSaving(capacity, depth);
+        }
+
+        /**
+         * Move the window of the owner to a node and count the path ends at it.
+         * @return Boolean value indicates if the owner walks to the node, false for node refresh.
+         */
+        boolean walk(final int edgeOwner, final int nodeId) {
+            int[] window = this.windows.get(edgeOwner);
+            if (window == null) {
+                window = new int[this.depth + 1];
+                this.windows.put(edgeOwner, window);
+            }
+
+            final int size = window[this.depth];
+            if (size > 0 && window[this.depth - 1] == nodeId) {    // skip node accessing refresh
+                return false;
+            }
+
+            System.arraycopy(window, 1, window, 0, this.depth - 1);
+            window[this.depth - 1] = nodeId;
+            if (size < this.depth) {
+                window[this.depth] = size + 1;
+            }
+            if (window[this.depth] == this.depth) {
+                this.summary.offer(window);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * SpaceSaving summary of the paths. The counters are kept in a min-heap indexed by the paths, the counter of
+     *  the least frequent path is taken over by a new path when the summary is full. Not thread-safe.
+     */
+    private final static class SpaceSaving {
+
+        private final int capacity;
+
+        private final int depth;
+
+        private final Map<PathKey, Counter> counters;
+
+        private final Counter[] heap;
+
+        private final PathKey probe;
+
+        private int size;
+
+        private long total;
+
+        SpaceSaving(final int capacity, final int depth) {
+            this.capacity = capacity;
+            this.depth = depth;
+            this.counters = new HashMap<>(capacity * 2);
+            this.heap = new Counter[capacity];
+            this.probe = new PathKey(new int[depth]);
+        }
+
+        /**
+         * Count a path.
+         * @param nodeIds The node name ids of the path, at index 0 to depth - 1. It is copied if kept.
+         */
+        void offer(final int[] nodeIds) {
+            this.total++;
+            System.arraycopy(nodeIds, 0, this.probe.nodeIds, 0, this.depth);
+            this.probe.rehash();
+
+            Counter counter = this.counters.get(this.probe);
+            if (counter != null) {
+                counter.count++;
+                siftDown(counter.index);
+            } else if (this.size < this.capacity) {
+                counter = new Counter(this.probe.copy());
+                counter.count = 1;
+                counter.index = this.size++;
+                this.heap[counter.index] = counter;
+                this.counters.put(counter.key, counter);
+                siftUp(counter.index);
+            } else {
+                counter = this.heap[0];     // the least frequent path is replaced
+                this.counters.remove(counter.key);
+                counter.key = this.probe.copy();
+                counter.count++;
+                this.counters.put(counter.key, counter);
+                siftDown(0);
+            }
+        }
+
+        long minCount() {
+            return this.size < this.capacity ? 0 : this.heap[0].count;
+        }
+
+        /**
+         * Visit the counters, the paths are immutable and can be kept by the visitor.
+         * @param visitor The visitor of the path and its estimated frequency.
+         */
+        void forEach(final ObjLongConsumer<PathKey> visitor) {
+            for (int i = 0; i < this.size; i++) {
+                visitor.accept(this.heap[i].key, this.heap[i].count);
+            }
+        }
+
+        private void siftUp(final int index) {
+            int i = index;
+            final Counter counter = this.heap[i];
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (this.heap[parent].count <= counter.count) {
+                    break;
+                }
+                move(this.heap[parent], i);
+                i = parent;
+            }
+            move(counter, i);
+        }
+
+        private void siftDown(final int index) {
+            int i = index;
+            final Counter counter = this.heap[i];
+            while (true) {
+                int child = (i << 1) + 1;
+                if (child >= this.size) {
+                    break;
+                }
+                if (child + 1 < this.size && this.heap[child + 1].count < this.heap[child].count) {
+                    child++;
+                }
+                if (counter.count <= this.heap[child].count) {
+                    break;
+                }
+                move(this.heap[child], i);
+                i = child;
+            }
+            move(counter, i);
+        }
+
+        private void move(final Counter counter, final int index) {
+            this.heap[index] = counter;
+            counter.index = index;
+        }
+    }
+
+    private final static class Counter {
+
+        private PathKey key;
+
+        private long count;
+
+        private int index;
+
+        Counter(final PathKey key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * A path as the node name ids, the hash is cached.
+     */
+    private final static class PathKey {
+
+        private final int[] nodeIds;
+
+        private int hash;
+
+        PathKey(final int[] nodeIds) {
+            this.nodeIds = nodeIds;
+            rehash();
+        }
+
+        void rehash() {
+            this.hash = Arrays.hashCode(this.nodeIds);
+        }
+
+        PathKey copy() {
+            return new PathKey(this.nodeIds.clone());
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof PathKey && this.hash == ((PathKey) obj).hash &&
+                    Arrays.equals(this.nodeIds, ((PathKey) obj).nodeIds);
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package io.lzy.popular_path.model;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author zhiyan
+ *
+ * Compact, versioned binary snapshot of a graph, so a query process can reload the graph without parsing
+ *  the access log again.
+ *
+ * The snapshot contains the owner and node name dictionaries, nodes with per-owner reference counts, edges with
+ *  pre-order edge links, the node lists of the owners and the booked popular paths of {@link GraphSequence}.
+ *  Nodes, owners and edges are referred by int id or index, names are stored once in the dictionaries.
+ *
+ * The snapshot file is read through a buffered channel, so it is not limited in size. The graph is rebuilt on
+ *  the heap of the loading process, the page cache only speeds up reloading the same snapshot.
+ */
+@Slf4j
+public final class GraphSnapshot {
+
+    private final static int SNAPSHOT_MAGIC = 0x50504753;     // "PPGS"
+
+    // version 1 has no retained top N of GraphSequence, version 2 has no min path depth of GraphSequence.
+    private final static int SNAPSHOT_VERSION = 3;
+
+    private final static byte GRAPH_RANDOM = 0;
+
+    private final static byte GRAPH_SEQUENCE = 1;
+
+    private final static int NO_NODE = -1;
+
+    private GraphSnapshot() {
+    }
+
+    /**
+     * Save the graph to a snapshot file atomically.
+     * All owner locks are held during saving, so the snapshot is consistent even if ingest threads are running.
+     * @param graph The graph to save, {@link GraphRandom} or {@link GraphSequence}. The sub-classes of
+     *              {@link GraphRandom} keep extra states out of the snapshot, they are not supported.
+     * @param file The snapshot file.
+     * @throws IOException The exception about writing snapshot failed.
+     */
+    public static void save(final Graph graph, final File file) throws IOException {
+        Preconditions.checkNotNull(graph, "Graph should not be null");
+        Preconditions.checkNotNull(file, "Snapshot file should not be null");
+        Preconditions.checkArgument(graph instanceof GraphRandom || graph instanceof GraphSequence,
+                "Graph type is not supported by snapshot");
+        Preconditions.checkArgument(!(graph instanceof GraphSpillable),
+                "Graph spilled to disk is not supported by snapshot");
+        // the buckets of the window are not kept, a reloaded graph would stop expiring the paths.
+        Preconditions.checkArgument(!(graph instanceof GraphWindowed),
+                "Graph of time window is not supported by snapshot");
+
+        final File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            saveInLock(graph, out, 0);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load a graph from a snapshot file.
+     * @param file The snapshot file.
+     * @return The graph, {@link GraphRandom} or {@link GraphSequence} as it was saved.
+     * @throws IOException The exception about reading snapshot failed or the snapshot is invalid.
+     */
+    public static Graph load(final File file) throws IOException {
+        Preconditions.checkNotNull(file, "Snapshot file should not be null");
+
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            try {
+                return load(new SnapshotInput(channel));
+            } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new IOException(String.format("Invalid snapshot file %s: %s", file, e));
+            }
+        }
+    }
+
+    /**
+     * Load a graph from a snapshot file.
+     * @param file The snapshot file.
+     * @param type The expected graph type.
+     * @param <G> Real graph type {@link GraphRandom}, {@link GraphSequence}.
+     * @return The graph.
+     * @throws IOException The exception about reading snapshot failed or the snapshot is not the expected type.
+     */
+    public static <G extends Graph> G load(final File file, final Class<G> type) throws IOException {
+        Preconditions.checkNotNull(type, "Graph type should not be null");
+
+        final Graph graph = load(file);
+        if (!type.isInstance(graph)) {
+            throw new IOException(String.format("Snapshot file %s contains %s rather than %s",
+                    file, graph.getClass().getSimpleName(), type.getSimpleName()));
+        }
+        return type.cast(graph);
+    }
+
+    /**
+     * Hold owner locks stripe by stripe, then save the graph.
+     */
+    private static void saveInLock(final Graph graph, final DataOutput out, final int stripe) throws IOException {
+        if (stripe == Graph.OWNER_LOCK_STRIPES) {
+            save(graph, out);
+        } else {
+            synchronized (graph.getOwnerLock(stripe)) {
+                saveInLock(graph, out, stripe + 1);
+            }
+        }
+    }
+
+    private static void save(final Graph graph, final DataOutput out) throws IOException {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        if (graph instanceof GraphSequence) {
+            out.writeByte(GRAPH_SEQUENCE);
+            out.writeInt(((GraphSequence) graph).getMaxPathDepthEvaluation());
+            out.writeInt(((GraphSequence) graph).getRetainedTopN());
+            out.writeInt(((GraphSequence) graph).getMinPathDepthEvaluation());
+        } else {
+            out.writeByte(GRAPH_RANDOM);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(0);
+        }
+
+        // dictionaries, name of id 0 first
+        saveSymbols(graph.getOwnerSymbols(), out);
+        saveSymbols(graph.getNodeSymbols(), out);
+
+        // nodes, ordered by id
+        final List<Node> nodes = new ArrayList<>(graph.getNodeMap().values());
+        nodes.sort(Comparator.comparingInt(Node::getId));
+        out.writeInt(nodes.size());
+        for (Node node : nodes) {
+            final int[] refCounts = node.getRefCounts();
+            out.writeInt(node.getId());
+            out.writeInt(refCounts.length / 2);
+            for (int refCount : refCounts) {
+                out.writeInt(refCount);
+            }
+        }
+
+        // edges, numbered in in-edge list order of the nodes.
+        final Map<Edge, Integer> edgeIndexes = new HashMap<>();
+        final List<Edge> edges = new ArrayList<>();
+        for (Node node : nodes) {
+            for (Edge edge : node.getInEdges()) {
+                edgeIndexes.put(edge, edges.size());
+                edges.add(edge);
+            }
+        }
+        out.writeInt(edges.size());
+        for (Edge edge : edges) {
+            out.writeInt(edge.getOwner());
+            out.writeInt(edge.getInNode() == null ? NO_NODE : edge.getInNode().getId());
+            out.writeInt(edge.getOutNode().getId());
+        }
+
+        // out-edge lists, in node order
+        for (Node node : nodes) {
+            final List<Edge> outEdges = node.getOutEdges();
+            out.writeInt(outEdges.size());
+            for (Edge edge : outEdges) {
+                out.writeInt(edgeIndexes.get(edge));
+            }
+        }
+
+        // pre-order edge links, in edge order
+        for (Edge edge : edges) {
+            out.writeInt(edge.getPreEdges().size());
+            for (Edge preEdge : edge.getPreEdges()) {
+                out.writeInt(edgeIndexes.get(preEdge));
+            }
+        }
+
+        // node lists of the owners
+        final Map<Integer, List<Node>> nodeMapByOwner = graph.getNodeMapByOwner();
+        out.writeInt(nodeMapByOwner.size());
+        for (Map.Entry<Integer, List<Node>> item : nodeMapByOwner.entrySet()) {
+            out.writeInt(item.getKey());
+            out.writeInt(item.getValue().size());
+            for (Node node : item.getValue()) {
+                out.writeInt(node.getId());
+            }
+        }
+
+        // booked popular paths
+        if (graph instanceof GraphSequence) {
+            final Map<Integer, PopularPathBook[]> popularPathMap = ((GraphSequence) graph).getPopularPathMap();
+            out.writeInt(popularPathMap.size());
+            for (Map.Entry<Integer, PopularPathBook[]> item : popularPathMap.entrySet()) {
+                out.writeInt(item.getKey());
+                for (PopularPathBook book : item.getValue()) {     // a booking for each depth
+                    out.writeInt(book.size());
+                    for (Map.Entry<String, Integer> path : book.top(book.size())) {
+                        writeString(out, path.getKey());
+                        out.writeInt(path.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private static Graph load(final SnapshotInput in) throws IOException {
+        if (in.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a graph snapshot");
+        }
+        final int version = in.getInt();
+        if (version < 1 || version > SNAPSHOT_VERSION) {
+            throw new IOException(String.format("Unsupported graph snapshot version %d", version));
+        }
+
+        final byte type = in.get();
+        final int depth = in.getInt();
+        final int retainedTopN = version < 2 ? GraphSequence.DEFAULT_RETAINED_TOP_N : in.getInt();
+        final int minDepth = version < 3 ? depth : in.getInt();
+        final Graph graph;
+        if (type == GRAPH_SEQUENCE) {
+            graph = new GraphSequence(minDepth, depth, retainedTopN);
+        } else if (type == GRAPH_RANDOM) {
+            graph = new GraphRandom();
+        } else {
+            throw new IOException(String.format("Unsupported graph type %d in snapshot", type));
+        }
+
+        loadSymbols(graph.getOwnerSymbols(), in);
+        loadSymbols(graph.getNodeSymbols(), in);
+
+        final Map<Integer, Node> nodeMap = graph.getNodeMap();
+        final Node[] nodes = new Node[readCount(in, 8)];
+        for (int i = 0; i < nodes.length; i++) {
+            final int id = in.getInt();
+            final Node node = new Node(id, graph.getNodeSymbols().name(id));
+            final int refCounts = in.getInt();
+            for (int j = 0; j < refCounts; j++) {
+                node.setRefCount(checkOwner(graph, in.getInt()), in.getInt());
+            }
+            nodes[i] = node;
+            nodeMap.put(id, node);
+        }
+
+        final Edge[] edges = new Edge[readCount(in, 12)];
+        for (int i = 0; i < edges.length; i++) {
+            final int owner = checkOwner(graph, in.getInt());
+            final int inNode = in.getInt();
+            final Node outNode = getNode(nodeMap, in.getInt());
+            edges[i] = new Edge(owner, inNode == NO_NODE ? null : getNode(nodeMap, inNode), outNode, null);
+            outNode.addInEdge(edges[i]);
+        }
+
+        for (Node node : nodes) {
+            final int outEdges = in.getInt();
+            for (int j = 0; j < outEdges; j++) {
+                node.addOutEdge(edges[in.getInt()]);
+            }
+        }
+
+        for (Edge edge : edges) {
+            final int preEdges = in.getInt();
+            for (int j = 0; j < preEdges; j++) {
+                edge.getPreEdges().add(edges[in.getInt()]);
+            }
+        }
+
+        final Map<Integer, List<Node>> nodeMapByOwner = graph.getNodeMapByOwner();
+        final int owners = in.getInt();
+        for (int i = 0; i < owners; i++) {
+            final int owner = checkOwner(graph, in.getInt());
+            final int size = readCount(in, 4);
+            final List<Node> ownerNodes = new ArrayList<>(size);
+            for (int j = 0; j < size; j++) {
+                ownerNodes.add(getNode(nodeMap, in.getInt()));
+            }
+            nodeMapByOwner.put(owner, ownerNodes);
+        }
+
+        if (graph instanceof GraphSequence) {
+            final Map<Integer, PopularPathBook[]> popularPathMap = ((GraphSequence) graph).getPopularPathMap();
+            final int bookedOwners = in.getInt();
+            for (int i = 0; i < bookedOwners; i++) {
+                final int owner = checkOwner(graph, in.getInt());
+                final PopularPathBook[] books = ((GraphSequence) graph).newBooks();
+                for (PopularPathBook book : books) {
+                    final int size = in.getInt();
+                    for (int j = 0; j < size; j++) {
+                        final String path = readString(in);
+                        book.offer(path, in.getInt());
+                    }
+                }
+                popularPathMap.put(owner, books);
+            }
+        }
+
+        if (in.hasRemaining()) {
+            throw new IOException("Unexpected data at the end of graph snapshot");
+        }
+
+        log.info(String.format("Graph loaded from snapshot, %d node(s), %d edge(s), %d owner(s)",
+                nodes.length, edges.length, graph.getOwnerSymbols().size()));
+
+        return graph;
+    }
+
+    private static void saveSymbols(final SymbolTable symbols, final DataOutput out) throws IOException {
+        final int size = symbols.size();
+        out.writeInt(size);
+        for (int id = 0; id < size; id++) {
+            writeString(out, symbols.name(id));
+        }
+    }
+
+    private static void loadSymbols(final SymbolTable symbols, final SnapshotInput in) throws IOException {
+        final int size = in.getInt();
+        for (int id = 0; id < size; id++) {
+            if (symbols.intern(readString(in)) != id) {
+                throw new IOException("Duplicated name in graph snapshot dictionary");
+            }
+        }
+    }
+
+    private static int checkOwner(final Graph graph, final int owner) {
+        Preconditions.checkElementIndex(owner, graph.getOwnerSymbols().size(), "Edge owner id");
+        return owner;
+    }
+
+    private static Node getNode(final Map<Integer, Node> nodeMap, final int id) throws IOException {
+        final Node node = nodeMap.get(id);
+        if (node == null) {
+            throw new IOException(String.format("Node %d not found in graph snapshot", id));
+        }
+        return node;
+    }
+
+    private static void writeString(final DataOutput out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read the amount of following elements, it is checked against the rest bytes of the snapshot.
+     * @param in The snapshot input.
+     * @param elementSize Min size of an element in bytes.
+     * @return The amount of elements.
+     */
+    private static int readCount(final SnapshotInput in, final int elementSize) throws IOException {
+        final int count = in.getInt();
+        if (count < 0 || (long) count * elementSize > in.remaining()) {
+            throw new IOException(String.format("Invalid element count %d in graph snapshot", count));
+        }
+        return count;
+    }
+
+    private static String readString(final SnapshotInput in) throws IOException {
+        final byte[] bytes = new byte[readCount(in, 1)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buffered reader of the snapshot channel, the data is big-endian as {@link DataOutput} writes.
+     *  It throws {@link BufferUnderflowException} at the end of the snapshot like a byte buffer does.
+     */
+    private final static class SnapshotInput {
+
+        private final static int READ_BUFFER_SIZE = 1 << 20;
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer;
+
+        private long remaining;     // the bytes not read out of the snapshot, buffered bytes included
+
+        SnapshotInput(final FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            this.buffer.flip();
+            this.remaining = channel.size();
+        }
+
+        long remaining() {
+            return this.remaining;
+        }
+
+        boolean hasRemaining() {
+            return this.remaining > 0;
+        }
+
+        byte get() throws IOException {
+            fill(1);
+            this.remaining--;
+            return this.buffer.get();
+        }
+
+        int getInt() throws IOException {
+            fill(4);
+            this.remaining -= 4;
+            return this.buffer.getInt();
+        }
+
+        void get(final byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                fill(1);
+                final int length = Math.min(bytes.length - offset, this.buffer.remaining());
+                this.buffer.get(bytes, offset, length);
+                this.remaining -= length;
+                offset += length;
+            }
+        }
+
+        /**
+         * Read from the channel until at least the given amount of bytes are buffered.
+         */
+        private void fill(final int size) throws IOException {
+            if (this.buffer.remaining() >= size) {
+                return;
+            }
+            this.buffer.compact();
+            try {
+                while (this.buffer.position() < size) {
+                    if (this.channel.read(this.buffer) < 0) {
+                        throw new BufferUnderflowException();
+                    }
+                }
+            } finally {
+                this.buffer.flip();
+            }
+        }
+    }
+}
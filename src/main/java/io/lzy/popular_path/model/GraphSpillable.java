@@ -0,0 +1,548 @@
+package io.lzy.popular_path.model;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * @author zhiyan
+ *
+ * A {@link GraphRandom} keeps the subgraphs of the owners in memory under a budget, the subgraphs of the least
+ *  recently active owners are spilled to a local on-disk store when the budget is exceeded, so the log volume
+ *  one JVM can handle is bounded by the disk rather than the heap.
+ *
+ * The footprint of each owner is estimated when its nodes are referred and its edges and pre-order edge links
+ *  are added. The subgraph of an owner is its node list, the node reference counts, the edges and the pre-order
+ *  edge links of the owner, it is not linked to the subgraphs of other owners, so it is spilled and faulted
+ *  independently. The nodes themselves are kept, they are shared by the owners and bounded by the pages.
+ *  A spilled owner is faulted back in transparently under the owner lock when a record or a query touches it.
+ *
+ * The budget is enforced after each ingest call and each owner query, the owner locks are not held then.
+ *  The node and edge returned by the last touch of an owner stay valid after the owner is spilled, so a parser
+ *  links the next record of a spilled owner as usual. The cached query results are kept, spilling doesn't change
+ *  the paths of an owner, and the cache is looked up before an owner is faulted in, so a cache hit doesn't read
+ *  the disk. A query across all users evaluates the owners not cached, and a site query evaluates every owner,
+ *  so each of them faults all the spilled owners in and spills them again, one owner at a time: the resident size
+ *  stays under the budget, but the cost of such a query grows with the disk reads of the spilled owners.
+ *
+ * The recency of the owners is approximated without a global lock on the ingest path: an owner is stamped with
+ *  a clock under its own lock when it is touched or evaluated, the clock ticks once per ingest call and owner
+ *  query. The owner to spill is the least recently stamped one of {@value #EVICTION_SAMPLES} resident owners
+ *  sampled round robin, like the sampled LRU of Redis.
+ *
+ * The spilled owners are not saved by {@link GraphSnapshot}. The store file is deleted by {@link #close()}.
+ */
+public class GraphSpillable extends GraphRandom implements Closeable {
+
+    /**
+     * Estimated heap size of a node referred by an owner, in byte: the slots of the node list and the reference
+     *  count table.
+     */
+    final static int NODE_REF_BYTES = 16;
+
+    /**
+     * Estimated heap size of an edge, in byte: the edge object, its pre-order edge set and the slots of
+     *  the edge indexes of its nodes.
+     */
+    final static int EDGE_BYTES = 160;
+
+    /**
+     * Estimated heap size of a pre-order edge link, in byte.
+     */
+    final static int LINK_BYTES = 16;
+
+    /**
+     * The amount of resident owners sampled to choose one to spill.
+     */
+    final static int EVICTION_SAMPLES = 8;
+
+    private final static int NO_NODE = -1;
+
+    private final long memoryBudget;
+
+    private final SpillStore store;
+
+    /**
+     * The states of all the owners, the key is edge owner id. The state of an owner is guarded by the owner lock.
+     */
+    private final Map<Integer, OwnerState> ownerStates;
+
+    /**
+     * The owners in memory, the key is edge owner id. An owner is added and removed under the owner lock.
+     */
+    private final Map<Integer, OwnerState> residentOwners;
+
+    /**
+     * The recency clock of the owners, it ticks once per ingest call and owner query.
+     */
+    private final AtomicLong clock;
+
+    /**
+     * The position of the eviction sampling in the resident owners, guarded by the resident owner map.
+     */
+    private Iterator<Map.Entry<Integer, OwnerState>> evictionCursor;
+
+    private final AtomicLong residentBytes;
+
+    private final LongAdder spills;
+
+    private final LongAdder faults;
+
+    /**
+     * Create a graph keeps the subgraphs of the owners in memory under a budget.
+     * @param memoryBudget The heap size allowed for the subgraphs of the owners, in byte.
+     * @param directory The directory of the store file of the spilled owners.
+     * @throws IOException The exception about creating the store file failed.
+     */
+    public GraphSpillable(final long memoryBudget, final File directory) throws IOException {
+        this(memoryBudget, directory, DEFAULT_QUERY_CACHE_SIZE);
+    }
+
+    /**
+     * Create a graph keeps the subgraphs of the owners in memory under a budget.
+     * @param memoryBudget The heap size allowed for the subgraphs of the owners, in byte.
+     * @param directory The directory of the store file of the spilled owners.
+     * @param queryCacheSize The max number of the query results to cache, value 0 disables the cache.
+     * @throws IOException The exception about creating the store file failed.
+     */
+    public GraphSpillable(final long memoryBudget, final File directory, final int queryCacheSize)
+            throws IOException {
+        this(memoryBudget, new SpillStore(directory, SpillStore.DEFAULT_MIN_COMPACT_BYTES), queryCacheSize);
+    }
+
+    GraphSpillable(final long memoryBudget, final SpillStore store, final int queryCacheSize) {
+        super(queryCacheSize);
+        Preconditions.checkArgument(memoryBudget >= 0, "Memory budget parameter should not be negative");
+
+        this.memoryBudget = memoryBudget;
+        this.store = store;
+        this.ownerStates = new ConcurrentHashMap<>();
+        this.residentOwners = new ConcurrentHashMap<>();
+        this.clock = new AtomicLong();
+        this.residentBytes = new AtomicLong();
+        this.spills = new LongAdder();
+        this.faults = new LongAdder();
+    }
+
+    public long getMemoryBudget() {
+        return this.memoryBudget;
+    }
+
+    /**
+     * Get the estimated heap size of the subgraphs in memory.
+     * @return Resident size in byte.
+     */
+    public long getResidentBytes() {
+        return this.residentBytes.get();
+    }
+
+    /**
+     * Get the estimated heap size of the subgraph of an owner.
+     * @param edgeOwner The owner name. In our case, this is user name.
+     * @return Footprint in byte, value 0 will be returned if the owner is spilled or unknown.
+     */
+    public long getFootprint(final String edgeOwner) {
+        Preconditions.checkNotNull(edgeOwner, "Edge owner name should not be null");
+
+        final int edgeOwnerId = getOwnerSymbols().lookup(edgeOwner.trim());
+        final OwnerState state = edgeOwnerId == SymbolTable.NO_SYMBOL ? null : this.ownerStates.get(edgeOwnerId);
+        if (state == null) {
+            return 0;
+        }
+        synchronized (getOwnerLock(edgeOwnerId)) {
+            return state.bytes;
+        }
+    }
+
+    /**
+     * Get the number of the owners spilled to disk now.
+     * @return Spilled owner count.
+     */
+    public int getSpilledOwners() {
+        return this.store.size();
+    }
+
+    /**
+     * Get the number of the times an owner is spilled.
+     * @return Spill count.
+     */
+    public long getSpills() {
+        return this.spills.sum();
+    }
+
+    /**
+     * Get the number of the times a spilled owner is faulted back in.
+     * @return Fault count.
+     */
+    public long getFaults() {
+        return this.faults.sum();
+    }
+
+    @Override
+    public Map.Entry<Node, Edge> touchNode(
+            final int nodeId, final Node parent, final Edge preEdge, final int edgeOwner, final long timestamp) {
+        final Map.Entry<Node, Edge> ret = super.touchNode(nodeId, parent, preEdge, edgeOwner, timestamp);
+        spill();
+        return ret;
+    }
+
+    @Override
+    public int touchNodes(final int[] edgeOwners, final int[] nodeIds, final long[] timestamps, final int offset,
+                          final int length, final Map<Integer, Map.Entry<Node, Edge>> nodeParents) {
+        final int ret = super.touchNodes(edgeOwners, nodeIds, timestamps, offset, length, nodeParents);
+        spill();
+        return ret;
+    }
+
+    /**
+     * Fault the owner back in if it is spilled, and stamp it as recently active.
+     */
+    @Override
+    protected void nodeTouching(final int edgeOwner) {
+        activate(edgeOwner, this.ownerStates.computeIfAbsent(edgeOwner, owner -> new OwnerState()));
+    }
+
+    /**
+     * Count the node reference of the owner into its footprint.
+     * @param node The node added or touched.
+     * @param edge The edge added or touched.
+     * @param preEdge The pre-order edge the edge is touched with.
+     * @param edgeOwner The owner id of edge migrate to the node from the parent. In our case, this is user name id.
+     * @param timestamp The access time, not used by the budget.
+     */
+    @Override
+    protected void nodeTouched(final Node node, final Edge edge, final Edge preEdge, final int edgeOwner,
+                               final long timestamp) {
+        super.nodeTouched(node, edge, preEdge, edgeOwner, timestamp);
+
+        final OwnerState state = this.ownerStates.get(edgeOwner);
+        state.lastEdge = edge;
+        if (node.getRefCount(edgeOwner) == 1) {
+            charge(state, NODE_REF_BYTES);
+        }
+    }
+
+    @Override
+    protected void edgeLinked(final Edge edge, final Edge preEdge, final int edgeOwner, final boolean created) {
+        charge(this.ownerStates.get(edgeOwner),
+                created ? EDGE_BYTES + (preEdge == null ? 0 : LINK_BYTES) : LINK_BYTES);
+    }
+
+    /**
+     * Fault the owner back in if it is spilled, and stamp it as recently active. It is called on a cache miss only.
+     */
+    @Override
+    protected void ownerEvaluating(final int edgeOwner) {
+        final OwnerState state = this.ownerStates.get(edgeOwner);
+        if (state != null) {
+            activate(edgeOwner, state);
+        }
+    }
+
+    @Override
+    protected void ownerQueryDone(final int edgeOwner) {
+        spill();
+    }
+
+    /**
+     * The spilled owners are queried as well.
+     * @return All the owners touched any node.
+     */
+    @Override
+    protected Collection<Integer> getQueryOwners() {
+        return this.ownerStates.keySet();
+    }
+
+    /**
+     * Spill the least recently active owners until the resident size is under the budget, the clock ticks.
+     *  It is called after each ingest call and each owner query, the caller should not hold any owner lock.
+     * @return The amount of owners spilled.
+     */
+    public int spill() {
+        this.clock.incrementAndGet();
+        int spilled = 0;
+
+        while (this.residentBytes.get() > this.memoryBudget) {
+            final Integer edgeOwner = sampleEviction();
+            if (edgeOwner == null) {
+                break;
+            }
+
+            synchronized (getOwnerLock(edgeOwner)) {
+                final OwnerState state = this.ownerStates.get(edgeOwner);
+                if (state.resident && spillInLock(edgeOwner, state)) {     // it might be spilled by another thread
+                    spilled++;
+                }
+            }
+        }
+
+        return spilled;
+    }
+
+    /**
+     * Delete the store file, the spilled owners are dropped.
+     * @throws IOException The exception about closing the store file failed.
+     */
+    @Override
+    public void close() throws IOException {
+        this.store.close();
+    }
+
+    private void charge(final OwnerState state, final long bytes) {
+        state.bytes += bytes;
+        this.residentBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Fault the owner back in if it is spilled, and stamp it as recently active. The caller should hold
+     *  the owner lock, the resident owner map is updated only when the owner enters the memory.
+     */
+    private void activate(final int edgeOwner, final OwnerState state) {
+        if (state.spilled) {
+            faultInLock(edgeOwner, state);
+        }
+        if (!state.resident) {
+            state.resident = true;
+            this.residentOwners.put(edgeOwner, state);
+        }
+        state.lastAccess = this.clock.get();
+    }
+
+    /**
+     * Sample the resident owners round robin and choose the least recently active one.
+     * @return The edge owner id, null if no owner is resident.
+     */
+    private Integer sampleEviction() {
+        synchronized (this.residentOwners) {
+            Map.Entry<Integer, OwnerState> ret = null;
+            for (int i = 0; i < EVICTION_SAMPLES; i++) {
+                if (this.evictionCursor == null || !this.evictionCursor.hasNext()) {
+                    this.evictionCursor = this.residentOwners.entrySet().iterator();
+                    if (!this.evictionCursor.hasNext()) {
+                        break;
+                    }
+                }
+                final Map.Entry<Integer, OwnerState> item = this.evictionCursor.next();
+                if (ret == null || item.getValue().lastAccess < ret.getValue().lastAccess) {
+                    ret = item;
+                }
+            }
+            return ret == null ? null : ret.getKey();
+        }
+    }
+
+    private void evict(final int edgeOwner, final OwnerState state) {
+        state.resident = false;
+        this.residentOwners.remove(edgeOwner);
+    }
+
+    /**
+     * Write the subgraph of an owner to the store and unlink it from the graph, the caller should hold
+     *  the owner lock.
+     * @return Boolean value indicates if the owner is spilled, an owner without node is not.
+     */
+    private boolean spillInLock(final int edgeOwner, final OwnerState state) {
+        final List<Node> nodes = getNodeMapByOwner().get(edgeOwner);
+        if (nodes == null) {
+            evict(edgeOwner, state);
+            return false;
+        }
+
+        // the parents of the edges are unlinked as well, they might not refer by the owner any more.
+        final Set<Node> linkedNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+        try {
+            this.store.put(edgeOwner, encode(nodes, edgeOwner, state.lastEdge, linkedNodes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Spill owner %s failed",
+                    getOwnerSymbols().name(edgeOwner)), e);
+        }
+
+        for (Node node : linkedNodes) {
+            node.unlinkOwner(edgeOwner);
+        }
+        for (Node node : nodes) {
+            final int refCount = node.getRefCount(edgeOwner);
+            if (refCount > 0) {
+                node.releaseRef(edgeOwner, refCount);
+            }
+        }
+        if (state.lastEdge != null) {
+            state.lastEdge.getPreEdges().clear();   // the edge is kept, the rest of the subgraph is released
+        }
+        getNodeMapByOwner().remove(edgeOwner);
+
+        evict(edgeOwner, state);
+        this.residentBytes.addAndGet(-state.bytes);
+        state.bytes = 0;
+        state.spilled = true;
+        this.spills.increment();
+        return true;
+    }
+
+    /**
+     * Read the subgraph of an owner from the store and link it to the graph, the caller should hold
+     *  the owner lock.
+     */
+    private void faultInLock(final int edgeOwner, final OwnerState state) {
+        final byte[] record;
+        try {
+            record = this.store.take(edgeOwner);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Fault owner %s in failed",
+                    getOwnerSymbols().name(edgeOwner)), e);
+        }
+        Preconditions.checkState(record != null, "internal error");
+
+        final ByteBuffer in = ByteBuffer.wrap(record);
+        long bytes = 0;
+
+        final int nodeCount = in.getInt();
+        final List<Node> nodes = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            final Node node = getSpilledNode(in.getInt());
+            node.setRefCount(edgeOwner, in.getInt());
+            nodes.add(node);
+            bytes += NODE_REF_BYTES;
+        }
+
+        final Edge[] edges = new Edge[in.getInt()];
+        final int lastEdge = in.getInt();
+        for (int i = 0; i < edges.length; i++) {
+            final int inNode = in.getInt();
+            final Node outNode = getSpilledNode(in.getInt());
+            edges[i] = i == lastEdge ? state.lastEdge :
+                    new Edge(edgeOwner, inNode == NO_NODE ? null : getSpilledNode(inNode), outNode, null);
+            outNode.addInEdge(edges[i]);
+            bytes += EDGE_BYTES;
+        }
+
+        final int linkedNodes = in.getInt();
+        for (int i = 0; i < linkedNodes; i++) {
+            final Node node = getSpilledNode(in.getInt());
+            final int outEdges = in.getInt();
+            for (int j = 0; j < outEdges; j++) {
+                node.addOutEdge(edges[in.getInt()]);
+            }
+        }
+
+        for (Edge edge : edges) {
+            final int preEdges = in.getInt();
+            for (int j = 0; j < preEdges; j++) {
+                edge.getPreEdges().add(edges[in.getInt()]);
+            }
+            bytes += (long) preEdges * LINK_BYTES;
+        }
+
+        getNodeMapByOwner().put(edgeOwner, nodes);
+        state.bytes = bytes;
+        state.spilled = false;
+        this.residentBytes.addAndGet(bytes);
+        this.faults.increment();
+    }
+
+    private Node getSpilledNode(final int id) {
+        final Node node = getNodeMap().get(id);
+        Preconditions.checkState(node != null, "internal error");
+        return node;
+    }
+
+    /**
+     * Encode the subgraph of an owner, the nodes linked by the edges of the owner are collected.
+     */
+    private static byte[] encode(final List<Node> nodes, final int edgeOwner, final Edge lastEdge,
+                                 final Set<Node> linkedNodes) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        // nodes with reference counts, in node list order
+        out.writeInt(nodes.size());
+        for (Node node : nodes) {
+            out.writeInt(node.getId());
+            out.writeInt(node.getRefCount(edgeOwner));
+        }
+
+        // edges, numbered in in-edge list order of the nodes.
+        final Map<Edge, Integer> edgeIndexes = new HashMap<>();
+        final List<Edge> edges = new ArrayList<>();
+        for (Node node : nodes) {
+            for (Edge edge : node.getInEdges(edgeOwner)) {
+                edgeIndexes.put(edge, edges.size());
+                edges.add(edge);
+                linkedNodes.add(node);
+                if (edge.getInNode() != null) {
+                    linkedNodes.add(edge.getInNode());
+                }
+            }
+        }
+        out.writeInt(edges.size());
+        out.writeInt(lastEdge == null ? -1 : edgeIndexes.getOrDefault(lastEdge, -1));
+        for (Edge edge : edges) {
+            out.writeInt(edge.getInNode() == null ? NO_NODE : edge.getInNode().getId());
+            out.writeInt(edge.getOutNode().getId());
+        }
+
+        // out-edge lists of the linked nodes
+        out.writeInt(linkedNodes.size());
+        for (Node node : linkedNodes) {
+            final List<Edge> outEdges = node.getOutEdges(edgeOwner);
+            out.writeInt(node.getId());
+            out.writeInt(outEdges.size());
+            for (Edge edge : outEdges) {
+                out.writeInt(edgeIndexes.get(edge));
+            }
+        }
+
+        // pre-order edge links, in edge order
+        for (Edge edge : edges) {
+            final List<Integer> preEdges = new ArrayList<>(edge.getPreEdges().size());
+            for (Edge preEdge : edge.getPreEdges()) {
+                final Integer index = edgeIndexes.get(preEdge);
+                if (index != null) {
+                    preEdges.add(index);
+                }
+            }
+            out.writeInt(preEdges.size());
+            for (int index : preEdges) {
+                out.writeInt(index);
+            }
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Memory state of an owner, guarded by the owner lock. The recency stamp is read by the eviction sampling
+     *  without the lock.
+     */
+    private final static class OwnerState {
+
+        /**
+         * Estimated heap size of the subgraph of the owner, value 0 when it is spilled.
+         */
+        private long bytes;
+
+        /**
+         * The edge touched last by the owner, it is kept when the owner is spilled and reused by faulting in,
+         *  so the node parent of the owner held by a parser stays valid.
+         */
+        private Edge lastEdge;
+
+        private boolean spilled;
+
+        /**
+         * Boolean value indicates if the owner is in the resident owner map.
+         */
+        private boolean resident;
+
+        /**
+         * The clock value of the last touch or evaluation of the owner.
+         */
+        private volatile long lastAccess;
+    }
+}
@@ -0,0 +1,380 @@
+package io.lzy.popular_path.model;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * @author zhiyan
+ *
+ * A {@link GraphRandom} keeps the accesses of a sliding time window only, so the popular paths are the popular
+ *  paths of the last window, e.g. the last 15 minutes, and the memory is bounded by the accesses in the window.
+ *
+ * The window is split into buckets, the window moves by bucket: the accesses in the last B buckets including
+ *  the current one are kept. Each owner has a ring of the buckets, a bucket counts the node references and
+ *  the edge accesses (an edge with the pre-order edge it is walked from) of the owner in its time range.
+ *  When a bucket is out of the window its counts are released from the graph in place: the node reference count
+ *  is decreased and the node is removed from the nodes of the owner when no reference left, an edge or
+ *  a pre-order edge link is removed when no access left. So the paths are evaluated on the window without
+ *  rebuilding the graph. The nodes themselves are kept, they are shared by the owners and bounded by the pages.
+ *
+ * The time of the graph is event time, it is the max access time of the records and {@link #advanceTime(long)}.
+ *  A record without time is counted at the time of the graph. The expired buckets of an owner are released when
+ *  the owner touches a node or is queried, the owners idle since are reclaimed incrementally by the ingest batches
+ *  and the time advancing, {@value #RECLAIM_BATCH} owners at a time, so a window move never stalls the ingest.
+ *
+ * It is not supported by {@link GraphSnapshot}, the buckets of the window are not saved.
+ */
+public class GraphWindowed extends GraphRandom {
+
+    public final static int DEFAULT_BUCKETS = 60;
+
+    /**
+     * Max amount of idle owners reclaimed by an ingest batch or a time advancing.
+     */
+    final static int RECLAIM_BATCH = 64;
+
+    private final long bucketMillis;
+
+    private final int buckets;
+
+    /**
+     * The time of the graph in millisecond, it only moves forward.
+     */
+    private final AtomicLong time;
+
+    /**
+     * The bucket rings of the owners, the key is edge owner id. The ring of an owner is guarded by the owner lock.
+     */
+    private final Map<Integer, OwnerWindow> ownerWindows;
+
+    /**
+     * The owners have counted accesses in a bucket, the key is bucket id. Used to find the owners to reclaim.
+     */
+    private final ConcurrentSkipListMap<Long, Set<Integer>> bucketOwners;
+
+    /**
+     * Create a graph keeps the accesses of a time window, the window is split into {@value #DEFAULT_BUCKETS} buckets.
+     * @param window The length of the window.
+     * @param unit The time unit of the window.
+     */
+    public GraphWindowed(final long window, final TimeUnit unit) {
+        this(window, unit, DEFAULT_BUCKETS);
+    }
+
+    /**
+     * Create a graph keeps the accesses of a time window.
+     * @param window The length of the window.
+     * @param unit The time unit of the window.
+     * @param buckets The amount of buckets the window is split into, the window length in millisecond should be
+     *                a multiple of it.
+     */
+    public GraphWindowed(final long window, final TimeUnit unit, final int buckets) {
+        this(window, unit, buckets, DEFAULT_QUERY_CACHE_SIZE);
+    }
+
+    /**
+     * Create a graph keeps the accesses of a time window.
+     * @param window The length of the window.
+     * @param unit The time unit of the window.
+     * @param buckets The amount of buckets the window is split into, the window length in millisecond should be
+     *                a multiple of it.
+     * @param queryCacheSize The max number of the query results to cache, value 0 disables the cache.
+     */
+    public GraphWindowed(final long window, final TimeUnit unit, final int buckets, final int queryCacheSize) {
+        super(queryCacheSize);
+        Preconditions.checkNotNull(unit, "Time unit should not be null");
+        Preconditions.checkArgument(buckets > 0, "Bucket count parameter should greater than 0");
+        final long windowMillis = unit.toMillis(window);
+        Preconditions.checkArgument(windowMillis > 0 && windowMillis % buckets == 0,
+                "Window length in millisecond should be a positive multiple of bucket count");
+
+        this.bucketMillis = windowMillis / buckets;
+        this.buckets = buckets;
+        this.time = new AtomicLong();
+        this.ownerWindows = new ConcurrentHashMap<>();
+        this.bucketOwners = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Get the length of the window.
+     * @return Window length in millisecond.
+     */
+    public long getWindowMillis() {
+        return this.bucketMillis * this.buckets;
+    }
+
+    /**
+     * Get the length of a bucket, the window moves by it.
+     * @return Bucket length in millisecond.
+     */
+    public long getBucketMillis() {
+        return this.bucketMillis;
+    }
+
+    /**
+     * Get the time of the graph, the window ends at it.
+     * @return The max access time of the records and the advanced time, in millisecond.
+     */
+    public long getTime() {
+        return this.time.get();
+    }
+
+    /**
+     * Move the time of the graph forward, e.g. to the wall clock when no record comes for a while.
+     *  A time before the time of the graph is ignored.
+     * @param timestamp The new time in millisecond.
+     * @return The amount of idle owners reclaimed.
+     */
+    public int advanceTime(final long timestamp) {
+        this.time.accumulateAndGet(timestamp, Math::max);
+        return reclaim(RECLAIM_BATCH);
+    }
+
+    /**
+     * Release the expired buckets of all the idle owners at once.
+     * @return The amount of idle owners reclaimed.
+     */
+    public int reclaim() {
+        return reclaim(Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int touchNodes(final int[] edgeOwners, final int[] nodeIds, final long[] timestamps, final int offset,
+                          final int length, final Map<Integer, Map.Entry<Node, Edge>> nodeParents) {
+        final int ret = super.touchNodes(edgeOwners, nodeIds, timestamps, offset, length, nodeParents);
+        reclaim(RECLAIM_BATCH);
+        return ret;
+    }
+
+    /**
+     * Count the access in the bucket of its time and release the expired buckets of the owner.
+     *  It is called under the owner lock.
+     * @param node The node added or touched.
+     * @param edge The edge added or touched.
+     * @param preEdge The pre-order edge the edge is touched with.
+     * @param edgeOwner The owner id of edge migrate to the node from the parent. In our case, this is user name id.
+     * @param timestamp The access time in millisecond, or {@link #NO_TIMESTAMP} for the time of the graph.
+     */
+    @Override
+    protected void nodeTouched(final Node node, final Edge edge, final Edge preEdge, final int edgeOwner,
+                               final long timestamp) {
+        super.nodeTouched(node, edge, preEdge, edgeOwner, timestamp);
+
+        final long current = Math.floorDiv(timestamp == NO_TIMESTAMP ?
+                this.time.get() : this.time.accumulateAndGet(timestamp, Math::max), this.bucketMillis);
+        final long bucketId = timestamp == NO_TIMESTAMP ? current : Math.floorDiv(timestamp, this.bucketMillis);
+
+        OwnerWindow window = this.ownerWindows.get(edgeOwner);
+        if (window == null) {
+            window = new OwnerWindow(this.buckets);
+            this.ownerWindows.put(edgeOwner, window);
+        }
+        // the access is counted in the totals before expiring, so the edge just walked is not unlinked.
+        count(window.links, edge, preEdge);
+        expire(edgeOwner, window, current);
+
+        if (bucketId <= current - this.buckets) {   // a late record out of the window is released at once
+            final Bucket bucket = new Bucket(bucketId);
+            bucket.count(node, edge, preEdge);
+            release(edgeOwner, window, bucket);
+        } else {
+            final int slot = (int) Math.floorMod(bucketId, (long) this.buckets);
+            if (window.ring[slot] == null) {
+                window.ring[slot] = new Bucket(bucketId);
+                window.oldest = Math.min(window.oldest, bucketId);
+                this.bucketOwners.computeIfAbsent(bucketId, id -> ConcurrentHashMap.newKeySet()).add(edgeOwner);
+            }
+            window.ring[slot].count(node, edge, preEdge);
+        }
+
+        if (window.oldest == Long.MAX_VALUE) {
+            this.ownerWindows.remove(edgeOwner);
+        }
+    }
+
+    /**
+     * Release the expired buckets of the owner before the owner is queried.
+     * @param edgeOwner The edge owner id.
+     */
+    @Override
+    protected void ownerQueried(final int edgeOwner) {
+        expire(edgeOwner);
+    }
+
+    /**
+     * Reclaim the idle owners have expired buckets.
+     * @param maxOwners Max amount of owners to reclaim.
+     * @return The amount of owners reclaimed.
+     */
+    private int reclaim(final int maxOwners) {
+        final long expired = Math.floorDiv(this.time.get(), this.bucketMillis) - this.buckets;
+        int ret = 0;
+
+        Map.Entry<Long, Set<Integer>> entry;
+        while (ret < maxOwners && (entry = this.bucketOwners.firstEntry()) != null && entry.getKey() <= expired) {
+            final Iterator<Integer> owners = entry.getValue().iterator();
+            while (ret < maxOwners && owners.hasNext()) {
+                final int edgeOwner = owners.next();
+                owners.remove();
+                synchronized (getOwnerLock(edgeOwner)) {
+                    expire(edgeOwner);
+                }
+                ret++;
+            }
+            // an owner counted in the bucket at the same time is released by its next access.
+            if (entry.getValue().isEmpty()) {
+                this.bucketOwners.remove(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Release the expired buckets of an owner at the time of the graph, the caller should hold the owner lock.
+     * @param edgeOwner The edge owner id.
+     */
+    private void expire(final int edgeOwner) {
+        final OwnerWindow window = this.ownerWindows.get(edgeOwner);
+        if (window != null) {
+            expire(edgeOwner, window, Math.floorDiv(this.time.get(), this.bucketMillis));
+            if (window.oldest == Long.MAX_VALUE) {
+                this.ownerWindows.remove(edgeOwner);
+            }
+        }
+    }
+
+    /**
+     * Release the expired buckets of an owner, the caller should hold the owner lock.
+     * @param edgeOwner The edge owner id.
+     * @param window The bucket ring of the owner.
+     * @param current The current bucket id.
+     */
+    private void expire(final int edgeOwner, final OwnerWindow window, final long current) {
+        if (window.oldest > current - this.buckets) {
+            return;
+        }
+
+        long oldest = Long.MAX_VALUE;
+        for (int slot = 0; slot < window.ring.length; slot++) {
+            final Bucket bucket = window.ring[slot];
+            if (bucket != null && bucket.id <= current - this.buckets) {
+                window.ring[slot] = null;
+                release(edgeOwner, window, bucket);
+            } else if (bucket != null) {
+                oldest = Math.min(oldest, bucket.id);
+            }
+        }
+        window.oldest = oldest;
+    }
+
+    /**
+     * Release the counts of a bucket from the graph, the caller should hold the owner lock.
+     * @param edgeOwner The edge owner id.
+     * @param window The bucket ring of the owner.
+     * @param bucket The bucket to release.
+     */
+    private void release(final int edgeOwner, final OwnerWindow window, final Bucket bucket) {
+        final Set<Node> released = Collections.newSetFromMap(new IdentityHashMap<>());
+        bucket.nodes.forEach((node, count) -> {
+            if (node.releaseRef(edgeOwner, count[0]) == 0) {
+                released.add(node);
+            }
+        });
+
+        bucket.links.forEach((edge, preEdges) -> {
+            final Map<Edge, int[]> totals = window.links.get(edge);
+            preEdges.forEach((preEdge, count) -> {
+                final int[] total = totals.get(preEdge);
+                total[0] -= count[0];
+                if (total[0] == 0) {
+                    totals.remove(preEdge);
+                    if (preEdge != null) {
+                        edge.getPreEdges().remove(preEdge);
+                    }
+                }
+            });
+            if (totals.isEmpty()) {
+                window.links.remove(edge);
+                edge.getOutNode().unlinkParent(edge);
+            }
+        });
+
+        if (!released.isEmpty()) {
+            final List<Node> nodes = getNodeMapByOwner().get(edgeOwner);
+            nodes.removeIf(released::contains);
+            if (nodes.isEmpty()) {
+                getNodeMapByOwner().remove(edgeOwner);
+            }
+        }
+
+        invalidate(edgeOwner);
+    }
+
+    /**
+     * The bucket ring and the total edge access counts of an owner.
+     */
+    private final static class OwnerWindow {
+
+        /**
+         * The buckets in the window, bucket of id I is at slot I mod B.
+         */
+        private final Bucket[] ring;
+
+        /**
+         * The total access counts of the edges in the window. The key is edge, the value is the access count of
+         *  the pre-order edges the edge is walked from. An edge accessed from no pre-order edge is keyed by null.
+         */
+        private final Map<Edge, Map<Edge, int[]>> links;
+
+        /**
+         * The min bucket id in the ring, {@link Long#MAX_VALUE} if the ring is empty.
+         */
+        private long oldest;
+
+        OwnerWindow(final int buckets) {
+            this.ring = new Bucket[buckets];
+            this.links = new IdentityHashMap<>();
+            this.oldest = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * The access counts of an owner in a bucket.
+     */
+    private final static class Bucket {
+
+        private final long id;
+
+        /**
+         * The reference counts of the nodes.
+         */
+        private final Map<Node, int[]> nodes;
+
+        /**
+         * The access counts of the edges, keyed as {@link OwnerWindow#links}.
+         */
+        private final Map<Edge, Map<Edge, int[]>> links;
+
+        Bucket(final long id) {
+            this.id = id;
+            this.nodes = new IdentityHashMap<>();
+            this.links = new IdentityHashMap<>();
+        }
+
+        void count(final Node node, final Edge edge, final Edge preEdge) {
+            this.nodes.computeIfAbsent(node, _node -> new int[1])[0]++;
+            GraphWindowed.count(this.links, edge, preEdge);
+        }
+    }
+
+    private static void count(final Map<Edge, Map<Edge, int[]>> links, final Edge edge, final Edge preEdge) {
+        links.computeIfAbsent(edge, _edge -> new IdentityHashMap<>(2))
+                .computeIfAbsent(preEdge, _preEdge -> new int[1])[0]++;
+    }
+}
@@ -1,11 +1,6 @@
 package io.lzy.popular_path.model;
 
-import java.util.AbstractMap;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.*;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -13,94 +8,129 @@ import lombok.Getter;
 
 /**
  * @author zhiyan
+ *
+ * The edges of the node are indexed by edge owner, so the traversal for a user only touches the edges of the user,
+ *  even on a hub node like root node which is accessed by all users.
+ *
+ * The edge indexes are guarded by themselves, so the edges of different owners can be linked to the same node
+ *  at the same time. The edges of an owner are only linked under the owner lock of the graph, so the edge list of
+ *  an owner is stable and can be read without the index lock by the thread holds the owner lock.
+ *  Sequential stream is used under the edge index lock, parallel stream tasks would wait for common pool workers
+ *  which might be blocked on the same lock.
  */
 public class Node {
 
-    private final ArrayList<Edge> inEdges;
+    /**
+     * Edges point to this node. The key is edge owner id.
+     */
+    private final Map<Integer, List<Edge>> inEdges;
 
-    private final ArrayList<Edge> outEdges;
+    /**
+     * Edges point to other node from this node. The key is edge owner id.
+     */
+    private final Map<Integer, List<Edge>> outEdges;
+
+    /**
+     * Node name id.
+     * @see Graph#getNodeSymbols()
+     */
+    @Getter
+    private final int id;
 
     @Getter
     private final String name;
 
-    private final Map<String, AtomicInteger> refCount;
+    /**
+     * Reference count of the node. The key is edge owner id.
+     */
+    private final RefCountTable refCount;
 
     /**
      * Create root node.
-     * @param edgeOwner The owner name of edge migrates to the node from the parent. In our case, this is user name.
+     * @param edgeOwner The owner id of edge migrates to the node from the parent. In our case, this is user name id.
      */
-    public static Map.Entry<Node, Edge> createRootNode(final String edgeOwner) {
-        return createNode(Graph.ROOT_NODE_NAME, null, null, edgeOwner);
+    public static Map.Entry<Node, Edge> createRootNode(final int edgeOwner) {
+        return createNode(Graph.ROOT_NODE_ID, Graph.ROOT_NODE_NAME, null, null, edgeOwner);
     }
 
     /**
      * Create child node.
+     * @param id Node name id.
      * @param name Node name.
      * @param parent Parent node object.
      *               Current interface layout align to the case of parsing log
      *               and creating node from root node. In other word,
      *               user will not access middle node directly without root node navigation.
      * @param preEdge The list of Pre-order edge which drive parent node access next node with this edge by an user.
-     * @param edgeOwner The owner name of edge migrates to the node from the parent. In our case, this is user name.
+     * @param edgeOwner The owner id of edge migrates to the node from the parent. In our case, this is user name id.
      */
     public static Map.Entry<Node, Edge> createNode(
-            final String name, final Node parent, final Edge preEdge, final String edgeOwner) {
-        Preconditions.checkNotNull(edgeOwner, "Edge owner name should not be null");
-        final String _edgeOwner = edgeOwner.trim();
-        Preconditions.checkArgument(_edgeOwner.length() > 0, "Edge owner name should not be empty");
-
-        Node node = new Node(name, edgeOwner);
-        Edge edge = node.linkParent(parent, preEdge, _edgeOwner);
+            final int id, final String name, final Node parent, final Edge preEdge, final int edgeOwner) {
+        Node node = new Node(id, name, edgeOwner);
+        Edge edge = node.linkParent(parent, preEdge, edgeOwner);
 
         return new AbstractMap.SimpleEntry<>(node, edge);
     }
 
     /**
-     * Create child node.
+     * Create a node without any edge and reference, used to restore the node from snapshot.
+     * @param id Node name id.
+     * @param name Node name.
+     */
+    Node(final int id, final String name) {
+        Preconditions.checkNotNull(name, "Node name should not be null");
+        Preconditions.checkArgument(id >= 0, "Node name id should not be negative");
+
+        this.id = id;
+        this.name = name;
+        this.inEdges = new HashMap<>();
+        this.outEdges = new HashMap<>();
+        this.refCount = new RefCountTable();
+    }
+
+    /**
+     * Create a node without any edge.
+     * @param id Node name id.
      * @param name Node name.
-     * @param edgeOwner The owner name of edge migrates to the node from the parent. In our case, this is user name.
+     * @param edgeOwner The owner id of edge migrates to the node from the parent. In our case, this is user name id.
      */
-    private Node(final String name, final String edgeOwner) {
+    Node(final int id, final String name, final int edgeOwner) {
         Preconditions.checkNotNull(name, "Node name should not be null");
-        Preconditions.checkNotNull(edgeOwner, "Edge owner name should not be null");
-        final String _edgeOwner = edgeOwner.trim();
         final String _name = name.trim();
-        Preconditions.checkArgument(_edgeOwner.length() > 0, "Edge owner name should not be empty");
+        Preconditions.checkArgument(id >= 0, "Node name id should not be negative");
+        Preconditions.checkArgument(edgeOwner >= 0, "Edge owner id should not be negative");
         Preconditions.checkArgument(_name.length() > 0, "Node name should not be empty");
 
+        this.id = id;
         this.name = _name;
-        this.inEdges = new ArrayList<>();
-        this.outEdges = new ArrayList<>();
-        this.refCount = new ConcurrentHashMap<>();
-        this.refCount.put(_edgeOwner, new AtomicInteger(1));
+        this.inEdges = new HashMap<>();
+        this.outEdges = new HashMap<>();
+        this.refCount = new RefCountTable();
+        this.refCount.increment(edgeOwner);
     }
 
     /**
      * Check if a node is parent.
-     * @param parent The node to check.
-     * @param edgeOwner The owner name of parent migrates to this node. In our case, this is user name.
+     * @param parent The node to check, value null checks if a path of the owner starts from this node.
+     * @param edgeOwner The owner id of parent migrates to this node. In our case, this is user name id.
      * @return Boolean value indicates if the node is the parent of this node.
      */
-    boolean isParent(final Node parent, final String edgeOwner) {
-        return this.inEdges.parallelStream().anyMatch(edge ->
-                edge.getOwner().equals(edgeOwner) &&
-                        edge.getInNode() != null &&
-                        edge.getInNode().equals(parent));
+    boolean isParent(final Node parent, final int edgeOwner) {
+        return getInEdges(edgeOwner).stream().anyMatch(edge -> Objects.equals(edge.getInNode(), parent));
     }
 
     /**
      * Check if an edge is a pre-order edge of this node.
      * @param parent Parent node.
-     * @param edgeOwner The owner name of parent migrates to this node. In our case, this is user name.
+     * @param edgeOwner The owner id of parent migrates to this node. In our case, this is user name id.
      * @param preEdge The edge to check.
      * @return Boolean value indicates if the edge is the pre-order edge of this node.
      */
-    boolean hasPreEdge(final Node parent, final String edgeOwner, final Edge preEdge) {
+    boolean hasPreEdge(final Node parent, final int edgeOwner, final Edge preEdge) {
         Preconditions.checkNotNull(preEdge, "Pre-order edge should not be null");
 
-        return this.inEdges.parallelStream().anyMatch(edge ->
-                edge.getOwner().equals(edgeOwner) &&
-                        edge.getInNode() != null &&
+        return getInEdges(edgeOwner).stream().anyMatch(edge ->
+                edge.getInNode() != null &&
                         edge.getInNode().equals(parent) &&
                         edge.getPreEdges().contains(preEdge));
     }
@@ -109,87 +139,206 @@ public class Node {
      * Link this node to a parent node.
      * @param parent Parent node.
      * @param preEdge Pre-order edge of this node.
-     * @param edgeOwner The owner name of parent migrates to this node. In our case, this is user name.
+     * @param edgeOwner The owner id of parent migrates to this node. In our case, this is user name id.
      * @return New edge, as the link of the parent migrates to this node.
      */
-    Edge linkParent(final Node parent, final Edge preEdge, final String edgeOwner) {
+    Edge linkParent(final Node parent, final Edge preEdge, final int edgeOwner) {
         if (parent != null) {
             Preconditions.checkNotNull(preEdge, "Pre-order edge should not be null");
         }
 
         Edge edge = new Edge(edgeOwner, parent, this, preEdge);
-        this.inEdges.add(edge);
+        addEdge(this.inEdges, edge);
         if (parent != null) {
-            parent.outEdges.add(edge);
+            addEdge(parent.outEdges, edge);
         }
         return edge;
     }
 
+    /**
+     * Unlink an in-edge of this node from this node and its parent, the caller should hold the owner lock.
+     *  Used to expire the edge out of the time window, the pre-order edges linked to it are kept.
+     * @param edge The edge point to this node.
+     */
+    void unlinkParent(final Edge edge) {
+        Preconditions.checkArgument(edge.getOutNode() == this, "Edge should point to this node");
+
+        removeEdge(this.inEdges, edge);
+        if (edge.getInNode() != null) {
+            removeEdge(edge.getInNode().outEdges, edge);
+        }
+    }
+
+    /**
+     * Unlink all edges of an edge owner from the edge indexes of this node, the caller should hold the owner lock.
+     *  Used to spill the owner out of memory, the edges are not unlinked from the other nodes.
+     * @param edgeOwner The edge owner id.
+     */
+    void unlinkOwner(final int edgeOwner) {
+        synchronized (this.inEdges) {
+            this.inEdges.remove(edgeOwner);
+        }
+        synchronized (this.outEdges) {
+            this.outEdges.remove(edgeOwner);
+        }
+    }
+
     /**
      * Link a pre-order edge to this node.
      * @param parent Parent node.
      * @param preEdge Pre-order edge.
-     * @param edgeOwner The owner name of parent migrates to this node. In our case, this is user name.
+     * @param edgeOwner The owner id of parent migrates to this node. In our case, this is user name id.
      * @return The edge of the edge owner which linked to the pre-order edge.
      */
-    Edge linkPreEdge(final Node parent, final Edge preEdge, final String edgeOwner) {
-        Edge currentEdge = this.inEdges.parallelStream().filter(edge ->
-                edge.getOwner().equals(edgeOwner) &&
-                        edge.getInNode().equals(parent)).findFirst().get();
+    Edge linkPreEdge(final Node parent, final Edge preEdge, final int edgeOwner) {
+        Edge currentEdge = getInEdge(parent, edgeOwner);
         currentEdge.getPreEdges().add(preEdge);
         return currentEdge;
     }
 
+    /**
+     * Retrieve the edge of the edge owner which links the parent to this node.
+     * @param parent Parent node, value null retrieves the edge which starts a path of the owner from this node.
+     * @param edgeOwner The owner id of parent migrates to this node. In our case, this is user name id.
+     * @return The edge of the edge owner which links the parent to this node.
+     */
+    Edge getInEdge(final Node parent, final int edgeOwner) {
+        return getInEdges(edgeOwner).stream().filter(edge ->
+                Objects.equals(edge.getInNode(), parent)).findFirst().get();
+    }
+
     /**
      * Count a reference for a edge owner (user).
-     * @param edgeOwner The owner name of the edge which adds a reference to this node. In our case, this is user name.
+     * @param edgeOwner The owner id of the edge which adds a reference to this node. In our case, this is user name id.
      * @return New reference count.
      */
-    int addRef(final String edgeOwner) {
-        Preconditions.checkNotNull(edgeOwner, "Edge owner name should not be null");
-        final String _edgeOwner = edgeOwner.trim();
-        Preconditions.checkArgument(_edgeOwner.length() > 0, "Edge owner name should not be empty");
+    int addRef(final int edgeOwner) {
+        return this.refCount.increment(edgeOwner);
+    }
 
-        synchronized (this.refCount) {
-            AtomicInteger ai = this.refCount.get(_edgeOwner);
-            if (ai == null) {
-                ai = new AtomicInteger(0);
-                this.refCount.put(_edgeOwner, ai);
-            }
-            return ai.incrementAndGet();
-        }
+    /**
+     * Release references of a edge owner (user), used to expire the accesses out of the time window.
+     * @param edgeOwner The owner id of the edge which releases the references. In our case, this is user name id.
+     * @param count The amount of references to release.
+     * @return New reference count.
+     */
+    int releaseRef(final int edgeOwner, final int count) {
+        return this.refCount.decrement(edgeOwner, count);
     }
 
     /**
-     * Retrieve reference count for the edge owner (user) on this node.
-     * @param edgeOwner The owner name of the edge which refers to this node. In our case, this is user name.
+     * Retrieve reference count for the edge owner (user) on this node, it is lock-free.
+     * @param edgeOwner The owner id of the edge which refers to this node. In our case, this is user name id.
      * @return Reference count
      */
-    int getRefCount(final String edgeOwner) {
-        synchronized (this.refCount) {
-            AtomicInteger ai = this.refCount.get(edgeOwner);
-            if (ai == null) {
-                return 0;
-            } else {
-                return ai.get();
-            }
-        }
+    int getRefCount(final int edgeOwner) {
+        return this.refCount.get(edgeOwner);
+    }
+
+    /**
+     * Retrieve all reference counts on this node.
+     * @return An array of "edge owner id", "reference count" pairs.
+     */
+    int[] getRefCounts() {
+        return this.refCount.toArray();
+    }
+
+    /**
+     * Set reference count for the edge owner (user) on this node, used to restore the node from snapshot.
+     * @param edgeOwner The owner id of the edge which refers to this node.
+     * @param count Reference count.
+     */
+    void setRefCount(final int edgeOwner, final int count) {
+        this.refCount.set(edgeOwner, count);
+    }
+
+    /**
+     * Append an edge to the in-edge list without linking it to the parent, used to restore the node from snapshot.
+     * @param edge The edge point to this node.
+     */
+    void addInEdge(final Edge edge) {
+        addEdge(this.inEdges, edge);
+    }
+
+    /**
+     * Append an edge to the out-edge list, used to restore the node from snapshot.
+     * @param edge The edge point to other node from this node.
+     */
+    void addOutEdge(final Edge edge) {
+        addEdge(this.outEdges, edge);
     }
 
     /**
      * Retrieve all edges point to this node.
-     * @return Edge list.
+     * @return Edge list, the edges are grouped by edge owner.
      */
     public List<Edge> getInEdges() {
-        return ImmutableList.copyOf(this.inEdges);
+        return getAllEdges(this.inEdges);
     }
 
     /**
      * Retrieve all edges point to other node from this node.
-     * @return Edge list.
+     * @return Edge list, the edges are grouped by edge owner.
      */
     public List<Edge> getOutEdges() {
-        return ImmutableList.copyOf(this.outEdges);
+        return getAllEdges(this.outEdges);
+    }
+
+    /**
+     * Retrieve the edges of an edge owner point to this node, the caller should hold the owner lock.
+     * @param edgeOwner The edge owner id.
+     * @return Edge list, it is the index itself and should not be changed.
+     */
+    List<Edge> getInEdges(final int edgeOwner) {
+        return getEdges(this.inEdges, edgeOwner);
+    }
+
+    /**
+     * Retrieve the edges of an edge owner point to other node from this node, the caller should hold the owner lock.
+     * @param edgeOwner The edge owner id.
+     * @return Edge list, it is the index itself and should not be changed.
+     */
+    List<Edge> getOutEdges(final int edgeOwner) {
+        return getEdges(this.outEdges, edgeOwner);
+    }
+
+    private static void addEdge(final Map<Integer, List<Edge>> edges, final Edge edge) {
+        synchronized (edges) {
+            List<Edge> ownerEdges = edges.get(edge.getOwner());
+            if (ownerEdges == null) {
+                ownerEdges = new ArrayList<>(2);
+                edges.put(edge.getOwner(), ownerEdges);
+            }
+            ownerEdges.add(edge);
+        }
+    }
+
+    private static void removeEdge(final Map<Integer, List<Edge>> edges, final Edge edge) {
+        synchronized (edges) {
+            final List<Edge> ownerEdges = edges.get(edge.getOwner());
+            if (ownerEdges != null) {
+                ownerEdges.removeIf(_edge -> _edge == edge);
+                if (ownerEdges.isEmpty()) {
+                    edges.remove(edge.getOwner());
+                }
+            }
+        }
+    }
+
+    private static List<Edge> getEdges(final Map<Integer, List<Edge>> edges, final int edgeOwner) {
+        final List<Edge> ownerEdges;
+        synchronized (edges) {
+            ownerEdges = edges.get(edgeOwner);
+        }
+        return ownerEdges == null ? Collections.emptyList() : ownerEdges;
+    }
+
+    private static List<Edge> getAllEdges(final Map<Integer, List<Edge>> edges) {
+        final ImmutableList.Builder<Edge> ret = ImmutableList.builder();
+        synchronized (edges) {
+            edges.values().forEach(ret::addAll);
+        }
+        return ret.build();
     }
 
     /**
@@ -0,0 +1,157 @@
+package io.lzy.popular_path.model;
+
+import java.util.*;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Ints;
+
+/**
+ * @author zhiyan
+ *
+ * A container sums up the frequencies of the same path, used to aggregate the paths across the owners.
+ *
+ * A path is keyed by the name ids of its nodes, so the paths walked on the views of different owners are summed up
+ *  without the path string. The frequencies are summed up in long, the path strings are materialized for
+ *  the top N paths only, see {@link #top(Graph, int)}.
+ *
+ * It is not thread-safe, each thread sums up into its own container and the containers are merged.
+ */
+final class PathCounts {
+
+    private final Map<Key, Key> counts;
+
+    private final Key probe;    // looks up the path in walking without copying its nodes
+
+    PathCounts() {
+        this.counts = new HashMap<>();
+        this.probe = new Key(null, 0);
+    }
+
+    /**
+     * Add the frequency of a path.
+     * @param nodes The nodes of the path, the array is copied only if the path is new to the container.
+     * @param depth The number of the nodes in the path.
+     * @param frequency The frequency of the path.
+     */
+    void add(final Node[] nodes, final int depth, final int frequency) {
+        this.probe.set(nodes, depth);
+        Key key = this.counts.get(this.probe);
+        if (key == null) {
+            key = new Key(Arrays.copyOf(nodes, depth), depth);
+            this.counts.put(key, key);
+        }
+        key.count += frequency;
+        this.probe.set(null, 0);    // do not hold the nodes of the caller
+    }
+
+    /**
+     * Merge another container in, the other container should not be used after merged.
+     * @param other The container to merge.
+     * @return This container.
+     */
+    PathCounts merge(final PathCounts other) {
+        other.counts.keySet().forEach(key -> {
+            final Key _key = this.counts.putIfAbsent(key, key);
+            if (_key != null) {
+                _key.count += key.count;
+            }
+        });
+        return this;
+    }
+
+    /**
+     * The amount of paths in the container.
+     * @return Path count.
+     */
+    int size() {
+        return this.counts.size();
+    }
+
+    /**
+     * Get the top N most popular paths, the frequency out of int range is saturated to {@link Integer#MAX_VALUE}.
+     * @param graph The graph generates the path string.
+     * @param topN Indicates top N.
+     * @return A new list of "path" => "frequency" pairs, the most popular path first.
+     */
+    List<Map.Entry<String, Integer>> top(final Graph graph, final int topN) {
+        Preconditions.checkArgument(topN > 0, "Top N parameter should greater than 0");
+
+        final TopCandidates<Key> candidates = new TopCandidates<>();
+        candidates.reset(topN);
+        this.counts.keySet().forEach(key -> {
+            if (candidates.accepts(key.count)) {
+                candidates.add(key, key.count);
+            }
+        });
+
+        final List<Map.Entry<String, Long>> paths = new ArrayList<>(candidates.size());
+        candidates.forEach((key, count) ->
+                paths.add(new AbstractMap.SimpleEntry<>(graph.genPath(key.nodes, key.depth), count)));
+        paths.sort((o1, o2) -> {
+            int ret = o2.getValue().compareTo(o1.getValue());
+            if (ret == 0) {
+                ret = o1.getKey().compareTo(o2.getKey());
+            }
+            return ret;
+        });
+
+        final List<Map.Entry<String, Integer>> ret = new ArrayList<>(Math.min(topN, paths.size()));
+        for (Map.Entry<String, Long> path : paths.subList(0, Math.min(topN, paths.size()))) {
+            ret.add(new AbstractMap.SimpleEntry<>(path.getKey(), Ints.saturatedCast(path.getValue())));
+        }
+        return ret;
+    }
+
+    /**
+     * A path and its summed frequency, equal by the name ids of the nodes.
+     */
+    private final static class Key {
+
+        private Node[] nodes;
+
+        private int depth;
+
+        private int hash;
+
+        private long count;
+
+        Key(final Node[] nodes, final int depth) {
+            set(nodes, depth);
+        }
+
+        void set(final Node[] nodes, final int depth) {
+            this.nodes = nodes;
+            this.depth = depth;
+            int hash = 1;
+            for (int i = 0; i < depth; i++) {
+                hash = 31 * hash + nodes[i].getId();
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            if (this.hash != other.hash || this.depth != other.depth) {
+                return false;
+            }
+            for (int i = 0; i < this.depth; i++) {
+                if (this.nodes[i].getId() != other.nodes[i].getId()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package io.lzy.popular_path.model;
+
+import java.util.*;
+
+/**
+ * @author zhiyan
+ *
+ * Iterative path evaluation engine, see {@link Graph.PathEngine#ITERATIVE}.
+ *
+ * It walks the paths depth-first with an explicit stack. The nodes, pre-order edges, accumulative frequencies and
+ *  edge iterators of the current path are kept in buffers reused by the walks, no path string or result pair is
+ *  created while walking. A path reaches the depth is compared with the lowest candidate by frequency only,
+ *  a candidate ranked in the top N or tied with the N-th copies its nodes out, and the path strings are
+ *  materialized for the candidates only when the walk is done, where the ties are resolved by the path.
+ *
+ * The walk can evaluate a range of depths in one pass, a path is offered to the candidates of its depth when
+ *  it reaches the depth, so the paths of a longer depth reuse the walk and the frequencies of their prefixes.
+ *
+ * The walk can also sum up all the paths of a depth into {@link PathCounts} instead of keeping the top N, used to
+ *  aggregate the paths across the owners.
+ *
+ * The graph is extended by the same hooks of the recursive engine, {@link Graph#isLastNode},
+ *  {@link Graph#getNextEdges} and {@link Graph#getNextNode}.
+ *
+ * The cancellation of the query is checked at the first step and every {@value #CANCELLATION_CHECK_INTERVAL} steps.
+ *
+ * It is not thread-safe, a walker is used by one thread at a time.
+ */
+final class PathWalker {
+
+    private final static int INITIAL_DEPTH = 8;
+
+    private final static int CANCELLATION_CHECK_INTERVAL = 1024;     // must be power of 2
+
+    private Node[] nodes;
+
+    private Edge[] preEdges;
+
+    private int[] refCounts;
+
+    private Iterator<Edge>[] nextEdges;
+
+    private TopCandidates<Node[]>[] candidates;     // candidates of the depths
+
+    private PathCounts counts;      // sums up all the paths instead of keeping the candidates, see #count
+
+    private Graph graph;
+
+    private boolean busy;
+
+    PathWalker() {
+        this.nodes = new Node[INITIAL_DEPTH];
+        this.preEdges = new Edge[INITIAL_DEPTH];
+        this.refCounts = new int[INITIAL_DEPTH];
+        this.nextEdges = newIterators(INITIAL_DEPTH);
+        this.candidates = newCandidates(INITIAL_DEPTH);
+    }
+
+    /**
+     * Check if the walker is walking. The thread might run another evaluation task when it waits on the parallel
+     *  streams returned by the hooks, such task should not use the same walker.
+     * @return Boolean value indicates if the walker is walking.
+     */
+    boolean isBusy() {
+        return this.busy;
+    }
+
+    /**
+     * Evaluate the paths of a range of depths in one pass, the caller should hold the owner lock.
+     * @param graph The graph to evaluate.
+     * @param startNode The start node of the path to evaluate.
+     * @param preEdge The pre-order edge which drives start node access the path.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
+     * @param minPathDepth min depth of the path to evaluate.
+     * @param maxPathDepth max depth of the path to evaluate.
+     * @param topN Indicates top N paths to keep for each depth.
+     * @param cancellation The cancellation state of the query.
+     * @return Evaluation results, the result of depth D is at index D - minPathDepth.
+     */
+    TopPaths[] walk(final Graph graph, final Node startNode, final Edge preEdge, final int edgeOwner,
+                    final int minPathDepth, final int maxPathDepth, final int topN,
+                    final QueryCancellation cancellation) {
+        this.busy = true;
+        this.graph = graph;
+        try {
+            ensureDepth(maxPathDepth);
+            for (int i = 0; i <= maxPathDepth - minPathDepth; i++) {
+                this.candidates[i].reset(topN);
+            }
+
+            walk(startNode, preEdge, edgeOwner, minPathDepth, maxPathDepth, cancellation);
+
+            final TopPaths[] ret = new TopPaths[maxPathDepth - minPathDepth + 1];
+            for (int i = 0; i < ret.length; i++) {
+                final TopPaths paths = new TopPaths(topN);
+                this.candidates[i].forEach((nodes, refCount) -> paths.offer(
+                        new AbstractMap.SimpleEntry<>(graph.genPath(nodes, nodes.length), (int) refCount)));
+                ret[i] = paths;
+            }
+            return ret;
+        } finally {
+            for (TopCandidates<Node[]> _candidates : this.candidates) {
+                _candidates.reset(1);   // do not hold the candidate nodes after the walk
+            }
+            release();
+        }
+    }
+
+    /**
+     * Sum up the frequencies of all the paths of a depth, the caller should hold the owner lock or walk on a view.
+     *  No path string is generated, the paths are summed up by their nodes.
+     * @param graph The graph to evaluate.
+     * @param startNode The start node of the path to evaluate.
+     * @param preEdge The pre-order edge which drives start node access the path.
+     * @param edgeOwner The edge owner id of all the nodes in the path. In our case, this is user name id.
+     * @param pathDepth depth of the path to evaluate.
+     * @param counts The container to sum up into.
+     * @param cancellation The cancellation state of the query.
+     */
+    void count(final Graph graph, final Node startNode, final Edge preEdge, final int edgeOwner,
+               final int pathDepth, final PathCounts counts, final QueryCancellation cancellation) {
+        this.busy = true;
+        this.graph = graph;
+        this.counts = counts;
+        try {
+            ensureDepth(pathDepth);
+            walk(startNode, preEdge, edgeOwner, pathDepth, pathDepth, cancellation);
+        } finally {
+            release();
+        }
+    }
+
+    private void walk(final Node startNode, final Edge preEdge, final int edgeOwner,
+                      final int minPathDepth, final int maxPathDepth, final QueryCancellation cancellation) {
+        final Graph graph = this.graph;
+        this.nodes[0] = startNode;
+        this.preEdges[0] = preEdge;
+        this.refCounts[0] = startNode.getRefCount(edgeOwner);
+        this.nextEdges[0] = null;
+        if (minPathDepth == 1) {
+            offer(1, minPathDepth);
+        }
+
+        int depth = 0;   // the index of current node, current depth - 1
+        int steps = 0;
+        while (depth >= 0) {
+            if ((steps++ & (CANCELLATION_CHECK_INTERVAL - 1)) == 0) {    // the first step included
+                cancellation.check();
+            }
+            final Node node = this.nodes[depth];
+            if (depth + 1 == maxPathDepth) {    // path reaches max depth
+                depth--;
+                continue;
+            }
+
+            if (this.nextEdges[depth] == null) {
+                if (graph.isLastNode(node, this.preEdges[depth], edgeOwner)) {  // end of the path
+                    depth--;
+                    continue;
+                }
+                this.nextEdges[depth] = graph.getNextEdges(node, this.preEdges[depth], edgeOwner).iterator();
+            }
+
+            if (this.nextEdges[depth].hasNext()) {
+                final Edge edge = this.nextEdges[depth].next();
+                final Node nextNode = graph.getNextNode(edge);
+                if (nextNode != null) {     // the edge link out to parent node
+                    depth++;
+                    this.nodes[depth] = nextNode;
+                    this.preEdges[depth] = edge;
+                    this.refCounts[depth] = this.refCounts[depth - 1] + nextNode.getRefCount(edgeOwner);
+                    this.nextEdges[depth] = null;
+                    if (depth + 1 >= minPathDepth) {    // path reaches a depth to evaluate
+                        offer(depth + 1, minPathDepth);
+                    }
+                }
+            } else {
+                this.nextEdges[depth] = null;
+                depth--;
+            }
+        }
+    }
+
+    private void release() {
+        Arrays.fill(this.nodes, null);      // do not hold the graph objects after the walk
+        Arrays.fill(this.preEdges, null);
+        Arrays.fill(this.nextEdges, null);
+        this.graph = null;
+        this.counts = null;
+        this.busy = false;
+    }
+
+    /**
+     * Offer the current path to the candidates, the nodes are copied out only if the path is kept.
+     */
+    private void offer(final int depth, final int minPathDepth) {
+        if (this.counts != null) {
+            this.counts.add(this.nodes, depth, this.refCounts[depth - 1]);
+            return;
+        }
+        final TopCandidates<Node[]> candidates = this.candidates[depth - minPathDepth];
+        final int refCount = this.refCounts[depth - 1];
+        if (candidates.accepts(refCount)) {
+            candidates.add(Arrays.copyOf(this.nodes, depth), refCount);
+        }
+    }
+
+    private void ensureDepth(final int depth) {
+        if (this.nodes.length < depth) {
+            this.nodes = new Node[depth];
+            this.preEdges = new Edge[depth];
+            this.refCounts = new int[depth];
+            this.nextEdges = newIterators(depth);
+            this.candidates = newCandidates(depth);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Iterator<Edge>[] newIterators(final int depth) {
+        return new Iterator[depth];
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static TopCandidates<Node[]>[] newCandidates(final int depth) {
+        final TopCandidates<Node[]>[] ret = new TopCandidates[depth];
+        for (int i = 0; i < depth; i++) {
+            ret[i] = new TopCandidates<>();
+        }
+        return ret;
+    }
+}
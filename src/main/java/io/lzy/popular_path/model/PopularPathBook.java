@@ -0,0 +1,101 @@
+package io.lzy.popular_path.model;
+
+import java.util.*;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * @author zhiyan
+ *
+ * Booked popular paths of an edge owner, only the top K paths are retained, so the memory of an owner is constant
+ *  instead of proportional to the access history.
+ *
+ * A path is kept once with its latest score. The paths are ranked by {@link TopPaths#RANKING},
+ *  so the booking is stable no matter the order of the equal score paths booked. Booking a path and evicting
+ *  the lowest path are O(log K).
+ *
+ * It is not thread-safe, the booking of an owner is guarded by the owner lock in {@link GraphSequence}.
+ */
+final class PopularPathBook {
+
+    private final int capacity;
+
+    /**
+     * The score of the retained paths, the key is path.
+     */
+    private final Map<String, Integer> scores;
+
+    private final NavigableSet<Map.Entry<String, Integer>> ranking;
+
+    /**
+     * Create a booking.
+     * @param capacity Indicates K, the number of the paths to retain.
+     */
+    PopularPathBook(final int capacity) {
+        Preconditions.checkArgument(capacity > 0, "Retained top K parameter should greater than 0");
+
+        this.capacity = capacity;
+        this.scores = new HashMap<>();
+        this.ranking = new TreeSet<>(TopPaths.RANKING);
+    }
+
+    /**
+     * Book a path. The score of a retained path is updated if the new score is higher, a new path is retained
+     *  only if it ranks in the top K, the lowest path is evicted for it when the booking is full.
+     * @param path The path.
+     * @param score The score of the path. In our case, this is the frequency of the path.
+     * @return Boolean value indicates if the booking is changed.
+     */
+    boolean offer(final String path, final int score) {
+        final Integer _score = this.scores.get(path);
+        if (_score != null) {
+            if (score <= _score) {
+                return false;
+            }
+            this.ranking.remove(new AbstractMap.SimpleImmutableEntry<>(path, _score));
+        } else if (this.scores.size() == this.capacity) {
+            final Map.Entry<String, Integer> lowest = this.ranking.last();
+            if (TopPaths.RANKING.compare(new AbstractMap.SimpleImmutableEntry<>(path, score), lowest) >= 0) {
+                return false;
+            }
+            this.ranking.pollLast();
+            this.scores.remove(lowest.getKey());
+        }
+
+        this.ranking.add(new AbstractMap.SimpleImmutableEntry<>(path, score));
+        this.scores.put(path, score);
+        return true;
+    }
+
+    /**
+     * Get the top N booked paths.
+     * @param topN Indicates top N, at most K paths are returned.
+     * @return A new list of "path" => "score" pairs, ordered by score descending.
+     */
+    List<Map.Entry<String, Integer>> top(final int topN) {
+        final List<Map.Entry<String, Integer>> ret = new ArrayList<>(Math.min(topN, this.ranking.size()));
+        for (Map.Entry<String, Integer> item : this.ranking) {
+            if (ret.size() == topN) {
+                break;
+            }
+            ret.add(item);
+        }
+        return ret;
+    }
+
+    /**
+     * Get the number of the paths to retain.
+     * @return K.
+     */
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * The amount of booked paths.
+     * @return Path count.
+     */
+    int size() {
+        return this.scores.size();
+    }
+}
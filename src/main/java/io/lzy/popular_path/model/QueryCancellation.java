@@ -0,0 +1,94 @@
+package io.lzy.popular_path.model;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author zhiyan
+ *
+ * Cancellation state of an asynchronous query, it is checked by the path evaluation, so a cancelled or
+ *  expired query stops walking the paths instead of running to the end.
+ *
+ * The deadline is checked by the evaluation cooperatively, the future of a query queued in the executor or blocked
+ *  on an owner lock is completed at the deadline by a shared timer, see {@link #schedule(Runnable, long)}.
+ *
+ * It is thread-safe, the query might be evaluated by multiple threads of the query executor.
+ */
+final class QueryCancellation {
+
+    /**
+     * The state of the blocking queries, they are never cancelled.
+     */
+    final static QueryCancellation NONE = new QueryCancellation(0);
+
+    /**
+     * The deadline in {@link System#nanoTime()}, value 0 means no deadline.
+     */
+    private final long deadline;
+
+    private volatile boolean cancelled;
+
+    /**
+     * Create a cancellation state.
+     * @param timeout The time allowed to evaluate the query in nanosecond, value 0 means no deadline.
+     */
+    QueryCancellation(final long timeout) {
+        this.deadline = timeout > 0 ? Math.max(System.nanoTime() + timeout, 1) : 0;
+    }
+
+    /**
+     * Cancel the query.
+     */
+    void cancel() {
+        this.cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Check if the deadline of the query is passed.
+     * @return Boolean value indicates if the query is expired.
+     */
+    boolean isExpired() {
+        return this.deadline != 0 && System.nanoTime() - this.deadline > 0;
+    }
+
+    /**
+     * Run a task once at a deadline, the timer thread is shared by all the queries.
+     * @param task The task, it should be short, e.g. completing a future.
+     * @param timeout The delay in nanosecond.
+     * @return The scheduled task, cancel it if the query is done before the deadline.
+     */
+    static ScheduledFuture<?> schedule(final Runnable task, final long timeout) {
+        return TimerHolder.INSTANCE.schedule(task, timeout, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop the evaluation if the query is cancelled or expired.
+     * @throws CancellationException The query should not be evaluated any more.
+     */
+    void check() {
+        if (this.cancelled) {
+            throw new CancellationException("Query is cancelled");
+        } else if (isExpired()) {
+            throw new CancellationException("Query deadline is exceeded");
+        }
+    }
+
+    private final static class TimerHolder {
+
+        private final static ScheduledThreadPoolExecutor INSTANCE = new ScheduledThreadPoolExecutor(1, runnable -> {
+            final Thread thread = new Thread(runnable, "popular-path-query-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        static {
+            INSTANCE.setRemoveOnCancelPolicy(true);     // the timers of the queries done in time don't pile up
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package io.lzy.popular_path.model;
+
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * @author zhiyan
+ *
+ * Execution engine of the graph queries.
+ *
+ * The queries are parallelized at the owner and start node level only, the parallel streams run in a dedicated
+ *  fork-join pool instead of the common pool, so the queries don't compete with the rest of the application.
+ *  A batch smaller than the sequential threshold is evaluated in the caller thread, the task splitting costs more
+ *  than such a batch saves. The edges of a node are always walked sequentially by the path evaluation.
+ *
+ * The asynchronous queries run in the pool as well, see {@link #execute(Runnable)}.
+ *
+ * An executor can be shared by the graphs, it is thread-safe.
+ */
+public final class QueryExecutor implements Executor {
+
+    public final static int DEFAULT_SEQUENTIAL_THRESHOLD = 8;
+
+    private final static AtomicInteger POOL_SEQUENCE = new AtomicInteger();
+
+    private final int parallelism;
+
+    private final int sequentialThreshold;
+
+    /**
+     * The pool runs the parallel batches and the asynchronous queries.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Create an executor.
+     * @param parallelism The number of the query threads, value 1 evaluates all batches sequentially.
+     * @param sequentialThreshold The min batch size to evaluate in parallel.
+     */
+    public QueryExecutor(final int parallelism, final int sequentialThreshold) {
+        Preconditions.checkArgument(parallelism > 0, "Parallelism parameter should greater than 0");
+        Preconditions.checkArgument(sequentialThreshold > 0, "Sequential threshold parameter should greater than 0");
+
+        this.parallelism = parallelism;
+        this.sequentialThreshold = sequentialThreshold;
+        final int poolId = POOL_SEQUENCE.incrementAndGet();
+        final AtomicInteger threadSequence = new AtomicInteger();
+        this.pool = new ForkJoinPool(parallelism, _pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(_pool);
+            thread.setName(String.format("popular-path-query-%d-%d", poolId, threadSequence.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Get the executor shared by the graphs by default, the parallelism is the number of the processors.
+     * @return The default executor.
+     */
+    public static QueryExecutor getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Get the number of the query threads.
+     * @return Parallelism.
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Get the min batch size to evaluate in parallel.
+     * @return Sequential threshold.
+     */
+    public int getSequentialThreshold() {
+        return this.sequentialThreshold;
+    }
+
+    /**
+     * Evaluate a query over a batch of items, e.g. the owners or the start nodes of an owner.
+     *  The query gets a parallel stream of the items in the pool if the batch is large enough,
+     *  otherwise a sequential stream in the caller thread. A nested batch runs in the pool thread directly.
+     * @param items The items of the batch, it should not be changed during the query.
+     * @param query The query, it should be a terminal operation on the stream.
+     * @param <T> Item type.
+     * @param <R> Result type.
+     * @return The query result.
+     */
+    public <T, R> R execute(final Collection<T> items, final Function<Stream<T>, R> query) {
+        Preconditions.checkNotNull(items, "Items should not be null");
+        Preconditions.checkNotNull(query, "Query should not be null");
+
+        if (this.parallelism == 1 || items.size() < this.sequentialThreshold) {
+            return query.apply(items.stream());
+        } else if (ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == this.pool) {
+            return query.apply(items.parallelStream());
+        } else {
+            return this.pool.submit(() -> query.apply(items.parallelStream())).join();
+        }
+    }
+
+    /**
+     * Run an asynchronous query in the pool.
+     * @param command The query task.
+     */
+    @Override
+    public void execute(final Runnable command) {
+        this.pool.execute(command);
+    }
+
+    /**
+     * Stop the query threads, a query executed after shutdown is rejected.
+     *  The default executor should not be shut down.
+     */
+    public void shutdown() {
+        Preconditions.checkState(this != getDefault(), "Default query executor should not be shut down");
+
+        this.pool.shutdown();
+    }
+
+    private final static class DefaultHolder {
+
+        private final static QueryExecutor INSTANCE =
+                new QueryExecutor(Runtime.getRuntime().availableProcessors(), DEFAULT_SEQUENTIAL_THRESHOLD);
+    }
+}
@@ -0,0 +1,177 @@
+package io.lzy.popular_path.model;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * @author zhiyan
+ *
+ * A compact reference counter table of a node, the key is edge owner id.
+ *
+ * Open addressing with linear probing is used, keys and counts are interleaved in one primitive int array,
+ *  so a (node, owner) pair takes 8 bytes of the table instead of a map entry, a boxed key and an AtomicInteger.
+ *
+ * Counting a reference takes the table lock. Retrieving a reference count is lock-free: a new slot publishes
+ *  its count before its key, and a grown table is published only after all slots are copied. A reader racing
+ *  with a writer sees either the count before or after the increment.
+ */
+final class RefCountTable {
+
+    private final static int INITIAL_CAPACITY = 2;  // must be power of 2
+
+    /**
+     * Slot i holds the key at 2 * i and the count at 2 * i + 1. The key is stored as edge owner id + 1,
+     *  so value 0 indicates an empty slot.
+     */
+    private volatile AtomicIntegerArray slots;
+
+    private int size;
+
+    RefCountTable() {
+        this.slots = new AtomicIntegerArray(INITIAL_CAPACITY * 2);
+    }
+
+    /**
+     * Count a reference for an edge owner.
+     * @param edgeOwner The owner id of the edge which adds a reference.
+     * @return New reference count.
+     */
+    synchronized int increment(final int edgeOwner) {
+        Preconditions.checkArgument(edgeOwner >= 0, "Edge owner id should not be negative");
+
+        final AtomicIntegerArray _slots = this.slots;
+        final int index = find(_slots, edgeOwner + 1);
+        if (_slots.get(index) != 0) {
+            return _slots.incrementAndGet(index + 1);
+        }
+
+        if ((this.size + 1) * 4 > capacity(_slots) * 3) {    // keep load factor under 0.75
+            resize(_slots);
+            return increment(edgeOwner);
+        }
+
+        _slots.set(index + 1, 1);
+        _slots.set(index, edgeOwner + 1);  // publish the count before the key
+        this.size++;
+        return 1;
+    }
+
+    /**
+     * Release references of an edge owner. The slot of the owner is kept with count 0, so the owner can refer again
+     *  without probing a new slot.
+     * @param edgeOwner The owner id of the edge which releases the references.
+     * @param count The amount of references to release, it should not be greater than the reference count.
+     * @return New reference count.
+     */
+    synchronized int decrement(final int edgeOwner, final int count) {
+        Preconditions.checkArgument(count > 0, "Released reference count should greater than 0");
+
+        final AtomicIntegerArray _slots = this.slots;
+        final int index = find(_slots, edgeOwner + 1);
+        Preconditions.checkState(_slots.get(index) != 0 && _slots.get(index + 1) >= count,
+                "Released reference count should not greater than reference count");
+        return _slots.addAndGet(index + 1, -count);
+    }
+
+    /**
+     * Set reference count of an edge owner, used to restore the table.
+     * @param edgeOwner The owner id of the edge which refers.
+     * @param count The reference count, it should be greater than 0.
+     */
+    synchronized void set(final int edgeOwner, final int count) {
+        Preconditions.checkArgument(edgeOwner >= 0, "Edge owner id should not be negative");
+        Preconditions.checkArgument(count > 0, "Reference count should greater than 0");
+
+        final AtomicIntegerArray _slots = this.slots;
+        final int index = find(_slots, edgeOwner + 1);
+        if (_slots.get(index) != 0) {
+            _slots.set(index + 1, count);
+            return;
+        }
+
+        if ((this.size + 1) * 4 > capacity(_slots) * 3) {
+            resize(_slots);
+            set(edgeOwner, count);
+            return;
+        }
+
+        _slots.set(index + 1, count);
+        _slots.set(index, edgeOwner + 1);
+        this.size++;
+    }
+
+    /**
+     * Retrieve all reference counts of the table.
+     * @return An array of "edge owner id", "reference count" pairs, the owners released all references are skipped.
+     */
+    synchronized int[] toArray() {
+        final AtomicIntegerArray _slots = this.slots;
+        final int[] ret = new int[this.size * 2];
+        int pos = 0;
+        for (int i = 0; i < _slots.length(); i += 2) {
+            final int key = _slots.get(i);
+            if (key != 0 && _slots.get(i + 1) != 0) {
+                ret[pos++] = key - 1;
+                ret[pos++] = _slots.get(i + 1);
+            }
+        }
+        return pos == ret.length ? ret : Arrays.copyOf(ret, pos);
+    }
+
+    /**
+     * Retrieve reference count of an edge owner.
+     * @param edgeOwner The owner id of the edge which refers.
+     * @return Reference count, value 0 will be returned if the owner never refers.
+     */
+    int get(final int edgeOwner) {
+        final AtomicIntegerArray _slots = this.slots;
+        final int index = find(_slots, edgeOwner + 1);
+        return _slots.get(index) == 0 ? 0 : _slots.get(index + 1);
+    }
+
+    /**
+     * The amount of edge owners in the table.
+     * @return Owner count.
+     */
+    synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Find the slot of the key, or the empty slot to insert the key.
+     * @return The index of the key in the array.
+     */
+    private static int find(final AtomicIntegerArray slots, final int key) {
+        final int mask = capacity(slots) - 1;
+        int slot = mix(key) & mask;
+        int k;
+        while ((k = slots.get(slot * 2)) != 0 && k != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot * 2;
+    }
+
+    private void resize(final AtomicIntegerArray oldSlots) {
+        final AtomicIntegerArray _slots = new AtomicIntegerArray(oldSlots.length() * 2);
+        for (int i = 0; i < oldSlots.length(); i += 2) {
+            final int key = oldSlots.get(i);
+            if (key != 0) {
+                final int index = find(_slots, key);
+                _slots.set(index + 1, oldSlots.get(i + 1));
+                _slots.set(index, key);
+            }
+        }
+        this.slots = _slots;
+    }
+
+    private static int capacity(final AtomicIntegerArray slots) {
+        return slots.length() / 2;
+    }
+
+    private static int mix(final int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
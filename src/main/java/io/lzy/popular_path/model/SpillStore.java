@@ -0,0 +1,202 @@
+package io.lzy.popular_path.model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author zhiyan
+ *
+ * A local on-disk store of the spilled owner records, used by {@link GraphSpillable}.
+ *
+ * The records are appended to a single file and indexed in memory by edge owner id, a record is removed from
+ *  the index when the owner is faulted back in. The file is compacted when the removed records take more space
+ *  than the live ones, so the owners spilled and faulted repeatedly don't grow the file without bound.
+ *
+ * It is thread-safe, all operations are serialized by the store itself.
+ */
+@Slf4j
+final class SpillStore implements Closeable {
+
+    /**
+     * Min size of the removed records to compact the file, in byte.
+     */
+    final static long DEFAULT_MIN_COMPACT_BYTES = 64L << 20;
+
+    private final File directory;
+
+    private final long minCompactBytes;
+
+    /**
+     * The offset and length of the records, the key is edge owner id.
+     */
+    private final Map<Integer, long[]> records;
+
+    private File file;
+
+    private RandomAccessFile raf;
+
+    private long liveBytes;
+
+    /**
+     * Create a store, the file is created in the directory and deleted when the store is closed.
+     * @param directory The directory of the store file.
+     * @param minCompactBytes Min size of the removed records to compact the file, in byte.
+     * @throws IOException The exception about creating the file failed.
+     */
+    SpillStore(final File directory, final long minCompactBytes) throws IOException {
+        Preconditions.checkNotNull(directory, "Spill directory should not be null");
+        Preconditions.checkArgument(directory.isDirectory(), "Spill directory should exist");
+        Preconditions.checkArgument(minCompactBytes >= 0, "Min compact bytes parameter should not be negative");
+
+        this.directory = directory;
+        this.minCompactBytes = minCompactBytes;
+        this.records = new HashMap<>();
+        this.file = newFile();
+        this.raf = new RandomAccessFile(this.file, "rw");
+    }
+
+    private File newFile() throws IOException {
+        final File ret = File.createTempFile("popular-path-", ".spill", this.directory);
+        ret.deleteOnExit();
+        return ret;
+    }
+
+    /**
+     * Append the record of an owner, the former record of the owner is replaced.
+     * @param edgeOwner The edge owner id.
+     * @param record The record bytes.
+     * @throws IOException The exception about writing the file failed.
+     */
+    synchronized void put(final int edgeOwner, final byte[] record) throws IOException {
+        Preconditions.checkState(this.raf != null, "Spill store is closed");
+
+        final FileChannel channel = this.raf.getChannel();
+        final long offset = channel.size();
+        write(channel, ByteBuffer.wrap(record), offset);
+
+        final long[] former = this.records.put(edgeOwner, new long[] {offset, record.length});
+        this.liveBytes += record.length - (former == null ? 0 : former[1]);
+    }
+
+    /**
+     * Read and remove the record of an owner.
+     * @param edgeOwner The edge owner id.
+     * @return The record bytes, or null if the owner is not in the store.
+     * @throws IOException The exception about reading the file failed.
+     */
+    synchronized byte[] take(final int edgeOwner) throws IOException {
+        Preconditions.checkState(this.raf != null, "Spill store is closed");
+
+        final long[] item = this.records.get(edgeOwner);
+        if (item == null) {
+            return null;
+        }
+
+        final byte[] ret = read(this.raf.getChannel(), item);
+        this.records.remove(edgeOwner);
+        this.liveBytes -= item[1];
+
+        final long garbage = this.raf.length() - this.liveBytes;
+        if (garbage > this.minCompactBytes && garbage > this.liveBytes) {
+            compact();
+        }
+        return ret;
+    }
+
+    /**
+     * Get the number of the owners in the store.
+     * @return Owner count.
+     */
+    synchronized int size() {
+        return this.records.size();
+    }
+
+    /**
+     * Get the size of the store file, including the removed records not compacted yet.
+     * @return File size in byte.
+     * @throws IOException The exception about reading the file size failed.
+     */
+    synchronized long getFileBytes() throws IOException {
+        return this.raf == null ? 0 : this.raf.length();
+    }
+
+    /**
+     * Rewrite the live records into a new file and delete the old one.
+     */
+    private void compact() throws IOException {
+        final File _file = newFile();
+        final RandomAccessFile _raf = new RandomAccessFile(_file, "rw");
+        try {
+            final FileChannel from = this.raf.getChannel();
+            final FileChannel to = _raf.getChannel();
+            long offset = 0;
+            for (long[] item : this.records.values()) {
+                write(to, ByteBuffer.wrap(read(from, item)), offset);
+                item[0] = offset;
+                offset += item[1];
+            }
+        } catch (IOException e) {
+            _raf.close();
+            _file.delete();
+            throw e;
+        }
+
+        final long before = this.raf.length();
+        this.raf.close();
+        if (!this.file.delete()) {
+            log.warn(String.format("Delete spill file %s failed", this.file));
+        }
+        this.file = _file;
+        this.raf = _raf;
+
+        log.info(String.format("Spill file compacted from %d to %d byte(s), %d owner(s)",
+                before, this.liveBytes, this.records.size()));
+    }
+
+    private static void write(final FileChannel channel, final ByteBuffer buffer, final long offset)
+            throws IOException {
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static byte[] read(final FileChannel channel, final long[] item) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) item[1]);
+        long position = item[0];
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException(String.format("Unexpected end of spill file at offset %d", position));
+            }
+            position += read;
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Close and delete the store file, the records are dropped.
+     * @throws IOException The exception about closing the file failed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.raf != null) {
+            this.raf.close();
+            this.raf = null;
+            this.records.clear();
+            this.liveBytes = 0;
+            if (!this.file.delete()) {
+                log.warn(String.format("Delete spill file %s failed", this.file));
+            }
+        }
+    }
+}
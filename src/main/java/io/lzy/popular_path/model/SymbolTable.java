@@ -0,0 +1,104 @@
+package io.lzy.popular_path.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * @author zhiyan
+ *
+ * A dictionary interns names to dense int ids, the id of the first name is 0.
+ *  The graph keeps owner (user) names and node names as int ids, so the model and the comparisons in hot paths
+ *  run on int. Names are only materialized when results are returned to client.
+ *
+ * It is thread-safe. Lookup by name is lock-free, interning a new name takes the table lock.
+ */
+public final class SymbolTable {
+
+    /**
+     * The id indicates the name is not in the table.
+     */
+    public final static int NO_SYMBOL = -1;
+
+    private final static int INITIAL_CAPACITY = 1024;
+
+    private final Map<String, Integer> ids;
+
+    private volatile String[] names;
+
+    private volatile int size;
+
+    public SymbolTable() {
+        this.ids = new ConcurrentHashMap<>();
+        this.names = new String[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Intern a name.
+     * @param name The name, it should be trimmed already.
+     * @return The id of the name, a new id will be allocated if the name is not in the table.
+     */
+    public int intern(final String name) {
+        Integer id = this.ids.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        Preconditions.checkNotNull(name, "Name should not be null");
+
+        synchronized (this) {
+            id = this.ids.get(name);
+            if (id == null) {
+                id = this.size;
+                String[] _names = this.names;
+                if (id == _names.length) {
+                    _names = Arrays.copyOf(_names, _names.length * 2);
+                }
+                _names[id] = name;
+                this.names = _names;    // publish the name before the id
+                this.size = id + 1;
+                this.ids.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Lookup the id of a name.
+     * @param name The name.
+     * @return The id of the name, or {@link #NO_SYMBOL} if the name is not in the table.
+     */
+    public int lookup(final String name) {
+        final Integer id = this.ids.get(name);
+        return id == null ? NO_SYMBOL : id;
+    }
+
+    /**
+     * Materialize the name of an id.
+     * @param id The id of the name.
+     * @return The name.
+     */
+    public String name(final int id) {
+        Preconditions.checkElementIndex(id, this.size, "Symbol id");
+        return this.names[id];
+    }
+
+    /**
+     * Check if an id is allocated by the table.
+     * @param id The id to check.
+     * @return Boolean value indicates if the id is valid.
+     */
+    public boolean contains(final int id) {
+        return id >= 0 && id < this.size;
+    }
+
+    /**
+     * The amount of names in the table.
+     * @return Name count.
+     */
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,112 @@
+package io.lzy.popular_path.model;
+
+import java.util.*;
+import java.util.function.ObjLongConsumer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * @author zhiyan
+ *
+ * A bounded container of the candidates of top K, the candidates are ranked by score only.
+ *
+ * The candidates tie on the lowest score are all kept, so no path string is needed to break the tie while
+ *  the candidates are offered. The caller resolves the ties by the path when the candidates are final,
+ *  see {@link TopPaths}. The candidates of the lowest score are dropped together once the others fill
+ *  the container, so the container keeps K candidates plus the ties of the K-th score.
+ *
+ * It is not thread-safe, the container is reused by one thread at a time.
+ */
+final class TopCandidates<T> {
+
+    private final PriorityQueue<Candidate<T>> heap;     // the lowest candidate first
+
+    private final List<Candidate<T>> buffer;
+
+    private int capacity;
+
+    /**
+     * The number of the candidates of the lowest score.
+     */
+    private int ties;
+
+    TopCandidates() {
+        this.heap = new PriorityQueue<>(Comparator.comparingLong(candidate -> candidate.score));
+        this.buffer = new ArrayList<>();
+    }
+
+    /**
+     * Clear the container for a new evaluation.
+     * @param capacity Indicates K, the number of the candidates to keep.
+     */
+    void reset(final int capacity) {
+        Preconditions.checkArgument(capacity > 0, "Top N parameter should greater than 0");
+
+        this.capacity = capacity;
+        this.heap.clear();
+        this.ties = 0;
+    }
+
+    /**
+     * Check if a candidate of the score will be kept, so the caller only copies out the candidate kept.
+     * @param score The score of the candidate.
+     * @return Boolean value indicates if the candidate will be kept.
+     */
+    boolean accepts(final long score) {
+        return this.heap.size() < this.capacity || score >= this.heap.peek().score;
+    }
+
+    /**
+     * Add a candidate accepted by {@link #accepts(long)}.
+     * @param item The candidate.
+     * @param score The score of the candidate.
+     */
+    void add(final T item, final long score) {
+        final Candidate<T> lowest = this.heap.peek();
+        this.heap.add(new Candidate<>(item, score));
+        if (lowest == null || score < lowest.score) {
+            this.ties = 1;
+        } else if (score == lowest.score) {
+            this.ties++;
+        } else if (this.heap.size() - this.ties >= this.capacity) {    // the higher candidates fill the container
+            for (int i = 0; i < this.ties; i++) {
+                this.heap.poll();
+            }
+            final long _score = this.heap.peek().score;
+            while (!this.heap.isEmpty() && this.heap.peek().score == _score) {
+                this.buffer.add(this.heap.poll());
+            }
+            this.ties = this.buffer.size();
+            this.heap.addAll(this.buffer);
+            this.buffer.clear();
+        }
+    }
+
+    /**
+     * The amount of candidates in the container.
+     * @return Candidate count.
+     */
+    int size() {
+        return this.heap.size();
+    }
+
+    /**
+     * Visit the candidates in the container, in no particular order.
+     * @param action The action for the candidate and its score.
+     */
+    void forEach(final ObjLongConsumer<T> action) {
+        this.heap.forEach(candidate -> action.accept(candidate.item, candidate.score));
+    }
+
+    private final static class Candidate<T> {
+
+        private final T item;
+
+        private final long score;
+
+        Candidate(final T item, final long score) {
+            this.item = item;
+            this.score = score;
+        }
+    }
+}
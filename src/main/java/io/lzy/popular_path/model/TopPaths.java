@@ -0,0 +1,102 @@
+package io.lzy.popular_path.model;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * @author zhiyan
+ *
+ * A bounded container of path evaluation result, only the top K "path" => "frequency" pairs are kept.
+ *
+ * A min-heap keeps the lowest ranked pair on the top, so folding a pair in is O(log K) and a query over P paths
+ *  costs O(P log K). Pairs are ranked by frequency descending, then by path ascending, so the result is stable
+ *  no matter which order the parallel evaluation folds the pairs.
+ *
+ * It is not thread-safe, each thread folds into its own container and the containers are merged
+ *  by {@link Graph.Collector}.
+ */
+final class TopPaths {
+
+    /**
+     * Order of the popular paths, the most popular path first.
+     */
+    final static Comparator<Map.Entry<String, Integer>> RANKING = (o1, o2) -> {
+        int ret = o2.getValue().compareTo(o1.getValue());
+        if (ret == 0) {
+            ret = o1.getKey().compareTo(o2.getKey());
+        }
+        return ret;
+    };
+
+    private final int capacity;
+
+    private final PriorityQueue<Map.Entry<String, Integer>> heap;
+
+    /**
+     * Create a container.
+     * @param capacity Indicates K, the number of the pairs to keep.
+     */
+    TopPaths(final int capacity) {
+        Preconditions.checkArgument(capacity > 0, "Top N parameter should greater than 0");
+
+        this.capacity = capacity;
+        this.heap = new PriorityQueue<>(RANKING.reversed());
+    }
+
+    /**
+     * Sum up the frequencies of the same path, then keep the top N paths.
+     * @param paths The "path" => "frequency" pairs, the pairs are summed up in partial maps of the stream threads.
+     * @param topN Indicates top N.
+     * @return A new list of "path" => "frequency" pairs, the most popular path first.
+     */
+    static List<Map.Entry<String, Integer>> sum(final Stream<Map.Entry<String, Integer>> paths, final int topN) {
+        final TopPaths ret = new TopPaths(topN);
+        paths.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, Integer::sum))
+                .forEach((path, frequency) -> ret.offer(new AbstractMap.SimpleEntry<>(path, frequency)));
+        return ret.toList();
+    }
+
+    /**
+     * Fold a pair in, the lowest pair is dropped if the container is full.
+     * @param item The "path" => "frequency" pair.
+     */
+    void offer(final Map.Entry<String, Integer> item) {
+        if (this.heap.size() < this.capacity) {
+            this.heap.add(item);
+        } else if (RANKING.compare(item, this.heap.peek()) < 0) {
+            this.heap.poll();
+            this.heap.add(item);
+        }
+    }
+
+    /**
+     * Merge another container in.
+     * @param other The container to merge.
+     * @return This container.
+     */
+    TopPaths merge(final TopPaths other) {
+        other.heap.forEach(this::offer);
+        return this;
+    }
+
+    /**
+     * The amount of pairs in the container.
+     * @return Pair count.
+     */
+    int size() {
+        return this.heap.size();
+    }
+
+    /**
+     * Get the pairs in the container.
+     * @return A new list of "path" => "frequency" pairs, the most popular path first.
+     */
+    List<Map.Entry<String, Integer>> toList() {
+        final List<Map.Entry<String, Integer>> ret = new ArrayList<>(this.heap);
+        ret.sort(RANKING);
+        return ret;
+    }
+}
@@ -0,0 +1,123 @@
+package io.lzy.popular_path;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import io.lzy.popular_path.model.GraphSequence;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class LogFollowerTest extends TestBase {
+
+    private final static String[] TEST_LOG = {
+            "U1\t/\n", "U1\tN1\n", "U2\t/\n", "U2\tN1\n", "U1\tN2\n", "U1\tN3\n",
+            "U2\tN2\n", "U2\tN3\n", "U3\t/\n", "U3\tN4\n", "U3\tN5\n", "U1\tN2\n", "U1\tN1\n"
+    };
+
+    private static void append(final File file, final String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static String join(final int from, final int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            sb.append(TEST_LOG[i]);
+        }
+        return sb.toString();
+    }
+
+    private static File tempFile(final String prefix) throws IOException {
+        File file = File.createTempFile(prefix, ".txt");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private void assertSameResult(final GraphSequence expected, final GraphSequence actual) {
+        Map<String, List<Map.Entry<String, Integer>>> expectedRet = expected.getPopularPath(TOP(100));
+        Map<String, List<Map.Entry<String, Integer>>> actualRet = actual.getPopularPath(TOP(100));
+        assertEquals(actualRet.keySet(), expectedRet.keySet());
+        expectedRet.keySet().forEach(user -> {
+            expectedRet.get(user).sort(comparator);
+            actualRet.get(user).sort(comparator);
+            assertEquals(actualRet.get(user), expectedRet.get(user));
+        });
+    }
+
+    @Test
+    public void testFollowGrowingLog() throws IOException {
+        File file = tempFile("access_log");
+        File checkpoint = tempFile("checkpoint");
+        checkpoint.delete();
+
+        GraphSequence expected = new GraphSequence();
+        LogParser.parseLog(new ByteArrayInputStream(join(0, TEST_LOG.length).getBytes()), expected);
+
+        GraphSequence graph = new GraphSequence();
+        try (LogFollower<GraphSequence> follower = new LogFollower<>(file, graph, checkpoint)) {
+            append(file, join(0, 4));
+            assertEquals(follower.poll(), 4);
+            append(file, join(4, 7) + "U2\tN");    // partial line is kept until its terminator comes
+            assertEquals(follower.poll(), 3);
+            assertEquals(follower.poll(), 0);
+            append(file, "3\n" + join(8, 10));
+            assertEquals(follower.poll(), 3);
+            assertEquals(follower.getOffset(), join(0, 10).length());
+            assertTrue(checkpoint.exists());
+        }
+
+        // restart with the same graph, continue from checkpoint
+        try (LogFollower<GraphSequence> follower = new LogFollower<>(file, graph, checkpoint)) {
+            assertEquals(follower.getOffset(), join(0, 10).length());
+            append(file, join(10, TEST_LOG.length));
+            assertEquals(follower.poll(), TEST_LOG.length - 10);
+        }
+        assertSameResult(expected, graph);
+
+        // restart with an empty graph, handled records are replayed
+        GraphSequence replayed = new GraphSequence();
+        try (LogFollower<GraphSequence> follower = new LogFollower<>(file, replayed, checkpoint)) {
+            assertEquals(follower.poll(), 0);
+        }
+        assertSameResult(expected, replayed);
+    }
+
+    @Test
+    public void testFollowRotatedLog() throws IOException {
+        File file = tempFile("access_log");
+        File rotated = new File(file.getPath() + ".1");
+        rotated.deleteOnExit();
+
+        GraphSequence expected = new GraphSequence();
+        LogParser.parseLog(new ByteArrayInputStream(join(0, TEST_LOG.length).getBytes()), expected);
+
+        GraphSequence graph = new GraphSequence();
+        try (LogFollower<GraphSequence> follower = new LogFollower<>(file, graph, null)) {
+            append(file, join(0, 5));
+            assertEquals(follower.poll(), 5);
+
+            // rename rotation, the last record of old file has no line terminator
+            String last = join(5, 6);
+            append(file, last.substring(0, last.length() - 1));
+            assertTrue(file.renameTo(rotated));
+            append(file, join(6, 9));
+            assertEquals(follower.poll(), 4);
+            assertEquals(follower.getOffset(), join(6, 9).length());
+
+            // copy-truncate rotation
+            Files.write(file.toPath(), new byte[0]);
+            append(file, join(9, TEST_LOG.length));
+            assertEquals(follower.poll(), TEST_LOG.length - 9);
+        }
+        assertSameResult(expected, graph);
+    }
+}
@@ -0,0 +1,176 @@
+package io.lzy.popular_path;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.testng.annotations.Test;
+
+import io.lzy.popular_path.model.GraphRandom;
+import io.lzy.popular_path.model.GraphSequence;
+import io.lzy.popular_path.model.GraphWindowed;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class LogParserTest extends TestBase {
+
+    private File writeLog(final String content) throws IOException {
+        File file = File.createTempFile("access_log", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes());
+        return file;
+    }
+
+    @Test
+    public void testMappedFileParsingAlignToStreamParsing() throws IOException {
+        StringBuffer testLog = new StringBuffer();
+        testLog.append("U1\t/\n");
+        testLog.append("U1 N1\r\n");
+        testLog.append("U2\t/\r");
+        testLog.append("\r\n");                 // empty line, invalid
+        testLog.append(" U2\tN1\n");            // leading separator, invalid
+        testLog.append("U2\tN1\tN2\n");         // extra field, invalid
+        testLog.append("U2\n");                 // missing node name, invalid
+        testLog.append("U2\t\u0001\n");         // empty node name after trim, invalid
+        testLog.append("U2\u000bN1 \t\n");     // trailing separator is allowed
+        testLog.append("U1\tN2\n");
+        testLog.append("U1\tN2\n");             // refresh node, will be skipped
+        testLog.append("U2\tN2\n");
+        testLog.append("U1\tN3");               // last line without terminator
+
+        File file = writeLog(testLog.toString());
+
+        GraphRandom streamGraph = new GraphRandom();
+        int streamLines = LogParser.parseLog(new ByteArrayInputStream(testLog.toString().getBytes()), streamGraph);
+        GraphRandom fileGraph = new GraphRandom();
+        int fileLines = LogParser.parseLog(file, fileGraph);
+
+        assertEquals(fileLines, streamLines);
+        assertEquals(fileLines, 13);
+
+        Map<String, List<Map.Entry<String, Integer>>> streamRet = streamGraph.getAllPopularPath(TOP(5));
+        Map<String, List<Map.Entry<String, Integer>>> fileRet = fileGraph.getAllPopularPath(TOP(5));
+        assertEquals(fileRet.keySet(), streamRet.keySet());
+        fileRet.keySet().forEach(user -> {
+            fileRet.get(user).sort(comparator);
+            streamRet.get(user).sort(comparator);
+            assertEquals(fileRet.get(user), streamRet.get(user));
+        });
+
+        List<Map.Entry<String, Integer>> ret = fileGraph.getPopularPath(DEPTH(4), TOP(3), TEST_USER_1);
+        assertEquals(ret.size(), 1);
+        assertEquals(ret.get(0).getKey(), "/N1/N2/N3");
+        assertEquals(ret.get(0).getValue(), new Integer(4));
+
+        GraphSequence sequenceGraph = new GraphSequence();
+        LogParser.parseLog(file, sequenceGraph);
+        ret = sequenceGraph.getPopularPath(TOP(3), TEST_USER_2);   // [/N1/N2=3]
+        assertEquals(ret.size(), 1);
+        assertEquals(ret.get(0).getKey(), "/N1/N2");
+        assertEquals(ret.get(0).getValue(), new Integer(3));
+    }
+
+    @Test
+    public void testTimestampField() throws IOException {
+        StringBuffer testLog = new StringBuffer();
+        testLog.append("U1\t/\t0\n");
+        testLog.append("U1\tN1\t1000\n");
+        testLog.append("U1\tN2 \t2000\t\n");      // trailing separator is allowed
+        testLog.append("U1\tN3\t-1\n");            // negative time, invalid
+        testLog.append("U1\tN3\t1x\n");            // not a number, invalid
+        testLog.append("U1\tN3\t99999999999999999999\n");   // overflow, invalid
+        testLog.append("U1\tN3\t3000\t1\n");      // extra field, invalid
+        testLog.append("U1\tN3\t25000\n");
+        testLog.append("U1\tN4\n");                // without time, at the time of the graph
+        testLog.append("U1\tN5\t26000\n");
+
+        GraphWindowed streamGraph = new GraphWindowed(10, TimeUnit.SECONDS, 10);
+        LogParser.parseLog(new ByteArrayInputStream(testLog.toString().getBytes()), streamGraph);
+        GraphWindowed fileGraph = new GraphWindowed(10, TimeUnit.SECONDS, 10);
+        LogParser.parseLog(writeLog(testLog.toString()), fileGraph);
+
+        assertEquals(fileGraph.getTime(), 26000);
+        assertEquals(streamGraph.getTime(), 26000);
+        // the records before 17 seconds are out of the window.
+        List<Map.Entry<String, Integer>> ret = fileGraph.getPopularPath(DEPTH(3), TOP(3), TEST_USER_1);
+        assertEquals(ret.size(), 1);
+        assertEquals(ret.get(0).getKey(), "N3/N4/N5");
+        assertEquals(ret.get(0).getValue(), new Integer(3));
+        assertEquals(streamGraph.getPopularPath(DEPTH(3), TOP(3), TEST_USER_1), ret);
+
+        // the time is ignored by other graphs.
+        GraphRandom graph = new GraphRandom();
+        LogParser.parseLog(writeLog(testLog.toString()), graph);
+        assertEquals(graph.getPopularPath(DEPTH(6), TOP(3), TEST_USER_1).get(0).getKey(), "/N1/N2/N3/N4/N5");
+    }
+
+    @Test
+    public void testIdleSessionEviction() throws IOException {
+        StringBuffer testLog = new StringBuffer();
+        testLog.append("U1\t/\n");
+        testLog.append("U1\tN1\n");
+        testLog.append("U2\t/\n");
+        testLog.append("U3\t/\n");                 // U1 is the least recently active, evicted
+        testLog.append("U1\tN2\n");                // U1 starts a new path from a new node, U2 is evicted
+        testLog.append("U1\tN3\n");
+        testLog.append("U2\tN1\n");                // U2 starts a new path from an existing node, U3 is evicted
+        testLog.append("U3\tN1\n");                // U3 starts a new path, U1 is evicted
+        testLog.append("U1\tN1\n");                // U1 starts a new path from N1, U2 is evicted
+        testLog.append("U1\tN2\n");
+
+        GraphRandom graph = new GraphRandom();
+        LogParser<GraphRandom> parser = new LogParser<>(graph, 2);
+        // one record per batch, a batch applies the records by owner lock stripe, so the recency of the owners
+        //  in the same batch is not in record order.
+        int lines = 0;
+        for (String line : testLog.toString().split("\n")) {
+            lines += parser.parseLog(new ByteArrayInputStream((line + "\n").getBytes()));
+        }
+        assertEquals(lines, 10);
+
+        assertEquals(parser.getSessions().size(), 2);
+        assertEquals(parser.getSessions().getHits(), 3);
+        assertEquals(parser.getSessions().getMisses(), 7);
+        assertEquals(parser.getSessions().getEvictions(), 5);
+
+        List<Map.Entry<String, Integer>> ret = graph.getPopularPath(DEPTH(2), TOP(5), TEST_USER_1);
+        assertEquals(ret.stream().map(Map.Entry::getKey).collect(Collectors.toSet()),
+                new HashSet<>(Arrays.asList("/N1", "N1/N2", "N2/N3")));
+        assertTrue(graph.getPopularPath(DEPTH(2), TOP(5), TEST_USER_2).isEmpty());
+
+        // the restarted path starts from an in-edge without parent.
+        int owner = graph.getOwnerSymbols().lookup(TEST_USER_1);
+        assertEquals(graph.getNode(TEST_NODE_CHILD_1).getInEdges().stream()
+                .filter(edge -> edge.getOwner() == owner && edge.getInNode() == null).count(), 1);
+    }
+
+    @Test
+    public void testSessionMemoryCap() {
+        assertEquals(SessionCache.maxSessionsOf(1), 1);
+        assertEquals(SessionCache.maxSessionsOf(SessionCache.SESSION_BYTES * 1000L), 1000);
+        assertEquals(SessionCache.maxSessionsOf(Long.MAX_VALUE), Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testMappedFileParsingWithEmptyFile() throws IOException {
+        assertEquals(LogParser.parseLog(writeLog(""), new GraphRandom()), 0);
+    }
+
+    @Test
+    public void testLastLineEnd() {
+        assertEquals(LogParser.lastLineEnd(ByteBuffer.wrap("U1\t/\nU1\tN".getBytes()), 9), 5);
+        assertEquals(LogParser.lastLineEnd(ByteBuffer.wrap("U1\t/\r\nU1".getBytes()), 8), 6);
+        // "\r" at region end might be followed by "\n" in next region
+        assertEquals(LogParser.lastLineEnd(ByteBuffer.wrap("U1\t/\rU1\tN1\r".getBytes()), 11), 5);
+        assertEquals(LogParser.lastLineEnd(ByteBuffer.wrap("U1\t/".getBytes()), 4), 0);
+    }
+}
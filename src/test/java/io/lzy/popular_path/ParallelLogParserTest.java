@@ -0,0 +1,107 @@
+package io.lzy.popular_path;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import io.lzy.popular_path.model.GraphRandom;
+import io.lzy.popular_path.model.GraphSequence;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class ParallelLogParserTest extends TestBase {
+
+    /**
+     * Generate access log with interleaved users, each user starts from root node.
+     */
+    private File generateLog(final int users, final int nodes, final int records) throws IOException {
+        final List<String[]> _records = generateRecords(users, nodes, records);
+        final StringBuilder testLog = new StringBuilder();
+        for (int i = 0; i < _records.size(); i++) {
+            testLog.append(String.format("%s\t%s\n", _records.get(i)[0], _records.get(i)[1]));
+            if (i >= users && (i - users) % 97 == 0) {
+                testLog.append("invalid record\tin\tlog\n");
+            }
+        }
+
+        File file = File.createTempFile("access_log", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), testLog.toString().getBytes());
+        return file;
+    }
+
+    private void assertSameResult(final Map<String, List<Map.Entry<String, Integer>>> expected,
+                                  final Map<String, List<Map.Entry<String, Integer>>> actual) {
+        assertEquals(actual.keySet(), expected.keySet());
+        expected.keySet().forEach(user -> {
+            expected.get(user).sort(comparator);
+            actual.get(user).sort(comparator);
+            assertEquals(actual.get(user), expected.get(user), user);
+        });
+    }
+
+    @Test
+    public void testParallelParsingAlignToSerialParsingOnGraphRandom() throws IOException {
+        final File file = generateLog(30, 8, 1500);
+
+        final GraphRandom serialGraph = new GraphRandom();
+        final int serialLines = LogParser.parseLog(file, serialGraph);
+
+        final GraphRandom parallelGraph = new GraphRandom();
+        final int parallelLines = ParallelLogParser.parseLog(file, parallelGraph, 4, 512,    // small chunk for test
+                LogParser.DEFAULT_SESSION_MEMORY).getLines();
+
+        assertEquals(parallelLines, serialLines);
+        assertSameResult(serialGraph.getAllPopularPath(DEPTH(3), TOP(ALL)),
+                parallelGraph.getAllPopularPath(DEPTH(3), TOP(ALL)));
+        assertSameResult(serialGraph.getAllPopularPath(DEPTH(4), TOP(ALL)),
+                parallelGraph.getAllPopularPath(DEPTH(4), TOP(ALL)));
+    }
+
+    @Test
+    public void testParallelParsingAlignToSerialParsingOnGraphSequence() throws IOException {
+        final File file = generateLog(30, 8, 1500);
+
+        final GraphSequence serialGraph = new GraphSequence();
+        final int serialLines = LogParser.parseLog(file, serialGraph);
+
+        final GraphSequence parallelGraph = new GraphSequence();
+        final int parallelLines = LogParser.parseLog(file, parallelGraph, 4);
+
+        assertEquals(parallelLines, serialLines);
+        assertSameResult(serialGraph.getPopularPath(TOP(ALL)), parallelGraph.getPopularPath(TOP(ALL)));
+    }
+
+    @Test
+    public void testSessionMemoryOfWorkers() throws IOException {
+        final File file = generateLog(30, 8, 1500);
+
+        final ParseStats serial = LogParser.parse(file, new GraphRandom(), LogParser.DEFAULT_SESSION_MEMORY);
+        assertEquals(serial.getMaxSessions(), LogParser.DEFAULT_MAX_SESSIONS);
+        assertEquals(serial.getSessionMisses(), 30);
+        assertEquals(serial.getSessionEvictions(), 0);
+
+        // the counters of the workers are summed up.
+        ParseStats parallel = LogParser.parse(file, new GraphRandom(), 4, LogParser.DEFAULT_SESSION_MEMORY);
+        assertEquals(parallel.getLines(), serial.getLines());
+        assertEquals(parallel.getMaxSessions(), LogParser.DEFAULT_MAX_SESSIONS);
+        assertEquals(parallel.getSessionHits(), serial.getSessionHits());
+        assertEquals(parallel.getSessionMisses(), serial.getSessionMisses());
+        assertEquals(parallel.getSessionEvictions(), 0);
+
+        // the memory cap is shared by the workers, a session for each worker.
+        parallel = LogParser.parse(file, new GraphRandom(), 4, SessionCache.SESSION_BYTES * 4);
+        assertEquals(parallel.getMaxSessions(), 4);
+        assertTrue(parallel.getSessionEvictions() > 0);
+        assertEquals(parallel.getSessionHits() + parallel.getSessionMisses(),
+                serial.getSessionHits() + serial.getSessionMisses());
+        assertEquals(parallel.getSessionMisses(), parallel.getSessionEvictions() + 4);
+    }
+}
@@ -0,0 +1,164 @@
+package io.lzy.popular_path;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.Test;
+
+import io.lzy.popular_path.model.GraphRandom;
+import io.lzy.popular_path.model.GraphSequence;
+import io.lzy.popular_path.model.GraphSketch;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class PopularPathServerTest extends TestBase {
+
+    private final static String TEST_LOG = "U1\t/\nU1\tN1\nU2\t/\nU2\tN1\nU1\tN2\nU1\tN3\nU2\tN2\nU2\tN3\n";
+
+    private static String request(final PopularPathServer<?> server, final String method, final String uri,
+                                  final String body, final int expectedStatus) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(String.format("http://localhost:%d%s",
+                server.getAddress().getPort(), uri)).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        assertEquals(connection.getResponseCode(), expectedStatus);
+        assertNotNull(connection.getHeaderField(PopularPathServer.LATENCY_HEADER));
+        try (InputStream in = expectedStatus < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            final ByteArrayOutputStream ret = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                ret.write(buffer, 0, read);
+            }
+            return new String(ret.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void testGraphRandomServer() throws Exception {
+        try (PopularPathServer<GraphRandom> server =
+                     new PopularPathServer<>(new GraphRandom(), new InetSocketAddress("localhost", 0))) {
+            assertEquals(request(server, "POST", "/records", TEST_LOG, 200), "{\"records\":8}");
+            // the records of a user are linked across the requests.
+            assertEquals(request(server, "POST", "/records", "U1\tN4\n", 200), "{\"records\":1}");
+
+            assertEquals(request(server, "GET", "/paths?user=U1&top=2", null, 200),
+                    "{\"user\":\"U1\",\"paths\":[{\"path\":\"/N1/N2\",\"frequency\":3}," +
+                            "{\"path\":\"N1/N2/N3\",\"frequency\":3}]}");
+            assertEquals(request(server, "GET", "/paths?user=U1&depth=4&top=1", null, 200),
+                    "{\"user\":\"U1\",\"paths\":[{\"path\":\"/N1/N2/N3\",\"frequency\":4}]}");
+            assertEquals(request(server, "GET", "/paths?depth=2&top=1", null, 200),
+                    "{\"users\":{\"U1\":[{\"path\":\"/N1\",\"frequency\":2}]," +
+                            "\"U2\":[{\"path\":\"/N1\",\"frequency\":2}]}}");
+            assertEquals(request(server, "GET", "/paths?user=U9", null, 200), "{\"user\":\"U9\",\"paths\":[]}");
+
+            request(server, "GET", "/paths?depth=1", null, 400);
+            request(server, "GET", "/paths?top=x", null, 400);
+            request(server, "POST", "/paths", "", 405);
+            request(server, "GET", "/unknown", null, 404);
+
+            // concurrent clients.
+            final ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                final List<Future<String>> futures = new ArrayList<>();
+                for (int i = 0; i < 64; i++) {
+                    futures.add(executor.submit(() -> request(server, "GET", "/paths?user=U2&depth=2", null, 200)));
+                }
+                for (Future<String> future : futures) {
+                    assertEquals(future.get(), "{\"user\":\"U2\",\"paths\":[{\"path\":\"/N1\",\"frequency\":2}," +
+                            "{\"path\":\"N1/N2\",\"frequency\":2},{\"path\":\"N2/N3\",\"frequency\":2}]}");
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            final String stats = request(server, "GET", "/stats", null, 200);
+            assertTrue(stats.contains("\"/records\":{\"requests\":2,"), stats);
+            assertTrue(stats.contains("\"/paths\":{\"requests\":71,"), stats);
+            assertTrue(stats.contains("\"sessions\":{\"max\":1048576,"), stats);
+        }
+    }
+
+    private static Socket rawRequest(final PopularPathServer<?> server, final String request) throws IOException {
+        final Socket ret = new Socket("localhost", server.getAddress().getPort());
+        ret.setSoTimeout(10000);
+        ret.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+        ret.getOutputStream().flush();
+        return ret;
+    }
+
+    @Test
+    public void testBrokenAndSlowRequestBody() throws Exception {
+        try (PopularPathServer<GraphRandom> server =
+                     new PopularPathServer<>(new GraphRandom(), new InetSocketAddress("localhost", 0))) {
+            // a bad chunk header fails reading the body, the client gets an error response.
+            try (Socket socket = rawRequest(server, "POST /records HTTP/1.1\r\nHost: localhost\r\n" +
+                    "Transfer-Encoding: chunked\r\n\r\nzz\r\n")) {
+                final String status = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.UTF_8)).readLine();
+                assertEquals(status, "HTTP/1.1 400 Bad Request");
+            }
+
+            // a client sending its body slowly doesn't stall the ingest of others.
+            try (Socket socket = rawRequest(server, "POST /records HTTP/1.1\r\nHost: localhost\r\n" +
+                    "Content-Length: 100\r\n\r\nU3\t/\n")) {
+                assertEquals(request(server, "POST", "/records", TEST_LOG, 200), "{\"records\":8}");
+
+                // the broken request is recorded as well, the slow one is still in handling.
+                final String stats = request(server, "GET", "/stats", null, 200);
+                assertTrue(stats.contains("\"/records\":{\"requests\":2,"), stats);
+                assertTrue(socket.isConnected());
+            }
+        }
+    }
+
+    @Test
+    public void testGraphSequenceServer() throws Exception {
+        try (PopularPathServer<GraphSequence> server =
+                     new PopularPathServer<>(new GraphSequence(), new InetSocketAddress("localhost", 0))) {
+            request(server, "POST", "/records", TEST_LOG, 200);
+
+            assertEquals(request(server, "GET", "/paths?user=U2&top=1", null, 200),
+                    "{\"user\":\"U2\",\"paths\":[{\"path\":\"/N1/N2\",\"frequency\":3}]}");
+            request(server, "GET", "/paths?depth=4", null, 400);    // depth not booked
+        }
+    }
+
+    @Test
+    public void testGraphSketchServer() throws Exception {
+        try (PopularPathServer<GraphSketch> server =
+                     new PopularPathServer<>(new GraphSketch(), new InetSocketAddress("localhost", 0))) {
+            request(server, "POST", "/records", TEST_LOG, 200);
+
+            assertEquals(request(server, "GET", "/paths?top=1", null, 200),
+                    "{\"paths\":[{\"path\":\"/N1/N2\",\"frequency\":2}]}");
+            request(server, "GET", "/paths?user=U1", null, 400);    // paths of a user not kept
+            request(server, "GET", "/paths?depth=4", null, 400);
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package io.lzy.popular_path;
 
-import java.util.Comparator;
-import java.util.Map;
+import java.util.*;
 
+import io.lzy.popular_path.model.Edge;
 import io.lzy.popular_path.model.Graph;
+import io.lzy.popular_path.model.Node;
 
 /**
  * @author zhiyan
@@ -21,6 +22,11 @@ public abstract class TestBase {
     public final static String TEST_NODE_CHILD_4 = "N4";
     public final static String TEST_NODE_CHILD_5 = "N5";
 
+    /**
+     * Top N parameter to get all the paths.
+     */
+    public final static int ALL = 100000;
+
     /**
      * Helper to help code reader understand the number meaning in graph interface call parameter list.
      */
@@ -45,4 +51,43 @@ public abstract class TestBase {
         }
         return ret;
     };
+
+    /**
+     * Generate interleaved access records, each user starts from root node. Record is "user => node" pair.
+     */
+    protected static List<String[]> generateRecords(final int users, final int nodes, final int records) {
+        final Random random = new Random(20161016L);
+        final List<String[]> ret = new ArrayList<>();
+        for (int user = 0; user < users; user++) {
+            ret.add(new String[] {String.format("U%d", user), TEST_NODE_ROOT});
+        }
+        for (int i = 0; i < records; i++) {
+            ret.add(new String[] {
+                    String.format("U%d", random.nextInt(users)), String.format("N%d", random.nextInt(nodes))});
+        }
+        return ret;
+    }
+
+    /**
+     * Touch a record into the graph, the node parents are kept for the next record of the user.
+     */
+    protected static void touch(final Graph graph, final String[] record,
+                                final Map<String, Map.Entry<Node, Edge>> nodeParents) {
+        final Map.Entry<Node, Edge> parent = nodeParents.get(record[0]);
+        final Map.Entry<Node, Edge> item = graph.touchNode(record[1],
+                parent == null ? null : parent.getKey(), parent == null ? null : parent.getValue(), record[0]);
+        if (item.getKey() != null) {
+            nodeParents.put(record[0], item);
+        }
+    }
+
+    /**
+     * Generate a graph from the records of {@link #generateRecords(int, int, int)}.
+     */
+    protected static <G extends Graph> G generateGraph(final G graph, final int users, final int nodes,
+                                                       final int records) {
+        final Map<String, Map.Entry<Node, Edge>> nodeParents = new HashMap<>();
+        generateRecords(users, nodes, records).forEach(record -> touch(graph, record, nodeParents));
+        return graph;
+    }
 }
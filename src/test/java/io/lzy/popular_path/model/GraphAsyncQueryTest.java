@@ -0,0 +1,176 @@
+package io.lzy.popular_path.model;
+
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import io.lzy.popular_path.TestBase;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class GraphAsyncQueryTest extends TestBase {
+
+    @Test
+    public void testAsyncAlignToSyncOnGraphRandom() throws Exception {
+        final GraphRandom graph = generateGraph(new GraphRandom(0), 20, 6, 1000);
+
+        for (int depth = 2; depth <= 4; depth++) {
+            assertEquals(graph.getAllPopularPathAsync(depth, TOP(3)).get(), graph.getAllPopularPath(depth, TOP(3)));
+            assertEquals(graph.getPopularPathAsync(depth, TOP(ALL), "U1").get(),
+                    graph.getPopularPath(depth, TOP(ALL), "U1"));
+        }
+        assertTrue(graph.getPopularPathAsync(DEPTH(3), TOP(3), "U99").get().isEmpty());
+    }
+
+    @Test
+    public void testAsyncAlignToSyncOnGraphSequence() throws Exception {
+        final GraphSequence graph = generateGraph(new GraphSequence(2, 4, 10), 20, 6, 1000);
+
+        for (int depth = 2; depth <= 4; depth++) {
+            assertEquals(graph.getAllPopularPathAsync(depth, TOP(3)).get(), graph.getAllPopularPath(depth, TOP(3)));
+            assertEquals(graph.getPopularPathAsync(depth, TOP(ALL), "U1").get(),
+                    graph.getPopularPath(depth, TOP(ALL), "U1"));
+        }
+    }
+
+    @Test
+    public void testCustomExecutor() throws Exception {
+        final GraphRandom graph = generateGraph(new GraphRandom(0), 5, 4, 100);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final List<Runnable> tasks = new ArrayList<>();
+        try {
+            final CompletableFuture<List<Map.Entry<String, Integer>>> future = graph.getPopularPathAsync(
+                    DEPTH(3), TOP(3), "U1", 0, TimeUnit.MILLISECONDS, command -> {
+                        tasks.add(command);
+                        executor.execute(command);
+                    });
+            assertEquals(future.get(), graph.getPopularPath(DEPTH(3), TOP(3), "U1"));
+            assertEquals(tasks.size(), 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelBeforeRunning() {
+        final GraphRandom graph = generateGraph(new GraphRandom(0), 5, 4, 100);
+        final List<Runnable> tasks = new ArrayList<>();
+
+        final CompletableFuture<Map<String, List<Map.Entry<String, Integer>>>> future =
+                graph.getAllPopularPathAsync(DEPTH(3), TOP(3), 0, TimeUnit.MILLISECONDS, tasks::add);
+        assertTrue(future.cancel(true));
+        tasks.forEach(Runnable::run);   // the cancelled query is skipped
+
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void testCancelDuringEvaluation() throws Exception {
+        final AtomicLong steps = new AtomicLong();
+        final AtomicBoolean armed = new AtomicBoolean();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch resumed = new CountDownLatch(1);
+        final GraphRandom graph = generateGraph(new GraphRandom(0) {
+            @Override
+            protected Stream<Edge> getNextEdges(final Node node, final Edge preEdge, final int edgeOwner) {
+                steps.incrementAndGet();
+                if (armed.compareAndSet(true, false)) {     // pause the walk once, the query is cancelled then
+                    started.countDown();
+                    Uninterruptibles.awaitUninterruptibly(resumed);
+                }
+                return super.getNextEdges(node, preEdge, edgeOwner);
+            }
+        }, 20, 10, 5000);
+        graph.setQueryExecutor(new QueryExecutor(1, QueryExecutor.DEFAULT_SEQUENTIAL_THRESHOLD));
+
+        graph.getAllPopularPath(DEPTH(6), TOP(3));
+        final long all = steps.getAndSet(0);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        armed.set(true);
+        final CompletableFuture<Map<String, List<Map.Entry<String, Integer>>>> future =
+                graph.getAllPopularPathAsync(DEPTH(6), TOP(3), 0, TimeUnit.MILLISECONDS, executor);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertTrue(future.cancel(true));
+        final long cancelled = steps.get();
+        resumed.countDown();
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        // the walk stops at the next cancellation check of the evaluation instead of running to the end.
+        assertTrue(steps.get() - cancelled <= 1024, String.valueOf(steps.get() - cancelled));
+        assertTrue(steps.get() < all / 2, String.format("%d of %d", steps.get(), all));
+    }
+
+    @Test
+    public void testDeadlineWhileQueued() throws Exception {
+        final GraphRandom graph = generateGraph(new GraphRandom(0), 5, 4, 100);
+        final List<Runnable> tasks = new ArrayList<>();
+
+        final CompletableFuture<Map<String, List<Map.Entry<String, Integer>>>> future =
+                graph.getAllPopularPathAsync(DEPTH(3), TOP(3), 50, TimeUnit.MILLISECONDS, tasks::add);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Query should be expired");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException, e.getCause().toString());
+        }
+        assertEquals(tasks.size(), 1);
+        tasks.forEach(Runnable::run);   // the expired query is skipped
+    }
+
+    @Test
+    public void testDeadlineWhileBlocked() throws Exception {
+        final GraphRandom graph = generateGraph(new GraphRandom(0), 5, 4, 100);
+
+        synchronized (graph.getOwnerLock(graph.getOwnerSymbols().lookup("U1"))) {    // the query waits for the lock
+            final CompletableFuture<List<Map.Entry<String, Integer>>> future = graph.getPopularPathAsync(
+                    DEPTH(3), TOP(3), "U1", 50, TimeUnit.MILLISECONDS, graph.getQueryExecutor());
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail("Query should be expired");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException, e.getCause().toString());
+            }
+        }
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        final GraphRandom graph = generateGraph(new GraphRandom(0), 20, 10, 5000);
+
+        try {
+            graph.getAllPopularPathAsync(DEPTH(8), TOP(3), 1, TimeUnit.NANOSECONDS, graph.getQueryExecutor()).get();
+            fail("Query should be expired");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException, e.getCause().toString());
+        }
+
+        // a generous deadline does not change the result.
+        assertEquals(graph.getAllPopularPathAsync(DEPTH(3), TOP(3), 1, TimeUnit.MINUTES, graph.getQueryExecutor())
+                .get(), graph.getAllPopularPath(DEPTH(3), TOP(3)));
+    }
+
+    @Test
+    public void testRejectedQuery() throws Exception {
+        final GraphRandom graph = generateGraph(new GraphRandom(0), 5, 4, 100);
+        final QueryExecutor executor = new QueryExecutor(1, QueryExecutor.DEFAULT_SEQUENTIAL_THRESHOLD);
+        executor.shutdown();
+
+        try {
+            graph.getAllPopularPathAsync(DEPTH(3), TOP(3), 0, TimeUnit.MILLISECONDS, executor).get();
+            fail("Query should be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException, e.getCause().toString());
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package io.lzy.popular_path.model;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+import io.lzy.popular_path.TestBase;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class GraphConcurrencyTest extends TestBase {
+
+    private final static int THREADS = 8;
+
+    private static void ingestSerially(final Graph graph, final List<String[]> records) {
+        final Map<String, Map.Entry<Node, Edge>> nodeParents = new HashMap<>();
+        records.forEach(record -> touch(graph, record, nodeParents));
+    }
+
+    /**
+     * Ingest records by multiple threads at the same time, records of a user are handled by the same thread in order.
+     */
+    private static void ingestConcurrently(final Graph graph, final List<String[]> records)
+            throws InterruptedException, ExecutionException {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                final int thread = i;
+                futures.add(executor.submit(() -> {
+                    final Map<String, Map.Entry<Node, Edge>> nodeParents = new HashMap<>();
+                    start.await();
+                    records.stream().filter(record -> (record[0].hashCode() & Integer.MAX_VALUE) % THREADS == thread)
+                            .forEach(record -> touch(graph, record, nodeParents));
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void assertSameGraph(final Graph expected, final Graph actual) {
+        assertEquals(actual.getNodeMapByOwner().keySet().size(), expected.getNodeMapByOwner().keySet().size());
+        for (int nodeId = 0; nodeId < expected.getNodeSymbols().size(); nodeId++) {
+            final String name = expected.getNodeSymbols().name(nodeId);
+            final Node expectedNode = expected.getNode(name);
+            final Node actualNode = actual.getNode(name);
+            assertNotNull(actualNode, name);
+            assertEquals(actualNode.getInEdges().size(), expectedNode.getInEdges().size(), name);
+            assertEquals(actualNode.getOutEdges().size(), expectedNode.getOutEdges().size(), name);
+            for (int owner = 0; owner < expected.getOwnerSymbols().size(); owner++) {
+                final String user = expected.getOwnerSymbols().name(owner);
+                assertEquals(actualNode.getRefCount(actual.getOwnerSymbols().lookup(user)),
+                        expectedNode.getRefCount(owner), name + " of " + user);
+            }
+        }
+    }
+
+    private void assertSameResult(final Map<String, List<Map.Entry<String, Integer>>> expected,
+                                  final Map<String, List<Map.Entry<String, Integer>>> actual) {
+        assertEquals(actual.keySet(), expected.keySet());
+        expected.keySet().forEach(user -> {
+            expected.get(user).sort(comparator);
+            actual.get(user).sort(comparator);
+            assertEquals(actual.get(user), expected.get(user), user);
+        });
+    }
+
+    @Test
+    public void testConcurrentIngestAlignToSerialIngestOnGraphRandom() throws Exception {
+        final List<String[]> records = generateRecords(100, 6, 2500);
+
+        final GraphRandom serialGraph = new GraphRandom();
+        ingestSerially(serialGraph, records);
+
+        for (int round = 0; round < 3; round++) {
+            final GraphRandom concurrentGraph = new GraphRandom();
+            ingestConcurrently(concurrentGraph, records);
+
+            assertSameGraph(serialGraph, concurrentGraph);
+            assertSameResult(serialGraph.getAllPopularPath(DEPTH(3), TOP(ALL)),
+                    concurrentGraph.getAllPopularPath(DEPTH(3), TOP(ALL)));
+        }
+    }
+
+    @Test
+    public void testConcurrentIngestAlignToSerialIngestOnGraphSequence() throws Exception {
+        final List<String[]> records = generateRecords(100, 8, 4000);
+
+        final GraphSequence serialGraph = new GraphSequence();
+        ingestSerially(serialGraph, records);
+
+        for (int round = 0; round < 3; round++) {
+            final GraphSequence concurrentGraph = new GraphSequence();
+            ingestConcurrently(concurrentGraph, records);
+
+            assertSameGraph(serialGraph, concurrentGraph);
+            assertSameResult(serialGraph.getPopularPath(TOP(ALL)), concurrentGraph.getPopularPath(TOP(ALL)));
+        }
+    }
+
+    @Test
+    public void testQueryDuringConcurrentIngest() throws Exception {
+        final List<String[]> records = generateRecords(30, 8, 2000);
+        final GraphRandom graph = new GraphRandom();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final Future<?> ingest = executor.submit(() -> {
+                ingestConcurrently(graph, records);
+                return null;
+            });
+            while (!ingest.isDone()) {
+                graph.getAllPopularPath(DEPTH(3), TOP(10)).values().forEach(items -> assertTrue(items.size() <= 10));
+            }
+            ingest.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final GraphRandom serialGraph = new GraphRandom();
+        ingestSerially(serialGraph, records);
+        assertSameGraph(serialGraph, graph);
+    }
+
+    @Test
+    public void testSpillDuringConcurrentIngestAndQuery() throws Exception {
+        final List<String[]> records = generateRecords(100, 8, 4000);
+        final File directory = Files.createTempDirectory("spill").toFile();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try (GraphSpillable graph = new GraphSpillable(20000, directory)) {
+            final Future<?> ingest = executor.submit(() -> {
+                ingestConcurrently(graph, records);
+                return null;
+            });
+            while (!ingest.isDone()) {
+                graph.getAllPopularPath(DEPTH(3), TOP(10)).values().forEach(items -> assertTrue(items.size() <= 10));
+                graph.getSitePopularPath(DEPTH(3), TOP(10));
+                graph.spill();
+            }
+            ingest.get();
+            assertTrue(graph.getSpills() > 0);
+            assertTrue(graph.getFaults() > 0);
+            assertTrue(graph.getResidentBytes() <= graph.getMemoryBudget());
+
+            final GraphRandom serialGraph = new GraphRandom();
+            ingestSerially(serialGraph, records);
+            assertSameResult(serialGraph.getAllPopularPath(DEPTH(3), TOP(ALL)),
+                    graph.getAllPopularPath(DEPTH(3), TOP(ALL)));
+            assertEquals(graph.getSitePopularPath(DEPTH(3), TOP(ALL)),
+                    serialGraph.getSitePopularPath(DEPTH(3), TOP(ALL)));
+        } finally {
+            executor.shutdownNow();
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testOwnerViewIsolatedFromIngest() {
+        final List<String[]> records = generateRecords(5, 6, 300);
+        final GraphRandom graph = new GraphRandom(0);
+        final Map<String, Map.Entry<Node, Edge>> nodeParents = new HashMap<>();
+        records.subList(0, 150).forEach(record -> touch(graph, record, nodeParents));
+
+        final int owner = graph.getOwnerSymbols().lookup(TEST_USER_1);
+        final List<Map.Entry<String, Integer>> expected = graph.getPopularPath(DEPTH(3), TOP(ALL), TEST_USER_1);
+        final List<Node> view;
+        synchronized (graph.getOwnerLock(owner)) {
+            view = graph.copyOwnerView(graph.getNodeMapByOwner().get(owner), owner);
+        }
+
+        // the view is not changed by the following ingest.
+        records.subList(150, records.size()).forEach(record -> touch(graph, record, nodeParents));
+        assertNotEquals(graph.getPopularPath(DEPTH(3), TOP(ALL), TEST_USER_1), expected);
+
+        final TopPaths actual = new TopPaths(TOP(ALL));
+        view.forEach(node -> node.getInEdges(owner).forEach(edge ->
+                actual.merge(graph.evaluateTopPaths(node, edge, owner, DEPTH(3), TOP(ALL)))));
+        assertEquals(actual.toList(), expected);
+    }
+
+    @Test
+    public void testBookedViewDuringConcurrentIngest() throws Exception {
+        final List<String[]> records = generateRecords(30, 8, 4000);
+        final GraphSequence graph = new GraphSequence(DEPTH(3), TOP(5));
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final Future<?> ingest = executor.submit(() -> {
+                ingestConcurrently(graph, records);
+                return null;
+            });
+            while (!ingest.isDone()) {
+                graph.getPopularPath(TOP(ALL)).values().forEach(items -> {
+                    assertTrue(items.size() <= 5);
+                    final List<Map.Entry<String, Integer>> sorted = new ArrayList<>(items);
+                    sorted.sort(TopPaths.RANKING);
+                    assertEquals(items, sorted);
+                });
+            }
+            ingest.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final GraphSequence serialGraph = new GraphSequence(DEPTH(3), TOP(5));
+        ingestSerially(serialGraph, records);
+        assertEquals(graph.getPopularPath(TOP(ALL)), serialGraph.getPopularPath(TOP(ALL)));
+    }
+}
@@ -234,4 +234,185 @@ public class GraphRandomTest extends TestBase {
         assertEquals(ret1.get(TEST_USER_2).get(0).getKey(), "N2/N1");
         assertEquals(ret1.get(TEST_USER_2).get(0).getValue(), new Integer(2));
     }
+
+    @Test
+    public void testGraphRandomWithBatchedTouch() {
+        GraphRandom graph = new GraphRandom();
+        SymbolTable ownerSymbols = graph.getOwnerSymbols();
+        SymbolTable nodeSymbols = graph.getNodeSymbols();
+        int u1 = ownerSymbols.intern(TEST_USER_1), u2 = ownerSymbols.intern(TEST_USER_2);
+        int root = nodeSymbols.lookup(TEST_NODE_ROOT), n1 = nodeSymbols.intern(TEST_NODE_CHILD_1),
+                n2 = nodeSymbols.intern(TEST_NODE_CHILD_2), n3 = nodeSymbols.intern(TEST_NODE_CHILD_3);
+        int[] owners = {u1, u1, u1, u1, u1, u2, u2};
+        int[] names = {root, n1, n2, n3, n3, n2, n1};
+        Map<Integer, Map.Entry<Node, Edge>> nodeParents = new HashMap<>();
+
+        assertEquals(root, Graph.ROOT_NODE_ID);
+        assertEquals(graph.touchNodes(owners, names, 0, 3, nodeParents), 3);
+        final Map.Entry<Node, Edge> parent = nodeParents.get(u1);
+        assertEquals(graph.touchNodes(owners, names, 3, 2, nodeParents), 1);     // refresh node, will be skipped
+        assertSame(nodeParents.get(u1), parent);     // the pair of the owner is updated in place
+        assertEquals(nodeParents.get(u1).getKey().getName(), TEST_NODE_CHILD_3);
+        assertSame(nodeParents.get(u1).getValue(), graph.getNode(TEST_NODE_CHILD_3).getInEdges().get(0));
+        try {
+            graph.touchNodes(new int[] {u2, ownerSymbols.size()}, new int[] {n2, n1}, 0, 2, nodeParents);
+            fail("Record with unknown owner id should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected, and no record in the batch is applied.
+            assertNull(nodeParents.get(u2));
+        }
+        assertEquals(graph.touchNodes(owners, names, 5, 2, nodeParents), 2);
+
+        Map<String, List<Map.Entry<String, Integer>>> ret1;
+        ret1 = graph.getAllPopularPath(DEPTH(2), TOP(5));
+        // {U1=[N1/N2=2, /N1=2, N2/N3=2], U2=[N2/N1=2]}
+        assertEquals(ret1.keySet().size(), 2);
+        ret1.get(TEST_USER_1).sort(comparator);
+        assertEquals(ret1.get(TEST_USER_1).size(), 3);
+        assertEquals(ret1.get(TEST_USER_1).get(0).getKey(), "/N1");
+        assertEquals(ret1.get(TEST_USER_1).get(1).getKey(), "N1/N2");
+        assertEquals(ret1.get(TEST_USER_1).get(2).getKey(), "N2/N3");
+        assertEquals(ret1.get(TEST_USER_2).size(), 1);
+        assertEquals(ret1.get(TEST_USER_2).get(0).getKey(), "N2/N1");
+        assertEquals(ret1.get(TEST_USER_2).get(0).getValue(), new Integer(2));
+    }
+
+    @Test
+    public void testQueryCache() {
+        StringBuffer testLog = new StringBuffer();
+        testLog.append("U1\t/\n");
+        testLog.append("U1\tN1\n");
+        testLog.append("U1\tN2\n");
+        testLog.append("U1\tN3\n");
+        testLog.append("U2\t/\n");
+        testLog.append("U2\tN1\n");
+        testLog.append("U2\tN2\n");
+
+        GraphRandom graph = new GraphRandom(2);
+        try {
+            LogParser.parseLog(new ByteArrayInputStream(testLog.toString().getBytes()), graph);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+
+        List<Map.Entry<String, Integer>> ret = graph.getPopularPath(DEPTH(2), TOP(5), TEST_USER_1);
+        assertEquals(ret.size(), 3);
+        assertEquals(graph.getQueryCacheMisses(), 1);
+
+        // same query and smaller top N are answered by the cache.
+        assertEquals(graph.getPopularPath(DEPTH(2), TOP(5), TEST_USER_1), ret);
+        assertEquals(graph.getPopularPath(DEPTH(2), TOP(2), TEST_USER_1), ret.subList(0, 2));
+        assertEquals(graph.getQueryCacheHits(), 2);
+        assertEquals(graph.getQueryCacheMisses(), 1);
+
+        // result returned to client is a copy.
+        ret.clear();
+        assertEquals(graph.getPopularPath(DEPTH(2), TOP(5), TEST_USER_1).size(), 3);
+        assertEquals(graph.getQueryCacheHits(), 3);
+
+        // touching node of other user does not invalidate the cached result.
+        Node n2 = graph.getNode(TEST_NODE_CHILD_2);
+        graph.touchNode(TEST_NODE_CHILD_3, n2,
+                n2.getInEdge(graph.getNode(TEST_NODE_CHILD_1), graph.getOwnerSymbols().lookup(TEST_USER_2)),
+                TEST_USER_2);
+        assertEquals(graph.getPopularPath(DEPTH(2), TOP(5), TEST_USER_1).size(), 3);
+        assertEquals(graph.getQueryCacheHits(), 4);
+
+        // touching node of the user invalidates the cached result.
+        graph.touchNode(TEST_NODE_CHILD_4, graph.getNode(TEST_NODE_CHILD_3),
+                graph.getNode(TEST_NODE_CHILD_3).getInEdge(n2, graph.getOwnerSymbols().lookup(TEST_USER_1)),
+                TEST_USER_1);
+        assertEquals(graph.getPopularPath(DEPTH(2), TOP(5), TEST_USER_1).size(), 4);
+        assertEquals(graph.getQueryCacheMisses(), 2);
+
+        // larger top N than the cached one, but all paths of the user are cached.
+        assertEquals(graph.getPopularPath(DEPTH(2), TOP(10), TEST_USER_1).size(), 4);
+        assertEquals(graph.getQueryCacheMisses(), 2);
+
+        // least recently used result is evicted.
+        long hits = graph.getQueryCacheHits();
+        graph.getPopularPath(DEPTH(3), TOP(5), TEST_USER_1);
+        graph.getPopularPath(DEPTH(2), TOP(5), TEST_USER_2);
+        assertEquals(graph.getQueryCacheMisses(), 4);
+        graph.getPopularPath(DEPTH(2), TOP(5), TEST_USER_2);
+        assertEquals(graph.getQueryCacheHits(), hits + 1);
+        graph.getPopularPath(DEPTH(2), TOP(5), TEST_USER_1);
+        assertEquals(graph.getQueryCacheMisses(), 5);
+    }
+
+    @Test
+    public void testBatchedTouchAlignToSingleTouch() {
+        final GraphRandom expected = generateGraph(new GraphRandom(0), 100, 6, 2000);    // owners over all stripes
+
+        final GraphRandom actual = new GraphRandom(0);
+        final List<String[]> records = generateRecords(100, 6, 2000);
+        final int[] owners = new int[records.size()];
+        final int[] names = new int[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            owners[i] = actual.getOwnerSymbols().intern(records.get(i)[0]);
+            names[i] = actual.getNodeSymbols().intern(records.get(i)[1]);
+        }
+        final Map<Integer, Map.Entry<Node, Edge>> nodeParents = new HashMap<>();
+        for (int offset = 0; offset < records.size(); offset += 500) {
+            actual.touchNodes(owners, names, offset, Math.min(500, records.size() - offset), nodeParents);
+        }
+
+        assertEquals(actual.getAllPopularPath(DEPTH(3), TOP(ALL)), expected.getAllPopularPath(DEPTH(3), TOP(ALL)));
+    }
+
+    @Test
+    public void testSitePopularPath() {
+        StringBuffer testLog = new StringBuffer();
+        testLog.append("U1\t/\n");
+        testLog.append("U1\tN1\n");
+        testLog.append("U2\t/\n");
+        testLog.append("U2\tN1\n");
+        testLog.append("U1\tN2\n");
+        testLog.append("U1\tN3\n");
+        testLog.append("U2\tN2\n");
+        testLog.append("U2\tN3\n");
+        testLog.append("U3\t/\n");
+        testLog.append("U3\tN4\n");
+        testLog.append("U3\tN5\n");
+
+        GraphRandom graph = new GraphRandom();
+        try {
+            LogParser.parseLog(new ByteArrayInputStream(testLog.toString().getBytes()), graph);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+
+        // [/N1/N2=6, N1/N2/N3=6, /N4/N5=3]
+        List<Map.Entry<String, Integer>> ret = graph.getSitePopularPath(DEPTH(3), TOP(5));
+        assertEquals(ret.size(), 3);
+        assertEquals(ret.get(0).getKey(), "/N1/N2");
+        assertEquals(ret.get(0).getValue(), new Integer(6));
+        assertEquals(ret.get(1).getKey(), "N1/N2/N3");
+        assertEquals(ret.get(1).getValue(), new Integer(6));
+        assertEquals(ret.get(2).getKey(), "/N4/N5");
+        assertEquals(ret.get(2).getValue(), new Integer(3));
+
+        ret = graph.getSitePopularPath(DEPTH(3), TOP(1));
+        assertEquals(ret.size(), 1);
+        assertEquals(ret.get(0).getKey(), "/N1/N2");
+    }
+
+    @Test
+    public void testSitePopularPathAlignToUserPaths() {
+        final GraphRandom graph = generateGraph(new GraphRandom(), 20, 6, 800);
+
+        for (int depth = 2; depth <= 4; depth++) {
+            final Map<String, Integer> sums = new HashMap<>();
+            graph.getAllPopularPath(depth, TOP(ALL)).values().forEach(paths ->
+                    paths.forEach(path -> sums.merge(path.getKey(), path.getValue(), Integer::sum)));
+            final List<Map.Entry<String, Integer>> expected = new ArrayList<>(sums.entrySet());
+            expected.sort(TopPaths.RANKING);
+
+            for (int topN : new int[] {TOP(1), TOP(3), TOP(ALL)}) {
+                assertEquals(graph.getSitePopularPath(depth, topN),
+                        expected.subList(0, Math.min(topN, expected.size())),
+                        String.format("depth %d, top %d", depth, topN));
+            }
+        }
+    }
 }
@@ -96,4 +96,68 @@ public class GraphSequenceTest extends TestBase {
         ret2 = graph.getPopularPath(TOP(1), TEST_USER_3);   // []
         assertEquals(ret2.size(), 0);
     }
+
+    @Test
+    public void testRetainedTopNPopularPath() {
+        StringBuffer testLog = new StringBuffer();
+        testLog.append("U1\t/\n");
+        testLog.append("U1\tN1\n");
+        testLog.append("U1\tN2\n");
+        testLog.append("U1\tN3\n");
+        testLog.append("U1\tN1\n");
+        testLog.append("U1\tN2\n");
+        testLog.append("U1\tN4\n");
+
+        GraphSequence graph = new GraphSequence(DEPTH(3), TOP(2));
+        try {
+            LogParser.parseLog(new ByteArrayInputStream(testLog.toString().getBytes()), graph);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+
+        // repeated path /N1/N2 is booked once with the latest frequency, only top 2 paths are retained.
+        List<Map.Entry<String, Integer>> ret = graph.getPopularPath(TOP(5), TEST_USER_1);  // [/N1/N2=5, N1/N2/N4=5]
+        assertEquals(ret.size(), 2);
+        assertEquals(ret.get(0).getKey(), "/N1/N2");
+        assertEquals(ret.get(0).getValue(), new Integer(5));
+        assertEquals(ret.get(1).getKey(), "N1/N2/N4");
+        assertEquals(ret.get(1).getValue(), new Integer(5));
+        assertEquals(graph.getPopularPathMap().get(graph.getOwnerSymbols().lookup(TEST_USER_1))[0].size(), 2);
+    }
+
+    @Test
+    public void testSitePopularPath() {
+        StringBuffer testLog = new StringBuffer();
+        testLog.append("U1\t/\n");
+        testLog.append("U1\tN1\n");
+        testLog.append("U2\t/\n");
+        testLog.append("U2\tN1\n");
+        testLog.append("U1\tN2\n");
+        testLog.append("U1\tN3\n");
+        testLog.append("U2\tN2\n");
+        testLog.append("U2\tN3\n");
+        testLog.append("U3\t/\n");
+        testLog.append("U3\tN4\n");
+        testLog.append("U3\tN5\n");
+
+        GraphSequence graph = new GraphSequence();
+        try {
+            LogParser.parseLog(new ByteArrayInputStream(testLog.toString().getBytes()), graph);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+
+        List<Map.Entry<String, Integer>> ret = graph.getSitePopularPath(TOP(5));   // [/N1/N2=6, N1/N2/N3=6, /N4/N5=3]
+        assertEquals(ret.size(), 3);
+        assertEquals(ret.get(0).getKey(), "/N1/N2");
+        assertEquals(ret.get(0).getValue(), new Integer(6));
+        assertEquals(ret.get(1).getKey(), "N1/N2/N3");
+        assertEquals(ret.get(1).getValue(), new Integer(6));
+        assertEquals(ret.get(2).getKey(), "/N4/N5");
+        assertEquals(ret.get(2).getValue(), new Integer(3));
+
+        ret = graph.getSitePopularPath(TOP(1));
+        assertEquals(ret.size(), 1);
+        assertEquals(ret.get(0).getKey(), "/N1/N2");
+    }
 }
@@ -0,0 +1,196 @@
+package io.lzy.popular_path.model;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import io.lzy.popular_path.LogParser;
+import io.lzy.popular_path.TestBase;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class GraphSketchTest extends TestBase {
+
+    @Test
+    public void testExactWithinCapacity() throws IOException {
+        StringBuffer testLog = new StringBuffer();
+        testLog.append("U1\t/\n");
+        testLog.append("U1\tN1\n");
+        testLog.append("U2\t/\n");
+        testLog.append("U1\tN2\n");
+        testLog.append("U1\tN2\n");     // refresh node, will be skipped
+        testLog.append("U2\tN1\n");
+        testLog.append("U2\tN2\n");
+        testLog.append("U1\tN3\n");
+
+        GraphSketch graph = new GraphSketch(DEPTH(3), 0.01);
+        assertEquals(LogParser.parseLog(new ByteArrayInputStream(testLog.toString().getBytes()), graph), 8);
+        assertEquals(graph.getCapacity(), 100);
+        assertEquals(graph.getTotal(), 3);
+        assertEquals(graph.getMaxError(), 0);
+
+        List<Map.Entry<String, Integer>> ret = graph.getSitePopularPath(TOP(3));
+        assertEquals(ret.size(), 2);
+        assertEquals(ret.get(0).getKey(), "/N1/N2");
+        assertEquals(ret.get(0).getValue(), new Integer(2));
+        assertEquals(ret.get(1).getKey(), "N1/N2/N3");
+        assertEquals(ret.get(1).getValue(), new Integer(1));
+        assertEquals(graph.getSitePopularPath(TOP(1)), ret.subList(0, 1));
+    }
+
+    @Test
+    public void testErrorBound() {
+        final int depth = 3;
+        final GraphSketch graph = new GraphSketch(depth, 0.01);
+        final Map<String, Deque<String>> windows = new HashMap<>();
+        final Map<String, Integer> expected = new HashMap<>();
+
+        final Random random = new Random(20161017L);
+        for (int i = 0; i < 50000; i++) {
+            final String user = String.format("U%d", random.nextInt(200));
+            final String name = String.format("N%d", (int) (50 * Math.pow(random.nextDouble(), 3)));
+            graph.touchNode(name, user);
+
+            final Deque<String> window = windows.computeIfAbsent(user, key -> new ArrayDeque<>());
+            if (name.equals(window.peekLast())) {
+                continue;
+            }
+            window.addLast(name);
+            if (window.size() > depth) {
+                window.removeFirst();
+            }
+            if (window.size() == depth) {
+                expected.merge(String.join(Graph.NODE_PATH_SEPARATOR, window), 1, Integer::sum);
+            }
+        }
+
+        final long total = expected.values().stream().mapToLong(Integer::longValue).sum();
+        assertEquals(graph.getTotal(), total);
+        assertTrue(graph.getMaxError() > 0);
+        assertTrue(graph.getMaxError() <= total / graph.getCapacity());
+
+        final List<Map.Entry<String, Integer>> ret = graph.getSitePopularPath(TOP(graph.getCapacity()));
+        assertEquals(ret.size(), graph.getCapacity());
+        final Map<String, Integer> actual = new HashMap<>();
+        ret.forEach(item -> {
+            final int count = expected.getOrDefault(item.getKey(), 0);
+            assertTrue(item.getValue() >= count, item.toString());
+            assertTrue(item.getValue() - count <= graph.getMaxError(), item.toString());
+            actual.put(item.getKey(), item.getValue());
+        });
+        // every heavy hitter is kept.
+        expected.entrySet().stream().filter(item -> item.getValue() > total / graph.getCapacity())
+                .forEach(item -> assertTrue(actual.containsKey(item.getKey()), item.toString()));
+
+        // the estimated frequency is not less than the real one, so is the top one.
+        final int top = expected.values().stream().max(Integer::compare).get();
+        assertTrue(graph.getSitePopularPath(TOP(1)).get(0).getValue() >= top);
+    }
+
+    @Test
+    public void testOwnerEviction() {
+        GraphSketch graph = new GraphSketch(DEPTH(2), 0.01, 1, 1);
+        graph.touchNode(TEST_NODE_ROOT, TEST_USER_1);
+        graph.touchNode(TEST_NODE_CHILD_1, TEST_USER_1);
+        graph.touchNode(TEST_NODE_ROOT, TEST_USER_2);      // U1 is evicted
+        graph.touchNode(TEST_NODE_CHILD_2, TEST_USER_1);   // U1 starts a new path
+
+        assertEquals(graph.getTotal(), 1);
+        assertEquals(graph.getSitePopularPath(TOP(3)).get(0).getKey(), "/N1");
+    }
+
+    @Test
+    public void testOwnerHashedInLogCharset() {
+        final String owner = "\u00dc1";   // encoded differently in UTF-8 and ISO-8859-1
+        GraphSketch graph = new GraphSketch(DEPTH(3), 0.01, GraphSketch.DEFAULT_MAX_OWNERS, GraphSketch.DEFAULT_SHARDS,
+                StandardCharsets.ISO_8859_1);
+        graph.touchNode(TEST_NODE_ROOT, owner);
+        graph.touchNode(TEST_NODE_CHILD_1, owner);
+
+        // the record of the same owner parsed from an ISO-8859-1 log continues the path.
+        final byte[] bytes = owner.getBytes(StandardCharsets.ISO_8859_1);
+        final int[] owners = {AccessSink.hashOwner(bytes, 0, bytes.length)};
+        final int[] names = {graph.getNodeSymbols().intern(TEST_NODE_CHILD_2)};
+        assertEquals(graph.touchNodes(owners, names, null, 0, 1, null), 1);
+
+        assertEquals(graph.getTotal(), 1);
+        assertEquals(graph.getSitePopularPath(TOP(3)).get(0).getKey(), "/N1/N2");
+    }
+
+    @Test
+    public void testOwnersBounded() throws IOException {
+        final GraphSketch graph = new GraphSketch(DEPTH(3), 0.01, 1000);
+        final StringBuilder testLog = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            testLog.append(String.format("U%d\tN%d\n", i, i % 3));    // every user is new
+        }
+
+        assertEquals(LogParser.parseLog(new ByteArrayInputStream(testLog.toString().getBytes()), graph), 50000);
+        // no owner name is interned, only the windows of the max owners are kept.
+        assertNull(graph.getOwnerSymbols());
+        assertEquals(graph.getOwners(), 1000);
+        assertEquals(graph.getNodeSymbols().size(), 3);
+        assertEquals(graph.getTotal(), 0);
+    }
+
+    @Test
+    public void testParallelParseAlignToSerial() throws IOException {
+        final File file = File.createTempFile("access_log", ".txt");
+        try {
+            final StringBuilder testLog = new StringBuilder();
+            generateRecords(100, 8, 5000).forEach(record -> testLog.append(record[0]).append('\t')
+                    .append(record[1]).append('\n'));
+            Files.write(file.toPath(), testLog.toString().getBytes());
+
+            // the owners are keyed the same by the stream parsing, the mapped file parsing and the parallel workers.
+            final GraphSketch expected = new GraphSketch(DEPTH(3), 0.0001);
+            LogParser.parseLog(new ByteArrayInputStream(testLog.toString().getBytes()), expected);
+            final GraphSketch mapped = new GraphSketch(DEPTH(3), 0.0001);
+            LogParser.parseLog(file, mapped);
+            final GraphSketch parallel = new GraphSketch(DEPTH(3), 0.0001);
+            LogParser.parseLog(file, parallel, 4);
+
+            assertEquals(expected.getMaxError(), 0);
+            assertEquals(mapped.getSitePopularPath(TOP(ALL)), expected.getSitePopularPath(TOP(ALL)));
+            assertEquals(parallel.getSitePopularPath(TOP(ALL)), expected.getSitePopularPath(TOP(ALL)));
+            assertEquals(parallel.getTotal(), expected.getTotal());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testShardsMergedWithinErrorBound() {
+        final GraphSketch sharded = new GraphSketch(DEPTH(3), 0.01);
+        final GraphSketch single = new GraphSketch(DEPTH(3), 0.01, GraphSketch.DEFAULT_MAX_OWNERS, 1);
+        final Random random = new Random(20161017L);
+        for (int i = 0; i < 50000; i++) {
+            final String user = String.format("U%d", random.nextInt(200));
+            final String name = String.format("N%d", (int) (50 * Math.pow(random.nextDouble(), 3)));
+            sharded.touchNode(name, user);
+            single.touchNode(name, user);
+        }
+
+        assertEquals(sharded.getTotal(), single.getTotal());
+        assertTrue(sharded.getMaxError() <= sharded.getTotal() / sharded.getCapacity());
+        // the estimates of the merged summary and the single summary both bound the real frequency.
+        final Map<String, Integer> estimates = new HashMap<>();
+        sharded.getSitePopularPath(TOP(ALL)).forEach(item -> estimates.put(item.getKey(), item.getValue()));
+        single.getSitePopularPath(TOP(10)).forEach(item -> assertTrue(estimates.containsKey(item.getKey()) &&
+                Math.abs(estimates.get(item.getKey()) - item.getValue()) <=
+                        sharded.getMaxError() + single.getMaxError(), item.toString()));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidEpsilon() {
+        new GraphSketch(DEPTH(3), 1);
+    }
+}
@@ -0,0 +1,123 @@
+package io.lzy.popular_path.model;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import io.lzy.popular_path.TestBase;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class GraphSnapshotTest extends TestBase {
+
+    private static File snapshotFile() throws IOException {
+        final File file = File.createTempFile("graph", ".snapshot");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private void assertSameResult(final Map<String, List<Map.Entry<String, Integer>>> expected,
+                                  final Map<String, List<Map.Entry<String, Integer>>> actual) {
+        assertEquals(actual.keySet(), expected.keySet());
+        expected.keySet().forEach(user -> {
+            expected.get(user).sort(comparator);
+            actual.get(user).sort(comparator);
+            assertEquals(actual.get(user), expected.get(user), user);
+        });
+    }
+
+    @Test
+    public void testGraphRandomSnapshot() throws IOException {
+        final GraphRandom graph = generateGraph(new GraphRandom(), 30, 8, 1500);
+        final File file = snapshotFile();
+
+        GraphSnapshot.save(graph, file);
+        final GraphRandom loaded = GraphSnapshot.load(file, GraphRandom.class);
+
+        assertEquals(loaded.getNodeSymbols().size(), graph.getNodeSymbols().size());
+        assertEquals(loaded.getOwnerSymbols().size(), graph.getOwnerSymbols().size());
+        for (int nodeId = 0; nodeId < graph.getNodeSymbols().size(); nodeId++) {
+            final Node node = graph.getNode(nodeId);
+            final Node loadedNode = loaded.getNode(nodeId);
+            assertEquals(loadedNode.getName(), node.getName());
+            assertEquals(loadedNode.getInEdges().size(), node.getInEdges().size());
+            assertEquals(loadedNode.getOutEdges().size(), node.getOutEdges().size());
+            assertEquals(loadedNode.getRefCounts().length, node.getRefCounts().length);
+            for (int owner = 0; owner < graph.getOwnerSymbols().size(); owner++) {
+                assertEquals(loadedNode.getRefCount(owner), node.getRefCount(owner));
+            }
+        }
+        assertSameResult(graph.getAllPopularPath(DEPTH(3), TOP(ALL)), loaded.getAllPopularPath(DEPTH(3), TOP(ALL)));
+        assertSameResult(graph.getAllPopularPath(DEPTH(4), TOP(ALL)), loaded.getAllPopularPath(DEPTH(4), TOP(ALL)));
+
+        // loaded graph keeps ingesting
+        final Map.Entry<Node, Edge> item = loaded.touchNode(TEST_NODE_ROOT, null, null, "U-new");
+        loaded.touchNode(TEST_NODE_CHILD_1, item.getKey(), item.getValue(), "U-new");
+        assertEquals(loaded.getPopularPath(DEPTH(2), TOP(ALL), "U-new").size(), 1);
+    }
+
+    @Test
+    public void testSnapshotLargerThanReadBuffer() throws IOException {
+        final GraphRandom graph = generateGraph(new GraphRandom(), 200, 40, 50000);
+        final File file = snapshotFile();
+
+        GraphSnapshot.save(graph, file);
+        assertTrue(file.length() > 1 << 20, String.valueOf(file.length()));  // read in more than one buffer
+        final GraphRandom loaded = GraphSnapshot.load(file, GraphRandom.class);
+
+        assertSameResult(graph.getAllPopularPath(DEPTH(3), TOP(5)), loaded.getAllPopularPath(DEPTH(3), TOP(5)));
+    }
+
+    @Test
+    public void testGraphSequenceSnapshot() throws IOException {
+        final GraphSequence graph = generateGraph(
+                new GraphSequence(DEPTH(3), DEPTH(4), GraphSequence.DEFAULT_RETAINED_TOP_N), 30, 8, 1500);
+        final File file = snapshotFile();
+
+        GraphSnapshot.save(graph, file);
+        final GraphSequence loaded = GraphSnapshot.load(file, GraphSequence.class);
+
+        assertEquals(loaded.getMinPathDepthEvaluation(), 3);
+        assertEquals(loaded.getMaxPathDepthEvaluation(), 4);
+        assertEquals(loaded.getRetainedTopN(), GraphSequence.DEFAULT_RETAINED_TOP_N);
+        assertSameResult(graph.getPopularPath(TOP(ALL)), loaded.getPopularPath(TOP(ALL)));
+        assertEquals(loaded.getPopularPath(TOP(5), "U3"), graph.getPopularPath(TOP(5), "U3"));
+        assertEquals(loaded.getPopularPathByDepth(TOP(5), "U3"), graph.getPopularPathByDepth(TOP(5), "U3"));
+    }
+
+    @Test
+    public void testInvalidSnapshot() throws IOException {
+        final File file = snapshotFile();
+        GraphSnapshot.save(generateGraph(new GraphRandom(), 3, 3, 20), file);
+
+        try {
+            GraphSnapshot.load(file, GraphSequence.class);
+            fail("Graph type should be checked");
+        } catch (IOException e) {
+            // expected
+        }
+
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+        try {
+            GraphSnapshot.load(file);
+            fail("Truncated snapshot should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+
+        Files.write(file.toPath(), "not a snapshot".getBytes());
+        try {
+            GraphSnapshot.load(file);
+            fail("Invalid snapshot should be rejected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package io.lzy.popular_path.model;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import io.lzy.popular_path.TestBase;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class GraphSpillableTest extends TestBase {
+
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("spill").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        final File[] files = this.directory.listFiles();
+        if (files != null) {
+            Arrays.stream(files).forEach(File::delete);
+        }
+        this.directory.delete();
+    }
+
+    private void build(final Graph expected, final Graph actual, final int records) {
+        final Map<String, Map.Entry<Node, Edge>> expectedParents = new HashMap<>();
+        final Map<String, Map.Entry<Node, Edge>> actualParents = new HashMap<>();
+
+        for (String[] record : generateRecords(30, 8, records - 30)) {
+            touch(expected, record, expectedParents);
+            touch(actual, record, actualParents);
+        }
+    }
+
+    @Test
+    public void testFootprintAndFaultIn() throws IOException {
+        final long footprint = 3 * GraphSpillable.NODE_REF_BYTES + 3 * GraphSpillable.EDGE_BYTES +
+                2 * GraphSpillable.LINK_BYTES;
+        try (GraphSpillable graph = new GraphSpillable(Long.MAX_VALUE, this.directory)) {
+            final Map<String, Map.Entry<Node, Edge>> nodeParents = new HashMap<>();
+            touch(graph, new String[] {TEST_USER_1, TEST_NODE_ROOT}, nodeParents);
+            touch(graph, new String[] {TEST_USER_1, TEST_NODE_CHILD_1}, nodeParents);
+            touch(graph, new String[] {TEST_USER_1, TEST_NODE_CHILD_2}, nodeParents);
+            assertEquals(graph.getFootprint(TEST_USER_1), footprint);
+            // walk on a new edge, then on a known edge with a new pre-order edge
+            touch(graph, new String[] {TEST_USER_1, TEST_NODE_CHILD_1}, nodeParents);
+            touch(graph, new String[] {TEST_USER_1, TEST_NODE_CHILD_2}, nodeParents);
+            assertEquals(graph.getFootprint(TEST_USER_1), footprint + GraphSpillable.EDGE_BYTES +
+                    2 * GraphSpillable.LINK_BYTES);
+            assertEquals(graph.getResidentBytes(), graph.getFootprint(TEST_USER_1));
+            assertEquals(graph.getSpills(), 0);
+        }
+
+        final long budget = footprint + GraphSpillable.NODE_REF_BYTES + GraphSpillable.EDGE_BYTES +
+                GraphSpillable.LINK_BYTES;
+        try (GraphSpillable graph = new GraphSpillable(budget, this.directory)) {
+            final Map<String, Map.Entry<Node, Edge>> nodeParents = new HashMap<>();
+            touch(graph, new String[] {TEST_USER_1, TEST_NODE_ROOT}, nodeParents);
+            touch(graph, new String[] {TEST_USER_1, TEST_NODE_CHILD_1}, nodeParents);
+            touch(graph, new String[] {TEST_USER_1, TEST_NODE_CHILD_2}, nodeParents);
+            touch(graph, new String[] {TEST_USER_2, TEST_NODE_ROOT}, nodeParents);
+            assertEquals(graph.getSpills(), 0);
+
+            // U1 is the least recently active owner, spilled for U2.
+            touch(graph, new String[] {TEST_USER_2, TEST_NODE_CHILD_1}, nodeParents);
+            assertEquals(graph.getSpills(), 1);
+            assertEquals(graph.getSpilledOwners(), 1);
+            assertEquals(graph.getFootprint(TEST_USER_1), 0);
+            assertEquals(graph.getResidentBytes(), graph.getFootprint(TEST_USER_2));
+            final int owner = graph.getOwnerSymbols().lookup(TEST_USER_1);
+            final Node n2 = graph.getNode(TEST_NODE_CHILD_2);
+            assertTrue(n2.getInEdges().isEmpty());
+            assertEquals(n2.getRefCount(owner), 0);
+            assertEquals(graph.getNode(TEST_NODE_ROOT).getOutEdges().size(), 1);     // the edge of U2
+            assertNull(graph.getNodeMapByOwner().get(owner));
+
+            // the next record of U1 links to the node parent held before spilling, U2 is spilled for U1.
+            touch(graph, new String[] {TEST_USER_1, TEST_NODE_CHILD_3}, nodeParents);
+            assertEquals(graph.getFaults(), 1);
+            assertEquals(graph.getSpills(), 2);
+            assertEquals(graph.getResidentBytes(), budget);
+            final List<Map.Entry<String, Integer>> ret = graph.getPopularPath(DEPTH(4), TOP(ALL), TEST_USER_1);
+            assertEquals(ret.size(), 1);
+            assertEquals(ret.get(0).getKey(), "/N1/N2/N3");
+
+            // a query faults the spilled owner in as well.
+            assertEquals(graph.getPopularPath(DEPTH(2), TOP(ALL), TEST_USER_2).get(0).getKey(), "/N1");
+            assertEquals(graph.getFaults(), 2);
+            assertEquals(graph.getAllPopularPath(DEPTH(2), TOP(ALL)).keySet(),
+                    new HashSet<>(Arrays.asList(TEST_USER_1, TEST_USER_2)));
+        }
+        assertEquals(this.directory.listFiles().length, 0);
+    }
+
+    @Test
+    public void testSpillAlignToGraphRandom() throws IOException {
+        final GraphRandom expected = new GraphRandom();
+        try (GraphSpillable actual = new GraphSpillable(20000, this.directory)) {
+            build(expected, actual, 3000);
+            assertTrue(actual.getSpills() > 0);
+            assertTrue(actual.getSpilledOwners() > 0);
+            assertTrue(actual.getResidentBytes() <= actual.getMemoryBudget());
+
+            for (int depth = 2; depth <= 4; depth++) {
+                assertEquals(actual.getAllPopularPath(depth, TOP(3)), expected.getAllPopularPath(depth, TOP(3)));
+                assertEquals(actual.getPopularPath(depth, TOP(ALL), "U1"),
+                        expected.getPopularPath(depth, TOP(ALL), "U1"));
+            }
+            assertEquals(actual.getSitePopularPath(DEPTH(3), TOP(5)), expected.getSitePopularPath(DEPTH(3), TOP(5)));
+            assertTrue(actual.getFaults() > 0);
+            assertTrue(actual.getResidentBytes() <= actual.getMemoryBudget());
+        }
+    }
+
+    @Test
+    public void testQueryFaultIn() throws IOException {
+        final GraphRandom expected = new GraphRandom();
+        try (GraphSpillable actual = new GraphSpillable(5000, this.directory)) {
+            build(expected, actual, 2000);
+            assertEquals(actual.getAllPopularPath(DEPTH(3), TOP(3)), expected.getAllPopularPath(DEPTH(3), TOP(3)));
+            final int spilledOwners = actual.getSpilledOwners();
+            final long faults = actual.getFaults();
+            final long spills = actual.getSpills();
+            assertTrue(spilledOwners > 0);
+
+            // the cached results answer the queries, the spilled owners are not faulted in.
+            assertEquals(actual.getAllPopularPath(DEPTH(3), TOP(3)), expected.getAllPopularPath(DEPTH(3), TOP(3)));
+            assertEquals(actual.getPopularPath(DEPTH(3), TOP(2), TEST_USER_1),
+                    expected.getPopularPath(DEPTH(3), TOP(2), TEST_USER_1));
+            assertEquals(actual.getFaults(), faults);
+            assertEquals(actual.getSpills(), spills);
+
+            // a site query evaluates every owner, the spilled owners are faulted in and spilled again.
+            for (int i = 1; i <= 2; i++) {
+                assertEquals(actual.getSitePopularPath(DEPTH(3), TOP(5)),
+                        expected.getSitePopularPath(DEPTH(3), TOP(5)));
+                assertTrue(actual.getFaults() >= faults + i * spilledOwners, String.valueOf(actual.getFaults()));
+                assertTrue(actual.getResidentBytes() <= actual.getMemoryBudget());
+            }
+        }
+    }
+
+    @Test
+    public void testStoreCompaction() throws IOException {
+        final GraphRandom expected = new GraphRandom();
+        final SpillStore store = new SpillStore(this.directory, 0);
+        try (GraphSpillable actual = new GraphSpillable(0, store, 0)) {
+            build(expected, actual, 1000);
+            assertEquals(actual.getResidentBytes(), 0);
+            assertEquals(actual.getSpilledOwners(), 30);
+            assertEquals(this.directory.listFiles().length, 1);
+            final long fileBytes = store.getFileBytes();
+
+            for (int i = 0; i < 3; i++) {
+                assertEquals(actual.getAllPopularPath(DEPTH(3), TOP(3)),
+                        expected.getAllPopularPath(DEPTH(3), TOP(3)));
+            }
+            // the records faulted in are dropped by compaction, the file doesn't grow with the faults.
+            assertTrue(store.getFileBytes() <= fileBytes * 2, String.valueOf(store.getFileBytes()));
+            assertEquals(this.directory.listFiles().length, 1);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSnapshotNotSupported() throws IOException {
+        try (GraphSpillable graph = new GraphSpillable(0, this.directory)) {
+            GraphSnapshot.save(graph, new File(this.directory, "snapshot"));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package io.lzy.popular_path.model;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import io.lzy.popular_path.TestBase;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class GraphWindowedTest extends TestBase {
+
+    private final Map<String, Map.Entry<Node, Edge>> nodeParents = new HashMap<>();
+
+    private void touch(final Graph graph, final String user, final String name, final long timestamp) {
+        final Map.Entry<Node, Edge> parent = this.nodeParents.get(user);
+        final Map.Entry<Node, Edge> item = graph.touchNode(name,
+                parent == null ? null : parent.getKey(), parent == null ? null : parent.getValue(), user, timestamp);
+        if (item.getKey() != null) {
+            this.nodeParents.put(user, item);
+        }
+    }
+
+    @Test
+    public void testExpiredPathsAreReleased() {
+        this.nodeParents.clear();
+        final GraphWindowed graph = new GraphWindowed(10, TimeUnit.SECONDS, 10);
+        assertEquals(graph.getWindowMillis(), 10000);
+        assertEquals(graph.getBucketMillis(), 1000);
+
+        touch(graph, TEST_USER_1, TEST_NODE_ROOT, 0);
+        touch(graph, TEST_USER_1, TEST_NODE_CHILD_1, 0);
+        touch(graph, TEST_USER_1, TEST_NODE_CHILD_2, 5000);
+        touch(graph, TEST_USER_1, TEST_NODE_CHILD_3, 5000);
+        assertEquals(graph.getPopularPath(DEPTH(3), TOP(ALL), TEST_USER_1).size(), 2);
+
+        // bucket 0 is out of the window [1s, 11s).
+        graph.advanceTime(10500);
+        assertEquals(graph.getPopularPath(DEPTH(3), TOP(ALL), TEST_USER_1), Collections.emptyList());
+        List<Map.Entry<String, Integer>> ret = graph.getPopularPath(DEPTH(2), TOP(ALL), TEST_USER_1);
+        assertEquals(ret.size(), 1);
+        assertEquals(ret.get(0).getKey(), "N2/N3");
+        assertEquals(ret.get(0).getValue(), new Integer(2));
+
+        final Node root = graph.getNode(TEST_NODE_ROOT);
+        final Node n1 = graph.getNode(TEST_NODE_CHILD_1);
+        assertEquals(root.getRefCount(0), 0);
+        assertEquals(n1.getRefCount(0), 0);
+        assertTrue(root.getInEdges().isEmpty());
+        assertTrue(n1.getInEdges().isEmpty());
+        assertEquals(n1.getOutEdges().size(), 1);    // N1 => N2 is walked in the window
+
+        // the user walks on in the window [5s, 15s), the paths start from the nodes in the window.
+        touch(graph, TEST_USER_1, TEST_NODE_CHILD_4, 14000);
+        touch(graph, TEST_USER_1, TEST_NODE_CHILD_5, 14000);
+        ret = graph.getPopularPath(DEPTH(3), TOP(ALL), TEST_USER_1);
+        ret.sort(comparator);
+        assertEquals(ret.size(), 2);
+        assertEquals(ret.get(0).getKey(), "N2/N3/N4");
+        assertEquals(ret.get(1).getKey(), "N3/N4/N5");
+        assertEquals(ret.get(1).getValue(), new Integer(3));
+
+        // all accesses expired, the owner is reclaimed.
+        graph.advanceTime(60000);
+        assertFalse(graph.getAllPopularPath(DEPTH(2), TOP(ALL)).containsKey(TEST_USER_1));
+        assertNull(graph.getNodeMapByOwner().get(0));
+        graph.getNodeMap().values().forEach(node -> {
+            assertEquals(node.getRefCount(0), 0, node.getName());
+            assertTrue(node.getInEdges().isEmpty(), node.getName());
+            assertTrue(node.getOutEdges().isEmpty(), node.getName());
+        });
+    }
+
+    @Test
+    public void testRevisitInWindow() {
+        this.nodeParents.clear();
+        final GraphWindowed graph = new GraphWindowed(4, TimeUnit.SECONDS, 4);
+
+        // walk "/ N1 N2" at 0s and 3s, the pre-order edge links of the first walk expire at 4s.
+        long time = 0;
+        for (String name : new String[] {TEST_NODE_ROOT, TEST_NODE_CHILD_1, TEST_NODE_CHILD_2}) {
+            touch(graph, TEST_USER_1, name, time);
+        }
+        time = 3000;
+        for (String name : new String[] {TEST_NODE_ROOT, TEST_NODE_CHILD_1, TEST_NODE_CHILD_2}) {
+            touch(graph, TEST_USER_1, name, time);
+        }
+        List<Map.Entry<String, Integer>> ret = graph.getPopularPath(DEPTH(3), TOP(1), TEST_USER_1);
+        assertEquals(ret.get(0).getKey(), "/N1/N2");
+        assertEquals(ret.get(0).getValue(), new Integer(6));
+
+        graph.advanceTime(5000);
+        ret = graph.getPopularPath(DEPTH(3), TOP(ALL), TEST_USER_1);
+        assertEquals(ret.get(0).getKey(), "/N1/N2");
+        assertEquals(ret.get(0).getValue(), new Integer(3));
+        ret.forEach(path -> assertTrue(path.getValue() <= 3, path.toString()));
+
+        // a late record out of the window is not counted.
+        touch(graph, TEST_USER_1, TEST_NODE_CHILD_3, 0);
+        assertEquals(graph.getPopularPath(DEPTH(3), TOP(ALL), TEST_USER_1), ret);
+        assertEquals(graph.getNode(TEST_NODE_CHILD_3).getRefCount(0), 0);
+    }
+
+    @Test
+    public void testLargeWindowAlignToGraphRandom() {
+        final GraphRandom expected = new GraphRandom();
+        final GraphWindowed actual = new GraphWindowed(1, TimeUnit.DAYS);
+        final Map<String, Map.Entry<Node, Edge>> expectedParents = new HashMap<>();
+        final Map<String, Map.Entry<Node, Edge>> actualParents = new HashMap<>();
+
+        final List<String[]> records = generateRecords(30, 8, 2970);
+        for (int i = 0; i < records.size(); i++) {
+            final String user = records.get(i)[0];
+            final String name = records.get(i)[1];
+            this.nodeParents.clear();
+            this.nodeParents.putAll(expectedParents);
+            touch(expected, user, name, Graph.NO_TIMESTAMP);
+            expectedParents.putAll(this.nodeParents);
+            this.nodeParents.clear();
+            this.nodeParents.putAll(actualParents);
+            touch(actual, user, name, i * 1000L);
+            actualParents.putAll(this.nodeParents);
+        }
+
+        for (int depth = 2; depth <= 4; depth++) {
+            assertEquals(actual.getAllPopularPath(depth, TOP(3)), expected.getAllPopularPath(depth, TOP(3)));
+        }
+    }
+
+    @Test
+    public void testIncrementalReclaim() {
+        this.nodeParents.clear();
+        final GraphWindowed graph = new GraphWindowed(1, TimeUnit.MINUTES);
+        final int users = GraphWindowed.RECLAIM_BATCH * 2 + 10;
+        for (int i = 0; i < users; i++) {
+            touch(graph, String.format("U%d", i), TEST_NODE_ROOT, 0);
+            touch(graph, String.format("U%d", i), TEST_NODE_CHILD_1, 0);
+        }
+        assertEquals(graph.getNodeMapByOwner().size(), users);
+
+        // the idle owners are reclaimed a batch at a time.
+        assertEquals(graph.advanceTime(TimeUnit.MINUTES.toMillis(2)), GraphWindowed.RECLAIM_BATCH);
+        assertEquals(graph.getNodeMapByOwner().size(), users - GraphWindowed.RECLAIM_BATCH);
+        assertEquals(graph.reclaim(), users - GraphWindowed.RECLAIM_BATCH);
+        assertTrue(graph.getNodeMapByOwner().isEmpty());
+        assertEquals(graph.reclaim(), 0);
+        assertTrue(graph.getNode(TEST_NODE_CHILD_1).getInEdges().isEmpty());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidBuckets() {
+        new GraphWindowed(1000, TimeUnit.MILLISECONDS, 7);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSnapshotNotSupported() throws IOException {
+        final File file = File.createTempFile("graph", ".snapshot");
+        file.deleteOnExit();
+        GraphSnapshot.save(new GraphWindowed(1, TimeUnit.MINUTES), file);
+    }
+}
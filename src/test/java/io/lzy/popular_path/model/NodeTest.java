@@ -13,40 +13,43 @@ import static org.testng.Assert.*;
  */
 public class NodeTest extends TestBase {
 
+    private final static int TEST_USER_ID_1 = 0;
+    private final static int TEST_USER_ID_2 = 1;
+
     @Test
     public void testRootNode() {
-        Map.Entry<Node, Edge> rootItem = Node.createRootNode(TEST_USER_1);
+        Map.Entry<Node, Edge> rootItem = Node.createRootNode(TEST_USER_ID_1);
 
         assertEquals(rootItem.getKey().getName(), TEST_NODE_ROOT);
 
         assertEquals(rootItem.getKey().getInEdges().size(), 1);
-        assertEquals(rootItem.getKey().getInEdges().get(0).getOwner(), TEST_USER_1);
+        assertEquals(rootItem.getKey().getInEdges().get(0).getOwner(), TEST_USER_ID_1);
         assertNull(rootItem.getKey().getInEdges().get(0).getInNode());
         assertEquals(rootItem.getKey().getInEdges().get(0).getOutNode(), rootItem.getKey());
 
         assertEquals(rootItem.getKey().getOutEdges().size(), 0);
 
-        assertEquals(rootItem.getKey().getRefCount(TEST_USER_1), 1);
-        assertEquals(rootItem.getKey().addRef(TEST_USER_1), 2);
-        rootItem.getKey().addRef(TEST_USER_1);
-        assertEquals(rootItem.getKey().getRefCount(TEST_USER_1), 3);
+        assertEquals(rootItem.getKey().getRefCount(TEST_USER_ID_1), 1);
+        assertEquals(rootItem.getKey().addRef(TEST_USER_ID_1), 2);
+        rootItem.getKey().addRef(TEST_USER_ID_1);
+        assertEquals(rootItem.getKey().getRefCount(TEST_USER_ID_1), 3);
 
-        assertEquals(rootItem.getKey().getRefCount(TEST_USER_2), 0);
+        assertEquals(rootItem.getKey().getRefCount(TEST_USER_ID_2), 0);
     }
 
     @Test
     public void testChildNode() {
-        Map.Entry<Node, Edge> rootItem = Node.createRootNode(TEST_USER_1);
+        Map.Entry<Node, Edge> rootItem = Node.createRootNode(TEST_USER_ID_1);
         Map.Entry<Node, Edge> childItem1 =
-                Node.createNode(TEST_NODE_CHILD_1, rootItem.getKey(), rootItem.getValue(), TEST_USER_1);
+                Node.createNode(1, TEST_NODE_CHILD_1, rootItem.getKey(), rootItem.getValue(), TEST_USER_ID_1);
         Map.Entry<Node, Edge> childItem2 =
-                Node.createNode(TEST_NODE_CHILD_2, childItem1.getKey(), childItem1.getValue(), TEST_USER_1);
+                Node.createNode(2, TEST_NODE_CHILD_2, childItem1.getKey(), childItem1.getValue(), TEST_USER_ID_1);
         Map.Entry<Node, Edge> childItem3 =
-                Node.createNode(TEST_NODE_CHILD_3, childItem2.getKey(), childItem2.getValue(), TEST_USER_1);
+                Node.createNode(3, TEST_NODE_CHILD_3, childItem2.getKey(), childItem2.getValue(), TEST_USER_ID_1);
         Map.Entry<Node, Edge> childItem4 =
-                Node.createNode(TEST_NODE_CHILD_4, childItem3.getKey(), childItem3.getValue(), TEST_USER_1);
+                Node.createNode(4, TEST_NODE_CHILD_4, childItem3.getKey(), childItem3.getValue(), TEST_USER_ID_1);
         Map.Entry<Node, Edge> childItem5 =
-                Node.createNode(TEST_NODE_CHILD_5, childItem4.getKey(), childItem4.getValue(), TEST_USER_1);
+                Node.createNode(5, TEST_NODE_CHILD_5, childItem4.getKey(), childItem4.getValue(), TEST_USER_ID_1);
 
         assertEquals(rootItem.getKey().getName(), TEST_NODE_ROOT);
         assertEquals(childItem1.getKey().getName(), TEST_NODE_CHILD_1);
@@ -56,52 +59,105 @@ public class NodeTest extends TestBase {
         assertEquals(childItem5.getKey().getName(), TEST_NODE_CHILD_5);
 
         assertEquals(rootItem.getKey().getInEdges().size(), 1);
-        assertEquals(rootItem.getKey().getInEdges().get(0).getOwner(), TEST_USER_1);
+        assertEquals(rootItem.getKey().getInEdges().get(0).getOwner(), TEST_USER_ID_1);
         assertNull(rootItem.getKey().getInEdges().get(0).getInNode());
         assertEquals(rootItem.getKey().getInEdges().get(0).getOutNode(), rootItem.getKey());
 
         assertEquals(rootItem.getKey().getOutEdges().size(), 1);
-        assertEquals(rootItem.getKey().getOutEdges().get(0).getOwner(), TEST_USER_1);
+        assertEquals(rootItem.getKey().getOutEdges().get(0).getOwner(), TEST_USER_ID_1);
         assertEquals(rootItem.getKey().getOutEdges().get(0).getInNode(), rootItem.getKey());
         assertEquals(rootItem.getKey().getOutEdges().get(0).getOutNode(), childItem1.getKey());
 
         assertEquals(childItem1.getKey().getInEdges().size(), 1);
-        assertEquals(childItem1.getKey().getInEdges().get(0).getOwner(), TEST_USER_1);
+        assertEquals(childItem1.getKey().getInEdges().get(0).getOwner(), TEST_USER_ID_1);
         assertEquals(childItem1.getKey().getInEdges().get(0).getInNode(), rootItem.getKey());
         assertEquals(childItem1.getKey().getInEdges().get(0).getOutNode(), childItem1.getKey());
 
         assertEquals(childItem1.getKey().getOutEdges().size(), 1);
-        assertEquals(childItem1.getKey().getOutEdges().get(0).getOwner(), TEST_USER_1);
+        assertEquals(childItem1.getKey().getOutEdges().get(0).getOwner(), TEST_USER_ID_1);
         assertEquals(childItem1.getKey().getOutEdges().get(0).getInNode(), childItem1.getKey());
         assertEquals(childItem1.getKey().getOutEdges().get(0).getOutNode(), childItem2.getKey());
 
         assertEquals(childItem5.getKey().getInEdges().size(), 1);
-        assertEquals(childItem5.getKey().getInEdges().get(0).getOwner(), TEST_USER_1);
+        assertEquals(childItem5.getKey().getInEdges().get(0).getOwner(), TEST_USER_ID_1);
         assertEquals(childItem5.getKey().getInEdges().get(0).getInNode(), childItem4.getKey());
         assertEquals(childItem5.getKey().getInEdges().get(0).getOutNode(), childItem5.getKey());
         assertEquals(childItem5.getKey().getInEdges().get(0).getPreEdges().size(), 1);
-        assertEquals(childItem5.getKey().getInEdges().get(0).getPreEdges().get(0),
+        assertEquals(childItem5.getKey().getInEdges().get(0).getPreEdges().iterator().next(),
                 childItem4.getKey().getInEdges().get(0));
 
         assertEquals(childItem5.getKey().getOutEdges().size(), 0);
 
-        assertTrue(childItem4.getKey().isParent(childItem3.getKey(), TEST_USER_1));
-        assertFalse(childItem4.getKey().isParent(childItem2.getKey(), TEST_USER_1));
+        assertTrue(childItem4.getKey().isParent(childItem3.getKey(), TEST_USER_ID_1));
+        assertFalse(childItem4.getKey().isParent(childItem2.getKey(), TEST_USER_ID_1));
 
-        assertTrue(childItem4.getKey().hasPreEdge(childItem3.getKey(), TEST_USER_1,
+        assertTrue(childItem4.getKey().hasPreEdge(childItem3.getKey(), TEST_USER_ID_1,
                 childItem3.getKey().getInEdges().get(0)));
-        assertFalse(childItem4.getKey().hasPreEdge(childItem2.getKey(), TEST_USER_1,
+        assertFalse(childItem4.getKey().hasPreEdge(childItem2.getKey(), TEST_USER_ID_1,
                 childItem3.getKey().getInEdges().get(0)));
-        assertTrue(childItem5.getKey().hasPreEdge(childItem4.getKey(), TEST_USER_1,
+        assertTrue(childItem5.getKey().hasPreEdge(childItem4.getKey(), TEST_USER_ID_1,
                 childItem4.getValue()));
 
-        rootItem.getKey().linkParent(childItem5.getKey(), childItem5.getValue(), TEST_USER_1);
+        rootItem.getKey().linkParent(childItem5.getKey(), childItem5.getValue(), TEST_USER_ID_1);
         assertEquals(childItem5.getKey().getOutEdges().size(), 1);
         assertEquals(rootItem.getKey().getInEdges().size(), 2);
         assertEquals(rootItem.getKey().getOutEdges().size(), 1);
-        assertTrue(rootItem.getKey().isParent(childItem5.getKey(), TEST_USER_1));
-        assertFalse(childItem5.getKey().isParent(rootItem.getKey(), TEST_USER_2));
-        assertTrue(rootItem.getKey().hasPreEdge(childItem5.getKey(), TEST_USER_1, childItem5.getValue()));
+        assertTrue(rootItem.getKey().isParent(childItem5.getKey(), TEST_USER_ID_1));
+        assertFalse(childItem5.getKey().isParent(rootItem.getKey(), TEST_USER_ID_2));
+        assertTrue(rootItem.getKey().hasPreEdge(childItem5.getKey(), TEST_USER_ID_1, childItem5.getValue()));
+
+    }
 
+    @Test
+    public void testOwnerEdgeIndex() {
+        Map.Entry<Node, Edge> rootItem1 = Node.createRootNode(TEST_USER_ID_1);
+        Node root = rootItem1.getKey();
+        Edge rootEdge2 = root.linkParent(null, null, TEST_USER_ID_2);
+
+        Map.Entry<Node, Edge> childItem1 =
+                Node.createNode(1, TEST_NODE_CHILD_1, root, rootItem1.getValue(), TEST_USER_ID_1);
+        Node child1 = childItem1.getKey();
+        Edge childEdge2 = child1.linkParent(root, rootEdge2, TEST_USER_ID_2);
+
+        assertEquals(root.getInEdges().size(), 2);
+        assertEquals(root.getInEdges(TEST_USER_ID_1).size(), 1);
+        assertEquals(root.getInEdges(TEST_USER_ID_1).get(0), rootItem1.getValue());
+        assertEquals(root.getInEdges(TEST_USER_ID_2).size(), 1);
+        assertEquals(root.getInEdges(TEST_USER_ID_2).get(0), rootEdge2);
+        assertEquals(root.getInEdges(2).size(), 0);
+
+        assertEquals(root.getOutEdges().size(), 2);
+        assertEquals(root.getOutEdges(TEST_USER_ID_1).size(), 1);
+        assertEquals(root.getOutEdges(TEST_USER_ID_1).get(0), childItem1.getValue());
+        assertEquals(root.getOutEdges(TEST_USER_ID_2).size(), 1);
+        assertEquals(root.getOutEdges(TEST_USER_ID_2).get(0), childEdge2);
+        assertEquals(child1.getOutEdges(TEST_USER_ID_1).size(), 0);
+
+        assertTrue(child1.isParent(root, TEST_USER_ID_2));
+        assertTrue(child1.hasPreEdge(root, TEST_USER_ID_2, rootEdge2));
+        assertEquals(child1.getInEdge(root, TEST_USER_ID_2), childEdge2);
+        assertEquals(child1.getInEdge(root, TEST_USER_ID_1), childItem1.getValue());
+    }
+
+    @Test
+    public void testEdgeIdentityOnRevisitCycle() {
+        Map.Entry<Node, Edge> rootItem = Node.createRootNode(TEST_USER_ID_1);
+        Map.Entry<Node, Edge> childItem1 =
+                Node.createNode(1, TEST_NODE_CHILD_1, rootItem.getKey(), rootItem.getValue(), TEST_USER_ID_1);
+        Map.Entry<Node, Edge> childItem2 =
+                Node.createNode(2, TEST_NODE_CHILD_2, childItem1.getKey(), childItem1.getValue(), TEST_USER_ID_1);
+        Edge backEdge = childItem1.getKey().linkParent(childItem2.getKey(), childItem2.getValue(), TEST_USER_ID_1);
+        Edge forwardEdge = childItem2.getValue();
+        final int hashCode = forwardEdge.hashCode();
+
+        // 1 -> 2 -> 1 -> 2, the pre-edge sets of the two edges contain each other
+        assertEquals(childItem2.getKey().linkPreEdge(childItem1.getKey(), backEdge, TEST_USER_ID_1), forwardEdge);
+        assertTrue(forwardEdge.getPreEdges().contains(backEdge));
+        assertTrue(backEdge.getPreEdges().contains(forwardEdge));
+
+        assertEquals(forwardEdge.hashCode(), hashCode);
+        assertNotEquals(forwardEdge, backEdge);
+        assertNotEquals(forwardEdge, new Edge(TEST_USER_ID_1, childItem1.getKey(), childItem2.getKey(), backEdge));
+        assertNotNull(forwardEdge.toString());
     }
 }
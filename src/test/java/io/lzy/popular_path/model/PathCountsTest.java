@@ -0,0 +1,38 @@
+package io.lzy.popular_path.model;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import io.lzy.popular_path.TestBase;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class PathCountsTest extends TestBase {
+
+    @Test
+    public void testSumUpInLong() {
+        final Node root = new Node(0, TEST_NODE_ROOT);
+        final Node child1 = new Node(1, TEST_NODE_CHILD_1);
+        final Node child2 = new Node(2, TEST_NODE_CHILD_2);
+
+        PathCounts counts = new PathCounts();
+        counts.add(new Node[] {root, child1, child2}, 2, Integer.MAX_VALUE);
+        counts.add(new Node[] {child1, child2}, 2, Integer.MAX_VALUE - 1);
+        PathCounts other = new PathCounts();
+        other.add(new Node[] {new Node(0, TEST_NODE_ROOT), new Node(1, TEST_NODE_CHILD_1)}, 2, 2);  // node copies
+        other.add(new Node[] {child2, child1}, 2, 1);
+        assertEquals(counts.merge(other).size(), 3);
+
+        List<Map.Entry<String, Integer>> ret = counts.top(new GraphRandom(), TOP(2));  // [/N1=MAX, N1/N2=MAX - 1]
+        assertEquals(ret.size(), 2);
+        assertEquals(ret.get(0).getKey(), "/N1");
+        assertEquals(ret.get(0).getValue(), new Integer(Integer.MAX_VALUE));
+        assertEquals(ret.get(1).getKey(), "N1/N2");
+        assertEquals(ret.get(1).getValue(), new Integer(Integer.MAX_VALUE - 1));
+    }
+}
@@ -0,0 +1,110 @@
+package io.lzy.popular_path.model;
+
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+import io.lzy.popular_path.TestBase;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class PathWalkerTest extends TestBase {
+
+    @Test
+    public void testIterativeEngineAlignToRecursiveEngineOnGraphRandom() {
+        final GraphRandom graph = generateGraph(new GraphRandom(0), 20, 6, 800);    // no cached result
+        assertEquals(graph.getPathEngine(), Graph.PathEngine.ITERATIVE);
+
+        for (int depth = 2; depth <= 5; depth++) {
+            for (int topN : new int[] {TOP(1), TOP(3), TOP(ALL)}) {
+                graph.setPathEngine(Graph.PathEngine.RECURSIVE);
+                final Map<String, List<Map.Entry<String, Integer>>> expected = graph.getAllPopularPath(depth, topN);
+                graph.setPathEngine(Graph.PathEngine.ITERATIVE);
+                final Map<String, List<Map.Entry<String, Integer>>> actual = graph.getAllPopularPath(depth, topN);
+
+                assertEquals(actual, expected, String.format("depth %d, top %d", depth, topN));
+            }
+        }
+    }
+
+    @Test
+    public void testIterativeEngineAlignToRecursiveEngineOnGraphSequence() {
+        for (int depth = 2; depth <= 4; depth++) {
+            final GraphSequence expected = new GraphSequence(depth, TOP(5));
+            expected.setPathEngine(Graph.PathEngine.RECURSIVE);
+            generateGraph(expected, 20, 8, 800);
+            final GraphSequence actual = generateGraph(new GraphSequence(depth, TOP(5)), 20, 8, 800);
+
+            assertEquals(actual.getPopularPath(TOP(ALL)), expected.getPopularPath(TOP(ALL)));
+            assertEquals(actual.getPopularPath(TOP(2), "U3"), expected.getPopularPath(TOP(2), "U3"));
+        }
+    }
+
+    @Test
+    public void testSingleNodePath() {
+        final GraphRandom graph = generateGraph(new GraphRandom(), 1, 3, 1);
+        final Node root = graph.getNode(TEST_NODE_ROOT);
+        final Edge edge = root.getInEdges().get(0);
+
+        List<Map.Entry<String, Integer>> ret = graph.evaluatePath(root, edge, edge.getOwner(), DEPTH(1), TOP(5));
+        assertEquals(ret.size(), 1);
+        assertEquals(ret.get(0).getKey(), TEST_NODE_ROOT);
+        assertEquals(ret.get(0).getValue(), new Integer(1));
+
+        // short path is skipped.
+        ret = graph.evaluatePath(root, edge, edge.getOwner(), DEPTH(3), TOP(5));
+        assertEquals(ret.size(), 0);
+    }
+
+    @Test
+    public void testMultiDepthQueryOnGraphRandom() {
+        for (Graph.PathEngine engine : Graph.PathEngine.values()) {
+            final GraphRandom graph = generateGraph(new GraphRandom(), 20, 6, 800);
+            graph.setPathEngine(engine);
+            final GraphRandom expected = generateGraph(new GraphRandom(0), 20, 6, 800);
+
+            final SortedMap<Integer, List<Map.Entry<String, Integer>>> ret =
+                    graph.getPopularPathByDepth(DEPTH(2), DEPTH(5), TOP(3), "U7");
+            assertEquals(ret.keySet(), new TreeSet<>(Arrays.asList(2, 3, 4, 5)));
+            for (int depth = 2; depth <= 5; depth++) {
+                assertEquals(ret.get(depth), expected.getPopularPath(depth, TOP(3), "U7"), engine + " " + depth);
+            }
+            assertEquals(graph.getQueryCacheMisses(), 1);
+
+            // the results of all the depths are cached by one pass.
+            assertEquals(graph.getPopularPath(DEPTH(4), TOP(2), "U7"), ret.get(4).subList(0, 2));
+            assertEquals(graph.getPopularPathByDepth(DEPTH(3), DEPTH(5), TOP(3), "U7").get(5), ret.get(5));
+            assertEquals(graph.getQueryCacheHits(), 2);
+            assertEquals(graph.getQueryCacheMisses(), 1);
+
+            assertEquals(graph.getPopularPathByDepth(DEPTH(2), DEPTH(3), TOP(3), "U-none").get(3).size(), 0);
+        }
+    }
+
+    @Test
+    public void testMultiDepthBookingOnGraphSequence() {
+        final GraphSequence graph = generateGraph(new GraphSequence(DEPTH(2), DEPTH(4), TOP(5)), 20, 8, 800);
+
+        for (int depth = 2; depth <= 4; depth++) {
+            final GraphSequence expected = generateGraph(new GraphSequence(depth, TOP(5)), 20, 8, 800);
+
+            assertEquals(graph.getAllPopularPath(depth, TOP(ALL)), expected.getPopularPath(TOP(ALL)));
+            assertEquals(graph.getPopularPath(depth, TOP(3), "U3"), expected.getPopularPath(TOP(3), "U3"));
+            assertEquals(graph.getPopularPathByDepth(TOP(3), "U3").get(depth), expected.getPopularPath(TOP(3), "U3"));
+            assertEquals(graph.getSitePopularPath(depth, TOP(5)), expected.getSitePopularPath(TOP(5)));
+        }
+
+        // max depth is the default depth to query.
+        assertEquals(graph.getPopularPath(TOP(3), "U3"), graph.getPopularPath(DEPTH(4), TOP(3), "U3"));
+
+        try {
+            graph.getPopularPath(DEPTH(5), TOP(3), "U3");
+            fail("Depth out of the booked range should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package io.lzy.popular_path.model;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import io.lzy.popular_path.TestBase;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class PopularPathBookTest extends TestBase {
+
+    @Test
+    public void testBoundedBooking() {
+        PopularPathBook book = new PopularPathBook(TOP(3));
+
+        assertTrue(book.offer("P1", 3));
+        assertTrue(book.offer("P2", 5));
+        assertTrue(book.offer("P3", 4));
+        assertEquals(book.size(), 3);
+
+        // lower than the lowest retained path, not booked.
+        assertFalse(book.offer("P4", 2));
+        assertEquals(book.size(), 3);
+
+        // the lowest path is evicted.
+        assertTrue(book.offer("P5", 6));
+        assertEquals(book.size(), 3);
+
+        List<Map.Entry<String, Integer>> ret = book.top(TOP(5));
+        assertEquals(ret.size(), 3);
+        assertEquals(ret.get(0).getKey(), "P5");
+        assertEquals(ret.get(0).getValue(), new Integer(6));
+        assertEquals(ret.get(1).getKey(), "P2");
+        assertEquals(ret.get(2).getKey(), "P3");
+
+        ret = book.top(TOP(1));
+        assertEquals(ret.size(), 1);
+        assertEquals(ret.get(0).getKey(), "P5");
+    }
+
+    @Test
+    public void testRepeatedPath() {
+        PopularPathBook book = new PopularPathBook(TOP(2));
+
+        assertTrue(book.offer("P1", 3));
+        assertTrue(book.offer("P2", 4));
+
+        // the score increases, the path is kept once with the new score.
+        assertTrue(book.offer("P1", 7));
+        assertFalse(book.offer("P1", 5));
+        assertEquals(book.size(), 2);
+
+        List<Map.Entry<String, Integer>> ret = book.top(TOP(2));
+        assertEquals(ret.get(0).getKey(), "P1");
+        assertEquals(ret.get(0).getValue(), new Integer(7));
+        assertEquals(ret.get(1).getKey(), "P2");
+        assertEquals(ret.get(1).getValue(), new Integer(4));
+
+        // equal scores are ranked by path, an evicted path comes back when its score increases.
+        assertTrue(book.offer("P0", 4));
+        assertEquals(book.top(TOP(2)).get(1).getKey(), "P0");
+        assertTrue(book.offer("P2", 8));
+        ret = book.top(TOP(2));
+        assertEquals(ret.get(0).getKey(), "P2");
+        assertEquals(ret.get(1).getKey(), "P1");
+    }
+}
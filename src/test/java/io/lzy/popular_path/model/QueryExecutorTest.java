@@ -0,0 +1,82 @@
+package io.lzy.popular_path.model;
+
+import org.testng.annotations.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import io.lzy.popular_path.TestBase;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class QueryExecutorTest extends TestBase {
+
+    @Test
+    public void testExecute() {
+        final QueryExecutor executor = new QueryExecutor(4, 8);
+        try {
+            final Thread caller = Thread.currentThread();
+
+            // small batch runs in the caller thread.
+            final List<Integer> small = IntStream.range(0, 7).boxed().collect(Collectors.toList());
+            final Set<Thread> threads = executor.execute(small, stream ->
+                    stream.map(i -> Thread.currentThread()).collect(Collectors.toSet()));
+            assertEquals(threads, Collections.singleton(caller));
+
+            // large batch runs in the pool, nested batch runs in the pool thread directly.
+            final List<Integer> large = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+            final Set<String> names = executor.execute(large, stream -> stream.flatMap(i ->
+                    executor.execute(large.subList(0, 10), _stream -> _stream.map(j ->
+                            Thread.currentThread().getName()).collect(Collectors.toList())).stream())
+                    .collect(Collectors.toSet()));
+            assertFalse(names.isEmpty());
+            names.forEach(name -> assertTrue(name.startsWith("popular-path-query-"), name));
+
+            assertEquals(executor.execute(large, stream -> stream.mapToInt(Integer::intValue).sum()),
+                    new Integer(999 * 1000 / 2));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSequentialExecutor() {
+        final QueryExecutor executor = new QueryExecutor(1, 1);
+        assertEquals(executor.getParallelism(), 1);
+        assertEquals(executor.getSequentialThreshold(), 1);
+
+        final List<Integer> large = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+        assertEquals(executor.execute(large, stream ->
+                stream.map(i -> Thread.currentThread()).collect(Collectors.toSet())),
+                Collections.singleton(Thread.currentThread()));
+        executor.shutdown();
+    }
+
+    @Test
+    public void testGraphQueryExecutor() {
+        final GraphRandom expected = generateGraph(new GraphRandom(0), 50, 10, 1950);
+        final GraphRandom actual = generateGraph(new GraphRandom(0), 50, 10, 1950);
+        assertSame(actual.getQueryExecutor(), QueryExecutor.getDefault());
+
+        final QueryExecutor executor = new QueryExecutor(1, QueryExecutor.DEFAULT_SEQUENTIAL_THRESHOLD);
+        expected.setQueryExecutor(executor);
+        for (int depth = 2; depth <= 4; depth++) {
+            assertEquals(actual.getAllPopularPath(depth, TOP(3)), expected.getAllPopularPath(depth, TOP(3)));
+            assertEquals(actual.getSitePopularPath(depth, TOP(ALL)), expected.getSitePopularPath(depth, TOP(ALL)));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidParallelism() {
+        new QueryExecutor(0, QueryExecutor.DEFAULT_SEQUENTIAL_THRESHOLD);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testShutdownDefaultExecutor() {
+        QueryExecutor.getDefault().shutdown();
+    }
+}
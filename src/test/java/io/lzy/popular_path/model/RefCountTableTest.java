@@ -0,0 +1,90 @@
+package io.lzy.popular_path.model;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.lzy.popular_path.TestBase;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class RefCountTableTest extends TestBase {
+
+    @Test
+    public void testRefCount() {
+        RefCountTable table = new RefCountTable();
+
+        assertEquals(table.get(0), 0);
+        assertEquals(table.increment(0), 1);
+        assertEquals(table.increment(0), 2);
+        assertEquals(table.get(0), 2);
+        assertEquals(table.get(1), 0);
+
+        // grow the table a few times, all counts should be kept.
+        for (int owner = 1; owner < 1000; owner++) {
+            for (int i = 0; i < owner % 3 + 1; i++) {
+                table.increment(owner);
+            }
+        }
+        assertEquals(table.size(), 1000);
+        assertEquals(table.get(0), 2);
+        for (int owner = 1; owner < 1000; owner++) {
+            assertEquals(table.get(owner), owner % 3 + 1);
+        }
+        assertEquals(table.get(1000), 0);
+    }
+
+    @Test
+    public void testReleaseRefCount() {
+        RefCountTable table = new RefCountTable();
+        table.increment(0);
+        table.increment(0);
+        table.increment(1);
+
+        assertEquals(table.decrement(0, 2), 0);
+        assertEquals(table.get(0), 0);
+        assertEquals(table.toArray(), new int[] {1, 1});     // released owner is skipped
+        assertEquals(table.increment(0), 1);                 // refer again
+        assertEquals(table.size(), 2);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testReleaseMoreThanRefCount() {
+        RefCountTable table = new RefCountTable();
+        table.increment(0);
+        table.decrement(0, 2);
+    }
+
+    @Test
+    public void testConcurrentRefCount() throws InterruptedException {
+        final RefCountTable table = new RefCountTable();
+        final List<Thread> threads = new ArrayList<>();
+        final AtomicInteger errors = new AtomicInteger();
+
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int owner = 0; owner < 500; owner++) {
+                    int count = table.get(owner);
+                    if (table.increment(owner) <= count) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(errors.get(), 0);
+        for (int owner = 0; owner < 500; owner++) {
+            assertEquals(table.get(owner), 4);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package io.lzy.popular_path.model;
+
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.lzy.popular_path.TestBase;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class TopCandidatesTest extends TestBase {
+
+    private static Map<String, Long> toMap(final TopCandidates<String> candidates) {
+        final Map<String, Long> ret = new TreeMap<>();
+        candidates.forEach(ret::put);
+        return ret;
+    }
+
+    private static void offer(final TopCandidates<String> candidates, final String item, final long score) {
+        if (candidates.accepts(score)) {
+            candidates.add(item, score);
+        }
+    }
+
+    @Test
+    public void testTiesKept() {
+        TopCandidates<String> candidates = new TopCandidates<>();
+        candidates.reset(TOP(2));
+        offer(candidates, "P1", 3);
+        offer(candidates, "P2", 1);
+        offer(candidates, "P3", 1);
+        offer(candidates, "P4", 1);     // ties on the lowest score are kept
+        assertEquals(candidates.size(), 4);
+        assertFalse(candidates.accepts(0));
+
+        offer(candidates, "P5", 2);     // the ties of score 1 are dropped together
+        assertEquals(toMap(candidates).keySet().toString(), "[P1, P5]");
+
+        offer(candidates, "P6", 2);
+        offer(candidates, "P7", 5);     // P1 and P7 fill the container, the ties of score 2 are dropped
+        assertEquals(toMap(candidates).keySet().toString(), "[P1, P7]");
+
+        offer(candidates, "P8", 3);
+        assertEquals(toMap(candidates).keySet().toString(), "[P1, P7, P8]");
+        offer(candidates, "P9", 4);
+        assertEquals(toMap(candidates).keySet().toString(), "[P7, P9]");
+
+        candidates.reset(TOP(1));
+        assertEquals(candidates.size(), 0);
+        offer(candidates, "P1", 1);
+        offer(candidates, "P2", 1);
+        assertEquals(candidates.size(), 2);
+    }
+}
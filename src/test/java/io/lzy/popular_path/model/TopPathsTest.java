@@ -0,0 +1,61 @@
+package io.lzy.popular_path.model;
+
+import org.testng.annotations.Test;
+
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import io.lzy.popular_path.TestBase;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author zhiyan
+ */
+public class TopPathsTest extends TestBase {
+
+    private static Map.Entry<String, Integer> path(final String path, final int frequency) {
+        return new AbstractMap.SimpleEntry<>(path, frequency);
+    }
+
+    @Test
+    public void testTopPaths() {
+        TopPaths paths = new TopPaths(TOP(3));
+        paths.offer(path("P1", 3));
+        paths.offer(path("P2", 1));
+        paths.offer(path("P3", 5));
+        paths.offer(path("P4", 3));
+        paths.offer(path("P5", 2));
+        assertEquals(paths.size(), 3);
+
+        List<Map.Entry<String, Integer>> ret = paths.toList();   // [P3=5, P1=3, P4=3]
+        assertEquals(ret.get(0), path("P3", 5));
+        assertEquals(ret.get(1), path("P1", 3));
+        assertEquals(ret.get(2), path("P4", 3));
+
+        TopPaths other = new TopPaths(TOP(3));
+        other.offer(path("P0", 3));
+        other.offer(path("P6", 9));
+        ret = paths.merge(other).toList();  // [P6=9, P3=5, P0=3]
+        assertEquals(ret.size(), 3);
+        assertEquals(ret.get(0), path("P6", 9));
+        assertEquals(ret.get(1), path("P3", 5));
+        assertEquals(ret.get(2), path("P0", 3));
+    }
+
+    @Test
+    public void testCollectorInParallel() {
+        List<Map.Entry<String, Integer>> ret = IntStream.range(0, 10000).parallel().mapToObj(i -> {
+            TopPaths paths = new TopPaths(TOP(5));
+            paths.offer(path(String.format("P%05d", i), i % 100));
+            return paths;
+        }).collect(new Graph.Collector(TOP(5))).toList();
+
+        assertEquals(ret.size(), 5);
+        assertEquals(ret.get(0), path("P00099", 99));
+        assertEquals(ret.get(1), path("P00199", 99));
+        assertEquals(ret.get(4), path("P00499", 99));
+    }
+}